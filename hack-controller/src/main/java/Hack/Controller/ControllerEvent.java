@@ -176,6 +176,13 @@ public class ControllerEvent extends EventObject {
      */
     public static final byte LOAD_PROGRAM = 27;
 
+    /**
+     * Action code for requesting to output (and compare) a line of the current output list,
+     * as done by the output script command.
+     * supplied data = null
+     */
+    public static final byte OUTPUT = 28;
+
     // the action code
     private byte action;
 
@@ -412,16 +412,19 @@ public class HackController
                     // if value is equal and the breakpoint wasn't reached before, turn it on
                     if (!breakpoint.isReached()) {
                         breakpoint.on();
-                        gui.setBreakpoints(breakpoints);
                         displayMessage("Breakpoint reached", false);
-                        gui.showBreakpoints();
+                        if (gui != null) {
+                            gui.setBreakpoints(breakpoints);
+                            gui.showBreakpoints();
+                        }
                         stopMode();
                     }
                 }
                 // if the value is not equal and the breakpoint was reached before, turn it off
                 else if (breakpoint.isReached()) {
                     breakpoint.off();
-                    gui.setBreakpoints(breakpoints);
+                    if (gui != null)
+                        gui.setBreakpoints(breakpoints);
                 }
             }
         } catch (ControllerException ce) {
@@ -516,9 +519,12 @@ public class HackController
                         if (comparisonFailed)
                             displayMessage("End of script - Comparison failure at line "
                                                + comparisonFailureLine, true);
-                        else
+                        else {
                             displayMessage("End of script - Comparison ended successfully",
                                                false);
+                            simulator.comparisonSucceeded(currentScriptFile,
+                                                          new File(currentComparisonName));
+                        }
 
                         comparisonFile.close();
                     }
@@ -579,6 +585,8 @@ public class HackController
             throw new ControllerException("No output file specified");
 
         varList = (VariableFormat[])command.getArg();
+        notifyObservedVariables();
+
         StringBuffer line = new StringBuffer("|");
 
         for (int i = 0; i < varList.length; i++) {
@@ -654,15 +662,46 @@ public class HackController
 
         if (!breakpointExists(breakpoints, breakpoint)) {
             breakpoints.addElement(breakpoint);
+            notifyObservedVariables();
 
-            gui.setBreakpoints(breakpoints);
+            if (gui != null)
+                gui.setBreakpoints(breakpoints);
+        }
+    }
+
+    // Notifies the simulator of the variables which are observed by the script: the
+    // variables of the output list, of the script's while conditions and of the breakpoints.
+    // Called whenever one of them changes.
+    private void notifyObservedVariables() {
+        Vector names = new Vector();
+        if (varList != null)
+            for (int i = 0; i < varList.length; i++)
+                names.addElement(varList[i].varName);
+
+        for (int i = 0; i < script.getLength(); i++) {
+            Command command = script.getCommandAt(i);
+            if (command.getCode() == Command.WHILE_COMMAND) {
+                String[] arguments = ((ScriptCondition)command.getArg()).getArguments();
+                names.addElement(arguments[0]);
+                names.addElement(arguments[1]);
+            }
         }
+
+        for (int i = 0; i < breakpoints.size(); i++)
+            names.addElement(((Breakpoint)breakpoints.elementAt(i)).getVarName());
+
+        String[] result = new String[names.size()];
+        names.copyInto(result);
+        simulator.setObservedVariables(result);
     }
 
     // Executes the controller's clear-breakpoints command.
     private void doClearBreakpointsCommand(Command command) throws ControllerException {
         breakpoints.removeAllElements();
-        gui.setBreakpoints(breakpoints);
+        notifyObservedVariables();
+
+        if (gui != null)
+            gui.setBreakpoints(breakpoints);
     }
 
     // Compares an output line with a template line from a compare file.
@@ -730,6 +769,7 @@ public class HackController
         currentOutputName = "";
         comparisonFile = null;
         currentComparisonName = "";
+        notifyObservedVariables();
 
         if (gui != null) {
             gui.setOutputFile("");
@@ -830,6 +870,8 @@ public class HackController
             if (!breakpointExists(breakpoints, currentBreakpoint))
                 breakpoints.addElement(currentBreakpoint);
         }
+
+        notifyObservedVariables();
     }
 
     // Returns true if the given breakpoint exists in the given breakpoints vector.
@@ -1024,6 +1066,9 @@ public class HackController
                 case ControllerEvent.LOAD_PROGRAM:
                     simulator.loadProgram();
                     break;
+                case ControllerEvent.OUTPUT:
+                    doOutputCommand(null);
+                    break;
                 case ControllerEvent.HALT_PROGRAM:
                     displayMessage("End of program", false);
                     programHalted = true;
@@ -1067,6 +1112,9 @@ public class HackController
         } catch (ControllerException e) {
             displayMessage(e.getMessage(), true);
             stopMode();
+        } catch (VariableException e) {
+            displayMessage(e.getMessage(), true);
+            stopMode();
         }
     }
 
@@ -71,6 +71,22 @@ public abstract class HackSimulator implements ProgramEventListener, ComputerPar
     public abstract void doCommand(String[] command)
      throws CommandException, ProgramException, VariableException;
 
+    /**
+     * Notifies the simulator of the variables which are observed by the script: the
+     * variables of the output list, of the script's conditions and of the breakpoints
+     * (some of the names may be constants). Called when a script is loaded and when the
+     * output list or the breakpoints change. Does nothing by default.
+     */
+    public void setObservedVariables(String[] varNames) {
+    }
+
+    /**
+     * Called when the given script ended and all its output lines matched the given
+     * comparison file. Does nothing by default.
+     */
+    public void comparisonSucceeded(File scriptFile, File comparisonFile) {
+    }
+
     /**
      * Restarts the simulator.
      */
@@ -113,6 +113,13 @@ public class ScriptCondition {
         input.advance();
     }
 
+    /**
+     * Returns the two arguments of the condition (variable names or constants).
+     */
+    public String[] getArguments() {
+        return new String[]{arg0, arg1};
+    }
+
     /**
      * Returns the result of the condition for the given simulator.
      */
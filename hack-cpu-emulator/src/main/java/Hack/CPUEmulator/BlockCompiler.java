@@ -0,0 +1,720 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.CPUEmulator;
+
+import Hack.Utilities.Definitions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Compiles hot basic blocks of the ROM into JVM bytecode. Each block is a hidden class
+ * (a subclass of CompiledBlock) whose execute method runs the block's instructions
+ * directly on the RAM array, with A, D & the ALU values in local variables.
+ *
+ * A block starts at an address which was entered by a jump (or after another block)
+ * at least HOT_THRESHOLD times, and ends after its first jump instruction, before an
+ * illegal instruction or an instruction which is known to fail, after MAX_BLOCK_LENGTH
+ * instructions, or before the last address of the ROM. Writes to RAM addresses with
+ * effects other than setting the array (e.g. the screen when a GUI is displayed) are
+ * left to the interpreter.
+ *
+ * A block is discarded when one of its instructions is changed, and all the blocks are
+ * discarded when a new program is loaded.
+ */
+public class BlockCompiler implements ROMWriteListener {
+
+    /**
+     * The number of times an address should be entered before a block is compiled there.
+     */
+    public static final int HOT_THRESHOLD = 50;
+
+    /**
+     * The maximal number of instructions in a block.
+     */
+    public static final int MAX_BLOCK_LENGTH = 200;
+
+    // The name of the generated classes (in the package of CompiledBlock)
+    private static final String BLOCK_CLASS_NAME = "Hack/CPUEmulator/GeneratedBlock";
+    private static final String SUPER_CLASS_NAME = "Hack/CPUEmulator/CompiledBlock";
+    private static final String DECODER_CLASS_NAME = "Hack/CPUEmulator/InstructionDecoder";
+
+    // The local variables of the execute method
+    private static final int LOCAL_RAM = 1;
+    private static final int LOCAL_REGISTERS = 2;
+    private static final int LOCAL_A = 3;
+    private static final int LOCAL_D = 4;
+    private static final int LOCAL_X = 5;
+    private static final int LOCAL_Y = 6;
+    private static final int LOCAL_OUT = 7;
+    private static final int LOCAL_JUMP_X = 8;
+    private static final int LOCAL_JUMP_Y = 9;
+    private static final int LOCAL_JUMP_OUT = 10;
+    private static final int LOCAL_JUMP_ADDRESS = 11;
+    private static final int LOCALS_COUNT = 12;
+
+    // An entry of heat which marks an address where no block can be compiled
+    private static final int NOT_COMPILABLE = -1;
+
+    // The ROM
+    private ROM rom;
+
+    // The RAM
+    private RAM ram;
+
+    // The lowest RAM address whose writes have other effects than setting the array
+    private int mappedIOStart;
+
+    // The micro-ops which the blocks were compiled from
+    private int[] program;
+
+    // The compiled blocks, indexed by their start address
+    private CompiledBlock[] blocks;
+
+    // The number of times each address was entered, while it had no block
+    private int[] heat;
+
+    // The lookup which defines the generated classes
+    private MethodHandles.Lookup lookup;
+
+    /**
+     * Constructs a new BlockCompiler of blocks from the given ROM, which run on the given RAM.
+     * The compiler listens to changes of the ROM's instructions until it's disposed.
+     */
+    public BlockCompiler(ROM rom, RAM ram) {
+        this.rom = rom;
+        this.ram = ram;
+        lookup = MethodHandles.lookup();
+
+        mappedIOStart = ram.getSize();
+        if (ram.hasMappedIO())
+            for (int address = 0; address < ram.getSize(); address++)
+                if (ram.isMappedIO(address)) {
+                    mappedIOStart = address;
+                    break;
+                }
+
+        clear();
+        rom.addWriteListener(this);
+    }
+
+    /**
+     * Stops listening to the ROM.
+     */
+    public void dispose() {
+        rom.removeWriteListener(this);
+    }
+
+    /**
+     * Called when the execution enters the given address (by a jump or after another block)
+     * of the given micro-ops, which are the current contents of the ROM. Returns the block
+     * that starts at the given address, or null if there is no such block (yet).
+     */
+    public CompiledBlock getBlock(int[] program, int address) {
+        if (program != this.program) {
+            clear();
+            this.program = program;
+        }
+
+        CompiledBlock block = blocks[address];
+        if (block == null && heat[address] != NOT_COMPILABLE && ++heat[address] >= HOT_THRESHOLD) {
+            block = compile(address);
+            if (block != null)
+                blocks[address] = block;
+            else
+                heat[address] = NOT_COMPILABLE;
+        }
+
+        return block;
+    }
+
+    /**
+     * Discards the blocks which contain the given address.
+     */
+    public void romWritten(int address) {
+        for (int start = Math.max(0, address - MAX_BLOCK_LENGTH + 1); start <= address; start++) {
+            if (blocks[start] != null && start + blocks[start].length > address)
+                blocks[start] = null;
+            heat[start] = 0;
+        }
+    }
+
+    // Discards all the blocks.
+    private void clear() {
+        program = rom.getDecodedProgram();
+        blocks = new CompiledBlock[Definitions.ROM_SIZE];
+        heat = new int[Definitions.ROM_SIZE];
+    }
+
+    // Compiles the block which starts at the given address. Returns null if the block
+    // would be too short or can't be compiled.
+    private CompiledBlock compile(int start) {
+        int length = getBlockLength(start);
+        if (length < 2)
+            return null;
+
+        try {
+            byte[] bytes = generateClass(start, length);
+            Class blockClass = lookup.defineHiddenClass(bytes, false).lookupClass();
+            CompiledBlock block = (CompiledBlock)blockClass.getDeclaredConstructor().newInstance();
+            block.start = start;
+            block.length = length;
+            for (int i = start; i < start + length; i++)
+                if (InstructionDecoder.getKind(program[i]) == InstructionDecoder.C_INSTRUCTION &&
+                    (InstructionDecoder.getDestination(program[i]) & InstructionDecoder.DEST_M) != 0)
+                    block.writesMemory = true;
+            return block;
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError le) {
+            return null;
+        }
+    }
+
+    // Returns the number of instructions in the block which starts at the given address.
+    private int getBlockLength(int start) {
+        boolean addressKnown = false;
+        int address = 0;
+        int length = 0;
+
+        while (length < MAX_BLOCK_LENGTH && start + length < Definitions.ROM_SIZE - 1) {
+            int microOp = program[start + length];
+            int kind = InstructionDecoder.getKind(microOp);
+
+            if (kind == InstructionDecoder.A_INSTRUCTION) {
+                address = InstructionDecoder.getConstant(microOp);
+                addressKnown = true;
+            }
+            else if (kind == InstructionDecoder.C_INSTRUCTION) {
+                int destination = InstructionDecoder.getDestination(microOp);
+                int jump = InstructionDecoder.getJump(microOp);
+
+                // stop before an instruction which always fails or writes to mapped io
+                if (addressKnown) {
+                    if (InstructionDecoder.isIndirect(microOp) && address >= ram.getSize())
+                        break;
+                    if ((destination & InstructionDecoder.DEST_M) != 0 &&
+                        (address >= ram.getSize() || ram.isMappedIO(address)))
+                        break;
+                }
+
+                if ((destination & InstructionDecoder.DEST_A) != 0)
+                    addressKnown = false;
+
+                if (jump != 0) {
+                    length++;
+                    break;
+                }
+            }
+            else if (kind != InstructionDecoder.NOP)
+                break;
+
+            length++;
+        }
+
+        return length;
+    }
+
+    // Returns the class file of the block with the given start address and length.
+    private byte[] generateClass(int start, int length) throws IOException {
+        ClassWriter writer = new ClassWriter();
+        Code code = new Code(writer);
+
+        // the exits which leave the block before an instruction, indexed by the instruction
+        Vector bailouts = new Vector();
+
+        code.load(LOCAL_REGISTERS);
+        code.constant(CompiledBlock.REGISTER_A);
+        code.op(Code.IALOAD);
+        code.store(LOCAL_A);
+        code.load(LOCAL_REGISTERS);
+        code.constant(CompiledBlock.REGISTER_D);
+        code.op(Code.IALOAD);
+        code.store(LOCAL_D);
+
+        boolean addressKnown = false;
+        int address = 0;
+        int lastALUOp = 0; // the micro-op of the last c-instruction so far
+
+        for (int i = 0; i < length; i++) {
+            int microOp = program[start + i];
+            int kind = InstructionDecoder.getKind(microOp);
+
+            if (kind == InstructionDecoder.A_INSTRUCTION) {
+                address = InstructionDecoder.getConstant(microOp);
+                addressKnown = true;
+                code.constant(address);
+                code.store(LOCAL_A);
+                continue;
+            }
+            else if (kind != InstructionDecoder.C_INSTRUCTION)
+                continue;
+
+            int destination = InstructionDecoder.getDestination(microOp);
+            int jump = InstructionDecoder.getJump(microOp);
+            boolean indirect = InstructionDecoder.isIndirect(microOp);
+            boolean destM = (destination & InstructionDecoder.DEST_M) != 0;
+            boolean last = (jump != 0);
+            int localX = (last ? LOCAL_JUMP_X : LOCAL_X);
+            int localY = (last ? LOCAL_JUMP_Y : LOCAL_Y);
+            int localOut = (last ? LOCAL_JUMP_OUT : LOCAL_OUT);
+
+            // leave the block if M isn't a plain RAM address
+            if ((indirect || destM) && !addressKnown) {
+                int limit = (destM ? Math.min(ram.getSize(), mappedIOStart) : ram.getSize());
+                Label bailout = new Label(i, lastALUOp);
+                bailouts.addElement(bailout);
+                code.load(LOCAL_A);
+                code.jump(Code.IFLT, bailout);
+                code.load(LOCAL_A);
+                code.constant(limit);
+                code.jump(Code.IF_ICMPGE, bailout);
+            }
+
+            // compute
+            code.load(LOCAL_D);
+            code.store(localX);
+            if (indirect) {
+                code.load(LOCAL_RAM);
+                code.load(LOCAL_A);
+                code.op(Code.SALOAD);
+            }
+            else
+                code.load(LOCAL_A);
+            code.store(localY);
+            generateALU(code, InstructionDecoder.getFunction(microOp), localX, localY);
+            code.store(localOut);
+
+            if (!last) {
+                generateDestination(code, destination, localOut);
+                if ((destination & InstructionDecoder.DEST_A) != 0)
+                    addressKnown = false;
+                lastALUOp = microOp;
+                continue;
+            }
+
+            // the jump address is the value of A after the destination is set
+            boolean jumpAddressKnown = addressKnown &&
+                                       (destination & InstructionDecoder.DEST_A) == 0;
+            code.load((destination & InstructionDecoder.DEST_A) != 0 ? localOut : LOCAL_A);
+            code.store(LOCAL_JUMP_ADDRESS);
+
+            Label taken = new Label(0, 0);
+            if (jump != 7) {
+                code.load(localOut);
+                code.jump(getJumpOpcode(jump), taken);
+
+                generateDestination(code, destination, localOut);
+                generateExit(code, i + 1, start + i + 1, microOp, localX, localY, localOut);
+            }
+
+            code.mark(taken);
+            if (!jumpAddressKnown) {
+                Label bailout = new Label(i, lastALUOp);
+                bailouts.addElement(bailout);
+                code.load(LOCAL_JUMP_ADDRESS);
+                code.jump(Code.IFLT, bailout);
+            }
+            generateDestination(code, destination, localOut);
+            generateExit(code, i + 1, -1, microOp, localX, localY, localOut);
+            break;
+        }
+
+        // a block without a jump continues to the next address
+        if (InstructionDecoder.getJump(program[start + length - 1]) == 0 ||
+            InstructionDecoder.getKind(program[start + length - 1]) != InstructionDecoder.C_INSTRUCTION)
+            generateExit(code, length, start + length, lastALUOp, LOCAL_X, LOCAL_Y, LOCAL_OUT);
+
+        for (int i = 0; i < bailouts.size(); i++) {
+            Label bailout = (Label)bailouts.elementAt(i);
+            code.mark(bailout);
+            generateExit(code, bailout.instruction, start + bailout.instruction, bailout.aluOp,
+                         LOCAL_X, LOCAL_Y, LOCAL_OUT);
+        }
+
+        return writer.toByteArray(code);
+    }
+
+    // Generates the code which computes the given ALU function on the given local
+    // variables, and leaves the result on the stack.
+    private static void generateALU(Code code, int function, int localX, int localY) {
+        switch (function) {
+            case 0x2a: code.constant(0); return;
+            case 0x3f: code.constant(1); return;
+            case 0x3a: code.constant(-1); return;
+            case 0x0c: code.load(localX); return;
+            case 0x30: code.load(localY); return;
+            case 0x0d: code.load(localX); code.constant(-1); code.op(Code.IXOR); return;
+            case 0x31: code.load(localY); code.constant(-1); code.op(Code.IXOR); return;
+            case 0x0f: code.load(localX); code.op(Code.INEG); break;
+            case 0x33: code.load(localY); code.op(Code.INEG); break;
+            case 0x1f: code.load(localX); code.constant(1); code.op(Code.IADD); break;
+            case 0x37: code.load(localY); code.constant(1); code.op(Code.IADD); break;
+            case 0x0e: code.load(localX); code.constant(1); code.op(Code.ISUB); break;
+            case 0x32: code.load(localY); code.constant(1); code.op(Code.ISUB); break;
+            case 0x02: code.load(localX); code.load(localY); code.op(Code.IADD); break;
+            case 0x13: code.load(localX); code.load(localY); code.op(Code.ISUB); break;
+            case 0x07: code.load(localY); code.load(localX); code.op(Code.ISUB); break;
+            case 0x00: code.load(localX); code.load(localY); code.op(Code.IAND); return;
+            case 0x15: code.load(localX); code.load(localY); code.op(Code.IOR); return;
+            default:
+                code.constant(function);
+                code.load(localX);
+                code.load(localY);
+                code.invokeStatic(DECODER_CLASS_NAME, "computeALU", "(III)S");
+                return;
+        }
+
+        // arithmetic may overflow 16 bits
+        code.op(Code.I2S);
+    }
+
+    // Generates the code which stores the given local variable in the given destinations.
+    private static void generateDestination(Code code, int destination, int localOut) {
+        if ((destination & InstructionDecoder.DEST_M) != 0) {
+            code.load(LOCAL_RAM);
+            code.load(LOCAL_A);
+            code.load(localOut);
+            code.op(Code.SASTORE);
+        }
+        if ((destination & InstructionDecoder.DEST_A) != 0) {
+            code.load(localOut);
+            code.store(LOCAL_A);
+        }
+        if ((destination & InstructionDecoder.DEST_D) != 0) {
+            code.load(localOut);
+            code.store(LOCAL_D);
+        }
+    }
+
+    // Generates the code which stores the registers and returns the given number of executed
+    // instructions and the given next address (or LOCAL_JUMP_ADDRESS if it's -1).
+    // aluOp is the micro-op of the last executed c-instruction (0 if there was none), whose
+    // inputs & output are in the given local variables.
+    private static void generateExit(Code code, int executed, int nextAddress, int aluOp,
+                                     int localX, int localY, int localOut) {
+        storeRegister(code, CompiledBlock.REGISTER_A, LOCAL_A);
+        storeRegister(code, CompiledBlock.REGISTER_D, LOCAL_D);
+        if (aluOp != 0) {
+            storeRegister(code, CompiledBlock.ALU_INPUT0, localX);
+            storeRegister(code, CompiledBlock.ALU_INPUT1, localY);
+            storeRegister(code, CompiledBlock.ALU_OUTPUT, localOut);
+            code.load(LOCAL_REGISTERS);
+            code.constant(CompiledBlock.ALU_OP);
+            code.constant(aluOp);
+            code.op(Code.IASTORE);
+        }
+
+        if (nextAddress != -1)
+            code.constant((executed << 16) | nextAddress);
+        else {
+            code.constant(executed << 16);
+            code.load(LOCAL_JUMP_ADDRESS);
+            code.op(Code.IOR);
+        }
+        code.op(Code.IRETURN);
+    }
+
+    // Generates the code which stores the given local variable in the given register.
+    private static void storeRegister(Code code, int register, int local) {
+        code.load(LOCAL_REGISTERS);
+        code.constant(register);
+        code.load(local);
+        code.op(Code.IASTORE);
+    }
+
+    // Returns the opcode which branches on the ALU output according to the given jump mask.
+    private static int getJumpOpcode(int jump) {
+        switch (jump) {
+            case InstructionDecoder.JUMP_POSITIVE: return Code.IFGT;
+            case InstructionDecoder.JUMP_ZERO: return Code.IFEQ;
+            case InstructionDecoder.JUMP_ZERO | InstructionDecoder.JUMP_POSITIVE: return Code.IFGE;
+            case InstructionDecoder.JUMP_NEGATIVE: return Code.IFLT;
+            case InstructionDecoder.JUMP_NEGATIVE | InstructionDecoder.JUMP_POSITIVE: return Code.IFNE;
+            default: return Code.IFLE;
+        }
+    }
+
+    // A position in the code, which is the target of branches. The exits which leave a block
+    // before an instruction also keep the instruction's index and the micro-op of the last
+    // c-instruction before it.
+    private static class Label {
+        int position = -1;
+        Vector references = new Vector();
+        int instruction;
+        int aluOp;
+
+        Label(int instruction, int aluOp) {
+            this.instruction = instruction;
+            this.aluOp = aluOp;
+        }
+    }
+
+    // The bytecode of the execute method.
+    private static class Code {
+        static final int ICONST_0 = 0x03;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC_W = 0x13;
+        static final int ILOAD = 0x15;
+        static final int ALOAD = 0x19;
+        static final int IALOAD = 0x2e;
+        static final int SALOAD = 0x35;
+        static final int ISTORE = 0x36;
+        static final int IASTORE = 0x4f;
+        static final int SASTORE = 0x56;
+        static final int IADD = 0x60;
+        static final int ISUB = 0x64;
+        static final int INEG = 0x74;
+        static final int IAND = 0x7e;
+        static final int IOR = 0x80;
+        static final int IXOR = 0x82;
+        static final int I2S = 0x93;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9a;
+        static final int IFLT = 0x9b;
+        static final int IFGE = 0x9c;
+        static final int IFGT = 0x9d;
+        static final int IFLE = 0x9e;
+        static final int IF_ICMPGE = 0xa2;
+        static final int IRETURN = 0xac;
+        static final int INVOKESTATIC = 0xb8;
+
+        ClassWriter writer;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Vector labels = new Vector();
+
+        Code(ClassWriter writer) {
+            this.writer = writer;
+        }
+
+        void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        void u2(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        void constant(int value) {
+            if (value >= -1 && value <= 5)
+                op(ICONST_0 + value);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                op(value & 0xff);
+            }
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value & 0xffff);
+            }
+            else {
+                op(LDC_W);
+                u2(writer.integer(value));
+            }
+        }
+
+        void load(int local) {
+            op(local == LOCAL_RAM || local == LOCAL_REGISTERS ? ALOAD : ILOAD);
+            op(local);
+        }
+
+        void store(int local) {
+            op(ISTORE);
+            op(local);
+        }
+
+        void invokeStatic(String className, String name, String descriptor) {
+            op(INVOKESTATIC);
+            u2(writer.methodRef(className, name, descriptor));
+        }
+
+        void jump(int opcode, Label label) {
+            label.references.addElement(Integer.valueOf(bytes.size()));
+            if (!labels.contains(label))
+                labels.addElement(label);
+            op(opcode);
+            u2(0);
+        }
+
+        void mark(Label label) {
+            label.position = bytes.size();
+        }
+
+        // Returns the code with the branch offsets.
+        byte[] toByteArray() {
+            byte[] result = bytes.toByteArray();
+            for (int i = 0; i < labels.size(); i++) {
+                Label label = (Label)labels.elementAt(i);
+                for (int j = 0; j < label.references.size(); j++) {
+                    int position = ((Integer)label.references.elementAt(j)).intValue();
+                    int offset = label.position - position;
+                    result[position + 1] = (byte)(offset >> 8);
+                    result[position + 2] = (byte)offset;
+                }
+            }
+
+            return result;
+        }
+    }
+
+    // Writes a class file of a CompiledBlock subclass.
+    private static class ClassWriter {
+        static final int CONSTANT_UTF8 = 1;
+        static final int CONSTANT_INTEGER = 3;
+        static final int CONSTANT_CLASS = 7;
+        static final int CONSTANT_METHODREF = 10;
+        static final int CONSTANT_NAME_AND_TYPE = 12;
+
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        DataOutputStream poolOut = new DataOutputStream(pool);
+        int poolCount = 1;
+
+        // the indices of the constants which were added, by their keys
+        Hashtable constants = new Hashtable();
+
+        int utf8(String value) {
+            String key = "U" + value;
+            Integer index = (Integer)constants.get(key);
+            if (index == null) {
+                try {
+                    poolOut.writeByte(CONSTANT_UTF8);
+                    poolOut.writeUTF(value);
+                } catch (IOException ioe) {}
+                index = add(key);
+            }
+            return index.intValue();
+        }
+
+        int integer(int value) {
+            String key = "I" + value;
+            Integer index = (Integer)constants.get(key);
+            if (index == null) {
+                try {
+                    poolOut.writeByte(CONSTANT_INTEGER);
+                    poolOut.writeInt(value);
+                } catch (IOException ioe) {}
+                index = add(key);
+            }
+            return index.intValue();
+        }
+
+        int classRef(String name) {
+            String key = "C" + name;
+            Integer index = (Integer)constants.get(key);
+            if (index == null) {
+                int nameIndex = utf8(name);
+                try {
+                    poolOut.writeByte(CONSTANT_CLASS);
+                    poolOut.writeShort(nameIndex);
+                } catch (IOException ioe) {}
+                index = add(key);
+            }
+            return index.intValue();
+        }
+
+        int methodRef(String className, String name, String descriptor) {
+            String key = "M" + className + "." + name + descriptor;
+            Integer index = (Integer)constants.get(key);
+            if (index == null) {
+                int classIndex = classRef(className);
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                try {
+                    poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+                    poolOut.writeShort(nameIndex);
+                    poolOut.writeShort(descriptorIndex);
+                    int nameAndTypeIndex = poolCount++;
+                    poolOut.writeByte(CONSTANT_METHODREF);
+                    poolOut.writeShort(classIndex);
+                    poolOut.writeShort(nameAndTypeIndex);
+                } catch (IOException ioe) {}
+                index = add(key);
+            }
+            return index.intValue();
+        }
+
+        // Registers the last written constant with the given key, and returns its index.
+        Integer add(String key) {
+            Integer index = Integer.valueOf(poolCount++);
+            constants.put(key, index);
+            return index;
+        }
+
+        // Returns the class file with a constructor and the given execute method.
+        byte[] toByteArray(Code execute) throws IOException {
+            int thisClass = classRef(BLOCK_CLASS_NAME);
+            int superClass = classRef(SUPER_CLASS_NAME);
+            int superConstructor = methodRef(SUPER_CLASS_NAME, "<init>", "()V");
+            int constructorName = utf8("<init>");
+            int constructorDescriptor = utf8("()V");
+            int executeName = utf8("execute");
+            int executeDescriptor = utf8("([S[I)I");
+            int codeName = utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(49); // no stack map frames are required
+            out.writeShort(poolCount);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(0x0030); // final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            // public <init>() { super(); }
+            byte[] constructor = new byte[]{0x2a, (byte)0xb7,
+                                            (byte)(superConstructor >> 8), (byte)superConstructor,
+                                            (byte)0xb1};
+            writeMethod(out, constructorName, constructorDescriptor, codeName, 1, 1, constructor);
+
+            writeMethod(out, executeName, executeDescriptor, codeName, 4, LOCALS_COUNT,
+                        execute.toByteArray());
+
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        // Writes a public method with the given code.
+        void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                         int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+    }
+}
@@ -17,7 +17,6 @@
 
 package Hack.CPUEmulator;
 
-import Hack.Assembler.AssemblerException;
 import Hack.Assembler.HackAssemblerTranslator;
 import Hack.ComputerParts.Bus;
 import Hack.ComputerParts.Register;
@@ -56,6 +55,39 @@ public class CPU
     // An assembler transltor
     protected HackAssemblerTranslator assemblerTranslator;
 
+    // If true, instructions are executed by the fast core, which works directly on the
+    // memory arrays and doesn't update the registers & ALU until they are accessed.
+    private boolean fastMode;
+
+    // If true, the values of A, D, PC and the ALU are held in the fast core's fields
+    // below, and the registers & ALU parts are not updated yet.
+    private boolean partsStale;
+
+    // The values of A, D and PC in the fast core.
+    private short fastA, fastD, fastPC;
+
+    // The micro-op of the last c-instruction which was executed by the fast core (0 if no
+    // c-instruction was executed since the ALU part was updated).
+    private int fastALUOp;
+
+    // The ALU inputs & output of the last c-instruction which was executed by the fast core.
+    private short fastALUInput0, fastALUInput1, fastALUOutput;
+
+    // The compiler of hot blocks for the fast core (null if blocks aren't compiled)
+    private BlockCompiler blockCompiler;
+
+    // The registers which are passed to compiled blocks
+    private int[] blockRegisters = new int[CompiledBlock.REGISTERS_COUNT];
+
+    // The address of the last backward jump of the fast core (-1 if none), and the state
+    // and number of executed instructions after it (see getIdleSkip)
+    private int loopAddress;
+    private int loopA, loopD, loopALUInput0, loopALUInput1, loopALUOutput, loopALUOp;
+    private long loopExecuted;
+
+    // True if the memory was written since the last backward jump
+    private boolean loopWritten;
+
     /**
      * Constructs a new cpu with the given ROM, RAM, A, D, PC & ALU.
      */
@@ -85,6 +117,7 @@ public class CPU
      * Returns the A register.
      */
     public Register getA() {
+        syncParts();
         return A;
     }
 
@@ -92,6 +125,7 @@ public class CPU
      * Returns the D register.
      */
     public Register getD() {
+        syncParts();
         return D;
     }
 
@@ -99,6 +133,7 @@ public class CPU
      * Returns the PC register.
      */
     public Register getPC() {
+        syncParts();
         return PC;
     }
 
@@ -120,6 +155,7 @@ public class CPU
      * Returns the ALU.
      */
     public ALU getALU() {
+        syncParts();
         return alu;
     }
 
@@ -134,6 +170,9 @@ public class CPU
      * Restarts the program from the beginning.
      */
     public void initProgram() {
+        partsStale = false;
+        fastALUOp = 0;
+
         A.reset();
         A.setUpdatePointer(true);
         A.setUpdatePointer(false);
@@ -156,6 +195,13 @@ public class CPU
 	 * address or jump when A is an illegal address).
      */
     public void executeInstruction() throws ProgramException {
+        if (fastMode) {
+            executeInstructions(1);
+            return;
+        }
+
+        syncParts();
+
         short instruction = rom.getValueAt(PC.get());
         boolean pcChanged = false;
 
@@ -181,6 +227,278 @@ public class CPU
         time++;
     }
 
+    /**
+     * If true, instructions are executed by a fast core which works directly on the
+     * RAM & ROM arrays, without the bus and without displaying changes. The A, D & PC
+     * registers and the ALU are updated only when they are accessed through this CPU
+     * (getA(), getALU() etc.), e.g. when the execution pauses or the GUI is refreshed.
+     * Should be set only while the changes aren't displayed.
+     */
+    public void setFastMode(boolean fastMode) {
+        syncParts();
+        this.fastMode = fastMode;
+    }
+
+    /**
+     * Returns true if instructions are executed by the fast core.
+     */
+    public boolean isFastMode() {
+        return fastMode;
+    }
+
+    /**
+     * If true, the fast core compiles the basic blocks of the program which are executed
+     * frequently into JVM bytecode (see BlockCompiler), and executes them instead of
+     * interpreting their instructions.
+     */
+    public void setCompileBlocks(boolean compileBlocks) {
+        if (blockCompiler != null) {
+            blockCompiler.dispose();
+            blockCompiler = null;
+        }
+
+        if (compileBlocks)
+            blockCompiler = new BlockCompiler(rom, M);
+    }
+
+    /**
+     * Returns true if the fast core compiles blocks.
+     */
+    public boolean isCompileBlocks() {
+        return blockCompiler != null;
+    }
+
+    /**
+     * Executes the given number of instructions with the fast core (see setFastMode).
+     * Throws ProgramException if an instruction is illegal or causes an illegal effect,
+     * after executing all the instructions before it, exactly like executeInstruction.
+     * Idle loops, which repeat the same iteration without writing to the memory, are
+     * skipped by advancing the time over their remaining iterations.
+     */
+    public void executeInstructions(long count) throws ProgramException {
+        long executed = 0;
+
+        while (executed < count) {
+            executed += executeFastInstructions(count - executed);
+
+            // the next instruction is left by the fast core to the parts: it is illegal,
+            // has an illegal effect, has an expression which the fast core doesn't know,
+            // or is at the last line. It is executed through the parts, which throw the
+            // appropriate exception, and if it is legal the fast core goes on after it.
+            if (executed < count) {
+                boolean oldFastMode = fastMode;
+                fastMode = false;
+                try {
+                    executeInstruction();
+                } finally {
+                    fastMode = oldFastMode;
+                }
+
+                executed++;
+            }
+        }
+    }
+
+    // Executes up to the given number of instructions with the fast core, and returns the
+    // number of executed instructions. Stops before an instruction which should be
+    // executed through the parts (see executeInstructions).
+    private long executeFastInstructions(long count) {
+        if (!partsStale) {
+            fastA = A.get();
+            fastD = D.get();
+            fastPC = PC.get();
+            partsStale = true;
+        }
+
+        short[] ram = M.getContents();
+        int[] program = rom.getDecodedProgram();
+        int ramSize = M.getSize();
+        boolean mappedRAM = M.hasMappedIO();
+
+        int a = fastA;
+        int d = fastD;
+        int pc = fastPC;
+        int aluOp = fastALUOp;
+        int x = fastALUInput0, y = fastALUInput1, out = fastALUOutput;
+        long executed = 0;
+
+        // true when the execution entered pc by a jump or after a compiled block
+        boolean blockEntry = true;
+        loopAddress = -1;
+
+        try {
+            while (executed < count) {
+                // the last line is left to executeInstruction, which checks that the
+                // program doesn't continue past it
+                if (pc == Definitions.ROM_SIZE - 1)
+                    break;
+
+                if (blockEntry && blockCompiler != null) {
+                    blockEntry = false;
+                    CompiledBlock block = blockCompiler.getBlock(program, pc);
+
+                    // a block is executed only if all its instructions should be executed
+                    if (block != null && block.length <= count - executed) {
+                        int[] registers = blockRegisters;
+                        registers[CompiledBlock.REGISTER_A] = a;
+                        registers[CompiledBlock.REGISTER_D] = d;
+                        registers[CompiledBlock.ALU_INPUT0] = x;
+                        registers[CompiledBlock.ALU_INPUT1] = y;
+                        registers[CompiledBlock.ALU_OUTPUT] = out;
+                        registers[CompiledBlock.ALU_OP] = aluOp;
+
+                        int result = block.execute(ram, registers);
+
+                        a = registers[CompiledBlock.REGISTER_A];
+                        d = registers[CompiledBlock.REGISTER_D];
+                        x = registers[CompiledBlock.ALU_INPUT0];
+                        y = registers[CompiledBlock.ALU_INPUT1];
+                        out = registers[CompiledBlock.ALU_OUTPUT];
+                        aluOp = registers[CompiledBlock.ALU_OP];
+                        pc = result & 0xffff;
+                        executed += (result >>> 16);
+
+                        // if the block was left early, the next instruction is interpreted
+                        blockEntry = ((result >>> 16) == block.length);
+                        loopWritten |= block.writesMemory;
+                        if (blockEntry && pc < block.start + block.length)
+                            executed += getIdleSkip(pc, a, d, x, y, out, aluOp, executed,
+                                                    count - executed);
+                        continue;
+                    }
+                }
+
+                int microOp = program[pc];
+                int kind = InstructionDecoder.getKind(microOp);
+
+                if (kind == InstructionDecoder.A_INSTRUCTION) {
+                    a = InstructionDecoder.getConstant(microOp);
+                    pc++;
+                }
+                else if (kind == InstructionDecoder.C_INSTRUCTION) {
+                    boolean indirect = InstructionDecoder.isIndirect(microOp);
+                    int destination = InstructionDecoder.getDestination(microOp);
+                    boolean destM = (destination & InstructionDecoder.DEST_M) != 0;
+                    boolean destA = (destination & InstructionDecoder.DEST_A) != 0;
+                    if ((indirect || destM) && (a < 0 || a >= ramSize))
+                        break;
+
+                    x = d;
+                    y = (indirect ? ram[a] : a);
+                    out = InstructionDecoder.computeALU(InstructionDecoder.getFunction(microOp),
+                                                        x, y);
+                    aluOp = microOp;
+
+                    int condition = (out < 0 ? InstructionDecoder.JUMP_NEGATIVE :
+                                     (out == 0 ? InstructionDecoder.JUMP_ZERO :
+                                      InstructionDecoder.JUMP_POSITIVE));
+                    boolean jump = (InstructionDecoder.getJump(microOp) & condition) != 0;
+                    // the jump address is the value of A after the destination is set
+                    int jumpAddress = (destA ? out : a);
+                    if (jump && jumpAddress < 0)
+                        break;
+
+                    if (destM) {
+                        loopWritten = true;
+                        if (mappedRAM && M.isMappedIO(a))
+                            M.setValueAt(a, (short)out, false);
+                        else
+                            ram[a] = (short)out;
+                    }
+                    if (destA)
+                        a = out;
+                    if ((destination & InstructionDecoder.DEST_D) != 0)
+                        d = out;
+
+                    boolean backwardJump = (jump && jumpAddress <= pc);
+                    pc = (jump ? jumpAddress : pc + 1);
+                    blockEntry = jump;
+
+                    if (backwardJump) {
+                        executed++;
+                        executed += getIdleSkip(pc, a, d, x, y, out, aluOp, executed,
+                                                count - executed);
+                        continue;
+                    }
+                }
+                else if (kind == InstructionDecoder.NOP)
+                    pc++;
+                else
+                    break;
+
+                executed++;
+            }
+        } finally {
+            fastA = (short)a;
+            fastD = (short)d;
+            fastPC = (short)pc;
+            fastALUOp = aluOp;
+            fastALUInput0 = (short)x;
+            fastALUInput1 = (short)y;
+            fastALUOutput = (short)out;
+            time += executed;
+        }
+
+        return executed;
+    }
+
+    // Called by the fast core after a backward jump to the given address, with the state
+    // and the number of executed & remaining instructions after it.
+    // If the memory wasn't written since the previous backward jump, which was to the same
+    // address and left the same state, the loop between them is idle: it repeats the same
+    // iteration (e.g. "(END) @END, 0;JMP", or polling the keyboard while no key is pressed).
+    // Then returns the number of instructions in all the iterations which fit in the
+    // remaining instructions, which can be skipped without changing the state.
+    // Otherwise returns 0.
+    private long getIdleSkip(int address, int a, int d, int x, int y, int out, int aluOp,
+                             long executed, long remaining) {
+        long skip = 0;
+
+        if (address == loopAddress && !loopWritten && a == loopA && d == loopD &&
+            x == loopALUInput0 && y == loopALUInput1 && out == loopALUOutput &&
+            aluOp == loopALUOp) {
+            long period = executed - loopExecuted;
+            skip = remaining / period * period;
+        }
+
+        loopAddress = address;
+        loopA = a;
+        loopD = d;
+        loopALUInput0 = x;
+        loopALUInput1 = y;
+        loopALUOutput = out;
+        loopALUOp = aluOp;
+        loopExecuted = executed + skip;
+        loopWritten = false;
+
+        return skip;
+    }
+
+    // Updates the registers & ALU with the values of the fast core, if they are stale.
+    private void syncParts() {
+        if (!partsStale)
+            return;
+
+        partsStale = false;
+        A.setValueAt(0, fastA, true);
+        D.setValueAt(0, fastD, true);
+        PC.setValueAt(0, fastPC, true);
+
+        if (fastALUOp != 0) {
+            int function = InstructionDecoder.getFunction(fastALUOp);
+            short instruction = (short)(0xe000 | ((fastALUOp & 0x7f) << 6));
+            alu.setCommand(InstructionDecoder.getExpression(instruction),
+                           (function & 0x20) != 0, (function & 0x10) != 0,
+                           (function & 0x08) != 0, (function & 0x04) != 0,
+                           (function & 0x02) != 0, (function & 0x01) != 0);
+
+            alu.setValueAt(0, fastALUInput0, true);
+            alu.setValueAt(1, fastALUInput1, true);
+            alu.setValueAt(2, fastALUOutput, true);
+            fastALUOp = 0;
+        }
+    }
+
     // computes the exp part of the given instruction.
     // The result will be at the alu's output.
     // Throws ProgramException if the calculation involves M and A contains
@@ -194,10 +512,9 @@ public class CPU
         boolean f = (instruction & 0x0080) > 0;
         boolean no = (instruction & 0x0040) > 0;
 
-        try {
-            alu.setCommand(assemblerTranslator.getExpByCode((short)(instruction & 0xffc0)),
-                           zd, nd, zm, nm, f, no);
-        } catch (AssemblerException ae) {}
+        String expression = InstructionDecoder.getExpression(instruction);
+        if (expression != null)
+            alu.setCommand(expression, zd, nd, zm, nm, f, no);
 
         bus.send(D, 0, alu, 0); // sends D to input0 of the alu
 
@@ -46,6 +46,14 @@ import Hack.Utilities.Definitions;
  * Recognizes the following commands:
  * load <HACK file name> - loads the given file into the ROM
  * TickTock - advances the clock by one time unit (executes one instruction)
+ * TickTockn <n> - advances the clock by n time units (executes n instructions) in a
+ *                 single command.
+ * jit on - from now on, the fast core compiles the frequently executed blocks of the
+ *          program into JVM bytecode (see BlockCompiler).
+ * jit off - stops compiling blocks (the default).
+ *
+ * While changes aren't displayed, instructions are executed by the cpu's fast core
+ * (see CPU.setFastMode).
  */
 public class CPUEmulator extends HackSimulator implements ComputerPartErrorEventListener {
 
@@ -60,8 +68,14 @@ public class CPUEmulator extends HackSimulator implements ComputerPartErrorEvent
 
     // Commands
     private static final String COMMAND_TICKTOCK = "ticktock";
+    private static final String COMMAND_TICKTOCKN = "ticktockn";
     private static final String COMMAND_ROMLOAD = "load";
     private static final String COMMAND_SETVAR = "set";
+    private static final String COMMAND_JIT = "jit";
+
+    // The options of the jit command
+    private static final String JIT_ON = "on";
+    private static final String JIT_OFF = "off";
 
     // The simulating cpu
     private CPU cpu;
@@ -254,6 +268,38 @@ public class CPUEmulator extends HackSimulator implements ComputerPartErrorEvent
 
             cpu.executeInstruction();
         }
+        else if (command[0].equals(COMMAND_TICKTOCKN)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+
+            long count;
+            try {
+                count = Long.parseLong(command[1]);
+            } catch (NumberFormatException nfe) {
+                throw new CommandException("Illegal number of instructions: " + command[1],
+                                           command);
+            }
+
+            if (count < 0)
+                throw new CommandException("Illegal number of instructions: " + command[1],
+                                           command);
+
+            if (cpu.isFastMode())
+                cpu.executeInstructions(count);
+            else
+                for (long i = 0; i < count; i++)
+                    cpu.executeInstruction();
+        }
+        else if (command[0].equals(COMMAND_JIT)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (command[1].equals(JIT_ON))
+                cpu.setCompileBlocks(true);
+            else if (command[1].equals(JIT_OFF))
+                cpu.setCompileBlocks(false);
+            else
+                throw new CommandException("Unknown jit option: " + command[1], command);
+        }
         else if (command[0].equals(COMMAND_SETVAR)) {
             if (command.length != 3)
                 throw new CommandException("Illegal number of arguments to command", command);
@@ -323,6 +369,7 @@ public class CPUEmulator extends HackSimulator implements ComputerPartErrorEvent
         }
 
         animationMode = newAnimationMode;
+        cpu.setFastMode(animationMode == HackController.NO_DISPLAY_CHANGES);
 
         boolean animate = (animationMode == HackController.ANIMATION);
         cpu.getBus().setAnimate(animate);
@@ -0,0 +1,69 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.CPUEmulator;
+
+/**
+ * A basic block of HACK instructions which was compiled into JVM bytecode by a
+ * BlockCompiler. The subclasses are generated at run time.
+ */
+public abstract class CompiledBlock {
+
+    /**
+     * The indices of the cpu state in the registers array of execute.
+     */
+    public static final int REGISTER_A = 0;
+    public static final int REGISTER_D = 1;
+    public static final int ALU_INPUT0 = 2;
+    public static final int ALU_INPUT1 = 3;
+    public static final int ALU_OUTPUT = 4;
+    public static final int ALU_OP = 5;
+    public static final int REGISTERS_COUNT = 6;
+
+    // The ROM address of the first instruction of the block
+    int start;
+
+    // The number of instructions in the block
+    int length;
+
+    // True if the block may write to the memory
+    boolean writesMemory;
+
+    /**
+     * Executes the block on the given RAM contents and registers (indexed by the
+     * REGISTER_*, ALU_* constants; ALU_OP is the micro-op of the last c-instruction).
+     * Returns the number of executed instructions in the high 16 bits, and the address of
+     * the next instruction in the low 16 bits. Less than all the instructions are executed
+     * only if the next instruction is illegal or has an illegal effect, and then the
+     * registers hold the state before it.
+     */
+    public abstract int execute(short[] ram, int[] registers);
+
+    /**
+     * Returns the ROM address of the first instruction of the block.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the number of instructions in the block.
+     */
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,208 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.CPUEmulator;
+
+import Hack.Assembler.AssemblerException;
+import Hack.Assembler.HackAssemblerTranslator;
+
+/**
+ * Decodes HACK instructions into compact micro-ops, which are kept for every ROM
+ * address (see ROM.getDecodedProgram), so the CPU doesn't decode an instruction
+ * each time it is executed.
+ *
+ * A micro-op is an int with the following fields:
+ * kind (bits 16-17) - A_INSTRUCTION, C_INSTRUCTION, NOP or ILLEGAL.
+ * For an A_INSTRUCTION:
+ *   constant (bits 0-15) - the value that is loaded into A.
+ * For a C_INSTRUCTION:
+ *   function (bits 0-5) - the ALU function: the zx, nx, zy, ny, f & no bits.
+ *   a-bit (bit 6) - if set, the second ALU input is M, otherwise A.
+ *   destination (bits 7-9) - a mask of DEST_A, DEST_D & DEST_M.
+ *   jump (bits 10-12) - a mask of JUMP_NEGATIVE, JUMP_ZERO & JUMP_POSITIVE.
+ * A c-instruction whose expression is unknown is decoded as ILLEGAL, like the illegal
+ * instructions: the CPU executes both through its parts (which compute an unknown
+ * expression with the previous command of the ALU, and throw ProgramException for an
+ * illegal instruction).
+ */
+public class InstructionDecoder {
+
+    /**
+     * The kinds of micro-ops.
+     */
+    public static final int ILLEGAL = 0;
+    public static final int A_INSTRUCTION = 1;
+    public static final int C_INSTRUCTION = 2;
+    public static final int NOP = 3;
+
+    /**
+     * The destination mask bits.
+     */
+    public static final int DEST_M = 0x1;
+    public static final int DEST_D = 0x2;
+    public static final int DEST_A = 0x4;
+
+    /**
+     * The jump mask bits.
+     */
+    public static final int JUMP_POSITIVE = 0x1;
+    public static final int JUMP_ZERO = 0x2;
+    public static final int JUMP_NEGATIVE = 0x4;
+
+    // The expression texts of the c-instructions, indexed by the a-bit & function (null
+    // for unknown expressions)
+    private static String[] expressions;
+
+    /**
+     * Returns the micro-op of the given instruction.
+     */
+    public static int decode(short instruction) {
+        if (instruction == HackAssemblerTranslator.NOP)
+            return NOP << 16;
+        else if ((instruction & 0x8000) == 0)
+            return (A_INSTRUCTION << 16) | instruction;
+        else if ((instruction & 0xe000) != 0xe000 || getExpression(instruction) == null)
+            return ILLEGAL << 16;
+        else
+            return (C_INSTRUCTION << 16) |
+                   ((instruction >> 6) & 0x7f) |
+                   ((instruction & 0x0038) << 4) |
+                   ((instruction & 0x0007) << 10);
+    }
+
+    /**
+     * Returns the micro-ops of the given instructions.
+     */
+    public static int[] decode(short[] instructions) {
+        int[] result = new int[instructions.length];
+        for (int i = 0; i < instructions.length; i++)
+            result[i] = decode(instructions[i]);
+
+        return result;
+    }
+
+    /**
+     * Returns the kind of the given micro-op.
+     */
+    public static int getKind(int microOp) {
+        return microOp >>> 16;
+    }
+
+    /**
+     * Returns the constant of the given A_INSTRUCTION micro-op.
+     */
+    public static short getConstant(int microOp) {
+        return (short)(microOp & 0x7fff);
+    }
+
+    /**
+     * Returns the ALU function (the zx, nx, zy, ny, f & no bits) of the given
+     * C_INSTRUCTION micro-op.
+     */
+    public static int getFunction(int microOp) {
+        return microOp & 0x3f;
+    }
+
+    /**
+     * Returns true if the second ALU input of the given C_INSTRUCTION micro-op is M.
+     */
+    public static boolean isIndirect(int microOp) {
+        return (microOp & 0x40) != 0;
+    }
+
+    /**
+     * Returns the destination mask of the given C_INSTRUCTION micro-op.
+     */
+    public static int getDestination(int microOp) {
+        return (microOp >> 7) & 0x7;
+    }
+
+    /**
+     * Returns the jump mask of the given C_INSTRUCTION micro-op.
+     */
+    public static int getJump(int microOp) {
+        return (microOp >> 10) & 0x7;
+    }
+
+    /**
+     * Returns the result of the given ALU function on the given inputs.
+     */
+    public static short computeALU(int function, int x, int y) {
+        int out;
+
+        // the common functions, and the general computation for the others
+        switch (function) {
+            case 0x2a: out = 0; break;
+            case 0x3f: out = 1; break;
+            case 0x3a: out = -1; break;
+            case 0x0c: out = x; break;
+            case 0x30: out = y; break;
+            case 0x0d: out = ~x; break;
+            case 0x31: out = ~y; break;
+            case 0x0f: out = -x; break;
+            case 0x33: out = -y; break;
+            case 0x1f: out = x + 1; break;
+            case 0x37: out = y + 1; break;
+            case 0x0e: out = x - 1; break;
+            case 0x32: out = y - 1; break;
+            case 0x02: out = x + y; break;
+            case 0x13: out = x - y; break;
+            case 0x07: out = y - x; break;
+            case 0x00: out = x & y; break;
+            case 0x15: out = x | y; break;
+            default:
+                if ((function & 0x20) != 0)
+                    x = 0;
+                if ((function & 0x10) != 0)
+                    x = ~x;
+                if ((function & 0x08) != 0)
+                    y = 0;
+                if ((function & 0x04) != 0)
+                    y = ~y;
+                out = ((function & 0x02) != 0 ? x + y : x & y);
+                if ((function & 0x01) != 0)
+                    out = ~out;
+        }
+
+        return (short)out;
+    }
+
+    /**
+     * Returns the text of the expression of the given c-instruction, or null if it's
+     * unknown.
+     */
+    public static String getExpression(short instruction) {
+        if (expressions == null)
+            expressions = createExpressions();
+
+        return expressions[(instruction >> 6) & 0x7f];
+    }
+
+    // Returns the expression texts of all the combinations of a-bit & function.
+    private static String[] createExpressions() {
+        HackAssemblerTranslator translator = HackAssemblerTranslator.getInstance();
+        String[] result = new String[128];
+
+        for (int i = 0; i < result.length; i++) {
+            try {
+                result[i] = translator.getExpByCode((short)(0xe000 | (i << 6)));
+            } catch (AssemblerException ae) {}
+        }
+
+        return result;
+    }
+}
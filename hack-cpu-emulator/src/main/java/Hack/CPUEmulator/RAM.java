@@ -30,12 +30,24 @@ public class RAM extends PointedMemory
 
     private static final short[] emptyScreen = new short[Definitions.SCREEN_SIZE_IN_WORDS];
 
+    // The number of address bits within a page of the page table.
+    private static final int PAGE_BITS = 8;
+
+    // The kinds of pages (bit flags): plain data, screen, and pages which contain
+    // pointers of memory segments.
+    private static final byte PLAIN_PAGE = 0;
+    private static final byte SCREEN_PAGE = 1;
+    private static final byte SEGMENTS_PAGE = 2;
+
     // The gui of the screen
     private ScreenGUI screen;
 
     // memory segments mapping
     private MemorySegment[][] segments;
 
+    // The kind of each page of the memory
+    private byte[] pages;
+
     /**
      * Constructs a new RAM with the given optional GUI components:
      * mainGUI - the main GUI of the ram.
@@ -45,12 +57,39 @@ public class RAM extends PointedMemory
      *            the memory value at the entry's location.
      *            If a memorySegment is an instance of memorySegment, its start
      *            address will be set according to the memory value at the entry's location.
+     *            Entries which are set after the construction should be set with
+     *            setSegments.
      * screenGUI - the GUI of the screen.
      */
     public RAM(PointedMemoryGUI mainGUI, MemorySegment[][] segments, ScreenGUI screenGUI) {
         super(Definitions.RAM_SIZE, mainGUI);
         this.segments = segments;
         this.screen = screenGUI;
+
+        pages = new byte[((Definitions.RAM_SIZE - 1) >> PAGE_BITS) + 1];
+        if (screen != null)
+            for (int address = Definitions.SCREEN_START_ADDRESS;
+                 address < Definitions.SCREEN_START_ADDRESS + Definitions.SCREEN_SIZE_IN_WORDS;
+                 address += 1 << PAGE_BITS)
+                pages[address >> PAGE_BITS] |= SCREEN_PAGE;
+
+        if (segments != null)
+            for (int address = 0; address < segments.length; address++)
+                if (segments[address] != null)
+                    pages[address >> PAGE_BITS] |= SEGMENTS_PAGE;
+    }
+
+    /**
+     * Sets the memory segments whose start address (or pointer address, if the segment is
+     * a PointedMemorySegment) will be set according to the memory value at the given address.
+     */
+    public void setSegments(int address, MemorySegment[] addressSegments) {
+        if (segments == null)
+            segments = new MemorySegment[size][];
+
+        segments[address] = addressSegments;
+        if (addressSegments != null)
+            pages[address >> PAGE_BITS] |= SEGMENTS_PAGE;
     }
 
     /**
@@ -59,13 +98,22 @@ public class RAM extends PointedMemory
     public void setValueAt(int address, short value, boolean quiet) {
         super.setValueAt(address, value, quiet);
 
-        // if screen area changed, update its GUI
-        if (screen != null && address >= Definitions.SCREEN_START_ADDRESS
+        // only screen & segment pages have other effects
+        byte page = pages[address >> PAGE_BITS];
+        if (page != PLAIN_PAGE)
+            setMappedValueAt(address, value, page);
+    }
+
+    // Updates the screen or memory segments which are mapped to the given address, which is
+    // in a page of the given kind, with the given value.
+    private void setMappedValueAt(int address, short value, byte page) {
+        // if screen area changed, mark the word for the screen's renderer
+        if ((page & SCREEN_PAGE) != 0 && address >= Definitions.SCREEN_START_ADDRESS
              && address < Definitions.SCREEN_START_ADDRESS + Definitions.SCREEN_SIZE_IN_WORDS)
             screen.setValueAt((short)(address - Definitions.SCREEN_START_ADDRESS), value);
 
         // if a memory segment pointer changed, update its GUI
-        if (segments != null && segments[address] != null) {
+        if ((page & SEGMENTS_PAGE) != 0 && segments[address] != null) {
 
             for (int i = 0; i < segments[address].length; i++) {
                 // check if the relevant memory segment is a pointed one.
@@ -77,6 +125,27 @@ public class RAM extends PointedMemory
         }
     }
 
+    /**
+     * Returns true if writing to some addresses of this RAM has effects other than
+     * setting the memory array (see isMappedIO).
+     */
+    public boolean hasMappedIO() {
+        return screen != null || segments != null;
+    }
+
+    /**
+     * Returns true if writing to the given address has effects other than setting the
+     * memory array (updating the screen or a memory segment), so it should be written
+     * through setValueAt.
+     */
+    public boolean isMappedIO(int address) {
+        byte page = pages[address >> PAGE_BITS];
+        return page != PLAIN_PAGE &&
+               (((page & SCREEN_PAGE) != 0 && address >= Definitions.SCREEN_START_ADDRESS &&
+                 address < Definitions.SCREEN_START_ADDRESS + Definitions.SCREEN_SIZE_IN_WORDS) ||
+                ((page & SEGMENTS_PAGE) != 0 && segments[address] != null));
+    }
+
     /**
      * Sets a name for the label at the given address
      */
@@ -126,7 +195,7 @@ public class RAM extends PointedMemory
         // Update segments
         if (segments != null)
             for (int address = 0; address < size; address++) {
-                if (segments[address] != null) {
+                if ((pages[address >> PAGE_BITS] & SEGMENTS_PAGE) != 0 && segments[address] != null) {
                     for (int i = 0; i < segments[address].length; i++) {
                         // check if the relevant memory segment is a pointed one.
                         if (segments[address][i] instanceof PointedMemorySegment)
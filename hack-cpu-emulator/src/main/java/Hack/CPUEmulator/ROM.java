@@ -58,6 +58,12 @@ public class ROM extends PointedMemory implements ProgramEventListener
     // listeners to program changes
     private Vector listeners;
 
+    // The micro-ops of the instructions in the ROM (see InstructionDecoder)
+    private int[] decoded;
+
+    // listeners to changes of single instructions
+    private Vector writeListeners;
+
     /**
      * Constructs a new ROM with the given ROM GUI.
      */
@@ -65,6 +71,8 @@ public class ROM extends PointedMemory implements ProgramEventListener
         super(Definitions.ROM_SIZE, gui);
         setNullValue(HackAssemblerTranslator.NOP, true);
         listeners = new Vector();
+        writeListeners = new Vector();
+        decoded = InstructionDecoder.decode(mem);
 
         if (hasGUI) {
           gui.addProgramListener( (ProgramEventListener)this);
@@ -86,6 +94,7 @@ public class ROM extends PointedMemory implements ProgramEventListener
             program = HackAssemblerTranslator.loadProgram(fileName, Definitions.ROM_SIZE,
                                                           HackAssemblerTranslator.NOP);
 
+            decoded = InstructionDecoder.decode(program);
             mem = program;
 
             if (displayChanges) {
@@ -107,6 +116,35 @@ public class ROM extends PointedMemory implements ProgramEventListener
 
     }
 
+    /**
+     * Returns the micro-ops of the instructions in the ROM (see InstructionDecoder).
+     * The micro-op of an address is replaced whenever its instruction changes, and the
+     * whole array is replaced when a program is loaded or the ROM is reset.
+     */
+    public int[] getDecodedProgram() {
+        return decoded;
+    }
+
+    public void doSetValueAt(int address, short value) {
+        super.doSetValueAt(address, value);
+        decoded[address] = InstructionDecoder.decode(value);
+        notifyWriteListeners(address);
+    }
+
+    public void setContents(short[] contents, int startAddress) {
+        for (int i = 0; i < contents.length; i++)
+            decoded[startAddress + i] = InstructionDecoder.decode(contents[i]);
+        super.setContents(contents, startAddress);
+
+        for (int i = 0; i < contents.length; i++)
+            notifyWriteListeners(startAddress + i);
+    }
+
+    public void reset() {
+        super.reset();
+        decoded = InstructionDecoder.decode(mem);
+    }
+
     /**
      * Called when the ROM's current program is changed.
      * The event contains the source object, event type and the new program's file name (if any).
@@ -171,6 +209,27 @@ public class ROM extends PointedMemory implements ProgramEventListener
         listeners.remove(listener);
     }
 
+    /**
+     * Registers the given ROMWriteListener as a listener to changes of single instructions.
+     */
+    public void addWriteListener(ROMWriteListener listener) {
+        writeListeners.add(listener);
+    }
+
+    /**
+     * Un-registers the given ROMWriteListener from being a listener to changes of single
+     * instructions.
+     */
+    public void removeWriteListener(ROMWriteListener listener) {
+        writeListeners.remove(listener);
+    }
+
+    // Notifies all the ROMWriteListeners that the instruction at the given address was changed.
+    private void notifyWriteListeners(int address) {
+        for (int i = 0; i < writeListeners.size(); i++)
+            ((ROMWriteListener)writeListeners.elementAt(i)).romWritten(address);
+    }
+
     /**
      * Notifies all the ProgramEventListeners on a change in the ROM's program by creating
      * a ProgramEvent (with the new event type and program's file name) and sending it using the
@@ -0,0 +1,267 @@
+package Hack.CPUEmulator;
+
+import Hack.ComputerParts.Bus;
+import Hack.ComputerParts.Register;
+import Hack.Controller.ProgramException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BlockCompilerTest {
+	// The first address of the mapped I/O in the RAM of the tests
+	private static final int MAPPED_IO_START = 16384;
+
+	// @16, M=M+1, D=M, @17, M=D+M, D=D-1, @0, D;JGT
+	private static final short[] COUNTER = {
+		0x0010, (short)0xfdc8, (short)0xfc10, 0x0011, (short)0xf088, (short)0xe390,
+		0x0000, (short)0xe301
+	};
+
+	// @16, D=M, A=D, M=1, @0, 0;JMP: writes to the address in RAM[16]
+	private static final short[] INDIRECT_WRITE = {
+		0x0010, (short)0xfc10, (short)0xe320, (short)0xefc8, 0x0000, (short)0xea87
+	};
+
+	// @16, D=M, A=D, D=M, @0, 0;JMP: reads the address in RAM[16]
+	private static final short[] INDIRECT_READ = {
+		0x0010, (short)0xfc10, (short)0xe320, (short)0xfc10, 0x0000, (short)0xea87
+	};
+
+	// @16, A=M, 0;JMP: jumps to the address in RAM[16]
+	private static final short[] INDIRECT_JUMP = {
+		0x0010, (short)0xfc20, (short)0xea87
+	};
+
+	@Test
+	void blockMatchesTheInterpreter() {
+		Computer computer = new Computer(COUNTER);
+		computer.ram.setValueAt(16, (short)10, true);
+		computer.cpu.getD().setValueAt(0, (short)3, true);
+
+		int result = computer.executeBlock(0);
+
+		assertEquals(COUNTER.length, result >>> 16);
+		assertEquals(0, result & 0xffff);
+		assertEquals(11, computer.ram.getValueAt(16));
+		assertEquals(11, computer.ram.getValueAt(17));
+		computer.assertMatchesInterpreter(0, result);
+	}
+
+	@Test
+	void readOfAnAddressOutOfRangeLeavesTheBlock() {
+		for (short address : new short[]{30000, -5}) {
+			Computer computer = new Computer(INDIRECT_READ);
+			computer.ram.setValueAt(16, address, true);
+
+			int result = computer.executeBlock(0);
+
+			assertEquals(3, result >>> 16);
+			assertEquals(3, result & 0xffff);
+			computer.assertMatchesInterpreter(0, result);
+		}
+	}
+
+	@Test
+	void writeToAnAddressOutOfRangeLeavesTheBlock() {
+		Computer computer = new Computer(INDIRECT_WRITE);
+		computer.ram.setValueAt(16, (short)30000, true);
+
+		int result = computer.executeBlock(0);
+
+		assertEquals(3, result >>> 16);
+		assertEquals(3, result & 0xffff);
+		computer.assertMatchesInterpreter(0, result);
+	}
+
+	@Test
+	void writeToMappedIOLeavesTheBlock() {
+		Computer computer = new Computer(INDIRECT_WRITE);
+		computer.ram.setValueAt(16, (short)(MAPPED_IO_START + 5), true);
+
+		int result = computer.executeBlock(0);
+
+		assertEquals(3, result >>> 16);
+		assertEquals(0, computer.ram.getValueAt(MAPPED_IO_START + 5));
+		computer.assertMatchesInterpreter(0, result);
+
+		// the same block writes to a plain address
+		computer.ram.setValueAt(16, (short)100, true);
+		result = computer.executeBlock(0);
+
+		assertEquals(INDIRECT_WRITE.length, result >>> 16);
+		assertEquals(1, computer.ram.getValueAt(100));
+	}
+
+	@Test
+	void blockEndsBeforeAKnownWriteToMappedIO() {
+		// @16384, M=1, @0, 0;JMP
+		short[] program = {0x4000, (short)0xefc8, 0x0000, (short)0xea87};
+		Computer computer = new Computer(program);
+
+		// the block would hold only the a-instruction, so it isn't compiled
+		for (int i = 0; i < BlockCompiler.HOT_THRESHOLD; i++)
+			assertNull(computer.compiler.getBlock(computer.rom.getDecodedProgram(), 0));
+	}
+
+	@Test
+	void negativeJumpLeavesTheBlock() {
+		Computer computer = new Computer(INDIRECT_JUMP);
+		computer.ram.setValueAt(16, (short)-3, true);
+
+		int result = computer.executeBlock(0);
+
+		assertEquals(2, result >>> 16);
+		assertEquals(2, result & 0xffff);
+		computer.assertMatchesInterpreter(0, result);
+
+		computer.ram.setValueAt(16, (short)7, true);
+		result = computer.executeBlock(0);
+
+		assertEquals(INDIRECT_JUMP.length, result >>> 16);
+		assertEquals(7, result & 0xffff);
+	}
+
+	@Test
+	void romWriteDiscardsTheBlocksWhichContainIt() {
+		Computer computer = new Computer(COUNTER);
+		int[] program = computer.rom.getDecodedProgram();
+		CompiledBlock block = computer.compileBlock(0);
+
+		// a write after the block keeps it
+		computer.rom.setValueAt(COUNTER.length + 10, (short)0x0001, true);
+		assertSame(block, computer.compiler.getBlock(program, 0));
+
+		// D=D+1 instead of D=D-1
+		computer.rom.setValueAt(5, (short)0xe7d0, true);
+		assertNull(computer.compiler.getBlock(program, 0));
+
+		computer.ram.setValueAt(16, (short)10, true);
+		computer.cpu.getD().setValueAt(0, (short)3, true);
+		int result = computer.executeBlock(0);
+
+		assertEquals(COUNTER.length, result >>> 16);
+		computer.assertMatchesInterpreter(0, result);
+	}
+
+	@Test
+	void newProgramDiscardsAllTheBlocks() {
+		Computer computer = new Computer(COUNTER);
+		computer.compileBlock(0);
+
+		computer.rom.reset();
+		computer.rom.setContents(INDIRECT_JUMP, 0);
+		assertNull(computer.compiler.getBlock(computer.rom.getDecodedProgram(), 0));
+		assertEquals(INDIRECT_JUMP.length, computer.compileBlock(0).getLength());
+	}
+
+	// A CPU with its memories and registers, without gui, whose RAM has mapped I/O from
+	// MAPPED_IO_START, and a BlockCompiler of its ROM.
+	private static class Computer {
+		RAM ram;
+		ROM rom;
+		CPU cpu;
+		BlockCompiler compiler;
+
+		// The state of the registers and the RAM before the last executed block
+		int[] registersBefore;
+		short[] ramBefore;
+
+		Computer(short[] program) {
+			ram = new RAM(null, null, null) {
+				public boolean hasMappedIO() {
+					return true;
+				}
+
+				public boolean isMappedIO(int address) {
+					return address >= MAPPED_IO_START;
+				}
+			};
+			ram.reset();
+			rom = new ROM(null);
+			rom.reset();
+			rom.setContents(program, 0);
+			PointerAddressRegisterAdapter a = new PointerAddressRegisterAdapter(null, ram);
+			a.reset();
+			Register d = new Register(null);
+			d.reset();
+			PointerAddressRegisterAdapter pc = new PointerAddressRegisterAdapter(null, rom);
+			pc.reset();
+			ALU alu = new ALU(null);
+			alu.reset();
+			cpu = new CPU(ram, rom, a, d, pc, alu, new Bus(null));
+			cpu.initProgram();
+			compiler = new BlockCompiler(rom, ram);
+		}
+
+		// Enters the given address until a block is compiled there, and returns it.
+		CompiledBlock compileBlock(int address) {
+			CompiledBlock block = null;
+			for (int i = 0; i < BlockCompiler.HOT_THRESHOLD && block == null; i++)
+				block = compiler.getBlock(rom.getDecodedProgram(), address);
+
+			assertNotNull(block);
+			assertEquals(address, block.getStart());
+			return block;
+		}
+
+		// Executes the block at the given address on the current registers and RAM, and
+		// returns its result. The state before it is kept for assertMatchesInterpreter.
+		int executeBlock(int address) {
+			CompiledBlock block = compileBlock(address);
+
+			registersBefore = getRegisters();
+			ramBefore = (short[])ram.getContents().clone();
+
+			int[] registers = (int[])registersBefore.clone();
+			int result = block.execute(ram.getContents(), registers);
+			setRegisters(registers);
+			return result;
+		}
+
+		// Asserts that interpreting the instructions which the last block executed from
+		// the given address, on the state before it, leads to the current state.
+		void assertMatchesInterpreter(int address, int result) {
+			int[] registersAfter = getRegisters();
+			short[] ramAfter = (short[])ram.getContents().clone();
+
+			System.arraycopy(ramBefore, 0, ram.getContents(), 0, ramBefore.length);
+			setRegisters(registersBefore);
+			cpu.getPC().setValueAt(0, (short)address, true);
+			try {
+				for (int i = 0; i < (result >>> 16); i++)
+					cpu.executeInstruction();
+			} catch (ProgramException pe) {
+				throw new AssertionError(pe.getMessage());
+			}
+
+			assertEquals(result & 0xffff, cpu.getPC().get());
+			assertArrayEquals(registersAfter, getRegisters());
+			assertArrayEquals(ramAfter, ram.getContents());
+		}
+
+		// Returns the registers of the cpu, indexed like the registers of the blocks
+		// (without the ALU micro-op).
+		int[] getRegisters() {
+			int[] registers = new int[CompiledBlock.REGISTERS_COUNT];
+			registers[CompiledBlock.REGISTER_A] = cpu.getA().get();
+			registers[CompiledBlock.REGISTER_D] = cpu.getD().get();
+			registers[CompiledBlock.ALU_INPUT0] = cpu.getALU().getValueAt(0);
+			registers[CompiledBlock.ALU_INPUT1] = cpu.getALU().getValueAt(1);
+			registers[CompiledBlock.ALU_OUTPUT] = cpu.getALU().getValueAt(2);
+			return registers;
+		}
+
+		// Sets the registers of the cpu with the given registers of a block.
+		void setRegisters(int[] registers) {
+			cpu.getA().setValueAt(0, (short)registers[CompiledBlock.REGISTER_A], true);
+			cpu.getD().setValueAt(0, (short)registers[CompiledBlock.REGISTER_D], true);
+			cpu.getALU().setValueAt(0, (short)registers[CompiledBlock.ALU_INPUT0], true);
+			cpu.getALU().setValueAt(1, (short)registers[CompiledBlock.ALU_INPUT1], true);
+			cpu.getALU().setValueAt(2, (short)registers[CompiledBlock.ALU_OUTPUT], true);
+		}
+	}
+}
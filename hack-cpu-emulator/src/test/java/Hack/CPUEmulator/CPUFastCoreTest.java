@@ -0,0 +1,133 @@
+package Hack.CPUEmulator;
+
+import Hack.ComputerParts.Bus;
+import Hack.ComputerParts.Register;
+import Hack.Controller.ProgramException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CPUFastCoreTest {
+	private static final int PROGRAMS = 400;
+	private static final int PROGRAM_LENGTH = 48;
+	private static final int STEPS = 2000;
+
+	@Test
+	void unknownExpressionsDontStopTheFastCore() {
+		// @5, D=A, MD=D-1 with the a-bit set (an expression which isn't in the table),
+		// @1, 0;JMP
+		short[] program = {0x0005, (short)0xec10, (short)0xf398, 0x0001, (short)0xea87};
+
+		String expected = runSlow(program, 133);
+		assertEquals(expected, runFast(program, 133, false));
+		assertEquals(expected, runFast(program, 133, true));
+	}
+
+	@Test
+	void randomProgramsMatchTheSlowPath() {
+		Random random = new Random(22);
+
+		for (int i = 0; i < PROGRAMS; i++) {
+			short[] program = createProgram(random);
+			String expected = runSlow(program, STEPS);
+			assertEquals(expected, runFast(program, STEPS, false), "program " + i);
+			assertEquals(expected, runFast(program, STEPS, true), "program " + i + " (jit)");
+		}
+	}
+
+	// Returns a random program whose jumps mostly stay inside it. Most c-instructions have
+	// known expressions, and a few have unknown ones or are illegal.
+	private static short[] createProgram(Random random) {
+		short[] program = new short[PROGRAM_LENGTH];
+		for (int i = 0; i < program.length; i++) {
+			int kind = random.nextInt(100);
+			if (kind < 35)
+				program[i] = (short)(random.nextInt(8) == 0 ? random.nextInt(0x8000)
+															 : random.nextInt(PROGRAM_LENGTH + 8));
+			else if (kind < 98) {
+				int comp;
+				do {
+					comp = random.nextInt(0x80);
+				} while (kind < 90 &&
+						 InstructionDecoder.getExpression((short)(0xe000 | (comp << 6))) == null);
+
+				int jump = (random.nextInt(4) == 0 ? random.nextInt(8) : 0);
+				program[i] = (short)(0xe000 | (comp << 6) | (random.nextInt(8) << 3) | jump);
+			}
+			else
+				program[i] = (short)(0x8000 | random.nextInt(0x6000));
+		}
+
+		return program;
+	}
+
+	// Executes the given number of instructions of the given program one by one through
+	// the parts, and returns the resulting state.
+	private static String runSlow(short[] program, int steps) {
+		Computer computer = new Computer(program);
+		String error = "";
+		try {
+			for (int i = 0; i < steps; i++)
+				computer.cpu.executeInstruction();
+		} catch (ProgramException pe) {
+			error = pe.getMessage();
+		}
+
+		return computer.getState() + error;
+	}
+
+	// Executes the given number of instructions of the given program with the fast core,
+	// and returns the resulting state.
+	private static String runFast(short[] program, int steps, boolean compileBlocks) {
+		Computer computer = new Computer(program);
+		computer.cpu.setFastMode(true);
+		computer.cpu.setCompileBlocks(compileBlocks);
+		String error = "";
+		try {
+			computer.cpu.executeInstructions(steps);
+		} catch (ProgramException pe) {
+			error = pe.getMessage();
+		}
+
+		computer.cpu.setCompileBlocks(false);
+		computer.cpu.setFastMode(false);
+		return computer.getState() + error;
+	}
+
+	// A CPU with its memories and registers, without gui.
+	private static class Computer {
+		RAM ram;
+		CPU cpu;
+
+		Computer(short[] program) {
+			ram = new RAM(null, null, null);
+			ram.reset();
+			ROM rom = new ROM(null);
+			rom.reset();
+			rom.setContents(program, 0);
+			PointerAddressRegisterAdapter a = new PointerAddressRegisterAdapter(null, ram);
+			a.reset();
+			Register d = new Register(null);
+			d.reset();
+			PointerAddressRegisterAdapter pc = new PointerAddressRegisterAdapter(null, rom);
+			pc.reset();
+			ALU alu = new ALU(null);
+			alu.reset();
+			cpu = new CPU(ram, rom, a, d, pc, alu, new Bus(null));
+			cpu.initProgram();
+		}
+
+		String getState() {
+			long memory = 0;
+			for (int i = 0; i < ram.getSize(); i++)
+				memory = memory * 31 + ram.getValueAt(i);
+
+			ALU alu = cpu.getALU();
+			return "time=" + cpu.getTime() + " A=" + cpu.getA().get() + " D=" + cpu.getD().get() +
+				   " PC=" + cpu.getPC().get() + " ALU=" + alu.getValueAt(0) + "," +
+				   alu.getValueAt(1) + "," + alu.getValueAt(2) + " RAM=" + memory + " ";
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package Hack.Gates;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Compares the nodes engine with the netlist engine (with and without optimization), on
+ * an adder chip which is built from Nand gates only and on an accumulator which adds it to
+ * a register on each clock cycle, and prints the speedup of the netlist engines.
+ * Run with: gradlew :hack-gates:netlistEngineBenchmark [--args="iterations"]
+ */
+class NetlistEngineBenchmark {
+	private static final String[] CHIPS = {
+		"Nand.hdl", "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }",
+		"Register.hdl",
+		"CHIP Register { IN in[16], load; OUT out[16]; BUILTIN Register; CLOCKED in, load; }",
+		"Not.hdl", "CHIP Not { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }",
+		"And.hdl",
+		"CHIP And { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=x); Not(in=x, out=out); }",
+		"Or.hdl",
+		"CHIP Or { IN a, b; OUT out; PARTS: Not(in=a, out=na); Not(in=b, out=nb); " +
+		"Nand(a=na, b=nb, out=out); }",
+		"Xor.hdl",
+		"CHIP Xor { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=n); Nand(a=a, b=n, out=x); " +
+		"Nand(a=n, b=b, out=y); Nand(a=x, b=y, out=out); }",
+		"FullAdder.hdl",
+		"CHIP FullAdder { IN a, b, c; OUT sum, carry; PARTS: Xor(a=a, b=b, out=s); " +
+		"Xor(a=s, b=c, out=sum); And(a=a, b=b, out=c1); And(a=s, b=c, out=c2); " +
+		"Or(a=c1, b=c2, out=carry); }",
+		"Acc16.hdl",
+		"CHIP Acc16 { IN in[16]; OUT out[16]; PARTS: Add16(a=in, b=current, out=sum); " +
+		"Register(in=sum, load=true, out=out, out=current); }"
+	};
+
+	private static final String[] ENGINE_NAMES = {"nodes", "netlist", "netlist optimize"};
+
+	public static void main(String[] args) throws Exception {
+		int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "netlist-engine-benchmark");
+		dir.mkdirs();
+		for (int i = 0; i < CHIPS.length; i += 2)
+			write(new File(dir, CHIPS[i]), CHIPS[i + 1] + "\n");
+		write(new File(dir, "Add16.hdl"), getAdderHDL(16));
+
+		System.out.println("chip\tengine\ttime(us)\tspeedup");
+		measure(dir, "Add16", false, iterations);
+		measure(dir, "Acc16", true, iterations);
+	}
+
+	// Measures the given chip on each engine, with evals after input changes or with
+	// clock cycles, and prints the results.
+	private static void measure(File dir, String chipName, boolean clocked, int iterations)
+			throws Exception {
+		double nodesTime = 0;
+		for (int engine = 0; engine < ENGINE_NAMES.length; engine++) {
+			GatesManager manager = new GatesManager();
+			manager.setWorkingDir(dir);
+			manager.setBuiltInDir(new File("builtInChips"));
+			manager.setCompiledDir(null);
+			manager.setTruthTableInputsLimit(0);
+			manager.enableChipsGUI(false);
+			CompositeGateClass gateClass =
+				(CompositeGateClass)GateClass.getGateClass(manager, chipName, false);
+			Gate gate = (engine == 0 ? gateClass.newInstance(manager)
+									 : gateClass.newNetlistInstance(manager, engine == 2));
+			manager.getClockNode().set((short)1);
+			gate.eval();
+
+			// warm up, then measure
+			time(manager, gate, clocked, iterations);
+			double time = time(manager, gate, clocked, iterations);
+			if (engine == 0)
+				nodesTime = time;
+
+			System.out.println(chipName + "\t" + ENGINE_NAMES[engine] + "\t" +
+							   Math.round(time * 100) / 100.0 + "\t" +
+							   Math.round(nodesTime / time * 10) / 10.0 + "x");
+		}
+	}
+
+	// Returns the average time in microseconds of changing the input of the gate and either
+	// evaluating it or running a clock cycle.
+	private static double time(GatesManager manager, Gate gate, boolean clocked, int iterations) {
+		Node input = gate.getInputNodes()[0];
+		Node output = gate.getOutputNodes()[0];
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			input.set((short)(i * 40503));
+			if (clocked) {
+				manager.getClockNode().set((short)0);
+				gate.tick();
+				manager.getClockNode().set((short)1);
+				gate.tock();
+			}
+			else
+				gate.eval();
+			output.get();
+		}
+		return (System.nanoTime() - start) / 1000.0 / iterations;
+	}
+
+	// Returns an adder of the given width, which chains full adders.
+	private static String getAdderHDL(int width) {
+		StringBuilder hdl = new StringBuilder();
+		hdl.append("CHIP Add").append(width).append(" { IN a[").append(width).append("], b[")
+		   .append(width).append("]; OUT out[").append(width).append("]; PARTS:\n");
+		for (int i = 0; i < width; i++)
+			hdl.append("FullAdder(a=a[").append(i).append("], b=b[").append(i).append("], c=")
+			   .append(i == 0 ? "false" : "c" + (i - 1)).append(", sum=out[").append(i)
+			   .append("], carry=c").append(i).append(");\n");
+		hdl.append("}\n");
+		return hdl.toString();
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package Hack.Gates;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the sequential and the parallel evaluation of netlists with levels of growing
+ * widths, and prints the width from which the parallel evaluation is faster.
+ * Run with: gradlew :hack-gates:netlistParallelBenchmark [--args="depth evals"]
+ */
+class NetlistParallelBenchmark {
+	private static final int[] WIDTHS = {64, 256, 1024, 2048, 4096, 8192, 16384, 32768};
+
+	public static void main(String[] args) throws Exception {
+		int depth = (args.length > 0 ? Integer.parseInt(args[0]) : 8);
+		int evals = (args.length > 1 ? Integer.parseInt(args[1]) : 200);
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "netlist-benchmark");
+		dir.mkdirs();
+		write(new File(dir, "Nand.hdl"), "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }\n");
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		System.out.println("parallelism " + pool.getParallelism() + ", depth " + depth);
+		System.out.println("width\tops\tsequential(us)\tparallel(us)");
+
+		int crossover = -1;
+		for (int width : WIDTHS) {
+			String name = "Wide" + width;
+			writeWideChip(new File(dir, name + ".hdl"), name, width, depth);
+
+			GatesManager manager = new GatesManager();
+			manager.setWorkingDir(dir);
+			manager.setBuiltInDir(new File("builtInChips"));
+			manager.enableChipsGUI(false);
+			CompositeGateClass gateClass =
+				(CompositeGateClass)GateClass.getGateClass(manager, name, false);
+
+			Gate sequential = gateClass.newNetlistInstance(manager);
+			Gate parallel = gateClass.newNetlistInstance(manager);
+			Netlist netlist = ((NetlistGate)parallel).getNetlist();
+			netlist.setParallelism(pool, 1);
+
+			// warm up, then measure
+			time(sequential, evals);
+			time(parallel, evals);
+			double sequentialTime = time(sequential, evals);
+			double parallelTime = time(parallel, evals);
+
+			System.out.println(width + "\t" + netlist.getOperationsCount() + "\t" +
+							   Math.round(sequentialTime) + "\t" + Math.round(parallelTime));
+			if (crossover < 0 && parallelTime < sequentialTime)
+				crossover = width;
+		}
+
+		if (crossover < 0)
+			System.out.println("parallel evaluation was not faster at any width");
+		else
+			System.out.println("parallel evaluation is faster from width " + crossover +
+							   " (dirty operations per level)");
+	}
+
+	// Returns the average time in microseconds of evaluating the gate after toggling its input.
+	private static double time(Gate gate, int evals) {
+		Node input = gate.getInputNodes()[0];
+		long start = System.nanoTime();
+		for (int i = 0; i < evals; i++) {
+			input.set((short)(i & 1));
+			gate.eval();
+		}
+		return (System.nanoTime() - start) / 1000.0 / evals;
+	}
+
+	// Writes a chip with the given number of inverter (Nand) chains of the given depth,
+	// all of which change when the input changes.
+	private static void writeWideChip(File file, String name, int width, int depth)
+			throws IOException {
+		StringBuilder hdl = new StringBuilder();
+		hdl.append("CHIP ").append(name).append(" { IN a, b; OUT out; PARTS:\n");
+		for (int w = 0; w < width; w++) {
+			hdl.append("Nand(a=a, b=a, out=n0x").append(w).append(");\n");
+			for (int d = 1; d < depth; d++) {
+				String previous = "n" + (d - 1) + "x" + w;
+				hdl.append("Nand(a=").append(previous).append(", b=").append(previous)
+				   .append(", out=n").append(d).append('x').append(w).append(");\n");
+			}
+		}
+		hdl.append("Nand(a=n").append(depth - 1).append("x0, b=b, out=out);\n}\n");
+		write(file, hdl.toString());
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -22,15 +22,24 @@ package Hack.Gates;
  */
 public class BuiltInGateClass extends GateClass {
 
-    // the java class that holds the basic gate functionality
+    // the factory of the java class that holds the basic gate functionality
+    private BuiltInGateFactory factory;
+
+    // the java class that holds the basic gate functionality, if it has no registered
+    // factory (instances are created through reflection)
     private Class javaGateClass;
 
+    // the name of the java class (without the package of the built-in dir)
+    private String javaClassName;
+
     /**
      * Constructs a new BuiltInGateClass with the given gate name and the HDLTokenizer
      * input which is positioned just after the BUILTIN declaration.
-     * The HDL's input and output pin names are also given.
+     * The HDL's input and output pin names are also given. The java class is searched in
+     * the built-in dir of the given GatesManager.
      */
-    public BuiltInGateClass(String gateName, HDLTokenizer input, PinInfo[] inputPinsInfo, PinInfo[] outputPinsInfo)
+    public BuiltInGateClass(GatesManager manager, String gateName, HDLTokenizer input,
+                            PinInfo[] inputPinsInfo, PinInfo[] outputPinsInfo)
      throws HDLException {
         super(gateName, inputPinsInfo, outputPinsInfo);
 
@@ -39,26 +48,13 @@ public class BuiltInGateClass extends GateClass {
         if (input.getTokenType() != HDLTokenizer.TYPE_IDENTIFIER)
             input.HDLError("Missing java class name");
 
-        String classFileName = input.getIdentifier();
-        String fullName = GatesManager.getInstance().getBuiltInDir() + "." + classFileName;
-
+        javaClassName = input.getIdentifier();
         try {
-            javaGateClass = Class.forName(fullName);
-        } catch (ClassNotFoundException cnfe) {
-            input.HDLError("Can't find " + classFileName + " java class");
+            findJavaGateClass(manager);
+        } catch (HDLException he) {
+            input.HDLError(he.getMessage());
         }
 
-        // check that the class is a subclass of BuiltInGate
-        Class currentClass = javaGateClass;
-        boolean found;
-        do {
-            currentClass = currentClass.getSuperclass();
-            found = currentClass.getName().equals("Hack.Gates.BuiltInGate");
-        } while (!found && !currentClass.getName().equals("java.lang.Object"));
-
-        if (!found)
-            input.HDLError(classFileName + " is not a subclass of BuiltInGate");
-
         // read ';' symbol
         input.advance();
         if (!(input.getTokenType() == HDLTokenizer.TYPE_SYMBOL && input.getSymbol() == ';'))
@@ -108,10 +104,71 @@ public class BuiltInGateClass extends GateClass {
                 input.HDLError("Missing '}'");
     }
 
+    /**
+     * Constructs a new BuiltInGateClass with the given gate name, pins, java class name
+     * and clock information (as read from a compiled hdl file). The java class is searched in
+     * the built-in dir of the given GatesManager.
+     * Throws HDLException if the java class is not found or is not a BuiltInGate.
+     */
+    public BuiltInGateClass(GatesManager manager, String gateName, String javaClassName,
+                            PinInfo[] inputPinsInfo, PinInfo[] outputPinsInfo, boolean isClocked,
+                            boolean[] isInputClocked, boolean[] isOutputClocked)
+     throws HDLException {
+        super(gateName, inputPinsInfo, outputPinsInfo);
+
+        this.javaClassName = javaClassName;
+        findJavaGateClass(manager);
+
+        this.isClocked = isClocked;
+        this.isInputClocked = isInputClocked;
+        this.isOutputClocked = isOutputClocked;
+    }
+
+    // Finds the java class of the gate in the built-in dir of the given GatesManager:
+    // sets the registered factory of the java class, or if it has no factory, loads
+    // the java class itself.
+    // Throws HDLException if the java class is not found or is not a BuiltInGate.
+    private void findJavaGateClass(GatesManager manager) throws HDLException {
+        String fullName = manager.getBuiltInDir() + "." + javaClassName;
+        factory = BuiltInGateRegistry.getFactory(fullName);
+
+        if (factory == null) {
+            try {
+                javaGateClass = Class.forName(fullName);
+            } catch (ClassNotFoundException cnfe) {
+                throw new HDLException("Can't find " + javaClassName + " java class");
+            }
+
+            if (!isBuiltInGate(javaGateClass))
+                throw new HDLException(javaClassName + " is not a subclass of BuiltInGate");
+        }
+    }
+
+    // Returns true if the given class is a subclass of BuiltInGate.
+    private static boolean isBuiltInGate(Class javaClass) {
+        Class currentClass = javaClass;
+        boolean found;
+        do {
+            currentClass = currentClass.getSuperclass();
+            found = currentClass.getName().equals("Hack.Gates.BuiltInGate");
+        } while (!found && !currentClass.getName().equals("java.lang.Object"));
+
+        return found;
+    }
+
+    /**
+     * Returns the name of the java class that implements the gate (without the package
+     * of the built-in dir).
+     */
+    public String getJavaClassName() {
+        return javaClassName;
+    }
+
     /**
      * Creates and returns a new instance of BuiltInGate.
+     * A gate with gui is added to the chips of the given GatesManager.
      */
-    public Gate newInstance() throws InstantiationException {
+    public Gate newInstance(GatesManager manager) throws InstantiationException {
         BuiltInGate result;
 
         Node[] inputNodes = new Node[inputPinsInfo.length];
@@ -123,10 +180,14 @@ public class BuiltInGateClass extends GateClass {
         for (int i = 0; i < outputNodes.length; i++)
             outputNodes[i] = new Node();
 
-        try {
-            result = (BuiltInGate)javaGateClass.newInstance();
-        } catch (IllegalAccessException iae) {
-            throw new InstantiationException(iae.getMessage());
+        if (factory != null)
+            result = factory.newInstance();
+        else {
+            try {
+                result = (BuiltInGate)javaGateClass.newInstance();
+            } catch (IllegalAccessException iae) {
+                throw new InstantiationException(iae.getMessage());
+            }
         }
 
         result.init(inputNodes, outputNodes, this);
@@ -134,7 +195,7 @@ public class BuiltInGateClass extends GateClass {
         // if the gate has a gui component, add the gate to the gate manager
         // and set it to be its own parent for eval notifications
         if (result instanceof BuiltInGateWithGUI)
-            GatesManager.getInstance().addChip((BuiltInGateWithGUI)result);
+            manager.addChip((BuiltInGateWithGUI)result);
 
         // Add a DirtyGateAdapter as a listener to all the non-clocked inputs,
         // so the gate will become dirty when one of its non-clocked input changes.
@@ -0,0 +1,30 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.Gates;
+
+/**
+ * A factory of BuiltInGates. Each built-in gate java class is registered in the
+ * BuiltInGateRegistry with a factory, so gates are created without reflection.
+ */
+public interface BuiltInGateFactory {
+
+    /**
+     * Creates and returns a new (uninitialized) instance of the built-in gate.
+     */
+    public BuiltInGate newInstance();
+}
@@ -0,0 +1,32 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.Gates;
+
+/**
+ * A provider of built-in gate factories, such as a library of built-in chips. The
+ * providers are found by the BuiltInGateRegistry through the ServiceLoader (they are
+ * listed in META-INF/services/Hack.Gates.BuiltInGateProvider), and register their
+ * factories in it.
+ */
+public interface BuiltInGateProvider {
+
+    /**
+     * Registers the factories of the provided built-in gates in the BuiltInGateRegistry.
+     */
+    public void registerFactories();
+}
\ No newline at end of file
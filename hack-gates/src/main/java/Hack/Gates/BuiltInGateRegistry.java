@@ -0,0 +1,62 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.Gates;
+
+import java.util.*;
+
+/**
+ * A registry of the factories of built-in gate java classes, by their full java class
+ * name (the built-in dir followed by '.' and the class name, as given in the BUILTIN
+ * declaration of the hdl file). The factories of the BuiltInGateProviders (such as the
+ * bundled built-in chips) are registered in advance. Java classes which are not
+ * registered are loaded through reflection once, when their gate class is created.
+ */
+public class BuiltInGateRegistry {
+
+    // A table that maps full java class names to their BuiltInGateFactories
+    private static final Hashtable factories = new Hashtable();
+
+    static {
+        Iterator providers = ServiceLoader.load(BuiltInGateProvider.class,
+                                                BuiltInGateRegistry.class.getClassLoader())
+                                          .iterator();
+        while (providers.hasNext())
+            ((BuiltInGateProvider)providers.next()).registerFactories();
+    }
+
+    /**
+     * Registers the given factory for the given full java class name.
+     */
+    public static void register(String javaClassName, BuiltInGateFactory factory) {
+        factories.put(javaClassName, factory);
+    }
+
+    /**
+     * Removes the factory of the given full java class name.
+     */
+    public static void unregister(String javaClassName) {
+        factories.remove(javaClassName);
+    }
+
+    /**
+     * Returns the factory of the given full java class name, or null if not registered.
+     */
+    public static BuiltInGateFactory getFactory(String javaClassName) {
+        return (BuiltInGateFactory)factories.get(javaClassName);
+    }
+}
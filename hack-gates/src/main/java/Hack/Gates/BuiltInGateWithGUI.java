@@ -108,7 +108,18 @@ public abstract class BuiltInGateWithGUI extends BuiltInGate
     }
 
     /**
-     * Returns the GUI component of the chip.
+     * Detaches the gate from its error listeners and its parent.
+     * The gate should not be used afterwards.
+     */
+    public void dispose() {
+        super.dispose();
+        errorListeners.removeAllElements();
+        parent = null;
+    }
+
+    /**
+     * Returns the GUI component of the chip, or null if the chip has no GUI component
+     * (it is still accessible from scripts through getValueAt and setValueAt).
      */
     public abstract Component getGUIComponent();
 
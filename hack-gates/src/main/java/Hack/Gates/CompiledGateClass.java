@@ -0,0 +1,372 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.Gates;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads and writes compiled hdl files (.hdlc): a binary form of a resolved GateClass,
+ * which holds the pins and their widths, the clocked pins, and for a composite gate the
+ * parts, internal pins, connections and the topological order of the parts.
+ * A compiled file is written to the compiled files dir of the GatesManager (a per-user
+ * cache dir, see GatesManager.getCompiledDir()) after its hdl file is parsed, and is
+ * used instead of parsing as long as it is up to date: the modification time and length
+ * of the hdl file, and of the hdl files of the parts (as currently resolved), are the
+ * same as when it was written, and the pins and clocked pins of the parts (which depend
+ * on their whole hierarchy) are the same as when it was written.
+ */
+public class CompiledGateClass {
+
+    /**
+     * The extension of compiled hdl files.
+     */
+    public static final String EXTENSION = ".hdlc";
+
+    // The header of a compiled file ("HDLC") and the format version
+    private static final int MAGIC = 0x48444c43;
+    private static final int VERSION = 3;
+
+    // The kinds of gate classes
+    private static final byte BUILT_IN = 1;
+    private static final byte COMPOSITE = 2;
+
+    /**
+     * Returns the compiled file of the given hdl file name in the given dir. The name of
+     * the compiled file is made of the gate name and a hash of the full path of the hdl
+     * file, so hdl files of the same name in different dirs don't share it.
+     */
+    public static File getCompiledFile(File dir, String hdlFileName) {
+        String path = new File(hdlFileName).getAbsolutePath();
+        String name = new File(hdlFileName).getName();
+        if (name.endsWith(".hdl"))
+            name = name.substring(0, name.length() - 4);
+
+        return new File(dir, name + "-" + Integer.toHexString(path.hashCode()) + EXTENSION);
+    }
+
+    /**
+     * Returns the GateClass of the given gate name, read from the compiled file of the
+     * given hdl file name. Returns null if the GatesManager has no compiled files dir, or
+     * if the compiled file doesn't exist, can't be read or is not up to date. The parts
+     * are loaded through the given GatesManager.
+     * Throws HDLException if a part can't be loaded.
+     */
+    public static GateClass read(GatesManager manager, String hdlFileName, String gateName)
+     throws HDLException {
+        File dir = manager.getCompiledDir();
+        if (dir == null)
+            return null;
+
+        File file = getCompiledFile(dir, hdlFileName);
+        if (!file.isFile())
+            return null;
+
+        GateClass result = null;
+
+        try {
+            // read the whole file at once
+            byte[] bytes = new byte[(int)file.length()];
+            DataInputStream fileInput = new DataInputStream(new FileInputStream(file));
+            try {
+                fileInput.readFully(bytes);
+            } finally {
+                fileInput.close();
+            }
+
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (input.readInt() == MAGIC && input.readInt() == VERSION &&
+                input.readUTF().equals(new File(hdlFileName).getAbsolutePath()) &&
+                isUpToDate(input, new File(hdlFileName)) && input.readUTF().equals(gateName))
+                result = readGateClass(manager, input, gateName);
+        } catch (IOException ioe) {
+            // an unreadable compiled file is treated as a missing one, and is rewritten
+            result = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the compiled file of the given GateClass, which was read from the given hdl
+     * file name, to the compiled files dir of the given GatesManager (nothing is written
+     * if it has none). The hdl files of the parts are resolved through the GatesManager.
+     * Throws IOException if the file can't be written.
+     */
+    public static void write(GatesManager manager, String hdlFileName, GateClass gateClass)
+     throws IOException {
+        File dir = manager.getCompiledDir();
+        if (dir == null)
+            return;
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create the compiled files dir " + dir);
+
+        File file = getCompiledFile(dir, hdlFileName);
+        File tempFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(new File(hdlFileName).getAbsolutePath());
+            writeStamp(output, new File(hdlFileName));
+            output.writeUTF(gateClass.getName());
+            writeGateClass(manager, output, gateClass);
+            output.flush();
+
+            // write to a temporary file first, so readers never see a partial file
+            FileOutputStream fileOutput = new FileOutputStream(tempFile);
+            try {
+                bytes.writeTo(fileOutput);
+            } finally {
+                fileOutput.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                if (!tempFile.renameTo(file))
+                    throw new IOException("Cannot write the compiled file " + file);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    // Reads the rest of the GateClass from the given input.
+    private static GateClass readGateClass(GatesManager manager, DataInputStream input,
+                                           String gateName)
+     throws IOException, HDLException {
+        GateClass result = null;
+
+        byte kind = input.readByte();
+        PinInfo[] inputPinsInfo = readPins(input);
+        PinInfo[] outputPinsInfo = readPins(input);
+        boolean isClocked = input.readBoolean();
+        boolean[] isInputClocked = readFlags(input);
+        boolean[] isOutputClocked = readFlags(input);
+
+        if (kind == BUILT_IN) {
+            String javaClassName = input.readUTF();
+            try {
+                result = new BuiltInGateClass(manager, gateName, javaClassName, inputPinsInfo,
+                                              outputPinsInfo, isClocked, isInputClocked,
+                                              isOutputClocked);
+            } catch (HDLException he) {
+                // let the hdl parser report the error
+                result = null;
+            }
+        }
+        else if (kind == COMPOSITE) {
+            int partsCount = input.readInt();
+            String[] partNames = new String[partsCount];
+            boolean upToDate = true;
+            for (int i = 0; i < partsCount; i++) {
+                partNames[i] = input.readUTF();
+                String partFileName = input.readUTF();
+                upToDate = upToDate &&
+                           partFileName.equals(manager.getHDLFileName(partNames[i])) &&
+                           isUpToDate(input, new File(partFileName));
+                if (!upToDate)
+                    return null;
+            }
+
+            // the parts are loaded before the rest is used, since the order of the parts and
+            // the clocked pins were computed from their clocked pins, which may have changed
+            // in a deeper part of their hierarchy
+            GateClass[] parts = new GateClass[partsCount];
+            for (int i = 0; i < partsCount; i++) {
+                parts[i] = GateClass.getGateClass(manager, partNames[i], false);
+                if (!input.readUTF().equals(getSignature(parts[i])))
+                    return null;
+            }
+
+            PinInfo[] internalPinsInfo = readPins(input);
+
+            int connectionsCount = input.readInt();
+            ConnectionSet connections = new ConnectionSet();
+            for (int i = 0; i < connectionsCount; i++) {
+                byte type = input.readByte();
+                int gatePinNumber = input.readInt();
+                int partNumber = input.readInt();
+                String partPinName = input.readUTF();
+                byte[] gateSubBus = readSubBus(input);
+                byte[] partSubBus = readSubBus(input);
+                connections.add(new Connection(type, gatePinNumber, partNumber, partPinName,
+                                               gateSubBus, partSubBus));
+            }
+
+            int[] partsOrder = new int[input.readInt()];
+            for (int i = 0; i < partsOrder.length; i++)
+                partsOrder[i] = input.readInt();
+
+            result = new CompositeGateClass(gateName, inputPinsInfo, outputPinsInfo,
+                                            internalPinsInfo, parts, connections, partsOrder,
+                                            isInputClocked, isOutputClocked);
+        }
+
+        return result;
+    }
+
+    // Writes the GateClass (after its name) to the given output.
+    private static void writeGateClass(GatesManager manager, DataOutputStream output,
+                                       GateClass gateClass)
+     throws IOException {
+        output.writeByte(gateClass instanceof CompositeGateClass ? COMPOSITE : BUILT_IN);
+        writePins(output, gateClass.inputPinsInfo);
+        writePins(output, gateClass.outputPinsInfo);
+        output.writeBoolean(gateClass.isClocked);
+        writeFlags(output, gateClass.isInputClocked);
+        writeFlags(output, gateClass.isOutputClocked);
+
+        if (gateClass instanceof BuiltInGateClass)
+            output.writeUTF(((BuiltInGateClass)gateClass).getJavaClassName());
+        else {
+            CompositeGateClass compositeGateClass = (CompositeGateClass)gateClass;
+
+            int partsCount = compositeGateClass.getPartsCount();
+            output.writeInt(partsCount);
+            for (int i = 0; i < partsCount; i++) {
+                String partName = compositeGateClass.getPartGateClass(i).getName();
+                String partFileName = manager.getHDLFileName(partName);
+                if (partFileName == null)
+                    throw new IOException("Can't find the hdl file of " + partName);
+
+                output.writeUTF(partName);
+                output.writeUTF(partFileName);
+                writeStamp(output, new File(partFileName));
+            }
+
+            for (int i = 0; i < partsCount; i++)
+                output.writeUTF(getSignature(compositeGateClass.getPartGateClass(i)));
+
+            PinInfo[] internalPinsInfo = new PinInfo[compositeGateClass.getInternalPinsCount()];
+            for (int i = 0; i < internalPinsInfo.length; i++)
+                internalPinsInfo[i] = compositeGateClass.getPinInfo(
+                                        CompositeGateClass.INTERNAL_PIN_TYPE, i);
+            writePins(output, internalPinsInfo);
+
+            ConnectionSet connections = compositeGateClass.getConnections();
+            output.writeInt(connections.size());
+            Iterator connectionIter = connections.iterator();
+            while (connectionIter.hasNext()) {
+                Connection connection = (Connection)connectionIter.next();
+                output.writeByte(connection.getType());
+                output.writeInt(connection.getGatePinNumber());
+                output.writeInt(connection.getPartNumber());
+                output.writeUTF(connection.getPartPinName());
+                writeSubBus(output, connection.getGateSubBus());
+                writeSubBus(output, connection.getPartSubBus());
+            }
+
+            int[] partsOrder = compositeGateClass.getPartsOrder();
+            output.writeInt(partsOrder.length);
+            for (int i = 0; i < partsOrder.length; i++)
+                output.writeInt(partsOrder[i]);
+        }
+    }
+
+    // Returns the pins of the given GateClass with their widths, and which of them are
+    // clocked, as a String.
+    private static String getSignature(GateClass gateClass) {
+        StringBuffer result = new StringBuffer();
+        result.append(gateClass.isClocked ? "clocked" : "combinational");
+        appendPins(result, gateClass.inputPinsInfo, gateClass.isInputClocked);
+        result.append(" ->");
+        appendPins(result, gateClass.outputPinsInfo, gateClass.isOutputClocked);
+        return result.toString();
+    }
+
+    // Appends the given pins with their widths, and a '*' after each clocked pin.
+    private static void appendPins(StringBuffer result, PinInfo[] pins, boolean[] isClocked) {
+        for (int i = 0; i < pins.length; i++) {
+            result.append(' ').append(pins[i].name).append('[').append(pins[i].width).append(']');
+            if (isClocked != null && i < isClocked.length && isClocked[i])
+                result.append('*');
+        }
+    }
+
+    // Returns true if the modification time and length of the given file are equal to
+    // the ones read from the given input.
+    private static boolean isUpToDate(DataInputStream input, File file) throws IOException {
+        long lastModified = input.readLong();
+        long length = input.readLong();
+        return file.lastModified() == lastModified && file.length() == length;
+    }
+
+    // Writes the modification time and length of the given file.
+    private static void writeStamp(DataOutputStream output, File file) throws IOException {
+        output.writeLong(file.lastModified());
+        output.writeLong(file.length());
+    }
+
+    // Reads a list of pins (names and widths).
+    private static PinInfo[] readPins(DataInputStream input) throws IOException {
+        PinInfo[] result = new PinInfo[input.readInt()];
+        for (int i = 0; i < result.length; i++) {
+            String name = input.readUTF();
+            result[i] = new PinInfo(name, input.readByte());
+        }
+
+        return result;
+    }
+
+    // Writes a list of pins (names and widths).
+    private static void writePins(DataOutputStream output, PinInfo[] pins) throws IOException {
+        output.writeInt(pins.length);
+        for (int i = 0; i < pins.length; i++) {
+            output.writeUTF(pins[i].name);
+            output.writeByte(pins[i].width);
+        }
+    }
+
+    // Reads an array of flags.
+    private static boolean[] readFlags(DataInputStream input) throws IOException {
+        boolean[] result = new boolean[input.readInt()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = input.readBoolean();
+
+        return result;
+    }
+
+    // Writes an array of flags.
+    private static void writeFlags(DataOutputStream output, boolean[] flags) throws IOException {
+        output.writeInt(flags.length);
+        for (int i = 0; i < flags.length; i++)
+            output.writeBoolean(flags[i]);
+    }
+
+    // Reads an optional sub bus.
+    private static byte[] readSubBus(DataInputStream input) throws IOException {
+        byte[] result = null;
+        if (input.readBoolean())
+            result = new byte[]{input.readByte(), input.readByte()};
+
+        return result;
+    }
+
+    // Writes an optional sub bus.
+    private static void writeSubBus(DataOutputStream output, byte[] subBus) throws IOException {
+        output.writeBoolean(subBus != null);
+        if (subBus != null) {
+            output.writeByte(subBus[0]);
+            output.writeByte(subBus[1]);
+        }
+    }
+}
@@ -17,6 +17,8 @@
 
 package Hack.Gates;
 
+import java.io.*;
+
 public class CompositeGate extends Gate {
 
     // the internal pins
@@ -25,21 +27,34 @@ public class CompositeGate extends Gate {
     // The contained parts (Gates), sorted in topological order.
     protected Gate[] parts;
 
+    // The contained parts which are clocked, sorted in topological order.
+    // Only they are ticked and tocked: the other parts are recomputed by eval() when
+    // they become dirty.
+    protected Gate[] clockedParts;
+
+    // The contained parts which are recomputed by reCompute(), sorted in topological order:
+    // all the parts, unless the gate was pruned to the cone of its observed pins
+    // (see OutputCone).
+    protected Gate[] evaluatedParts;
+
+    // The clock node of the GatesManager, and the nodes of this gate which listen to it
+    // (null if none)
+    private Node clockNode;
+    private Node[] clockListeners;
+
     protected void clockUp() {
-        if (gateClass.isClocked)
-            for (int i = 0; i < parts.length; i++)
-                parts[i].tick();
+        for (int i = 0; i < clockedParts.length; i++)
+            clockedParts[i].tick();
     }
 
     protected void clockDown() {
-        if (gateClass.isClocked)
-            for (int i = 0; i < parts.length; i++)
-                parts[i].tock();
+        for (int i = 0; i < clockedParts.length; i++)
+            clockedParts[i].tock();
     }
 
     protected void reCompute() {
-        for (int i = 0; i < parts.length; i++)
-            parts[i].eval();
+        for (int i = 0; i < evaluatedParts.length; i++)
+            evaluatedParts[i].eval();
     }
 
     /**
@@ -73,6 +88,76 @@ public class CompositeGate extends Gate {
         return parts;
     }
 
+    /**
+     * Detaches the gate and its parts hierarchy from the clock node, and from the other
+     * nodes and listeners outside it. The gate should not be used afterwards.
+     */
+    public void dispose() {
+        super.dispose();
+
+        if (clockListeners != null)
+            for (int i = 0; i < clockListeners.length; i++)
+                clockNode.removeListener(clockListeners[i]);
+        clockListeners = null;
+
+        for (int i = 0; i < parts.length; i++)
+            parts[i].dispose();
+    }
+
+    /**
+     * Writes the state of the gate to the given output: the values of its nodes (including
+     * the internal nodes), whether it is dirty, and the state of its parts.
+     */
+    public void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeInt(internalPins.length);
+        writeNodes(out, internalPins);
+        writePartsState(out);
+    }
+
+    /**
+     * Reads the state of the gate, which was written by writeState() from a gate of the
+     * same class. Throws IOException if the state doesn't match the gate.
+     */
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        if (in.readInt() != internalPins.length)
+            throw new IOException("The state doesn't match the gate " + gateClass.getName());
+
+        readNodes(in, internalPins);
+        readPartsState(in);
+    }
+
+    /**
+     * Writes the state of the parts to the given output.
+     */
+    protected void writePartsState(DataOutput out) throws IOException {
+        out.writeInt(parts.length);
+        for (int i = 0; i < parts.length; i++)
+            parts[i].writeState(out);
+    }
+
+    /**
+     * Reads the state of the parts, which was written by writePartsState().
+     * Throws IOException if the state doesn't match the parts.
+     */
+    protected void readPartsState(DataInput in) throws IOException {
+        if (in.readInt() != parts.length)
+            throw new IOException("The state doesn't match the gate " + gateClass.getName());
+
+        for (int i = 0; i < parts.length; i++)
+            parts[i].readState(in);
+    }
+
+    /**
+     * Sets the nodes of this gate which were added as listeners to the given clock node,
+     * so they are removed from it when the gate is disposed.
+     */
+    void setClockListeners(Node clockNode, Node[] clockListeners) {
+        this.clockNode = clockNode;
+        this.clockListeners = clockListeners;
+    }
+
     /**
      * Initializes the gate
      */
@@ -82,7 +167,19 @@ public class CompositeGate extends Gate {
         this.outputPins = outputPins;
         this.internalPins = internalPins;
         this.parts = parts;
+        this.evaluatedParts = parts;
         this.gateClass = gateClass;
+
+        int clockedCount = 0;
+        for (int i = 0; i < parts.length; i++)
+            if (parts[i].getGateClass().isClocked)
+                clockedCount++;
+
+        clockedParts = new Gate[clockedCount];
+        for (int i = 0, j = 0; i < parts.length; i++)
+            if (parts[i].getGateClass().isClocked)
+                clockedParts[j++] = parts[i];
+
         setDirty();
     }
 
@@ -58,12 +58,18 @@ public class CompositeGateClass extends GateClass {
     // The set of connections between the gate and its parts
     private ConnectionSet connections;
 
+    // The truth table of the gate (see getTruthTable), and whether it was computed
+    private short[] truthTable;
+    private boolean truthTableComputed;
+
     /**
      * Constructs a new CompositeGateClass with the given gate name and the HDLTokenizer input
      * which is positioned just after the PARTS: declaration.
-     * The HDL's input and output pin names are also given.
+     * The HDL's input and output pin names are also given. The parts are searched by the
+     * given GatesManager.
      */
-    public CompositeGateClass(String gateName, HDLTokenizer input, PinInfo[] inputPinsInfo, PinInfo[] outputPinsInfo)
+    public CompositeGateClass(GatesManager manager, String gateName, HDLTokenizer input,
+                              PinInfo[] inputPinsInfo, PinInfo[] outputPinsInfo)
      throws HDLException {
         super(gateName, inputPinsInfo, outputPinsInfo);
 
@@ -73,41 +79,76 @@ public class CompositeGateClass extends GateClass {
         isInputClocked = new boolean[inputPinsInfo.length];
         isOutputClocked = new boolean[outputPinsInfo.length];
 
-        readParts(input);
+        readParts(manager, input);
 
         Graph graph = createConnectionsGraph();
 
-        // runs the topological sort, starting from the "master parts" node,
-        // which connects to all the parts. This will also check for circles.
-        Object[] topologicalOrder = graph.topologicalSort(partsList);
+        // runs the topological sort, which also checks for circles.
+        int[] topologicalOrder = graph.topologicalSort();
 
         if (graph.hasCircle())
             throw new HDLException("This chip has a circle in its parts connections");
 
         // create the partsOrder array, by taking from the topologicalOrder
-        // only the Integer objects, which represent the parts.
-        partsOrder = new int[partsList.size()];
+        // only the nodes which represent the parts.
+        int partsCount = partsList.size();
+        partsOrder = new int[partsCount];
         int counter = 0;
         for (int i = 0; i < topologicalOrder.length; i++) {
-            if (topologicalOrder[i] instanceof Integer)
-                partsOrder[counter++] = ((Integer)topologicalOrder[i]).intValue();
+            if (topologicalOrder[i] < partsCount)
+                partsOrder[counter++] = topologicalOrder[i];
+        }
+
+        // find for each node the input pins from which there is a path to it.
+        int[] inputNodes = new int[inputPinsInfo.length];
+        for (int i = 0; i < inputNodes.length; i++)
+            inputNodes[i] = partsCount + i;
+        BitSet[] reachingInputs = graph.findReachingSources(inputNodes);
+
+        // an output pin which can't be reached from any input pin is clocked, and
+        // an input pin which can't reach any output pin is clocked.
+        BitSet outputsReachingInputs = new BitSet(inputPinsInfo.length);
+        for (int i = 0; i < outputPinsInfo.length; i++) {
+            BitSet inputs = reachingInputs[partsCount + inputPinsInfo.length + i];
+            isOutputClocked[i] = inputs.isEmpty();
+            outputsReachingInputs.or(inputs);
         }
 
-        // for each input pin, check if there is a path in the graph to an output pin
-        // (actually to the "master output", which all outputs connect to).
-        // If there is, the input is not clocked. Otherwise, it is.
         for (int i = 0; i < inputPinsInfo.length; i++)
-            isInputClocked[i] = !graph.pathExists(inputPinsInfo[i], outputPinsInfo);
+            isInputClocked[i] = !outputsReachingInputs.get(i);
+    }
+
+    /**
+     * Constructs a new CompositeGateClass with the given gate name, pins and resolved
+     * structure: parts, connections, topological order of the parts and clocked pins
+     * (as read from a compiled hdl file).
+     */
+    public CompositeGateClass(String gateName, PinInfo[] inputPinsInfo, PinInfo[] outputPinsInfo,
+                              PinInfo[] internalPinsInfo, GateClass[] parts,
+                              ConnectionSet connections, int[] partsOrder,
+                              boolean[] isInputClocked, boolean[] isOutputClocked) {
+        super(gateName, inputPinsInfo, outputPinsInfo);
 
-        // for each output pin, check if there is a path in the graph from any input pin
-        // (actually from the "master input", which connects to all inputs) to this output pin.
-        // If there is, the output is not clocked. Otherwise, it is.
-        for (int i = 0; i < outputPinsInfo.length; i++)
-            isOutputClocked[i] = !graph.pathExists(inputPinsInfo, outputPinsInfo[i]);
+        this.internalPinsInfo = new Vector();
+        for (int i = 0; i < internalPinsInfo.length; i++) {
+            this.internalPinsInfo.addElement(internalPinsInfo[i]);
+            registerPin(internalPinsInfo[i], INTERNAL_PIN_TYPE, i);
+        }
+
+        partsList = new Vector();
+        for (int i = 0; i < parts.length; i++) {
+            partsList.addElement(parts[i]);
+            isClocked = isClocked || parts[i].isClocked;
+        }
+
+        this.connections = connections;
+        this.partsOrder = partsOrder;
+        this.isInputClocked = isInputClocked;
+        this.isOutputClocked = isOutputClocked;
     }
 
     // Reads the parts list from the given HDL input
-    private void readParts(HDLTokenizer input)
+    private void readParts(GatesManager manager, HDLTokenizer input)
      throws HDLException {
         boolean endOfParts = false;
 
@@ -124,7 +165,7 @@ public class CompositeGateClass extends GateClass {
                     input.HDLError("A GateClass name is expected");
 
                 String partName = input.getIdentifier();
-                GateClass gateClass = getGateClass(partName, false);
+                GateClass gateClass = getGateClass(manager, partName, false);
                 partsList.addElement(gateClass);
                 isClocked = isClocked || gateClass.isClocked;
                 int partNumber = partsList.size() - 1;
@@ -401,84 +442,74 @@ public class CompositeGateClass extends GateClass {
 
     /*
       Creates and returns the graph of the connections in the chip.
-      The nodes in the graph are:
-      1. Internal parts, represented with Integer objects containing the part's numbers.
-      2. Input, Output, Internal and special nodes, represented with their PinInfo objects.
-      3. One "master part" node that connects to all the inernal parts, represented with the
-         partsList vector.
-      4. One "master output" node that all output nodes connect to, represented with the
-         outputPinsInfo array.
-      5. One "master input" node that connects to all input nodes, represented with the
-         inputPinsInfo array.
+      The nodes in the graph are numbered as follows:
+      1. Internal parts: their part numbers (0 .. parts count - 1).
+      2. Input pins, followed by the output pins and the internal pins.
+      3. The special nodes: true, false and clock.
       Edges are not created between inetrnal nodes and clocked part inputs.
     */
     private Graph createConnectionsGraph() {
-        Graph graph = new Graph();
+        int inputsBase = partsList.size();
+        int outputsBase = inputsBase + inputPinsInfo.length;
+        int internalsBase = outputsBase + outputPinsInfo.length;
+        int trueNode = internalsBase + internalPinsInfo.size();
+        int falseNode = trueNode + 1;
+        int clockNode = trueNode + 2;
+
+        Graph graph = new Graph(clockNode + 1);
         Iterator connectionIter = connections.iterator();
 
         while (connectionIter.hasNext()) {
             Connection connection = (Connection)connectionIter.next();
-            Integer part = new Integer(connection.getPartNumber());
+            int part = connection.getPartNumber();
             int gatePinNumber = connection.getGatePinNumber();
 
             switch (connection.getType()) {
                 case Connection.TO_INTERNAL:
                     if (isLegalFromPartEdge(connection, part))
-                        graph.addEdge(part, getPinInfo(INTERNAL_PIN_TYPE, gatePinNumber));
+                        graph.addEdge(part, internalsBase + gatePinNumber);
                     break;
 
                 case Connection.FROM_INTERNAL:
                     if (isLegalToPartEdge(connection, part))
-                        graph.addEdge(getPinInfo(INTERNAL_PIN_TYPE, gatePinNumber), part);
+                        graph.addEdge(internalsBase + gatePinNumber, part);
                     break;
 
                 case Connection.TO_OUTPUT:
                     if (isLegalFromPartEdge(connection, part))
-                        graph.addEdge(part, getPinInfo(OUTPUT_PIN_TYPE, gatePinNumber));
+                        graph.addEdge(part, outputsBase + gatePinNumber);
                     break;
 
                 case Connection.FROM_INPUT:
                     if (isLegalToPartEdge(connection, part))
-                        graph.addEdge(getPinInfo(INPUT_PIN_TYPE, gatePinNumber), part);
+                        graph.addEdge(inputsBase + gatePinNumber, part);
                     break;
 
                 case Connection.FROM_TRUE:
                     if (isLegalToPartEdge(connection, part))
-                        graph.addEdge(TRUE_NODE_INFO, part);
+                        graph.addEdge(trueNode, part);
                     break;
 
                 case Connection.FROM_FALSE:
                     if (isLegalToPartEdge(connection, part))
-                        graph.addEdge(FALSE_NODE_INFO, part);
+                        graph.addEdge(falseNode, part);
                     break;
 
                 case Connection.FROM_CLOCK:
                     if (isLegalToPartEdge(connection, part))
-                        graph.addEdge(CLOCK_NODE_INFO, part);
+                        graph.addEdge(clockNode, part);
                     break;
             }
         }
 
-        // connect the "master part" node to all the parts.
-        for (int i = 0; i < partsList.size(); i++)
-            graph.addEdge(partsList, new Integer(i));
-
-        // connect all output pins to the "master output" node
-        for (int i = 0; i < outputPinsInfo.length; i++)
-            graph.addEdge(outputPinsInfo[i], outputPinsInfo);
-
-        // connect the "master input" node to all input pins
-        for (int i = 0; i < inputPinsInfo.length; i++)
-            graph.addEdge(inputPinsInfo, inputPinsInfo[i]);
-
         return graph;
     }
 
     // Returns true if an edge should be connected to the given part.
     // a connection to a clocked input is not considered as a connection
     // in the graph.
-    private boolean isLegalToPartEdge(Connection connection, Integer part) {
-        GateClass partGateClass = (GateClass)partsList.elementAt(part.intValue());
+    private boolean isLegalToPartEdge(Connection connection, int part) {
+        GateClass partGateClass = (GateClass)partsList.elementAt(part);
         int partPinNumber = partGateClass.getPinNumber(connection.getPartPinName());
         return !partGateClass.isInputClocked[partPinNumber];
     }
@@ -486,8 +517,8 @@ public class CompositeGateClass extends GateClass {
     // Returns true if an edge should be connected from the given part.
     // a connection from a clocked output is not considered as a connection
     // in the graph.
-    private boolean isLegalFromPartEdge(Connection connection, Integer part) {
-        GateClass partGateClass = (GateClass)partsList.elementAt(part.intValue());
+    private boolean isLegalFromPartEdge(Connection connection, int part) {
+        GateClass partGateClass = (GateClass)partsList.elementAt(part);
         int partPinNumber = partGateClass.getPinNumber(connection.getPartPinName());
         return !partGateClass.isOutputClocked[partPinNumber];
     }
@@ -510,9 +541,116 @@ public class CompositeGateClass extends GateClass {
     }
 
     /**
-     * Creates and returns a new instance of CompositeGate.
+     * Returns the number of parts in this gate.
+     */
+    public int getPartsCount() {
+        return partsList.size();
+    }
+
+    /**
+     * Returns the GateClass of the part at the given index (in the HDL parts order).
+     */
+    public GateClass getPartGateClass(int index) {
+        return (GateClass)partsList.elementAt(index);
+    }
+
+    /**
+     * Returns the indice of the parts, sorted in topological order.
+     */
+    public int[] getPartsOrder() {
+        return partsOrder;
+    }
+
+    /**
+     * Returns the number of internal pins in this gate.
      */
-    public Gate newInstance() throws InstantiationException {
+    public int getInternalPinsCount() {
+        return internalPinsInfo.size();
+    }
+
+    /**
+     * Returns the set of connections between the gate and its parts.
+     */
+    public ConnectionSet getConnections() {
+        return connections;
+    }
+
+    /**
+     * Returns the total width of the input pins.
+     */
+    public int getInputBitsCount() {
+        int result = 0;
+        for (int i = 0; i < inputPinsInfo.length; i++)
+            result += inputPinsInfo[i].width;
+
+        return result;
+    }
+
+    /**
+     * Returns the truth table of this gate, or null if the gate has no truth table:
+     * it is clocked, has more input bits than the given limit (a limit of 0 or less
+     * disables the truth tables) or has parts with gui (whose state may change). The index
+     * of an entry is the concatenation of the input values (the first input pin at the
+     * lowest bits), and each entry holds the values of the output pins. The table is
+     * computed once.
+     */
+    public synchronized short[] getTruthTable(int maxInputBits)
+     throws InstantiationException {
+        int inputBits = getInputBitsCount();
+        if (maxInputBits <= 0 || isClocked || inputBits > maxInputBits ||
+            outputPinsInfo.length == 0)
+            return null;
+
+        if (!truthTableComputed) {
+            // the parts are created in a separate manager, so their gui chips (if any)
+            // don't become a part of the simulation. The parts are not simulated by
+            // tables, since bit sliced Nands evaluate many entries at once.
+            GatesManager tableManager = new GatesManager();
+            tableManager.enableChipsGUI(false);
+            tableManager.setTruthTableInputsLimit(0);
+            Netlist netlist = new Netlist(this, tableManager, true);
+
+            if (tableManager.getChips().length == 0)
+                truthTable = netlist.computeTruthTable();
+            truthTableComputed = true;
+        }
+
+        return truthTable;
+    }
+
+    /**
+     * Creates and returns a new instance of this gate which is simulated by a flat,
+     * levelized Netlist instead of a hierarchy of part gates
+     * (using the GatesManager of the current thread).
+     */
+    public Gate newNetlistInstance() throws InstantiationException {
+        return newNetlistInstance(GatesManager.getInstance());
+    }
+
+    /**
+     * Creates and returns a new instance of this gate which is simulated by a flat,
+     * levelized Netlist, and belongs to the simulation of the given GatesManager.
+     */
+    public Gate newNetlistInstance(GatesManager manager) throws InstantiationException {
+        return new Netlist(this, manager).getGate();
+    }
+
+    /**
+     * Creates and returns a new instance of this gate which is simulated by a flat,
+     * levelized Netlist, and belongs to the simulation of the given GatesManager.
+     * If optimize is true, the netlist is optimized: the values of the pins of the gate
+     * are the same, but the parts which can't affect them are not simulated.
+     */
+    public Gate newNetlistInstance(GatesManager manager, boolean optimize)
+     throws InstantiationException {
+        return new Netlist(this, manager, optimize).getGate();
+    }
+
+    /**
+     * Creates and returns a new instance of CompositeGate, which belongs to the simulation
+     * of the given GatesManager.
+     */
+    public Gate newInstance(GatesManager manager) throws InstantiationException {
         Node[] inputNodes = new Node[inputPinsInfo.length];
         Node[] outputNodes = new Node[outputPinsInfo.length];
         Node[] internalNodes = new Node[internalPinsInfo.size()];
@@ -523,7 +661,7 @@ public class CompositeGateClass extends GateClass {
         // The created array is sorted in the original parts order
         Gate[] parts = new Gate[partsList.size()];
         for (int i = 0; i < parts.length; i++) {
-            parts[i] = ((GateClass)partsList.elementAt(i)).newInstance();
+            parts[i] = ((GateClass)partsList.elementAt(i)).newInstance(manager);
             if (parts[i] instanceof BuiltInGateWithGUI) // save the parent of gates with gui
                 ((BuiltInGateWithGUI)parts[i]).setParent(result);
         }
@@ -594,6 +732,7 @@ public class CompositeGateClass extends GateClass {
         // or false node to a part's input nodes.
         connectionIter = internalConnections.iterator();
         boolean isClockParticipating = false;
+        Vector clockListeners = new Vector();
         while (connectionIter.hasNext()) {
             Connection connection = (Connection)connectionIter.next();
             partNode = parts[connection.getPartNumber()].getNode(connection.getPartPinName());
@@ -637,8 +776,9 @@ public class CompositeGateClass extends GateClass {
 
                     break;
                 case Connection.FROM_CLOCK:
-                    partNode.set(Gate.CLOCK_NODE.get());
-                    Gate.CLOCK_NODE.addListener(partNode);
+                    partNode.set(manager.getClockNode().get());
+                    manager.getClockNode().addListener(partNode);
+                    clockListeners.addElement(partNode);
                     isClockParticipating = true;
                     break;
             }
@@ -646,8 +786,15 @@ public class CompositeGateClass extends GateClass {
 
         // If the clock special node appears in this gate, Add a dirty gate adapter
         // such that changes in clock state will cause this gate to recompute.
-        if (isClockParticipating)
-            Gate.CLOCK_NODE.addListener(new DirtyGateAdapter(result));
+        if (isClockParticipating) {
+            Node clockAdapter = new DirtyGateAdapter(result);
+            manager.getClockNode().addListener(clockAdapter);
+            clockListeners.addElement(clockAdapter);
+
+            Node[] listeners = new Node[clockListeners.size()];
+            clockListeners.copyInto(listeners);
+            result.setClockListeners(manager.getClockNode(), listeners);
+        }
 
         result.init(inputNodes, outputNodes, internalNodes, sortedParts, this);
 
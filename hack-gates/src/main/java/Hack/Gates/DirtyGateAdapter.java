@@ -18,8 +18,8 @@
 package Hack.Gates;
 
 /**
- * A node which has a gate, and calls the gate's setDirty() method whenever its (the node's)
- * value changes.
+ * A node which has a gate, and schedules the gate to be marked as dirty (see NodeScheduler)
+ * whenever its (the node's) value changes.
  */
 public class DirtyGateAdapter extends Node {
 
@@ -39,6 +39,6 @@ public class DirtyGateAdapter extends Node {
      */
     public void set(short value) {
         super.set(value);
-        affectedGate.setDirty();
+        NodeScheduler.scheduleDirty(affectedGate);
     }
 }
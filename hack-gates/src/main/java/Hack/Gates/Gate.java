@@ -17,6 +17,7 @@
 
 package Hack.Gates;
 
+import java.io.*;
 import java.util.*;
 
 /**
@@ -25,17 +26,18 @@ import java.util.*;
 public abstract class Gate {
 
     /**
-     * The special "true" node.
+     * The special "true" node (constant, shared by all simulations).
      */
     public static final Node TRUE_NODE = new Node((short)-1);
 
     /**
-     * The special "false" node.
+     * The special "false" node (constant, shared by all simulations).
      */
     public static final Node FALSE_NODE = new Node((short)0);
 
     /**
-     * The special "clock" node.
+     * The special "clock" node of the default GatesManager.
+     * Each GatesManager has its own clock node (see GatesManager.getClockNode()).
      */
     public static final Node CLOCK_NODE = new Node();
 
@@ -51,6 +53,9 @@ public abstract class Gate {
     // true if the inputs to this gate changed since the last re-computation.
     protected boolean isDirty;
 
+    // true if the gate is waiting in the NodeScheduler's list of gates to mark as dirty
+    protected boolean isScheduledDirty;
+
     // A list of listeners to the isDirty property.
     private Vector dirtyGateListeners;
 
@@ -142,6 +147,58 @@ public abstract class Gate {
         return outputPins;
     }
 
+    /**
+     * Detaches the gate and its parts hierarchy from the nodes and listeners outside it
+     * (such as the clock node of its GatesManager), so it can be garbage collected after
+     * it is replaced. The gate should not be used afterwards.
+     */
+    public void dispose() {
+        dirtyGateListeners = null;
+    }
+
+    /**
+     * Writes the state of the gate to the given output: the values of its nodes, whether
+     * it is dirty, and the state of its parts hierarchy (including the internal state
+     * of the clocked built-in gates).
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(isDirty);
+        writeNodes(out, inputPins);
+        writeNodes(out, outputPins);
+    }
+
+    /**
+     * Reads the state of the gate, which was written by writeState() from a gate of the
+     * same class. The values are set directly, without notifying the listeners, so the
+     * gate is restored exactly to the written state.
+     * Throws IOException if the state doesn't match the gate.
+     */
+    public void readState(DataInput in) throws IOException {
+        isDirty = in.readBoolean();
+        readNodes(in, inputPins);
+        readNodes(in, outputPins);
+    }
+
+    /**
+     * Writes the values of the given nodes to the given output.
+     */
+    protected static void writeNodes(DataOutput out, Node[] nodes) throws IOException {
+        for (int i = 0; i < nodes.length; i++)
+            out.writeShort(nodes[i] != null ? nodes[i].value : 0);
+    }
+
+    /**
+     * Reads the values of the given nodes from the given input (without notifying their
+     * listeners).
+     */
+    protected static void readNodes(DataInput in, Node[] nodes) throws IOException {
+        for (int i = 0; i < nodes.length; i++) {
+            short value = in.readShort();
+            if (nodes[i] != null)
+                nodes[i].value = value;
+        }
+    }
+
     /**
      * Recomputes the gate's outputs if inputs changed since the last computation.
      */
@@ -154,6 +211,10 @@ public abstract class Gate {
      * Recomputes the gate's outputs.
      */
     private void doEval() {
+        GateProfiler profiler = GateProfiler.countingProfiler;
+        if (profiler != null)
+            profiler.countEval(this);
+
         if (isDirty) {
             isDirty = false;
 
@@ -62,9 +62,6 @@ public abstract class GateClass {
     // Mapping from pin names to their numbers (Integer objects)
     protected Hashtable namesToNumbers;
 
-    // a table that maps a gate name with its GateClass
-    protected static Hashtable GateClasses = new Hashtable();
-
 
     // Constructs a new GateCLass (public access through the getGateClass method)
     protected GateClass(String gateName, PinInfo[] inputPinsInfo, PinInfo[] outputPinsInfo) {
@@ -85,13 +82,27 @@ public abstract class GateClass {
      * path of the hdl file. If doesn't contain path, looks for the hdl file
      * according to the directory hierarchy.
      * If the GateClass doesn't exist yet, creates the GateClass by parsing the hdl file.
+     * The GatesManager of the current thread is used.
      */
     public static GateClass getGateClass(String gateName, boolean containsPath) throws HDLException {
+        return getGateClass(GatesManager.getInstance(), gateName, containsPath);
+    }
+
+    /**
+     * Returns the GateClass associated with the given gate name, using the dirs and the
+     * cache of the given GatesManager.
+     * If containsPath is true, the gate name is assumed to contain the full
+     * path of the hdl file. If doesn't contain path, looks for the hdl file
+     * according to the directory hierarchy.
+     * If the GateClass doesn't exist yet, creates the GateClass by parsing the hdl file.
+     */
+    public static GateClass getGateClass(GatesManager manager, String gateName, boolean containsPath)
+     throws HDLException {
         String fileName = null;
 
         // find hdl file name according to the gate name.
         if (!containsPath) {
-            fileName = GatesManager.getInstance().getHDLFileName(gateName);
+            fileName = manager.getHDLFileName(gateName);
             if (fileName == null)
                 throw new HDLException("Chip " + gateName +
                                        " is not found in the working and built in folders");
@@ -105,36 +116,75 @@ public abstract class GateClass {
             gateName = file.getName().substring(0, file.getName().lastIndexOf("."));
         }
 
-        // Try to find the gate in the "cache"
-        GateClass result = (GateClass)GateClasses.get(fileName);
+        GateClass result;
+        manager.startLoading();
+
+        try {
+            // Try to find the gate in the "cache" (unchanged since it was read)
+            result = manager.getCachedGateClass(fileName);
+
+            // gate wasn't found in cache: the outermost loading loads the parts hierarchy
+            // in parallel first, so only the gate itself remains to be loaded.
+            if (result == null) {
+                char[] source = null;
+                if (manager.isOutermostLoading())
+                    source = HierarchyLoader.loadParts(manager, fileName);
+
+                result = loadGateClass(manager, fileName, gateName, source);
+            }
+        } finally {
+            manager.endLoading();
+        }
+
+        return result;
+    }
 
-        // gate wasn't found in cache
+    /**
+     * Loads the GateClass of the given hdl file name and gate name, and caches it in the
+     * given GatesManager. The compiled hdl file is used if it is up to date, otherwise
+     * the hdl file is parsed (and compiled for the next time). If the given source isn't
+     * null, it is used as the contents of the hdl file.
+     */
+    static GateClass loadGateClass(GatesManager manager, String fileName, String gateName,
+                                   char[] source)
+     throws HDLException {
+        GateClass result = CompiledGateClass.read(manager, fileName, gateName);
         if (result == null) {
-            HDLTokenizer input = new HDLTokenizer(fileName);
-            result = readHDL(input, gateName);
-            GateClasses.put(fileName, result);
+            HDLTokenizer input = (source != null ? new HDLTokenizer(fileName, source)
+                                                 : new HDLTokenizer(fileName));
+            result = readHDL(manager, input, gateName);
+            try {
+                CompiledGateClass.write(manager, fileName, result);
+            } catch (IOException ioe) {
+                // the compiled files are only an optimization, so the loading goes on, and
+                // the manager stops using a compiled files dir which can't be written
+                manager.setCompiledDir(null);
+            }
         }
 
+        manager.cacheGateClass(fileName, result);
         return result;
     }
 
     /**
-     * Clears the gate Cache
+     * Clears the gate Cache (of the GatesManager of the current thread)
      */
     public static void clearGateCache() {
-        GateClasses.clear();
+        GatesManager.getInstance().clearGateCache();
     }
 
     /**
      * Returns true if a GateClass exists for the given gate name.
      */
     public static boolean gateClassExists(String gateName) {
-        String fileName = GatesManager.getInstance().getHDLFileName(gateName);
-        return (GateClasses.get(fileName) != null);
+        GatesManager manager = GatesManager.getInstance();
+        String fileName = manager.getHDLFileName(gateName);
+        return (manager.getCachedGateClass(fileName) != null);
     }
 
     // Loads the HDL from the given input, creates the appropriate GateClass and returns it.
-    private static GateClass readHDL(HDLTokenizer input, String gateName)
+    // Parts and built-in classes are searched by the given GatesManager.
+    private static GateClass readHDL(GatesManager manager, HDLTokenizer input, String gateName)
      throws HDLException {
 
         // read CHIP keyword
@@ -186,10 +236,10 @@ public abstract class GateClass {
         // read BuiltIn/Parts keyword
         if (input.getTokenType() == HDLTokenizer.TYPE_KEYWORD
              && input.getKeywordType() == HDLTokenizer.KW_BUILTIN)
-            result = new BuiltInGateClass(gateName, input, inputPinsInfo, outputPinsInfo);
+            result = new BuiltInGateClass(manager, gateName, input, inputPinsInfo, outputPinsInfo);
         else if (input.getTokenType() == HDLTokenizer.TYPE_KEYWORD
                  && input.getKeywordType() == HDLTokenizer.KW_PARTS) {
-            result = new CompositeGateClass(gateName, input, inputPinsInfo, outputPinsInfo);
+            result = new CompositeGateClass(manager, gateName, input, inputPinsInfo, outputPinsInfo);
         }
         else
             input.HDLError("Keyword expected");
@@ -340,7 +390,16 @@ public abstract class GateClass {
     }
 
     /**
-     * Creates and returns a new Gate instance of this GateClass type.
+     * Creates and returns a new Gate instance of this GateClass type
+     * (using the GatesManager of the current thread).
+     */
+    public Gate newInstance() throws InstantiationException {
+        return newInstance(GatesManager.getInstance());
+    }
+
+    /**
+     * Creates and returns a new Gate instance of this GateClass type, which belongs to the
+     * simulation of the given GatesManager (its clock node and chips list).
      */
-    public abstract Gate newInstance() throws InstantiationException;
+    public abstract Gate newInstance(GatesManager manager) throws InstantiationException;
 }
@@ -0,0 +1,305 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+package Hack.Gates;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Profiles the simulation of gates which are simulated by their parts (not by a netlist).
+ * While profiling is enabled, every re-computation of a gate and every change of the value
+ * of a node are counted. The counts of a loaded gate and its parts hierarchy are reported
+ * by part instance (with its hierarchical path), by node (the pins of the parts) and
+ * aggregated by GateClass name.
+ * An instance path is made of the parts names from the top gate, each followed by the
+ * number of the part in the hdl of its parent, for example: CPU/ALU[8]/Add16[12].
+ * The counts are kept by the profiler, so the gates and nodes don't grow for it. Only one
+ * profiler counts at a time: while none counts, the gates and nodes only check that.
+ */
+public class GateProfiler {
+
+    // The profiler which counts, or null if none does. Checked by Gate.doEval() and
+    // Node.set().
+    static volatile GateProfiler countingProfiler;
+
+    // The top gate whose hierarchy is profiled
+    private Gate gate;
+
+    // The part instances and their paths, in hierarchy order
+    private Vector instances;
+    private Vector instancePaths;
+
+    // The nodes (pins of the part instances), their paths and the instances which own them.
+    // A node which is shared by several pins is named after its first pin.
+    private Vector nodes;
+    private Vector nodePaths;
+    private Vector nodeOwners;
+
+    // The numbers (Integers) of the part instances and of the nodes, by identity
+    private IdentityHashMap instanceNumbers;
+    private IdentityHashMap nodeNumbers;
+
+    // The re-computations count of each part instance, and the value changes count of
+    // each node
+    private int[] evalsCounts;
+    private int[] togglesCounts;
+
+    /**
+     * Constructs a new GateProfiler of the given gate and its parts hierarchy.
+     */
+    public GateProfiler(Gate gate) {
+        this.gate = gate;
+        instances = new Vector();
+        instancePaths = new Vector();
+        nodes = new Vector();
+        nodePaths = new Vector();
+        nodeOwners = new Vector();
+        instanceNumbers = new IdentityHashMap();
+        nodeNumbers = new IdentityHashMap();
+        addInstance(gate, gate.getGateClass().getName());
+        evalsCounts = new int[instances.size()];
+        togglesCounts = new int[nodes.size()];
+    }
+
+    /**
+     * Sets whether the re-computations of the part instances and the value changes of the
+     * nodes of the profiled gate are counted. A profiler which starts counting stops the
+     * one which counted before.
+     */
+    public void setCounting(boolean value) {
+        if (value)
+            countingProfiler = this;
+        else if (countingProfiler == this)
+            countingProfiler = null;
+    }
+
+    // Counts a re-computation of the given gate, if it is profiled.
+    void countEval(Gate instance) {
+        Integer number = (Integer)instanceNumbers.get(instance);
+        if (number != null)
+            evalsCounts[number.intValue()]++;
+    }
+
+    // Counts a value change of the given node, if it is profiled.
+    void countToggle(Node node) {
+        Integer number = (Integer)nodeNumbers.get(node);
+        if (number != null)
+            togglesCounts[number.intValue()]++;
+    }
+
+    // Adds the given gate instance (with the given path) and its parts hierarchy, with
+    // their nodes which are not known yet.
+    private void addInstance(Gate instance, String path) {
+        int owner = instances.size();
+        instanceNumbers.put(instance, Integer.valueOf(owner));
+        instances.addElement(instance);
+        instancePaths.addElement(path);
+
+        GateClass gateClass = instance.getGateClass();
+        addNodes(instance.getInputNodes(), gateClass, GateClass.INPUT_PIN_TYPE, path, owner);
+        addNodes(instance.getOutputNodes(), gateClass, GateClass.OUTPUT_PIN_TYPE, path, owner);
+
+        if (instance instanceof CompositeGate && !(instance instanceof NetlistGate)) {
+            CompositeGate composite = (CompositeGate)instance;
+            addNodes(composite.getInternalNodes(), gateClass,
+                     CompositeGateClass.INTERNAL_PIN_TYPE, path, owner);
+
+            Gate[] parts = composite.getParts();
+            int[] partsOrder = ((CompositeGateClass)gateClass).getPartsOrder();
+            for (int i = 0; i < parts.length; i++)
+                addInstance(parts[i], path + "/" + parts[i].getGateClass().getName() +
+                                      "[" + partsOrder[i] + "]");
+        }
+    }
+
+    // Adds the given nodes of the given instance, which are not known yet.
+    private void addNodes(Node[] pins, GateClass gateClass, byte type, String path,
+                          int owner) {
+        if (pins == null)
+            return;
+
+        for (int i = 0; i < pins.length; i++) {
+            if (pins[i] != null && !nodeNumbers.containsKey(pins[i])) {
+                nodeNumbers.put(pins[i], Integer.valueOf(nodes.size()));
+                nodes.addElement(pins[i]);
+                nodePaths.addElement(path + "." + gateClass.getPinInfo(type, i).name);
+                nodeOwners.addElement(Integer.valueOf(owner));
+            }
+        }
+    }
+
+    /**
+     * Sets the counts of all the part instances and nodes to 0.
+     */
+    public void reset() {
+        Arrays.fill(evalsCounts, 0);
+        Arrays.fill(togglesCounts, 0);
+    }
+
+    /**
+     * Returns the path of the node with the most value changes, followed by its count,
+     * or null if nothing was counted.
+     */
+    public String getHottestNode() {
+        int best = -1;
+        for (int i = 0; i < togglesCounts.length; i++) {
+            int count = togglesCounts[i];
+            if (count > 0 && (best == -1 || count > togglesCounts[best]))
+                best = i;
+        }
+
+        return (best == -1 ? null : nodePaths.elementAt(best) + " (" +
+                                    togglesCounts[best] + " toggles)");
+    }
+
+    /**
+     * Returns the path of the part instance with the most re-computations, followed by
+     * its count, or null if nothing was counted.
+     */
+    public String getHottestPart() {
+        int[] order = sortByCounts(evalsCounts);
+        return (order.length > 0 && evalsCounts[order[0]] > 0 ?
+                instancePaths.elementAt(order[0]) + " (" + evalsCounts[order[0]] +
+                " evaluations)" : null);
+    }
+
+    /**
+     * Writes the report of the counts (see writeReport(Writer, int)) to the given file.
+     */
+    public void writeReport(File file, int limit) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writeReport(writer, limit);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the report of the counts to the given writer: the GateClasses sorted by their
+     * total re-computations and value changes, and the given amount of the hottest part
+     * instances and nodes.
+     */
+    public void writeReport(Writer writer, int limit) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        int[] evals = evalsCounts.clone();
+        int[] toggles = togglesCounts.clone();
+
+        // aggregate by GateClass name: instances, evaluations and toggles of their pins
+        Hashtable classNumbers = new Hashtable();
+        Vector classNames = new Vector();
+        for (int i = 0; i < instances.size(); i++) {
+            String name = ((Gate)instances.elementAt(i)).getGateClass().getName();
+            if (!classNumbers.containsKey(name)) {
+                classNumbers.put(name, Integer.valueOf(classNames.size()));
+                classNames.addElement(name);
+            }
+        }
+
+        int[] classInstances = new int[classNames.size()];
+        long[] classEvals = new long[classNames.size()];
+        long[] classToggles = new long[classNames.size()];
+        for (int i = 0; i < instances.size(); i++) {
+            int c = getClassNumber(classNumbers, i);
+            classInstances[c]++;
+            classEvals[c] += evals[i];
+        }
+        for (int i = 0; i < toggles.length; i++)
+            classToggles[getClassNumber(classNumbers,
+                                        ((Integer)nodeOwners.elementAt(i)).intValue())] +=
+                toggles[i];
+
+        int[] classOrder = sortByCounts(classEvals);
+
+        out.println("Profile of " + gate.getGateClass().getName() + ": " + instances.size() +
+                    " part instances, " + nodes.size() + " nodes");
+        if (gate instanceof NetlistGate)
+            out.println("The gate is simulated by a netlist, so its parts are not profiled");
+
+        out.println();
+        out.println("By chip:");
+        out.println("     evaluations        toggles  instances  chip");
+        for (int i = 0; i < classOrder.length; i++) {
+            int c = classOrder[i];
+            out.println(pad(classEvals[c], 16) + pad(classToggles[c], 15) +
+                        pad(classInstances[c], 11) + "  " + classNames.elementAt(c));
+        }
+
+        int[] instanceOrder = sortByCounts(evals);
+        out.println();
+        out.println("Hottest part instances:");
+        out.println("     evaluations  part");
+        for (int i = 0; i < instanceOrder.length && i < limit && evals[instanceOrder[i]] > 0; i++)
+            out.println(pad(evals[instanceOrder[i]], 16) + "  " +
+                        instancePaths.elementAt(instanceOrder[i]));
+
+        int[] nodeOrder = sortByCounts(toggles);
+        out.println();
+        out.println("Hottest nodes:");
+        out.println("         toggles  node");
+        for (int i = 0; i < nodeOrder.length && i < limit && toggles[nodeOrder[i]] > 0; i++)
+            out.println(pad(toggles[nodeOrder[i]], 16) + "  " +
+                        nodePaths.elementAt(nodeOrder[i]));
+
+        out.flush();
+    }
+
+    // Returns the number of the GateClass of the given instance.
+    private int getClassNumber(Hashtable classNumbers, int instance) {
+        String name = ((Gate)instances.elementAt(instance)).getGateClass().getName();
+        return ((Integer)classNumbers.get(name)).intValue();
+    }
+
+    // Returns the indice of the given counts, sorted by decreasing counts (stable).
+    private static int[] sortByCounts(int[] counts) {
+        long[] longCounts = new long[counts.length];
+        for (int i = 0; i < counts.length; i++)
+            longCounts[i] = counts[i];
+
+        return sortByCounts(longCounts);
+    }
+
+    // Returns the indice of the given counts, sorted by decreasing counts (stable).
+    private static int[] sortByCounts(final long[] counts) {
+        Integer[] order = new Integer[counts.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = Integer.valueOf(i);
+
+        Arrays.sort(order, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long c1 = counts[((Integer)o1).intValue()];
+                long c2 = counts[((Integer)o2).intValue()];
+                return (c1 > c2 ? -1 : (c1 < c2 ? 1 : 0));
+            }
+        });
+
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+            result[i] = order[i].intValue();
+
+        return result;
+    }
+
+    // Returns the given number, padded with spaces on the left to the given width.
+    private static String pad(long number, int width) {
+        StringBuffer result = new StringBuffer(String.valueOf(number));
+        while (result.length() < width)
+            result.insert(0, ' ');
+
+        return result.toString();
+    }
+}
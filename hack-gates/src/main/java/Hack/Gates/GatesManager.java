@@ -18,22 +18,56 @@
 package Hack.Gates;
 
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Properties;
 import java.util.Vector;
 
 /**
- * A singleton - manager for common gates properties.
+ * A manager for the common gates properties of one simulation: the clock node, the cache
+ * of gate classes, the working & built-in dirs and the built-in chips with gui.
+ * Each simulation may have its own GatesManager, so that several simulations can run
+ * concurrently in different threads. getInstance() returns the GatesManager which is
+ * bound to the current thread, or a default (shared) one.
  */
 public class GatesManager {
 
-    // The single instance.
+    // The default instance.
     private static GatesManager singleton;
 
+    // The instance which is bound to each thread.
+    private static final ThreadLocal currentInstance = new ThreadLocal();
+
+    // The clock node
+    private Node clockNode;
+
+    // A table that maps hdl file names to their CachedGateClasses
+    private Hashtable gateClasses;
+
+    // The number of the current validation of the cache. Each cached GateClass is
+    // validated (against its hdl file and its parts) at most once in each validation.
+    private int validation;
+
+    // The depth of nested gate loadings (a loading of a composite gate loads its parts)
+    private int loadingDepth;
+
+    // A table that maps dirs to their cached DirListings
+    private Hashtable dirListings;
+
     // The working HDL dir
     private File workingDir;
 
     // The BuiltIn HDL dir
     private File builtInDir;
 
+    // The dir of the compiled hdl files (null if they are not used)
+    private File compiledDir;
+
+    // The dir of the verified chips files (null if the test results are not recorded)
+    private File verifiedChipsDir;
+
     // The gates panel on which gate components are added
     private GatesPanelGUI gatesPanel;
 
@@ -47,24 +81,221 @@ public class GatesManager {
     // otherwise, their gui shouldn't be created.
     private boolean updateChipsGUI;
 
+    // The maximal amount of input bits of parts which are simulated by truth tables
+    private int truthTableInputsLimit;
+
+    // When true, the chips of the working dir which passed their tests are replaced by
+    // their built-in implementations.
+    private boolean accelerated;
+
+    // When true, the gates of this manager are profiled (see GateProfiler)
+    private boolean profiling;
+
+    // The content hashes of the chips which passed their tests and of their tests (file
+    // name -> hash), as read from the verified chips file, which file it is and its
+    // modification time.
+    private Properties verifiedChips;
+    private File verifiedChipsFile;
+    private long verifiedChipsModified;
+
+    // A table that maps hdl file names to their cached ContentHashes
+    private Hashtable contentHashes;
+
+    /**
+     * The default dir of the verified chips files, which hold the content hashes of the
+     * chips which passed their tests (a file for each working dir): a dir in the home dir
+     * of the user, so nothing is written to the working dir.
+     */
+    public static final File DEFAULT_VERIFIED_CHIPS_DIR =
+        new File(System.getProperty("user.home"), ".hack" + File.separator + "verified");
+
+    /**
+     * The default dir of the compiled hdl files: a cache dir in the home dir of the user,
+     * so the compiled files are never written to the dirs of the hdl files.
+     */
+    public static final File DEFAULT_COMPILED_DIR =
+        new File(System.getProperty("user.home"), ".hack" + File.separator + "hdlc");
+
+    /**
+     * The default maximal amount of input bits of parts which are simulated by truth tables.
+     */
+    public static final int DEFAULT_TRUTH_TABLE_INPUTS_LIMIT = 16;
+
     /**
-     * Constructs a new GatesManager.
+     * Constructs a new GatesManager, with a new clock node.
      */
-    private GatesManager() {
+    public GatesManager() {
+        this(new Node());
+    }
+
+    // Constructs a new GatesManager with the given clock node.
+    private GatesManager(Node clockNode) {
+        this.clockNode = clockNode;
+        gateClasses = new Hashtable();
+        dirListings = new Hashtable();
         chips = new Vector();
+        contentHashes = new Hashtable();
         updateChipsGUI = true;
+        truthTableInputsLimit = DEFAULT_TRUTH_TABLE_INPUTS_LIMIT;
+        compiledDir = DEFAULT_COMPILED_DIR;
+        verifiedChipsDir = DEFAULT_VERIFIED_CHIPS_DIR;
     }
 
     /**
-     * Returns the single instance of GatesManager.
+     * Returns the GatesManager which is bound to the current thread. If no GatesManager
+     * is bound, returns the default instance, whose clock node is Gate.CLOCK_NODE.
      */
     public static GatesManager getInstance() {
+        GatesManager result = (GatesManager)currentInstance.get();
+
+        if (result == null)
+            result = getDefaultInstance();
+
+        return result;
+    }
+
+    /**
+     * Returns the default instance of GatesManager.
+     */
+    public static synchronized GatesManager getDefaultInstance() {
         if (singleton == null)
-            singleton = new GatesManager();
+            singleton = new GatesManager(Gate.CLOCK_NODE);
 
         return singleton;
     }
 
+    /**
+     * Binds the given GatesManager to the current thread, so it will be returned by
+     * getInstance() (null binds the default instance).
+     */
+    public static void setInstance(GatesManager instance) {
+        currentInstance.set(instance);
+    }
+
+    /**
+     * Returns the clock node.
+     */
+    public Node getClockNode() {
+        return clockNode;
+    }
+
+    /**
+     * Returns the cached GateClass of the given hdl file name, or null if not cached or if
+     * it is no longer valid: its hdl file was modified (according to its modification time
+     * and length, and to its contents if it was modified just before it was read) or one
+     * of its parts is no longer valid or is now resolved to another hdl file. Invalid GateClasses are removed from the cache, so only them and the gates
+     * which depend on them are re-read.
+     */
+    public synchronized GateClass getCachedGateClass(String fileName) {
+        if (loadingDepth == 0)
+            validation++;
+
+        CachedGateClass cached = (CachedGateClass)gateClasses.get(fileName);
+        return (cached != null && isValid(cached) ? cached.gateClass : null);
+    }
+
+    /**
+     * Caches the given GateClass of the given hdl file name.
+     */
+    public synchronized void cacheGateClass(String fileName, GateClass gateClass) {
+        CachedGateClass cached = new CachedGateClass();
+        File file = new File(fileName);
+        cached.fileName = fileName;
+        cached.gateClass = gateClass;
+        cached.lastModified = file.lastModified();
+        cached.length = file.length();
+        cached.hash = getRecentFileHash(file, cached.lastModified);
+        cached.validation = validation;
+        cached.isValid = true;
+        gateClasses.put(fileName, cached);
+    }
+
+    /**
+     * Marks the beginning of a gate loading. The cached GateClasses are validated once
+     * during the outermost loading (the loading of a gate and its parts).
+     * The parts may be loaded in other threads during the outermost loading.
+     */
+    public synchronized void startLoading() {
+        if (loadingDepth++ == 0)
+            validation++;
+    }
+
+    /**
+     * Marks the end of a gate loading.
+     */
+    public synchronized void endLoading() {
+        loadingDepth--;
+    }
+
+    /**
+     * Returns true if the current gate loading is the outermost one.
+     */
+    public synchronized boolean isOutermostLoading() {
+        return (loadingDepth == 1);
+    }
+
+    // Returns true if the given cached GateClass is still valid. Each GateClass is checked
+    // once in each validation.
+    private boolean isValid(CachedGateClass cached) {
+        if (cached.validation == validation)
+            return cached.isValid;
+
+        // mark as valid meanwhile, in case of circular parts
+        cached.validation = validation;
+        cached.isValid = true;
+
+        File file = new File(cached.fileName);
+        boolean result = (file.lastModified() == cached.lastModified &&
+                          file.length() == cached.length);
+        if (result && cached.hash != null) {
+            String hash = getRecentFileHash(file, cached.lastModified);
+            result = (hash == null || hash.equals(cached.hash));
+            if (result)
+                cached.hash = hash;
+        }
+
+        // the parts are the dependencies of the gate (as read by CompositeGateClass)
+        if (result && cached.gateClass instanceof CompositeGateClass) {
+            CompositeGateClass gateClass = (CompositeGateClass)cached.gateClass;
+            for (int i = 0; i < gateClass.getPartsCount() && result; i++) {
+                GateClass part = gateClass.getPartGateClass(i);
+                String partFileName = getHDLFileName(part.getName());
+                CachedGateClass cachedPart = (partFileName == null ? null :
+                                              (CachedGateClass)gateClasses.get(partFileName));
+                result = (cachedPart != null && cachedPart.gateClass == part &&
+                          isValid(cachedPart));
+            }
+        }
+
+        cached.isValid = result;
+        if (!result)
+            gateClasses.remove(cached.fileName);
+
+        return result;
+    }
+
+    // Returns the content hash of the given file, whose modification time is given, if it
+    // was modified so recently that its modification time may not change when it is
+    // modified again. Otherwise, or if it can't be read, returns null.
+    private String getRecentFileHash(File file, long lastModified) {
+        if (System.currentTimeMillis() - lastModified >= MODIFICATION_TRUST_DELAY)
+            return null;
+
+        try {
+            return getContentHash(file);
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Clears the gate cache.
+     */
+    public synchronized void clearGateCache() {
+        gateClasses.clear();
+        dirListings.clear();
+    }
+
     /**
      * Returns the current HDL dir.
      */
@@ -77,6 +308,7 @@ public class GatesManager {
      */
     public void setWorkingDir(File file) {
         workingDir = file;
+        dirListings.clear();
     }
 
     /**
@@ -91,6 +323,39 @@ public class GatesManager {
      */
     public void setBuiltInDir(File file) {
         builtInDir = file;
+        dirListings.clear();
+    }
+
+    /**
+     * Returns the dir of the compiled hdl files (see CompiledGateClass), or null if
+     * compiled files are not used.
+     */
+    public synchronized File getCompiledDir() {
+        return compiledDir;
+    }
+
+    /**
+     * Sets the dir of the compiled hdl files with the given dir. If it is null, the hdl
+     * files are always parsed and no compiled files are written.
+     */
+    public synchronized void setCompiledDir(File dir) {
+        compiledDir = dir;
+    }
+
+    /**
+     * Returns the dir of the verified chips files (see recordVerifiedChip), or null if the
+     * test results are not recorded.
+     */
+    public synchronized File getVerifiedChipsDir() {
+        return verifiedChipsDir;
+    }
+
+    /**
+     * Sets the dir of the verified chips files with the given dir. If it is null, the test
+     * results are not recorded and no chip is substituted.
+     */
+    public synchronized void setVerifiedChipsDir(File dir) {
+        verifiedChipsDir = dir;
     }
 
     /**
@@ -110,7 +375,7 @@ public class GatesManager {
         chip.addErrorListener(errorHandler);
         chip.setParent(chip); // set the chip to be its own parent for Eval notifications.
 
-        if (gatesPanel != null)
+        if (gatesPanel != null && chip.getGUIComponent() != null)
             gatesPanel.addGateComponent(chip.getGUIComponent());
      }
 
@@ -121,7 +386,7 @@ public class GatesManager {
         chips.remove(chip);
         chip.removeErrorListener(errorHandler);
 
-        if (gatesPanel != null)
+        if (gatesPanel != null && chip.getGUIComponent() != null)
             gatesPanel.removeGateComponent(chip.getGUIComponent());
      }
 
@@ -163,23 +428,313 @@ public class GatesManager {
      * Returns the full HDL file name that matches the given gate name.
      * The HDL file is searched first in the current dir, and if not found, in the BuiltIn dir.
      * If not found in any of them, returns null.
+     * In accelerated mode, a chip of the current dir which passed its test (see
+     * isSubstituted) is resolved to the BuiltIn dir.
      */
     public String getHDLFileName(String gateName) {
+        if (accelerated && isSubstituted(gateName))
+            return new File(builtInDir, gateName + ".hdl").getAbsolutePath();
+
+        return getUnsubstitutedHDLFileName(gateName);
+    }
+
+    /**
+     * Returns the full HDL file name that matches the given gate name, searching first in
+     * the current dir and then in the BuiltIn dir, even in accelerated mode.
+     * If not found in any of them, returns null.
+     */
+    public String getUnsubstitutedHDLFileName(String gateName) {
         String result = null;
         String name = gateName + ".hdl";
 
-        File file = new File(workingDir, name);
-        if (file.exists())
-            result = file.getAbsolutePath();
-        else {
-            file = new File(builtInDir, name);
-            if (file.exists())
-                result = file.getAbsolutePath();
-        }
+        if (dirContains(workingDir, name))
+            result = new File(workingDir, name).getAbsolutePath();
+        else if (dirContains(builtInDir, name))
+            result = new File(builtInDir, name).getAbsolutePath();
 
         return result;
     }
 
+    /**
+     * Returns true if the given chip is replaced by its built-in implementation in
+     * accelerated mode: its hdl file in the current dir passed its own test (with the same
+     * contents of the hdl, test script and comparison files, see recordVerifiedChip), and
+     * the BuiltIn dir has a chip of the same name.
+     */
+    public boolean isSubstituted(String gateName) {
+        String name = gateName + ".hdl";
+        if (!dirContains(workingDir, name) || !dirContains(builtInDir, name))
+            return false;
+
+        Properties chips = getVerifiedChips();
+        if (chips == null)
+            return false;
+
+        String[] names = getTestFileNames(gateName);
+        try {
+            for (int i = 0; i < names.length; i++) {
+                String hash = chips.getProperty(names[i]);
+                File file = new File(workingDir, names[i]);
+                if (hash == null || !file.isFile() || !hash.equals(getContentHash(file)))
+                    return false;
+            }
+        } catch (IOException ioe) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Records that the chip with the given name, whose hdl file had the given content hash
+     * when it was loaded, passed its own test: the given script and comparison files are
+     * the <chip>.tst and <chip>.cmp files of the current dir. The content hashes of the
+     * three files are kept in the verified chips file of the current dir, in the verified
+     * chips dir. Returns false (and records nothing) if the files are not the own test of
+     * the chip, or if there is no verified chips dir.
+     */
+    public synchronized boolean recordVerifiedChip(String gateName, String hash,
+                                                   File scriptFile, File comparisonFile)
+     throws IOException {
+        String[] names = getTestFileNames(gateName);
+        File dir = workingDir.getAbsoluteFile();
+        if (verifiedChipsDir == null ||
+            !scriptFile.getAbsoluteFile().equals(new File(dir, names[1])) ||
+            !comparisonFile.getAbsoluteFile().equals(new File(dir, names[2])))
+            return false;
+
+        String[] hashes = {hash, getContentHash(scriptFile), getContentHash(comparisonFile)};
+        Properties chips = getVerifiedChips();
+        boolean changed = false;
+        for (int i = 0; i < names.length; i++) {
+            if (!hashes[i].equals(chips.getProperty(names[i]))) {
+                chips.setProperty(names[i], hashes[i]);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            if (!verifiedChipsDir.isDirectory() && !verifiedChipsDir.mkdirs())
+                throw new IOException("Cannot create the verified chips dir " +
+                                      verifiedChipsDir);
+
+            OutputStream out =
+                new BufferedOutputStream(new FileOutputStream(verifiedChipsFile));
+            try {
+                chips.store(out, "Content hashes of the chips of " +
+                                 workingDir.getAbsolutePath() + " which passed their tests");
+            } finally {
+                out.close();
+            }
+
+            verifiedChipsModified = verifiedChipsFile.lastModified();
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the content hash (SHA-256, in hex) of the given file. The hash is cached
+     * while the modification time and length of the file are unchanged, unless the file
+     * was modified just before it was hashed.
+     */
+    public synchronized String getContentHash(File file) throws IOException {
+        ContentHash cached = (ContentHash)contentHashes.get(file.getPath());
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (cached == null || cached.lastModified != lastModified || cached.length != length ||
+            cached.hashTime - lastModified < MODIFICATION_TRUST_DELAY) {
+            long hashTime = System.currentTimeMillis();
+            byte[] contents = new byte[(int)length];
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(contents);
+            } finally {
+                in.close();
+            }
+
+            cached = new ContentHash();
+            cached.lastModified = lastModified;
+            cached.length = length;
+            cached.hashTime = hashTime;
+            cached.hash = computeHash(contents);
+            contentHashes.put(file.getPath(), cached);
+        }
+
+        return cached.hash;
+    }
+
+    /**
+     * Returns the content hash (SHA-256, in hex) of the hdl files of the given GateClass,
+     * which was read from the given file, and of the GateClasses in its parts hierarchy
+     * (whose hdl files are resolved by getHDLFileName).
+     */
+    public String getHierarchyHash(String fileName, GateClass gateClass) throws IOException {
+        StringBuffer hashes = new StringBuffer();
+        hashes.append(gateClass.getName()).append('=')
+              .append(getContentHash(new File(fileName))).append('\n');
+        appendPartsHashes(gateClass, hashes, new HashSet());
+        return computeHash(hashes.toString().getBytes("UTF-8"));
+    }
+
+    // Appends the names and content hashes of the hdl files of the parts hierarchy of the
+    // given GateClass to the given buffer, skipping the GateClasses in the given set.
+    private void appendPartsHashes(GateClass gateClass, StringBuffer hashes, HashSet visited)
+     throws IOException {
+        if (!(gateClass instanceof CompositeGateClass))
+            return;
+
+        CompositeGateClass composite = (CompositeGateClass)gateClass;
+        for (int i = 0; i < composite.getPartsCount(); i++) {
+            GateClass part = composite.getPartGateClass(i);
+            if (visited.add(part.getName())) {
+                String partFileName = getHDLFileName(part.getName());
+                hashes.append(part.getName()).append('=')
+                      .append(partFileName == null ? "" : getContentHash(new File(partFileName)))
+                      .append('\n');
+                appendPartsHashes(part, hashes, visited);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the chips of the current dir which passed their tests are replaced
+     * by their built-in implementations.
+     */
+    public boolean isAccelerated() {
+        return accelerated;
+    }
+
+    /**
+     * Sets whether the chips of the current dir which passed their tests are replaced by
+     * their built-in implementations (see isSubstituted).
+     */
+    public void setAccelerated(boolean value) {
+        accelerated = value;
+    }
+
+    /**
+     * Returns true if the gates of this manager are profiled.
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Sets whether the gates of this manager are profiled. When profiling, the GateProfiler
+     * of the loaded gate should count (see GateProfiler.setCounting).
+     */
+    public void setProfiling(boolean value) {
+        profiling = value;
+    }
+
+    // Returns the names of the files of the given chip whose hashes are recorded when it
+    // passes its test: its hdl file, its test script and its comparison file.
+    private static String[] getTestFileNames(String gateName) {
+        return new String[]{gateName + ".hdl", gateName + ".tst", gateName + ".cmp"};
+    }
+
+    // Returns the verified chips of the current dir, re-reading the verified chips file
+    // if it was modified, or null if there is no verified chips dir. The name of the file
+    // is made of the name of the current dir and a hash of its full path.
+    private synchronized Properties getVerifiedChips() {
+        if (verifiedChipsDir == null)
+            return null;
+
+        String path = workingDir.getAbsolutePath();
+        File file = new File(verifiedChipsDir, workingDir.getAbsoluteFile().getName() + "-" +
+                                               Integer.toHexString(path.hashCode()) +
+                                               ".properties");
+        long lastModified = file.lastModified();
+        if (verifiedChips == null || !file.equals(verifiedChipsFile) ||
+            verifiedChipsModified != lastModified) {
+            verifiedChips = new Properties();
+            verifiedChipsFile = file;
+            verifiedChipsModified = lastModified;
+            if (lastModified != 0) {
+                try {
+                    InputStream in = new BufferedInputStream(new FileInputStream(file));
+                    try {
+                        verifiedChips.load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException ioe) {
+                    // an unreadable file verifies no chips
+                }
+            }
+        }
+
+        return verifiedChips;
+    }
+
+    // Returns the SHA-256 hash of the given contents, in hex.
+    private static String computeHash(byte[] contents) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(contents);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("SHA-256 is not supported");
+        }
+
+        StringBuffer result = new StringBuffer(digest.length * 2);
+        for (int i = 0; i < digest.length; i++) {
+            result.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+            result.append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+
+        return result.toString();
+    }
+
+    // Returns true if the given dir contains a file with the given name, according to the
+    // cached listing of the dir. The listing is checked against the modification time of
+    // the dir once in each validation (or in each call when not loading), and is re-read
+    // if the dir was modified.
+    private synchronized boolean dirContains(File dir, String name) {
+        if (dir == null)
+            return new File(name).exists();
+
+        DirListing listing = (DirListing)dirListings.get(dir);
+        if (listing == null || listing.validation != validation || loadingDepth == 0) {
+            long lastModified = dir.lastModified();
+
+            // a dir which was modified just before it was listed may be modified again
+            // without changing its modification time, so its listing isn't trusted.
+            if (listing == null || lastModified != listing.lastModified ||
+                listing.listTime - lastModified < MODIFICATION_TRUST_DELAY) {
+                listing = new DirListing();
+                listing.lastModified = lastModified;
+                listing.listTime = System.currentTimeMillis();
+                listing.names = new HashSet();
+                String[] names = dir.list();
+                if (names != null)
+                    for (int i = 0; i < names.length; i++)
+                        listing.names.add(names[i]);
+                dirListings.put(dir, listing);
+            }
+
+            listing.validation = validation;
+        }
+
+        return listing.names.contains(name);
+    }
+
+    /**
+     * Returns the maximal amount of input bits of unclocked composite parts which are
+     * simulated by truth tables in netlists.
+     */
+    public int getTruthTableInputsLimit() {
+        return truthTableInputsLimit;
+    }
+
+    /**
+     * Sets the maximal amount of input bits of unclocked composite parts which are
+     * simulated by truth tables in netlists (0 or less disables the truth tables).
+     */
+    public void setTruthTableInputsLimit(int limit) {
+        truthTableInputsLimit = limit;
+    }
+
     /**
      * Returns true if built in chips with gui should create and update their gui components.
      */
@@ -195,4 +750,56 @@ public class GatesManager {
         updateChipsGUI = value;
     }
 
+    // The time (in ms) after the modification of a file or a dir from which its
+    // modification time identifies its contents: file systems may keep the modification
+    // time in whole seconds (or 2 seconds), so a file which is modified again within
+    // that time may keep its modification time.
+    private static final long MODIFICATION_TRUST_DELAY = 2000;
+
+    // The cached content hash of a file, with its modification time and length.
+    private static class ContentHash {
+
+        // the modification time and the length of the file when it was hashed, and the
+        // time in which it was hashed
+        long lastModified, length, hashTime;
+
+        // the hash of the contents, in hex
+        String hash;
+    }
+
+    // A cached listing of a dir.
+    private static class DirListing {
+
+        // the names of the files in the dir
+        HashSet names;
+
+        // the modification time of the dir and the time in which it was listed
+        long lastModified, listTime;
+
+        // the last validation in which the listing was checked
+        int validation;
+    }
+
+    // A GateClass in the cache, with the modification time and length of its hdl file.
+    private static class CachedGateClass {
+
+        // the hdl file name
+        String fileName;
+
+        // the gate class
+        GateClass gateClass;
+
+        // the modification time and the length of the hdl file when it was read
+        long lastModified, length;
+
+        // the content hash of the hdl file when it was read, if it was modified just
+        // before (so its modification time may not change when it is modified again),
+        // otherwise null
+        String hash;
+
+        // the last validation in which the gate class was checked, and its result
+        int validation;
+        boolean isValid;
+    }
+
 }
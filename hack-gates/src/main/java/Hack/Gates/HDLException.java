@@ -29,6 +29,15 @@ public class HDLException extends Exception {
         super("In HDL file " + HDLName + ", Line " + lineNumber + ", " + message);
     }
 
+    /**
+     * Constructs a new HDLException with the given message, HDL file name, Line number and
+     * column number.
+     */
+    public HDLException(String message, String HDLName, int lineNumber, int columnNumber) {
+        super("In HDL file " + HDLName + ", Line " + lineNumber + ", Column " + columnNumber +
+              ", " + message);
+    }
+
     /**
      * Constructs a new HDLException with the given message and HDL file name.
      */
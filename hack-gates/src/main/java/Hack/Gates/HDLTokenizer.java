@@ -14,7 +14,6 @@
  * MIT Press 2005. If you modify the contents of this file, please document and *
  * mark your changes clearly, for the benefit of others.                        *
  ********************************************************************************/
-
 package Hack.Gates;
 
 import java.io.*;
@@ -23,6 +22,8 @@ import java.util.*;
 /**
  * HDLTokenizer object: Reads input from an HDL reader and produces a stream of
  * tokens.
+ * The whole input is read at once into a char array, which is then scanned by hand.
+ * The line and column of each token are kept for the error messages.
  */
 public class HDLTokenizer {
 
@@ -40,14 +41,41 @@ public class HDLTokenizer {
     public static final int KW_CLOCKED   = 5;
     public static final int KW_PARTS     = 6;
 
-    // The parser
-    private StreamTokenizer parser;
+    // The type of the lookahead token when the end of the input is reached
+    private static final int TYPE_EOF = 0;
 
     // Hashtable containing the keywords of the language
-    private Hashtable keywords;
+    private static final Hashtable keywords = new Hashtable();
+
+    static {
+        keywords.put("CHIP", new Integer(KW_CHIP));
+        keywords.put("IN", new Integer(KW_IN));
+        keywords.put("OUT", new Integer(KW_OUT));
+        keywords.put("BUILTIN", new Integer(KW_BUILTIN));
+        keywords.put("CLOCKED", new Integer(KW_CLOCKED));
+        keywords.put("PARTS:", new Integer(KW_PARTS));
+    }
+
+    // The input characters
+    private char[] buffer;
+
+    // The length of the input in the buffer
+    private int length;
+
+    // The position of the scanner in the buffer
+    private int position;
 
-    // Hashtable containing the symbols of the language
-    private Hashtable symbols;
+    // The line and column of the scanner position (both starting from 1)
+    private int line;
+    private int column;
+
+    // The lookahead token: its type, its value and its position in the input
+    private int nextType;
+    private char nextSymbol;
+    private int nextIntValue;
+    private String nextWord;
+    private int nextLine;
+    private int nextColumn;
 
     // The type of the current token
     private int tokenType;
@@ -70,6 +98,10 @@ public class HDLTokenizer {
     // The current token
     private String currentToken;
 
+    // The line and column of the current token
+    private int tokenLine;
+    private int tokenColumn;
+
     // The source file name
     private String fileName;
 
@@ -77,38 +109,68 @@ public class HDLTokenizer {
      * Constructs a new HDLTokenizer with the given file name.
      */
     public HDLTokenizer(String fileName) throws HDLException {
+        this(fileName, readSource(fileName));
+    }
+
+    /**
+     * Constructs a new HDLTokenizer with the given file name and its contents
+     * (as returned by readSource()).
+     */
+    public HDLTokenizer(String fileName, char[] source) {
         this.fileName = fileName;
-        Reader input;
+        initializeInput(source, source.length);
+    }
 
-        try {
-            input = new FileReader(fileName);
-        } catch (IOException ioe) {
-            throw new HDLException("Can't find HDL file " + fileName);
-        }
+    public HDLTokenizer() {}
+
+    /**
+     * Returns the contents of the given HDL file, which are read in a single I/O call.
+     */
+    public static char[] readSource(String fileName) throws HDLException {
+        byte[] bytes;
 
         try {
-            initizalizeInput(input);
+            RandomAccessFile file = new RandomAccessFile(fileName, "r");
+            try {
+                bytes = new byte[(int)file.length()];
+                file.readFully(bytes);
+            } finally {
+                file.close();
+            }
+        } catch (FileNotFoundException fnfe) {
+            throw new HDLException("Can't find HDL file " + fileName);
         } catch (IOException ioe) {
             throw new HDLException("Error while initializing for reading", fileName);
         }
-    }
 
-    public HDLTokenizer() {}
+        return new String(bytes).toCharArray();
+    }
 
     /**
      * Initializes the tokenizer input
      */
     protected void initizalizeInput(Reader input) throws IOException {
-        parser = new StreamTokenizer(input);
-        parser.parseNumbers();
-        parser.slashSlashComments(true);
-        parser.slashStarComments(true);
-        parser.wordChars(':', ':');
-        parser.wordChars('[', '[');
-        parser.wordChars(']', ']');
-        parser.nextToken();
-        initKeywords();
-        initSymbols();
+        char[] chars = new char[1024];
+        int count = 0;
+        int read;
+        while ((read = input.read(chars, count, chars.length - count)) != -1) {
+            count += read;
+            if (count == chars.length)
+                chars = Arrays.copyOf(chars, chars.length * 2);
+        }
+
+        initializeInput(chars, count);
+    }
+
+    // Initializes the tokenizer input with the given characters, and reads the
+    // first token.
+    private void initializeInput(char[] chars, int count) {
+        buffer = chars;
+        length = count;
+        position = 0;
+        line = 1;
+        column = 1;
+        scanToken();
     }
 
     /**
@@ -126,41 +188,42 @@ public class HDLTokenizer {
         if (!hasMoreTokens())
             HDLError("Unexpected end of file");
 
-        try {
-            switch (parser.ttype) {
-                case StreamTokenizer.TT_NUMBER:
-                    tokenType = TYPE_INT_CONST;
-                    intValue = (int)parser.nval;
-                    currentToken = String.valueOf(intValue);
-                    break;
-                case StreamTokenizer.TT_WORD:
-                    currentToken = parser.sval;
-                    Integer keywordCode = (Integer)keywords.get(currentToken);
-                    if (keywordCode != null) {
-                        tokenType = TYPE_KEYWORD;
-                        keyWordType = keywordCode.intValue();
-                    }
-                    else {
-                        tokenType = TYPE_IDENTIFIER;
-                        identifier = currentToken;
-                    }
-                    break;
-                default:
-                    tokenType = TYPE_SYMBOL;
-                    symbol = (char)parser.ttype;
-                    currentToken = String.valueOf(symbol);
-                    break;
-            }
-            parser.nextToken();
-        } catch (IOException ioe) {
-            throw new HDLException("Error while reading HDL file");
+        tokenType = nextType;
+        tokenLine = nextLine;
+        tokenColumn = nextColumn;
+        currentToken = null;
+
+        switch (tokenType) {
+            case TYPE_INT_CONST:
+                intValue = nextIntValue;
+                break;
+            case TYPE_SYMBOL:
+                symbol = nextSymbol;
+                break;
+            default:
+                currentToken = nextWord;
+                Integer keywordCode = (Integer)keywords.get(currentToken);
+                if (keywordCode != null) {
+                    tokenType = TYPE_KEYWORD;
+                    keyWordType = keywordCode.intValue();
+                }
+                else {
+                    tokenType = TYPE_IDENTIFIER;
+                    identifier = currentToken;
+                }
+                break;
         }
+
+        scanToken();
     }
 
     /**
      * Returns the current token as a String.
      */
     public String getToken() {
+        if (currentToken == null)
+            currentToken = (tokenType == TYPE_INT_CONST ? String.valueOf(intValue)
+                                                        : String.valueOf(symbol));
         return currentToken;
     }
 
@@ -211,39 +274,206 @@ public class HDLTokenizer {
         return identifier;
     }
 
+    /**
+     * Returns the line number of the current token (starting from 1).
+     */
+    public int getLineNumber() {
+        return tokenLine;
+    }
+
+    /**
+     * Returns the column number of the current token in its line (starting from 1).
+     */
+    public int getColumnNumber() {
+        return tokenColumn;
+    }
+
     /**
      * Returns if there are more tokens in the stream
      */
     public boolean hasMoreTokens() {
-        return (parser.ttype != parser.TT_EOF);
+        return (nextType != TYPE_EOF);
+    }
+
+    /**
+     * Returns the names of the parts which are listed in the PARTS: section of the
+     * remaining input, without reporting errors. This is a quick scan which is used for
+     * loading the parts in advance, so the tokenizer is left at the end of the input.
+     */
+    public Vector scanPartNames() {
+        Vector result = new Vector();
+        boolean inParts = false;
+        int depth = 0;
+
+        while (hasMoreTokens()) {
+            if (nextType == TYPE_SYMBOL) {
+                if (nextSymbol == '(')
+                    depth++;
+                else if (nextSymbol == ')' && depth > 0)
+                    depth--;
+            }
+            else if (nextType == TYPE_IDENTIFIER) {
+                if (nextWord.equals("PARTS:"))
+                    inParts = true;
+                else if (inParts && depth == 0 && !keywords.containsKey(nextWord) &&
+                         !result.contains(nextWord))
+                    result.addElement(nextWord);
+            }
+
+            scanToken();
+        }
+
+        return result;
     }
 
-    // Initializes the keywords hashtable
-    private void initKeywords() {
-        keywords = new Hashtable();
-        keywords.put("CHIP",new Integer(KW_CHIP));
-        keywords.put("IN",new Integer(KW_IN));
-        keywords.put("OUT",new Integer(KW_OUT));
-        keywords.put("BUILTIN",new Integer(KW_BUILTIN));
-        keywords.put("CLOCKED",new Integer(KW_CLOCKED));
-        keywords.put("PARTS:",new Integer(KW_PARTS));
+    // Scans the next token of the input into the lookahead token.
+    // Words consist of letters, ':', '[' and ']', and may also contain digits, '.' and '-'
+    // after their first character. Numbers consist of digits and a single '.', and may be
+    // preceded by '-'. A '/' which doesn't start a comment comments out the rest of its line.
+    private void scanToken() {
+        nextType = TYPE_EOF;
+
+        while (position < length) {
+            char c = buffer[position];
+
+            if (c <= ' ') {
+                skipChar();
+            }
+            else if (c == '/') {
+                if (position + 1 < length && buffer[position + 1] == '*')
+                    skipBlockComment();
+                else
+                    skipLine();
+            }
+            else {
+                nextLine = line;
+                nextColumn = column;
+                int start = position;
+
+                if (isWordStart(c)) {
+                    do {
+                        skipChar();
+                    } while (position < length && isWordPart(buffer[position]));
+
+                    nextType = TYPE_IDENTIFIER;
+                    nextWord = new String(buffer, start, position - start);
+                }
+                else if (isNumberStart(c) && !(c == '-' && !startsNumber(position + 1))) {
+                    scanNumber();
+                }
+                else if (c == '"' || c == '\'') {
+                    // a quoted string is returned as its quote symbol
+                    skipChar();
+                    while (position < length && buffer[position] != c &&
+                           buffer[position] != '\n' && buffer[position] != '\r')
+                        skipChar();
+                    if (position < length && buffer[position] == c)
+                        skipChar();
+
+                    nextType = TYPE_SYMBOL;
+                    nextSymbol = c;
+                }
+                else {
+                    skipChar();
+                    nextType = TYPE_SYMBOL;
+                    nextSymbol = c;
+                }
+
+                return;
+            }
+        }
     }
 
-    // Initializes the symbols hashtable
-    private void initSymbols() {
-        symbols = new Hashtable();
-        symbols.put("{","{");
-        symbols.put("}","}");
-        symbols.put(",",",");
-        symbols.put(";",";");
-        symbols.put("(","(");
-        symbols.put(")",")");
+    // Scans a number into the lookahead token. The value is truncated to an int.
+    private void scanNumber() {
+        boolean negative = false;
+        if (buffer[position] == '-') {
+            negative = true;
+            skipChar();
+        }
+
+        // the fraction digits are scanned but don't affect the int value
+        double value = 0;
+        boolean seenDot = false;
+        while (position < length) {
+            char c = buffer[position];
+            if (c == '.' && !seenDot)
+                seenDot = true;
+            else if (c >= '0' && c <= '9') {
+                if (!seenDot)
+                    value = value * 10 + (c - '0');
+            }
+            else
+                break;
+
+            skipChar();
+        }
+
+        nextType = TYPE_INT_CONST;
+        nextIntValue = (int)(negative ? -value : value);
+    }
+
+    // Returns true if a number starts at the given position (after a '-').
+    private boolean startsNumber(int index) {
+        return (index < length && ((buffer[index] >= '0' && buffer[index] <= '9') ||
+                                   buffer[index] == '.'));
+    }
+
+    // Returns true if a word may start with the given character.
+    private static boolean isWordStart(char c) {
+        return ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c >= 160 ||
+                c == ':' || c == '[' || c == ']');
+    }
+
+    // Returns true if the given character may appear in a word after its first character.
+    private static boolean isWordPart(char c) {
+        return (isWordStart(c) || isNumberStart(c));
+    }
+
+    // Returns true if a number may start with the given character.
+    private static boolean isNumberStart(char c) {
+        return ((c >= '0' && c <= '9') || c == '.' || c == '-');
+    }
+
+    // Skips the rest of the current line (not including the line terminator).
+    private void skipLine() {
+        while (position < length && buffer[position] != '\n' && buffer[position] != '\r')
+            skipChar();
+    }
+
+    // Skips a comment of the form /* ... */.
+    private void skipBlockComment() {
+        skipChar();
+        skipChar();
+        while (position < length &&
+               !(buffer[position] == '*' && position + 1 < length && buffer[position + 1] == '/'))
+            skipChar();
+
+        if (position < length) {
+            skipChar();
+            skipChar();
+        }
+    }
+
+    // Skips the current character, while counting lines and columns.
+    // "\r\n", "\r" and "\n" are all line terminators.
+    private void skipChar() {
+        char c = buffer[position++];
+        if (c == '\n' || (c == '\r' && (position == length || buffer[position] != '\n'))) {
+            line++;
+            column = 1;
+        }
+        else
+            column++;
     }
 
     /**
      * Generates an HDLException with the given message.
      */
     public void HDLError(String message) throws HDLException {
-        throw new HDLException(message, fileName, parser.lineno());
+        // before the first token, the error is at the scanner position
+        if (tokenLine == 0)
+            throw new HDLException(message, fileName, line, column);
+        throw new HDLException(message, fileName, tokenLine, tokenColumn);
     }
 }
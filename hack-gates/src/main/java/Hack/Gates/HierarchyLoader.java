@@ -0,0 +1,238 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+package Hack.Gates;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import Hack.Utilities.Graph;
+
+/**
+ * Loads the parts hierarchy of a composite gate in parallel, on the common fork-join pool.
+ * The hierarchy is first discovered by reading the hdl files of the parts (which aren't
+ * cached yet) concurrently, and then the GateClasses of the parts are loaded level by level:
+ * the parts of each level only use parts of the lower levels, which are already cached.
+ * Errors are not reported here: a part which fails to load is left to the sequential
+ * loading of its gate, which reports the error in the order of the hdl file.
+ */
+class HierarchyLoader {
+
+    // A gate in the discovered hierarchy
+    private static class Source {
+
+        // the hdl file name and the gate name
+        String fileName, gateName;
+
+        // the contents of the hdl file
+        char[] contents;
+
+        // the file names of the (uncached) parts
+        Vector partFileNames = new Vector();
+
+        // the number of the gate in the hierarchy, and its level (0 for gates without
+        // uncached parts)
+        int number, level;
+
+        // true if the GateClass of the gate couldn't be loaded
+        volatile boolean failed;
+    }
+
+    // The GatesManager which loads the gates
+    private GatesManager manager;
+
+    // A table that maps hdl file names to their discovered Sources
+    private Hashtable sources;
+
+    // Constructs a new HierarchyLoader with the given GatesManager.
+    private HierarchyLoader(GatesManager manager) {
+        this.manager = manager;
+        sources = new Hashtable();
+    }
+
+    /**
+     * Loads the parts hierarchy of the gate of the given hdl file into the cache of the
+     * given GatesManager, and returns the contents of the hdl file (so it is read only once).
+     * Should be called during the outermost loading of the GatesManager, after the gate
+     * itself wasn't found in the cache.
+     */
+    public static char[] loadParts(GatesManager manager, String fileName) throws HDLException {
+        char[] contents = HDLTokenizer.readSource(fileName);
+        HierarchyLoader loader = new HierarchyLoader(manager);
+        Source root = loader.newSource(fileName, null, contents);
+        loader.sources.put(fileName, root);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        pool.invoke(loader.new DiscoverTask(root));
+
+        if (loader.sources.size() > 1)
+            loader.loadLevels(pool, root);
+
+        return contents;
+    }
+
+    // Returns a new Source of the given file, with the parts found in the given contents.
+    // Parts which can't be found or which are already cached are not included.
+    private Source newSource(String fileName, String gateName, char[] contents) {
+        Source source = new Source();
+        source.fileName = fileName;
+        source.gateName = gateName;
+        source.contents = contents;
+
+        Vector partNames = new HDLTokenizer(fileName, contents).scanPartNames();
+        for (int i = 0; i < partNames.size(); i++) {
+            String partFileName = manager.getHDLFileName((String)partNames.elementAt(i));
+            if (partFileName != null && !source.partFileNames.contains(partFileName) &&
+                manager.getCachedGateClass(partFileName) == null)
+                source.partFileNames.addElement(partFileName);
+        }
+
+        return source;
+    }
+
+    // Loads the GateClasses of all the discovered gates except the given root, level by
+    // level. Nothing is loaded if the parts contain a circle, so the sequential loading
+    // handles it.
+    private void loadLevels(ForkJoinPool pool, Source root) {
+        Source[] all = new Source[sources.size()];
+        Enumeration e = sources.elements();
+        for (int i = 0; e.hasMoreElements(); i++) {
+            all[i] = (Source)e.nextElement();
+            all[i].number = i;
+        }
+
+        Graph graph = new Graph(all.length);
+        for (int i = 0; i < all.length; i++)
+            for (int j = 0; j < all[i].partFileNames.size(); j++)
+                graph.addEdge(((Source)sources.get(all[i].partFileNames.elementAt(j))).number, i);
+
+        int[] order = graph.topologicalSort();
+        if (graph.hasCircle())
+            return;
+
+        // a gate is one level above its highest part
+        int levelsCount = 0;
+        for (int i = 0; i < order.length; i++) {
+            Source source = all[order[i]];
+            for (int j = 0; j < source.partFileNames.size(); j++) {
+                Source part = (Source)sources.get(source.partFileNames.elementAt(j));
+                source.level = Math.max(source.level, part.level + 1);
+            }
+            levelsCount = Math.max(levelsCount, source.level + 1);
+        }
+
+        Vector[] levels = new Vector[levelsCount];
+        for (int i = 0; i < levelsCount; i++)
+            levels[i] = new Vector();
+        for (int i = 0; i < all.length; i++)
+            if (all[i] != root)
+                levels[all[i].level].addElement(new LoadTask(all[i]));
+
+        for (int i = 0; i < levelsCount; i++) {
+            final Vector tasks = levels[i];
+            if (tasks.size() > 0)
+                pool.invoke(new RecursiveAction() {
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+        }
+    }
+
+    // A task which reads the hdl file of a part, and then discovers its own parts.
+    private class DiscoverTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // the source whose parts are discovered
+        private Source source;
+
+        DiscoverTask(Source source) {
+            this.source = source;
+        }
+
+        protected void compute() {
+            Vector tasks = new Vector();
+
+            for (int i = 0; i < source.partFileNames.size(); i++) {
+                String partFileName = (String)source.partFileNames.elementAt(i);
+                if (!sources.containsKey(partFileName) &&
+                    sources.putIfAbsent(partFileName, new Source()) == null)
+                    tasks.addElement(new ReadTask(partFileName));
+            }
+
+            invokeAll(tasks);
+        }
+    }
+
+    // A task which reads the hdl file of a part which wasn't discovered yet.
+    private class ReadTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // the hdl file name of the part
+        private String fileName;
+
+        ReadTask(String fileName) {
+            this.fileName = fileName;
+        }
+
+        protected void compute() {
+            Source source;
+            String name = new java.io.File(fileName).getName();
+            String gateName = name.substring(0, name.lastIndexOf("."));
+
+            try {
+                source = newSource(fileName, gateName, HDLTokenizer.readSource(fileName));
+            } catch (HDLException he) {
+                source = new Source();
+                source.fileName = fileName;
+                source.gateName = gateName;
+                source.failed = true;
+            }
+
+            sources.put(fileName, source);
+            new DiscoverTask(source).compute();
+        }
+    }
+
+    // A task which loads the GateClass of a gate whose parts are already loaded.
+    private class LoadTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // the source of the gate
+        private Source source;
+
+        LoadTask(Source source) {
+            this.source = source;
+        }
+
+        protected void compute() {
+            for (int i = 0; i < source.partFileNames.size() && !source.failed; i++)
+                source.failed = ((Source)sources.get(source.partFileNames.elementAt(i))).failed;
+
+            if (!source.failed) {
+                try {
+                    GateClass.loadGateClass(manager, source.fileName, source.gateName,
+                                            source.contents);
+                } catch (HDLException he) {
+                    source.failed = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.Gates;
+
+/**
+ * A node whose value is held by a net of a Netlist.
+ * Setting the node sets the net, and the node is updated by the netlist after it is evaluated.
+ */
+public class NetNode extends Node {
+
+    // The netlist
+    private Netlist netlist;
+
+    // The number of the net
+    private int net;
+
+    /**
+     * Constructs a new NetNode of the given net in the given netlist.
+     */
+    public NetNode(Netlist netlist, int net) {
+        this.netlist = netlist;
+        this.net = net;
+        value = netlist.getValue(net);
+    }
+
+    /**
+     * Sets the node's value with the given value.
+     * Updates the net and notifies the listeners on the change of the value (if changed).
+     */
+    public void set(short value) {
+        netlist.setValue(net, value);
+        super.set(value);
+    }
+
+    /**
+     * Updates the node's value with the given value of its net, notifying the listeners
+     * on the change of the value (if changed).
+     */
+    public void update(short value) {
+        super.set(value);
+    }
+}
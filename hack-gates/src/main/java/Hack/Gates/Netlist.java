@@ -0,0 +1,1674 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.Gates;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A composite gate, flattened into one levelized netlist.
+ * Every pin of every gate in the parts hierarchy becomes a net, and the values of all
+ * the nets are held in one array of shorts. The connections between the pins become
+ * primitive copy operations (with sub bus masks) and every built-in part becomes an
+ * operation that evaluates it. The operations are sorted by levels in topological order,
+ * so one ordered pass over the operations that are marked as dirty settles the circuit.
+ *
+ * Nand and DFF parts are simulated directly on the nets, without creating gates for them.
+ * All other built-in parts are created as usual and their nodes are synchronized with the
+ * nets when they are evaluated or clocked. Unclocked composite parts with few input bits
+ * (up to the truth table inputs limit of the GatesManager) are simulated by a lookup in
+ * their truth table, which is computed once per gate class.
+ *
+ * The netlist may be optimized when it is built: copies that only pass a net through
+ * (or a sub bus of a sub bus) are collapsed, constants are folded through copies and Nands,
+ * and parts which can't affect the top level pins or a part with gui are removed. The values
+ * of the top level pins are not affected, but the pins of the removed parts (as shown by
+ * the parts list of the gui) are no longer updated.
+ *
+ * The netlist may also be evaluated in parallel on a fork-join pool: the dirty operations
+ * of a level don't depend on each other, so a level with enough dirty operations is split
+ * into chunks which are executed concurrently, and the next level starts after all of them
+ * are done. Built-in parts and operations that write a net which is also written by other
+ * operations are still executed by the evaluating thread.
+ */
+public class Netlist {
+
+    /**
+     * The number of input vectors which are evaluated in one pass by evalVectors.
+     */
+    public static final int VECTORS_PER_PASS = 64;
+
+    /**
+     * The default minimal number of dirty operations in a level for which the level is
+     * evaluated in parallel. The parallel evaluation of a level has a fixed cost, and the
+     * changed nets of its chunks are collected sequentially, so narrower levels are faster
+     * when evaluated sequentially. This value is provisional: it was estimated from the
+     * costs measured on a single processor, and the crossover on several processors was
+     * not measured yet (see NetlistParallelBenchmark).
+     */
+    public static final int DEFAULT_PARALLEL_LEVEL_WIDTH = 4096;
+
+    // The minimal number of operations in each chunk of a level which is evaluated in parallel
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    // Operation codes
+    private static final byte OP_COPY = 1;
+    private static final byte OP_NAND = 2;
+    private static final byte OP_BUILTIN = 3;
+    private static final byte OP_TABLE = 4;
+
+    // The special nets
+    private static final int TRUE_NET = 0;
+    private static final int FALSE_NET = 1;
+    private static final int CLOCK_NET = 2;
+    private static final int SPECIAL_NETS = 3;
+
+    // The mask of a full (16 bits) bus
+    private static final int FULL_MASK = 0xffff;
+
+    // The number of bits in a net
+    private static final int NET_BITS = 16;
+
+    // The flattened gate class
+    private CompositeGateClass gateClass;
+
+    // The manager of the simulation
+    private GatesManager manager;
+
+    // The listener of the netlist to the clock node of the manager (null if the clock
+    // isn't read)
+    private Node clockListener;
+
+    // The gate which represents this netlist
+    private NetlistGate gate;
+
+    // The values of the nets
+    private short[] values;
+
+    // The operations, sorted by levels. For a copy operation, source is the source net.
+    // For a nand operation, source and arg are the input nets. For a built-in operation,
+    // source is the number of the built-in gate, and for a table operation, source is the
+    // number of the table. target is the target net.
+    private byte[] opTypes;
+    private int[] opSources;
+    private int[] opTargets;
+    private int[] opArgs;
+
+    // The sub bus masks & shifts of the copy operations
+    private int[] sourceMasks;
+    private byte[] sourceShifts;
+    private int[] targetMasks;
+    private byte[] targetShifts;
+
+    // The index of the first operation of each level (with the operations count at the end)
+    private int[] levelStarts;
+
+    // For each operation, true if it may be executed concurrently with the other operations
+    // of its level: it isn't a built-in part, and no other operation writes its nets.
+    private boolean[] isParallelOp;
+
+    // The pool which evaluates wide levels in parallel (null for sequential evaluation),
+    // and the minimal number of dirty operations in a level which is evaluated in parallel.
+    private ForkJoinPool pool;
+    private int parallelLevelWidth;
+
+    // The operations which read each net: readers[readerStarts[n]..readerStarts[n+1]-1]
+    // Reads of clocked inputs are not included.
+    private int[] readerStarts;
+    private int[] readers;
+
+    // A bit per operation which is marked when the operation should be re-evaluated.
+    private long[] dirtyOps;
+
+    // The lowest word in dirtyOps which may contain a marked operation
+    private int firstDirtyWord;
+
+    // The built-in gates, and the nets of their pins
+    private BuiltInGate[] builtInGates;
+    private int[][] builtInInputNets;
+    private int[][] builtInOutputNets;
+
+    // The numbers of the built-in gates which are clocked, in topological order
+    private int[] clockedBuiltIns;
+
+    // The numbers of the built-in gates with gui
+    private int[] guiBuiltIns;
+
+    // The operation of each built-in gate
+    private int[] builtInOps;
+
+    // The truth tables of the table operations, the nets of their pins and the masks of
+    // their input pins
+    private short[][] tables;
+    private int[][] tableInputNets;
+    private int[][] tableInputMasks;
+    private int[][] tableOutputNets;
+
+    // The input & output nets of the DFFs, and their internal state
+    private int[] dffInputNets;
+    private int[] dffOutputNets;
+    private short[] dffStates;
+
+    // The nets of the top level input pins, and their nodes.
+    private int[] inputNets;
+    private NetNode[] inputNodes;
+
+    // The nets of the top level output & internal pins, and their nodes.
+    private int[] exposedNets;
+    private NetNode[] exposedNodes;
+
+    // The bit slices of the nets, used by evalVectors: bit l of slices[n * NET_BITS + b]
+    // is bit b of net n in vector l. Created on the first use.
+    private long[] slices;
+
+    // Build time lists
+    private Vector ops;
+    private Vector builtIns;
+    private Vector dffs;
+    private Vector tableParts;
+    private int netsCount;
+
+    // Build time constants: the nets whose values were folded, and their values
+    private boolean[] isConstant;
+    private short[] constants;
+
+    /**
+     * Constructs a new Netlist from the given composite gate class, which belongs to the
+     * simulation of the given GatesManager.
+     * Throws InstantiationException if a part can't be created or if the flattened
+     * connections contain a circle.
+     */
+    public Netlist(CompositeGateClass gateClass, GatesManager manager)
+     throws InstantiationException {
+        this(gateClass, manager, false);
+    }
+
+    /**
+     * Constructs a new Netlist from the given composite gate class, which belongs to the
+     * simulation of the given GatesManager. If optimize is true, the netlist is optimized
+     * (see above); otherwise it keeps the full structure of the parts.
+     * Throws InstantiationException if a part can't be created or if the flattened
+     * connections contain a circle.
+     */
+    public Netlist(CompositeGateClass gateClass, GatesManager manager, boolean optimize)
+     throws InstantiationException {
+        this.gateClass = gateClass;
+        this.manager = manager;
+        ops = new Vector();
+        builtIns = new Vector();
+        dffs = new Vector();
+        tableParts = new Vector();
+        netsCount = SPECIAL_NETS;
+
+        int[] inputNets = allocateNets(gateClass.inputPinsInfo.length);
+        int[] outputNets = allocateNets(gateClass.outputPinsInfo.length);
+        Gate[] parts = new Gate[gateClass.getPartsCount()];
+        int[] internalNets = flatten(gateClass, inputNets, outputNets, parts);
+
+        if (optimize)
+            optimize(inputNets, outputNets, internalNets);
+
+        compile();
+
+        values = new short[netsCount];
+        if (isConstant != null)
+            for (int n = 0; n < netsCount; n++)
+                if (isConstant[n])
+                    values[n] = constants[n];
+        values[TRUE_NET] = Gate.TRUE_NODE.get();
+        values[FALSE_NET] = Gate.FALSE_NODE.get();
+        values[CLOCK_NET] = manager.getClockNode().get();
+
+        createGate(inputNets, outputNets, internalNets, parts);
+
+        // all operations are evaluated on the first eval
+        for (int i = 0; i < opTypes.length; i++)
+            markDirty(i);
+
+        if (readerStarts[CLOCK_NET + 1] > readerStarts[CLOCK_NET]) {
+            clockListener = new ClockNode();
+            manager.getClockNode().addListener(clockListener);
+        }
+
+        ops = null;
+        builtIns = null;
+        dffs = null;
+        tableParts = null;
+        isConstant = null;
+        constants = null;
+    }
+
+    /**
+     * Returns the gate which represents this netlist.
+     */
+    public Gate getGate() {
+        return gate;
+    }
+
+    /**
+     * Returns the number of nets.
+     */
+    public int getNetsCount() {
+        return values.length;
+    }
+
+    /**
+     * Returns the number of operations.
+     */
+    public int getOperationsCount() {
+        return opTypes.length;
+    }
+
+    /**
+     * Returns the number of levels.
+     */
+    public int getLevelsCount() {
+        return levelStarts.length - 1;
+    }
+
+    /**
+     * Sets the fork-join pool on which the levels of the netlist which have at least the
+     * given number of dirty operations are evaluated in parallel. A null pool sets
+     * sequential evaluation.
+     */
+    public void setParallelism(ForkJoinPool pool, int minLevelWidth) {
+        this.pool = pool;
+        parallelLevelWidth = Math.max(minLevelWidth, 1);
+    }
+
+    // Allocates the given amount of new nets and returns their numbers.
+    private int[] allocateNets(int count) {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++)
+            result[i] = netsCount++;
+
+        return result;
+    }
+
+    // Flattens the given composite gate class whose pins are the given nets.
+    // If the given parts array is not null, it is filled with the gates that represent
+    // the parts. Returns the nets of the internal pins.
+    private int[] flatten(CompositeGateClass gateClass, int[] inputNets, int[] outputNets,
+                          Gate[] parts) throws InstantiationException {
+        int[] internalNets = allocateNets(gateClass.getInternalPinsCount());
+        int partsCount = gateClass.getPartsCount();
+        int[][] partInputNets = new int[partsCount][];
+        int[][] partOutputNets = new int[partsCount][];
+
+        int[] partsOrder = gateClass.getPartsOrder();
+        for (int i = 0; i < partsOrder.length; i++) {
+            int part = partsOrder[i];
+            GateClass partGateClass = gateClass.getPartGateClass(part);
+            partInputNets[part] = allocateNets(partGateClass.inputPinsInfo.length);
+            partOutputNets[part] = allocateNets(partGateClass.outputPinsInfo.length);
+            Gate partGate = flattenPart(partGateClass, partInputNets[part], partOutputNets[part]);
+
+            if (parts != null) {
+                if (partGate == null) {
+                    if (partGateClass instanceof CompositeGateClass) {
+                        CompositeGate shell = new CompositeGate();
+                        shell.init(new Node[0], new Node[0], new Node[0], new Gate[0],
+                                   partGateClass);
+                        partGate = shell;
+                    }
+                    else
+                        partGate = partGateClass.newInstance(manager);
+                }
+                parts[i] = partGate;
+            }
+        }
+
+        Iterator connectionIter = gateClass.getConnections().iterator();
+        while (connectionIter.hasNext()) {
+            Connection connection = (Connection)connectionIter.next();
+            int part = connection.getPartNumber();
+            GateClass partGateClass = gateClass.getPartGateClass(part);
+            String partPinName = connection.getPartPinName();
+            int partPinNumber = partGateClass.getPinNumber(partPinName);
+            int partNet = (partGateClass.getPinType(partPinName) == GateClass.INPUT_PIN_TYPE ?
+                           partInputNets[part][partPinNumber] :
+                           partOutputNets[part][partPinNumber]);
+            byte[] gateSubBus = connection.getGateSubBus();
+            byte[] partSubBus = connection.getPartSubBus();
+            int gatePinNumber = connection.getGatePinNumber();
+
+            switch (connection.getType()) {
+                case Connection.FROM_INPUT:
+                    addCopy(inputNets[gatePinNumber], gateSubBus, partNet, partSubBus);
+                    break;
+                case Connection.TO_OUTPUT:
+                    addCopy(partNet, partSubBus, outputNets[gatePinNumber], gateSubBus);
+                    break;
+                case Connection.TO_INTERNAL:
+                    addCopy(partNet, partSubBus, internalNets[gatePinNumber], null);
+                    break;
+                case Connection.FROM_INTERNAL:
+                    addCopy(internalNets[gatePinNumber], null, partNet, partSubBus);
+                    break;
+                case Connection.FROM_TRUE:
+                    addCopy(TRUE_NET, gateSubBus, partNet, partSubBus);
+                    break;
+                case Connection.FROM_FALSE:
+                    addCopy(FALSE_NET, gateSubBus, partNet, partSubBus);
+                    break;
+                case Connection.FROM_CLOCK:
+                    addCopy(CLOCK_NET, null, partNet, null);
+                    break;
+            }
+        }
+
+        return internalNets;
+    }
+
+    // Flattens the given part, whose pins are the given nets. If a gate was created
+    // for the part, returns it. Otherwise, returns null.
+    private Gate flattenPart(GateClass partGateClass, int[] inputNets, int[] outputNets)
+     throws InstantiationException {
+        Gate result = null;
+
+        short[] table = null;
+        if (partGateClass instanceof CompositeGateClass)
+            table = ((CompositeGateClass)partGateClass).getTruthTable(
+                      manager.getTruthTableInputsLimit());
+
+        if (table != null) {
+            Op op = new Op(OP_TABLE);
+            op.source = tableParts.size();
+            op.reads = inputNets;
+            op.writes = outputNets;
+            ops.addElement(op);
+
+            int[] masks = new int[inputNets.length];
+            for (int i = 0; i < masks.length; i++)
+                masks[i] = (1 << partGateClass.inputPinsInfo[i].width) - 1;
+            tableParts.addElement(new Object[]{table, inputNets, masks, outputNets});
+        }
+        else if (partGateClass instanceof CompositeGateClass)
+            flatten((CompositeGateClass)partGateClass, inputNets, outputNets, null);
+        else if (isPrimitive(partGateClass, "Nand", 2, false)) {
+            Op op = new Op(OP_NAND);
+            op.source = inputNets[0];
+            op.arg = inputNets[1];
+            op.target = outputNets[0];
+            op.reads = inputNets;
+            op.writes = outputNets;
+            ops.addElement(op);
+        }
+        else if (isPrimitive(partGateClass, "DFF", 1, true))
+            dffs.addElement(new int[]{inputNets[0], outputNets[0]});
+        else {
+            BuiltInGate builtInGate = (BuiltInGate)partGateClass.newInstance(manager);
+            Op op = new Op(OP_BUILTIN);
+            op.source = builtIns.size();
+            op.writes = outputNets;
+            op.stateWrites = partGateClass.isOutputClocked;
+
+            // clocked inputs are read only when the clock goes up
+            int count = 0;
+            for (int i = 0; i < inputNets.length; i++)
+                if (!partGateClass.isInputClocked[i])
+                    count++;
+            op.reads = new int[count];
+            count = 0;
+            for (int i = 0; i < inputNets.length; i++)
+                if (!partGateClass.isInputClocked[i])
+                    op.reads[count++] = inputNets[i];
+
+            ops.addElement(op);
+            builtIns.addElement(new Object[]{builtInGate, inputNets, outputNets, op});
+            result = builtInGate;
+        }
+
+        return result;
+    }
+
+    // Returns true if the given gate class is the built-in chip with the given name,
+    // which has the given amount of single bit inputs and one single bit output.
+    // If clocked is true, the inputs must all be clocked.
+    private static boolean isPrimitive(GateClass gateClass, String name, int inputsCount,
+                                       boolean clocked) {
+        if (!(gateClass instanceof BuiltInGateClass) || !gateClass.getName().equals(name)
+             || gateClass.inputPinsInfo.length != inputsCount
+             || gateClass.outputPinsInfo.length != 1
+             || gateClass.outputPinsInfo[0].width != 1
+             || gateClass.isOutputClocked[0])
+            return false;
+
+        boolean result = true;
+        for (int i = 0; i < inputsCount && result; i++)
+            result = gateClass.inputPinsInfo[i].width == 1
+                     && gateClass.isInputClocked[i] == clocked;
+
+        return result;
+    }
+
+    // Adds a copy operation from the given source net to the given target net.
+    // The sub busses are optional.
+    private void addCopy(int sourceNet, byte[] sourceSubBus, int targetNet, byte[] targetSubBus) {
+        Op op = new Op(OP_COPY);
+        op.source = sourceNet;
+        op.target = targetNet;
+        op.sourceSubBus = sourceSubBus;
+        op.targetSubBus = targetSubBus;
+        op.reads = new int[]{sourceNet};
+        op.writes = new int[]{targetNet};
+        ops.addElement(op);
+    }
+
+    // Optimizes the flattened operations: collapses pass-through copies and chains of sub
+    // bus copies, folds constants, and removes the logic that can't affect the exposed
+    // nets. The given output & internal nets are replaced with the nets that hold their
+    // values.
+    private void optimize(int[] inputNets, int[] outputNets, int[] internalNets) {
+        int[] alias = collapseCopies();
+        resolveNets(alias, outputNets);
+        resolveNets(alias, internalNets);
+        composeCopies();
+        foldConstants(inputNets);
+        removeDeadLogic(outputNets, internalNets);
+    }
+
+    // Replaces each net that is only written by a full copy of another net with the
+    // other net, and removes the copy. Returns the replacing net of each net.
+    private int[] collapseCopies() {
+        int[] writersCount = new int[netsCount];
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = (Op)ops.elementAt(i);
+            for (int j = 0; j < op.writes.length; j++)
+                writersCount[op.writes[j]]++;
+        }
+        for (int d = 0; d < dffs.size(); d++)
+            writersCount[((int[])dffs.elementAt(d))[1]]++;
+
+        int[] alias = new int[netsCount];
+        for (int n = 0; n < netsCount; n++)
+            alias[n] = n;
+
+        Vector newOps = new Vector();
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = (Op)ops.elementAt(i);
+            boolean collapsed = false;
+            if (op.type == OP_COPY && op.sourceSubBus == null && op.targetSubBus == null &&
+                writersCount[op.target] == 1) {
+                // a circle of copies is left for compile() to report
+                int source = resolveNet(alias, op.source);
+                if (source != op.target) {
+                    alias[op.target] = source;
+                    collapsed = true;
+                }
+            }
+
+            if (!collapsed)
+                newOps.addElement(op);
+        }
+
+        for (int n = 0; n < netsCount; n++)
+            alias[n] = resolveNet(alias, n);
+
+        for (int i = 0; i < newOps.size(); i++) {
+            Op op = (Op)newOps.elementAt(i);
+            op.source = (op.type == OP_BUILTIN || op.type == OP_TABLE ?
+                         op.source : alias[op.source]);
+            op.arg = alias[op.arg];
+            op.target = alias[op.target];
+            resolveNets(alias, op.reads);
+            resolveNets(alias, op.writes);
+        }
+        for (int d = 0; d < dffs.size(); d++)
+            resolveNets(alias, (int[])dffs.elementAt(d));
+        for (int b = 0; b < builtIns.size(); b++) {
+            Object[] builtIn = (Object[])builtIns.elementAt(b);
+            resolveNets(alias, (int[])builtIn[1]);
+            resolveNets(alias, (int[])builtIn[2]);
+        }
+        for (int t = 0; t < tableParts.size(); t++) {
+            Object[] tablePart = (Object[])tableParts.elementAt(t);
+            resolveNets(alias, (int[])tablePart[1]);
+            resolveNets(alias, (int[])tablePart[3]);
+        }
+
+        ops = newOps;
+        return alias;
+    }
+
+    // Returns the net that replaces the given net.
+    private static int resolveNet(int[] alias, int net) {
+        while (alias[net] != net)
+            net = alias[net];
+
+        return net;
+    }
+
+    // Replaces the given nets with the nets that replace them (alias is resolved).
+    private static void resolveNets(int[] alias, int[] nets) {
+        for (int i = 0; i < nets.length; i++)
+            nets[i] = alias[nets[i]];
+    }
+
+    // Makes each copy that reads a sub bus of a net, which is only written by a copy of a
+    // sub bus of another net, read directly from the other net.
+    private void composeCopies() {
+        int[] writersCount = new int[netsCount];
+        Op[] writers = new Op[netsCount];
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = (Op)ops.elementAt(i);
+            for (int j = 0; j < op.writes.length; j++) {
+                writersCount[op.writes[j]]++;
+                writers[op.writes[j]] = op;
+            }
+        }
+        for (int d = 0; d < dffs.size(); d++)
+            writersCount[((int[])dffs.elementAt(d))[1]]++;
+
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = (Op)ops.elementAt(i);
+            if (op.type != OP_COPY)
+                continue;
+
+            // the steps are limited in case of a circle of copies
+            for (int steps = 0; steps < ops.size(); steps++) {
+                Op writer = (writersCount[op.source] == 1 ? writers[op.source] : null);
+                if (writer == null || writer == op || writer.type != OP_COPY ||
+                    writer.targetSubBus != null || writer.sourceSubBus == null)
+                    break;
+
+                // the source net holds bits low..high of the writer's source, from bit 0
+                byte low = writer.sourceSubBus[0];
+                byte high = writer.sourceSubBus[1];
+                byte[] subBus;
+                if (op.sourceSubBus == null)
+                    subBus = writer.sourceSubBus;
+                else if (low + op.sourceSubBus[1] <= high)
+                    subBus = new byte[]{(byte)(low + op.sourceSubBus[0]),
+                                        (byte)(low + op.sourceSubBus[1])};
+                else
+                    break;
+
+                op.source = writer.source;
+                op.sourceSubBus = subBus;
+                op.reads = new int[]{op.source};
+            }
+        }
+    }
+
+    // Folds the copies and Nands whose results are constant, and keeps the values of
+    // the nets that became constant. A net is constant when all its writers were folded
+    // (a net which is never written keeps its initial 0 value).
+    private void foldConstants(int[] inputNets) {
+        isConstant = new boolean[netsCount];
+        constants = new short[netsCount];
+        constants[TRUE_NET] = Gate.TRUE_NODE.get();
+        constants[FALSE_NET] = Gate.FALSE_NODE.get();
+
+        // the number of writers of each net that were not folded (top level inputs,
+        // the clock and the outputs of DFFs are never constant)
+        int[] pending = new int[netsCount];
+        pending[CLOCK_NET]++;
+        for (int i = 0; i < inputNets.length; i++)
+            pending[inputNets[i]]++;
+        for (int d = 0; d < dffs.size(); d++)
+            pending[((int[])dffs.elementAt(d))[1]]++;
+
+        Op[] opsArray = new Op[ops.size()];
+        ops.toArray(opsArray);
+        for (int i = 0; i < opsArray.length; i++)
+            for (int j = 0; j < opsArray[i].writes.length; j++)
+                pending[opsArray[i].writes[j]]++;
+
+        int[][] netReaders = findReaders(opsArray, null);
+        int[] queue = new int[netsCount];
+        int head = 0, tail = 0;
+        for (int n = 0; n < netsCount; n++)
+            if (pending[n] == 0) {
+                isConstant[n] = true;
+                queue[tail++] = n;
+            }
+
+        boolean[] folded = new boolean[opsArray.length];
+        while (head < tail) {
+            int[] readersOfNet = netReaders[queue[head++]];
+            for (int k = 0; k < readersOfNet.length; k++) {
+                int i = readersOfNet[k];
+                Op op = opsArray[i];
+                if (folded[i])
+                    continue;
+
+                if (op.type == OP_COPY) {
+                    int mask = getMask(op.targetSubBus);
+                    int shift = (op.targetSubBus == null ? 0 : op.targetSubBus[0]);
+                    int value = (constants[op.source] & getMask(op.sourceSubBus)) >>>
+                                (op.sourceSubBus == null ? 0 : op.sourceSubBus[0]);
+                    constants[op.target] = (short)((constants[op.target] & ~mask) |
+                                                   ((value << shift) & mask));
+                }
+                else if (op.type == OP_NAND) {
+                    boolean isZero = (isConstant[op.source] && constants[op.source] == 0) ||
+                                     (isConstant[op.arg] && constants[op.arg] == 0);
+                    if (!isZero && !(isConstant[op.source] && isConstant[op.arg]))
+                        continue;
+
+                    constants[op.target] = (short)(1 - (isZero ? 0 :
+                                                   constants[op.source] & constants[op.arg]));
+                }
+                else
+                    continue;
+
+                folded[i] = true;
+                if (--pending[op.target] == 0) {
+                    isConstant[op.target] = true;
+                    queue[tail++] = op.target;
+                }
+            }
+        }
+
+        // the partially folded nets are still written by the remaining writers, so the
+        // folded writers of such nets are kept
+        Vector newOps = new Vector();
+        for (int i = 0; i < opsArray.length; i++)
+            if (!folded[i] || !isConstant[opsArray[i].target])
+                newOps.addElement(opsArray[i]);
+
+        ops = newOps;
+    }
+
+    // Removes the operations, DFFs and built-in gates whose outputs can't reach the given
+    // output & internal nets (the exposed nets) or a built-in gate with gui.
+    private void removeDeadLogic(int[] outputNets, int[] internalNets) {
+        Op[] opsArray = new Op[ops.size()];
+        ops.toArray(opsArray);
+
+        // all the writers of each net (including clocked outputs) and the DFF of each net
+        int[][] netWriters = findWriters(opsArray);
+        int[] dffWriters = new int[netsCount];
+        Arrays.fill(dffWriters, -1);
+        for (int d = 0; d < dffs.size(); d++)
+            dffWriters[((int[])dffs.elementAt(d))[1]] = d;
+
+        boolean[] liveNets = new boolean[netsCount];
+        boolean[] liveDFFs = new boolean[dffs.size()];
+        int[] stack = new int[netsCount];
+        int top = 0;
+
+        for (int i = 0; i < outputNets.length; i++)
+            top = markLive(outputNets[i], liveNets, stack, top);
+        for (int i = 0; i < internalNets.length; i++)
+            top = markLive(internalNets[i], liveNets, stack, top);
+        for (int i = 0; i < opsArray.length; i++)
+            if (opsArray[i].type == OP_BUILTIN &&
+                ((Object[])builtIns.elementAt(opsArray[i].source))[0] instanceof BuiltInGateWithGUI)
+                top = markLive(opsArray[i], liveNets, stack, top);
+
+        while (top > 0) {
+            int net = stack[--top];
+            for (int k = 0; k < netWriters[net].length; k++)
+                top = markLive(opsArray[netWriters[net][k]], liveNets, stack, top);
+
+            int dff = dffWriters[net];
+            if (dff >= 0 && !liveDFFs[dff]) {
+                liveDFFs[dff] = true;
+                top = markLive(((int[])dffs.elementAt(dff))[0], liveNets, stack, top);
+            }
+        }
+
+        Vector newOps = new Vector();
+        Vector newBuiltIns = new Vector();
+        for (int i = 0; i < opsArray.length; i++)
+            if (opsArray[i].isLive) {
+                newOps.addElement(opsArray[i]);
+                if (opsArray[i].type == OP_BUILTIN) {
+                    newBuiltIns.addElement(builtIns.elementAt(opsArray[i].source));
+                    opsArray[i].source = newBuiltIns.size() - 1;
+                }
+            }
+
+        Vector newDFFs = new Vector();
+        for (int d = 0; d < liveDFFs.length; d++)
+            if (liveDFFs[d])
+                newDFFs.addElement(dffs.elementAt(d));
+
+        ops = newOps;
+        builtIns = newBuiltIns;
+        dffs = newDFFs;
+    }
+
+    // Marks the given net as live and pushes it to the given stack, if not marked yet.
+    // Returns the new top of the stack.
+    private static int markLive(int net, boolean[] liveNets, int[] stack, int top) {
+        if (!liveNets[net]) {
+            liveNets[net] = true;
+            stack[top++] = net;
+        }
+
+        return top;
+    }
+
+    // Marks the given operation as live, and the nets it reads (all the inputs of a
+    // built-in gate, including the clocked ones). Returns the new top of the stack.
+    private int markLive(Op op, boolean[] liveNets, int[] stack, int top) {
+        if (!op.isLive) {
+            op.isLive = true;
+            int[] nets = (op.type == OP_BUILTIN ?
+                          (int[])((Object[])builtIns.elementAt(op.source))[1] : op.reads);
+            for (int i = 0; i < nets.length; i++)
+                top = markLive(nets[i], liveNets, stack, top);
+        }
+
+        return top;
+    }
+
+    // Returns for each net all the operations which write it.
+    private int[][] findWriters(Op[] opsArray) {
+        int[] writersCount = new int[netsCount];
+        for (int i = 0; i < opsArray.length; i++)
+            for (int j = 0; j < opsArray[i].writes.length; j++)
+                writersCount[opsArray[i].writes[j]]++;
+
+        int[][] result = new int[netsCount][];
+        for (int n = 0; n < netsCount; n++)
+            result[n] = new int[writersCount[n]];
+
+        int[] fill = new int[netsCount];
+        for (int i = 0; i < opsArray.length; i++)
+            for (int j = 0; j < opsArray[i].writes.length; j++) {
+                int net = opsArray[i].writes[j];
+                result[net][fill[net]++] = i;
+            }
+
+        return result;
+    }
+
+    // Sorts the operations by levels in topological order and creates the arrays of the
+    // netlist. Throws InstantiationException if a circle is detected.
+    private void compile() throws InstantiationException {
+        int count = ops.size();
+        Op[] opsArray = new Op[count];
+        ops.toArray(opsArray);
+
+        // find the operations which write each net (writes of clocked outputs are not
+        // considered, since they are only changed when the clock goes down).
+        int[] writerStarts = new int[netsCount + 1];
+        for (int i = 0; i < count; i++)
+            for (int j = 0; j < opsArray[i].writes.length; j++)
+                if (!opsArray[i].isStateWrite(j))
+                    writerStarts[opsArray[i].writes[j] + 1]++;
+        for (int n = 0; n < netsCount; n++)
+            writerStarts[n + 1] += writerStarts[n];
+        int[] writers = new int[writerStarts[netsCount]];
+        int[] fill = new int[netsCount];
+        for (int i = 0; i < count; i++)
+            for (int j = 0; j < opsArray[i].writes.length; j++)
+                if (!opsArray[i].isStateWrite(j)) {
+                    int net = opsArray[i].writes[j];
+                    writers[writerStarts[net] + fill[net]++] = i;
+                }
+
+        int[][] unsortedReaders = findReaders(opsArray, null);
+
+        // Kahn's algorithm: an operation is ready when all the writers of its inputs are done.
+        int[] inDegree = new int[count];
+        for (int i = 0; i < count; i++)
+            for (int j = 0; j < opsArray[i].reads.length; j++) {
+                int net = opsArray[i].reads[j];
+                inDegree[i] += writerStarts[net + 1] - writerStarts[net];
+            }
+
+        int[] queue = new int[count];
+        int head = 0, tail = 0;
+        for (int i = 0; i < count; i++)
+            if (inDegree[i] == 0)
+                queue[tail++] = i;
+
+        int levelsCount = 0;
+        while (head < tail) {
+            Op op = opsArray[queue[head++]];
+            levelsCount = Math.max(levelsCount, op.level + 1);
+            for (int j = 0; j < op.writes.length; j++) {
+                if (op.isStateWrite(j))
+                    continue;
+
+                int[] netReaders = unsortedReaders[op.writes[j]];
+                for (int k = 0; k < netReaders.length; k++) {
+                    int reader = netReaders[k];
+                    opsArray[reader].level = Math.max(opsArray[reader].level, op.level + 1);
+                    if (--inDegree[reader] == 0)
+                        queue[tail++] = reader;
+                }
+            }
+        }
+
+        if (tail < count)
+            throw new InstantiationException("Chip " + gateClass.getName() +
+                                             " has a circle in its flattened connections");
+
+        // stable sort by levels
+        levelStarts = new int[levelsCount + 1];
+        for (int i = 0; i < count; i++)
+            levelStarts[opsArray[i].level + 1]++;
+        for (int l = 0; l < levelsCount; l++)
+            levelStarts[l + 1] += levelStarts[l];
+        int[] levelFill = new int[levelsCount];
+        int[] newIndex = new int[count];
+        for (int i = 0; i < count; i++) {
+            int level = opsArray[i].level;
+            newIndex[i] = levelStarts[level] + levelFill[level]++;
+        }
+
+        opTypes = new byte[count];
+        opSources = new int[count];
+        opTargets = new int[count];
+        opArgs = new int[count];
+        sourceMasks = new int[count];
+        sourceShifts = new byte[count];
+        targetMasks = new int[count];
+        targetShifts = new byte[count];
+
+        for (int i = 0; i < count; i++) {
+            Op op = opsArray[i];
+            int index = newIndex[i];
+            op.index = index;
+            opTypes[index] = op.type;
+            opSources[index] = op.source;
+            opTargets[index] = op.target;
+            opArgs[index] = op.arg;
+            sourceMasks[index] = getMask(op.sourceSubBus);
+            sourceShifts[index] = (op.sourceSubBus == null ? 0 : op.sourceSubBus[0]);
+            targetMasks[index] = getMask(op.targetSubBus);
+            targetShifts[index] = (op.targetSubBus == null ? 0 : op.targetSubBus[0]);
+        }
+
+        isParallelOp = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            Op op = opsArray[i];
+            boolean isParallel = (op.type != OP_BUILTIN);
+            for (int j = 0; j < op.writes.length && isParallel; j++)
+                isParallel = (writerStarts[op.writes[j] + 1] - writerStarts[op.writes[j]] == 1);
+            isParallelOp[newIndex[i]] = isParallel;
+        }
+
+        int[][] sortedReaders = findReaders(opsArray, newIndex);
+        readerStarts = new int[netsCount + 1];
+        for (int n = 0; n < netsCount; n++)
+            readerStarts[n + 1] = readerStarts[n] + sortedReaders[n].length;
+        readers = new int[readerStarts[netsCount]];
+        for (int n = 0; n < netsCount; n++)
+            System.arraycopy(sortedReaders[n], 0, readers, readerStarts[n], sortedReaders[n].length);
+
+        dirtyOps = new long[(count + 63) >> 6];
+        firstDirtyWord = dirtyOps.length;
+
+        // built-in gates
+        int builtInsCount = builtIns.size();
+        builtInGates = new BuiltInGate[builtInsCount];
+        builtInInputNets = new int[builtInsCount][];
+        builtInOutputNets = new int[builtInsCount][];
+        builtInOps = new int[builtInsCount];
+        Vector clocked = new Vector();
+        Vector withGUI = new Vector();
+        for (int b = 0; b < builtInsCount; b++) {
+            Object[] builtIn = (Object[])builtIns.elementAt(b);
+            builtInGates[b] = (BuiltInGate)builtIn[0];
+            builtInInputNets[b] = (int[])builtIn[1];
+            builtInOutputNets[b] = (int[])builtIn[2];
+            builtInOps[b] = ((Op)builtIn[3]).index;
+            if (builtInGates[b].getGateClass().isClocked())
+                clocked.addElement(Integer.valueOf(b));
+            if (builtInGates[b] instanceof BuiltInGateWithGUI)
+                withGUI.addElement(Integer.valueOf(b));
+        }
+
+        clockedBuiltIns = toSortedArray(clocked);
+        guiBuiltIns = toSortedArray(withGUI);
+
+        // truth tables
+        int tablesCount = tableParts.size();
+        tables = new short[tablesCount][];
+        tableInputNets = new int[tablesCount][];
+        tableInputMasks = new int[tablesCount][];
+        tableOutputNets = new int[tablesCount][];
+        for (int t = 0; t < tablesCount; t++) {
+            Object[] tablePart = (Object[])tableParts.elementAt(t);
+            tables[t] = (short[])tablePart[0];
+            tableInputNets[t] = (int[])tablePart[1];
+            tableInputMasks[t] = (int[])tablePart[2];
+            tableOutputNets[t] = (int[])tablePart[3];
+        }
+
+        // DFFs
+        int dffsCount = dffs.size();
+        dffInputNets = new int[dffsCount];
+        dffOutputNets = new int[dffsCount];
+        dffStates = new short[dffsCount];
+        for (int d = 0; d < dffsCount; d++) {
+            int[] nets = (int[])dffs.elementAt(d);
+            dffInputNets[d] = nets[0];
+            dffOutputNets[d] = nets[1];
+        }
+    }
+
+    // Returns for each net the operations which read it. If newIndex is not null, the
+    // operation numbers are translated through it and sorted.
+    private int[][] findReaders(Op[] opsArray, int[] newIndex) {
+        int[] readersCount = new int[netsCount];
+        for (int i = 0; i < opsArray.length; i++)
+            for (int j = 0; j < opsArray[i].reads.length; j++)
+                readersCount[opsArray[i].reads[j]]++;
+
+        int[][] result = new int[netsCount][];
+        for (int n = 0; n < netsCount; n++)
+            result[n] = new int[readersCount[n]];
+
+        int[] fill = new int[netsCount];
+        for (int i = 0; i < opsArray.length; i++)
+            for (int j = 0; j < opsArray[i].reads.length; j++) {
+                int net = opsArray[i].reads[j];
+                result[net][fill[net]++] = (newIndex == null ? i : newIndex[i]);
+            }
+
+        if (newIndex != null)
+            for (int n = 0; n < netsCount; n++)
+                Arrays.sort(result[n]);
+
+        return result;
+    }
+
+    // Returns an array of the built-in numbers in the given vector, sorted by the
+    // topological order of their operations.
+    private int[] toSortedArray(Vector builtInNumbers) {
+        int[] result = new int[builtInNumbers.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ((Integer)builtInNumbers.elementAt(i)).intValue();
+
+        // insertion sort by operation index
+        for (int i = 1; i < result.length; i++) {
+            int current = result[i];
+            int j = i - 1;
+            for (; j >= 0 && builtInOps[result[j]] > builtInOps[current]; j--)
+                result[j + 1] = result[j];
+            result[j + 1] = current;
+        }
+
+        return result;
+    }
+
+    // Returns the mask of the given sub bus (a full mask if null).
+    private static int getMask(byte[] subBus) {
+        return (subBus == null ? FULL_MASK : SubNode.getMask(subBus[0], subBus[1]) & FULL_MASK);
+    }
+
+    // Creates the gate that represents this netlist.
+    private void createGate(int[] inputNets, int[] outputNets, int[] internalNets, Gate[] parts) {
+        gate = new NetlistGate(this);
+
+        this.inputNets = inputNets;
+        inputNodes = new NetNode[inputNets.length];
+        Node[] outputNodes = new Node[outputNets.length];
+        Node[] internalNodes = new Node[internalNets.length];
+
+        exposedNets = new int[outputNets.length + internalNets.length];
+        exposedNodes = new NetNode[exposedNets.length];
+
+        // Add a DirtyGateAdapter as a listener to all the non-clocked inputs,
+        // so the gate will become dirty when one of its non-clocked input changes.
+        Node adapter = new DirtyGateAdapter(gate);
+        for (int i = 0; i < inputNodes.length; i++) {
+            inputNodes[i] = new NetNode(this, inputNets[i]);
+            if (!gateClass.isInputClocked[i])
+                inputNodes[i].addListener(adapter);
+        }
+
+        for (int i = 0; i < outputNodes.length; i++) {
+            exposedNets[i] = outputNets[i];
+            exposedNodes[i] = new NetNode(this, outputNets[i]);
+            outputNodes[i] = exposedNodes[i];
+        }
+
+        for (int i = 0; i < internalNodes.length; i++) {
+            exposedNets[outputNodes.length + i] = internalNets[i];
+            exposedNodes[outputNodes.length + i] = new NetNode(this, internalNets[i]);
+            internalNodes[i] = exposedNodes[outputNodes.length + i];
+        }
+
+        // gates with gui evaluate the netlist when they are changed through their gui
+        for (int i = 0; i < guiBuiltIns.length; i++)
+            ((BuiltInGateWithGUI)builtInGates[guiBuiltIns[i]]).setParent(gate);
+
+        gate.init(inputNodes, outputNodes, internalNodes, parts, gateClass);
+    }
+
+    /**
+     * Returns the value of the given net.
+     */
+    public short getValue(int net) {
+        return values[net];
+    }
+
+    /**
+     * Sets the given net with the given value. If the value changed, the operations
+     * which read the net are marked for re-evaluation.
+     */
+    public void setValue(int net, short value) {
+        if (values[net] != value) {
+            values[net] = value;
+            markReaders(net);
+        }
+    }
+
+    // Marks the operations which read the given net for re-evaluation.
+    private void markReaders(int net) {
+        for (int i = readerStarts[net]; i < readerStarts[net + 1]; i++) {
+            int op = readers[i];
+            int word = op >> 6;
+            dirtyOps[word] |= 1L << op;
+            if (word < firstDirtyWord)
+                firstDirtyWord = word;
+        }
+    }
+
+    // Marks the given operation for re-evaluation.
+    private void markDirty(int op) {
+        int word = op >> 6;
+        dirtyOps[word] |= 1L << op;
+        if (word < firstDirtyWord)
+            firstDirtyWord = word;
+    }
+
+    /**
+     * Detaches the netlist from the clock node of its manager.
+     * The netlist should not be used afterwards.
+     */
+    public void dispose() {
+        if (clockListener != null)
+            manager.getClockNode().removeListener(clockListener);
+        clockListener = null;
+    }
+
+    /**
+     * Writes the state of the netlist to the given output: the values of the nets, the
+     * operations which are marked for re-evaluation, the states of the DFFs and the
+     * states of the built-in gates.
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(values.length);
+        for (int i = 0; i < values.length; i++)
+            out.writeShort(values[i]);
+
+        out.writeInt(dirtyOps.length);
+        for (int i = 0; i < dirtyOps.length; i++)
+            out.writeLong(dirtyOps[i]);
+        out.writeInt(firstDirtyWord);
+
+        out.writeInt(dffStates.length);
+        for (int i = 0; i < dffStates.length; i++)
+            out.writeShort(dffStates[i]);
+
+        out.writeInt(builtInGates.length);
+        for (int i = 0; i < builtInGates.length; i++)
+            builtInGates[i].writeState(out);
+    }
+
+    /**
+     * Reads the state of the netlist, which was written by writeState() from a netlist of
+     * the same gate class. Throws IOException if the state doesn't match the netlist.
+     */
+    public void readState(DataInput in) throws IOException {
+        if (in.readInt() != values.length)
+            throw new IOException("The state doesn't match the netlist of " +
+                                  gateClass.getName());
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readShort();
+
+        if (in.readInt() != dirtyOps.length)
+            throw new IOException("The state doesn't match the netlist of " +
+                                  gateClass.getName());
+        for (int i = 0; i < dirtyOps.length; i++)
+            dirtyOps[i] = in.readLong();
+        firstDirtyWord = in.readInt();
+
+        if (in.readInt() != dffStates.length)
+            throw new IOException("The state doesn't match the netlist of " +
+                                  gateClass.getName());
+        for (int i = 0; i < dffStates.length; i++)
+            dffStates[i] = in.readShort();
+
+        if (in.readInt() != builtInGates.length)
+            throw new IOException("The state doesn't match the netlist of " +
+                                  gateClass.getName());
+        for (int i = 0; i < builtInGates.length; i++)
+            builtInGates[i].readState(in);
+    }
+
+    /**
+     * Marks the built-in gates with gui for re-evaluation, since their state may have
+     * been changed through their gui.
+     */
+    public void markGUIGatesDirty() {
+        for (int i = 0; i < guiBuiltIns.length; i++)
+            markDirty(builtInOps[guiBuiltIns[i]]);
+    }
+
+    /**
+     * Evaluates all the marked operations in topological order, until the
+     * circuit is settled.
+     */
+    public void eval() {
+        if (pool != null)
+            evalLevels();
+        else
+            evalUntil(opTypes.length);
+    }
+
+    // Evaluates the marked operations in topological order, until the first marked
+    // operation is not before the given end operation.
+    private void evalUntil(int end) {
+        while (firstDirtyWord < dirtyOps.length) {
+            long bits = dirtyOps[firstDirtyWord];
+            if (bits == 0) {
+                firstDirtyWord++;
+                continue;
+            }
+
+            int op = (firstDirtyWord << 6) + Long.numberOfTrailingZeros(bits);
+            if (op >= end)
+                break;
+
+            dirtyOps[firstDirtyWord] = bits & (bits - 1);
+            execute(op);
+        }
+    }
+
+    // Evaluates the marked operations level by level. The operations of a level only mark
+    // operations of higher levels, so a level is done when its marked operations are executed.
+    // A level with enough marked operations is evaluated in parallel.
+    private void evalLevels() {
+        int level = 0;
+
+        while (firstDirtyWord < dirtyOps.length) {
+            if (dirtyOps[firstDirtyWord] == 0) {
+                firstDirtyWord++;
+                continue;
+            }
+
+            int first = (firstDirtyWord << 6) +
+                        Long.numberOfTrailingZeros(dirtyOps[firstDirtyWord]);
+            while (levelStarts[level + 1] <= first)
+                level++;
+
+            int end = levelStarts[level + 1];
+            int count = countDirty(first, end);
+            if (count < parallelLevelWidth)
+                evalUntil(end);
+            else
+                evalParallel(takeDirty(first, end, count));
+        }
+    }
+
+    // Returns the number of marked operations from first (inclusive) to end (exclusive).
+    private int countDirty(int first, int end) {
+        int count = 0;
+        for (int word = first >> 6; (word << 6) < end; word++) {
+            long bits = dirtyOps[word];
+            if (((word + 1) << 6) > end)
+                bits &= (1L << end) - 1;
+            count += Long.bitCount(bits);
+        }
+
+        return count;
+    }
+
+    // Unmarks the given amount of marked operations from first (inclusive) to end (exclusive),
+    // and returns them.
+    private int[] takeDirty(int first, int end, int count) {
+        int[] result = new int[count];
+        int counter = 0;
+        for (int word = first >> 6; (word << 6) < end; word++) {
+            long bits = dirtyOps[word];
+            if (((word + 1) << 6) > end)
+                bits &= (1L << end) - 1;
+
+            dirtyOps[word] &= ~bits;
+            while (bits != 0) {
+                result[counter++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+
+        return result;
+    }
+
+    // Executes the given operations of one level: the parallel operations in chunks on the
+    // pool, and then the others, in order. The nets which were changed by the chunks are
+    // collected, and their readers are marked after all the chunks are done.
+    private void evalParallel(int[] levelOps) {
+        int parallelCount = 0;
+        int serialCount = 0;
+        int[] serialOps = new int[levelOps.length];
+        for (int i = 0; i < levelOps.length; i++)
+            if (isParallelOp[levelOps[i]])
+                levelOps[parallelCount++] = levelOps[i];
+            else
+                serialOps[serialCount++] = levelOps[i];
+
+        int chunksCount = Math.min(pool.getParallelism() * 4,
+                                   Math.max(parallelCount / MIN_CHUNK_SIZE, 1));
+        final ChunkTask[] chunks = new ChunkTask[chunksCount];
+        for (int c = 0; c < chunksCount; c++)
+            chunks[c] = new ChunkTask(levelOps, (int)((long)parallelCount * c / chunksCount),
+                                      (int)((long)parallelCount * (c + 1) / chunksCount));
+
+        pool.invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(chunks);
+            }
+        });
+
+        for (int c = 0; c < chunksCount; c++)
+            for (int i = 0; i < chunks[c].changedCount; i++)
+                markReaders(chunks[c].changedNets[i]);
+
+        for (int i = 0; i < serialCount; i++)
+            execute(serialOps[i]);
+    }
+
+    // Executes the given operation.
+    private void execute(int op) {
+        switch (opTypes[op]) {
+            case OP_COPY:
+                int value = (values[opSources[op]] & sourceMasks[op]) >>> sourceShifts[op];
+                int target = opTargets[op];
+                int mask = targetMasks[op];
+                setValue(target, (short)((values[target] & ~mask) |
+                                         ((value << targetShifts[op]) & mask)));
+                break;
+
+            case OP_NAND:
+                setValue(opTargets[op], (short)(1 - (values[opSources[op]] & values[opArgs[op]])));
+                break;
+
+            case OP_BUILTIN:
+                int builtIn = opSources[op];
+                copyInputs(builtIn);
+                builtInGates[builtIn].eval();
+                copyOutputs(builtIn);
+                break;
+
+            case OP_TABLE:
+                int table = opSources[op];
+                int[] inputNets = tableInputNets[table];
+                int[] inputMasks = tableInputMasks[table];
+                int[] outputNets = tableOutputNets[table];
+                int index = 0;
+                for (int i = inputNets.length - 1; i >= 0; i--)
+                    index = (index << Integer.bitCount(inputMasks[i])) |
+                            (values[inputNets[i]] & inputMasks[i]);
+
+                short[] entries = tables[table];
+                int base = index * outputNets.length;
+                for (int i = 0; i < outputNets.length; i++)
+                    setValue(outputNets[i], entries[base + i]);
+                break;
+        }
+    }
+
+    // Executes the given operation (which isn't a built-in part) in a chunk of a level which
+    // is evaluated in parallel: the readers of the changed nets are not marked, but the nets
+    // are added to the changed nets of the chunk.
+    private void executeInChunk(int op, ChunkTask chunk) {
+        switch (opTypes[op]) {
+            case OP_COPY:
+                int value = (values[opSources[op]] & sourceMasks[op]) >>> sourceShifts[op];
+                int target = opTargets[op];
+                int mask = targetMasks[op];
+                chunk.setValue(target, (short)((values[target] & ~mask) |
+                                               ((value << targetShifts[op]) & mask)));
+                break;
+
+            case OP_NAND:
+                chunk.setValue(opTargets[op],
+                               (short)(1 - (values[opSources[op]] & values[opArgs[op]])));
+                break;
+
+            case OP_TABLE:
+                int table = opSources[op];
+                int[] inputNets = tableInputNets[table];
+                int[] inputMasks = tableInputMasks[table];
+                int[] outputNets = tableOutputNets[table];
+                int index = 0;
+                for (int i = inputNets.length - 1; i >= 0; i--)
+                    index = (index << Integer.bitCount(inputMasks[i])) |
+                            (values[inputNets[i]] & inputMasks[i]);
+
+                short[] entries = tables[table];
+                int base = index * outputNets.length;
+                for (int i = 0; i < outputNets.length; i++)
+                    chunk.setValue(outputNets[i], entries[base + i]);
+                break;
+        }
+    }
+
+    // Copies the values of the input nets of the given built-in gate into its input nodes.
+    private void copyInputs(int builtIn) {
+        Node[] nodes = builtInGates[builtIn].getInputNodes();
+        int[] nets = builtInInputNets[builtIn];
+        for (int i = 0; i < nets.length; i++)
+            nodes[i].set(values[nets[i]]);
+    }
+
+    // Copies the values of the output nodes of the given built-in gate into its output nets.
+    private void copyOutputs(int builtIn) {
+        Node[] nodes = builtInGates[builtIn].getOutputNodes();
+        int[] nets = builtInOutputNets[builtIn];
+        for (int i = 0; i < nets.length; i++)
+            setValue(nets[i], nodes[i].get());
+    }
+
+    /**
+     * Updates the internal state of the clocked parts according to the values of their
+     * inputs (outputs are not updated).
+     */
+    public void clockUp() {
+        for (int d = 0; d < dffStates.length; d++)
+            dffStates[d] = values[dffInputNets[d]];
+
+        for (int i = 0; i < clockedBuiltIns.length; i++) {
+            int builtIn = clockedBuiltIns[i];
+            copyInputs(builtIn);
+            builtInGates[builtIn].tick();
+            copyOutputs(builtIn);
+        }
+    }
+
+    /**
+     * Updates the outputs of the clocked parts according to their internal state.
+     */
+    public void clockDown() {
+        for (int d = 0; d < dffStates.length; d++)
+            setValue(dffOutputNets[d], dffStates[d]);
+
+        for (int i = 0; i < clockedBuiltIns.length; i++) {
+            int builtIn = clockedBuiltIns[i];
+            copyInputs(builtIn);
+            builtInGates[builtIn].tock();
+            copyOutputs(builtIn);
+        }
+    }
+
+    /**
+     * Updates the nodes of the top level output and internal pins with the values
+     * of their nets, notifying their listeners on changes.
+     */
+    public void updateNodes() {
+        for (int i = 0; i < exposedNodes.length; i++)
+            exposedNodes[i].update(values[exposedNets[i]]);
+    }
+
+    /**
+     * Evaluates the given input vectors, VECTORS_PER_PASS vectors in one pass. Each bit of
+     * each net is held by a long, whose bits (lanes) are the values of the net bit in the
+     * different vectors, so that a Nand of 64 vectors is a single operation. Built-in parts
+     * (except Nand and DFF) are evaluated lane by lane.
+     * inputs[v][i] is the value of the i'th input pin in vector v (the given amount of
+     * vectors is used). The returned array holds in [v][e] the value of the e'th output
+     * pin in vector v, followed by the internal pins.
+     * The clocked parts are not clocked, and the state of the netlist is not changed.
+     */
+    public short[][] evalVectors(short[][] inputs, int count) {
+        short[][] result = new short[count][exposedNets.length];
+
+        if (slices == null)
+            slices = new long[values.length * NET_BITS];
+
+        for (int first = 0; first < count; first += VECTORS_PER_PASS) {
+            int lanes = Math.min(VECTORS_PER_PASS, count - first);
+
+            // all the nets start with their current value in all lanes (constants,
+            // clock and the outputs of the clocked parts keep their values).
+            for (int n = 0; n < values.length; n++) {
+                int value = values[n];
+                int base = n * NET_BITS;
+                for (int b = 0; b < NET_BITS; b++)
+                    slices[base + b] = -((value >>> b) & 1L);
+            }
+
+            for (int i = 0; i < inputNets.length; i++)
+                for (int l = 0; l < lanes; l++)
+                    setSlicedValue(inputNets[i], l, inputs[first + l][i]);
+
+            for (int op = 0; op < opTypes.length; op++)
+                executeSliced(op, lanes);
+
+            for (int l = 0; l < lanes; l++)
+                for (int e = 0; e < exposedNets.length; e++)
+                    result[first + l][e] = getSlicedValue(exposedNets[e], l);
+        }
+
+        // the built-in gates were left with the values of the last lane
+        for (int b = 0; b < builtInOps.length; b++)
+            markDirty(builtInOps[b]);
+
+        return result;
+    }
+
+    /**
+     * Displays the given vector: sets the input nodes with the given input values and
+     * updates the output & internal nodes with the given values (as returned by evalVectors).
+     * The nets are not evaluated, so the next eval recomputes the circuit.
+     */
+    public void showVector(short[] inputValues, short[] exposedValues) {
+        for (int i = 0; i < inputNodes.length; i++)
+            inputNodes[i].set(inputValues[i]);
+
+        for (int e = 0; e < exposedNodes.length; e++)
+            exposedNodes[e].update(exposedValues[e]);
+    }
+
+    // Executes the given operation on all the lanes of the bit slices.
+    private void executeSliced(int op, int lanes) {
+        switch (opTypes[op]) {
+            case OP_COPY:
+                int source = opSources[op] * NET_BITS;
+                int target = opTargets[op] * NET_BITS;
+                int sourceMask = sourceMasks[op];
+                int targetMask = targetMasks[op];
+                int offset = sourceShifts[op] - targetShifts[op];
+                for (int b = 0; b < NET_BITS; b++)
+                    if (((targetMask >>> b) & 1) != 0) {
+                        int sourceBit = b + offset;
+                        slices[target + b] = (sourceBit >= 0 && sourceBit < NET_BITS &&
+                                              ((sourceMask >>> sourceBit) & 1) != 0 ?
+                                              slices[source + sourceBit] : 0);
+                    }
+                break;
+
+            case OP_NAND:
+                slices[opTargets[op] * NET_BITS] = ~(slices[opSources[op] * NET_BITS] &
+                                                     slices[opArgs[op] * NET_BITS]);
+                break;
+
+            case OP_BUILTIN:
+                int builtIn = opSources[op];
+                BuiltInGate builtInGate = builtInGates[builtIn];
+                Node[] inputNodes = builtInGate.getInputNodes();
+                Node[] outputNodes = builtInGate.getOutputNodes();
+                int[] inputNets = builtInInputNets[builtIn];
+                int[] outputNets = builtInOutputNets[builtIn];
+                for (int l = 0; l < lanes; l++) {
+                    for (int i = 0; i < inputNets.length; i++)
+                        inputNodes[i].set(getSlicedValue(inputNets[i], l));
+                    builtInGate.eval();
+                    for (int i = 0; i < outputNets.length; i++)
+                        setSlicedValue(outputNets[i], l, outputNodes[i].get());
+                }
+                break;
+
+            case OP_TABLE:
+                int table = opSources[op];
+                int[] tableInputs = tableInputNets[table];
+                int[] inputMasks = tableInputMasks[table];
+                int[] tableOutputs = tableOutputNets[table];
+                short[] entries = tables[table];
+                for (int l = 0; l < lanes; l++) {
+                    int index = 0;
+                    for (int i = tableInputs.length - 1; i >= 0; i--)
+                        index = (index << Integer.bitCount(inputMasks[i])) |
+                                (getSlicedValue(tableInputs[i], l) & inputMasks[i]);
+
+                    int base = index * tableOutputs.length;
+                    for (int i = 0; i < tableOutputs.length; i++)
+                        setSlicedValue(tableOutputs[i], l, entries[base + i]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Computes and returns the truth table of the gate: the values of the output pins
+     * (in [index * outputs count + output number]) for each index, which is the
+     * concatenation of the values of the input pins (the first input pin at the lowest
+     * bits). The gate should be unclocked. The state of the netlist is not changed.
+     */
+    public short[] computeTruthTable() {
+        int inputBits = gateClass.getInputBitsCount();
+        int outputsCount = gateClass.outputPinsInfo.length;
+        int entriesCount = 1 << inputBits;
+        short[] result = new short[entriesCount * outputsCount];
+
+        int chunk = Math.min(entriesCount, VECTORS_PER_PASS * 64);
+        short[][] inputs = new short[chunk][inputNets.length];
+        for (int first = 0; first < entriesCount; first += chunk) {
+            for (int v = 0; v < chunk; v++) {
+                int index = first + v;
+                for (int i = 0; i < inputNets.length; i++) {
+                    int width = gateClass.inputPinsInfo[i].width;
+                    inputs[v][i] = (short)(index & ((1 << width) - 1));
+                    index >>>= width;
+                }
+            }
+
+            short[][] outputs = evalVectors(inputs, chunk);
+            for (int v = 0; v < chunk; v++)
+                System.arraycopy(outputs[v], 0, result, (first + v) * outputsCount,
+                                 outputsCount);
+        }
+
+        return result;
+    }
+
+    // Returns the value of the given net in the given lane of the bit slices.
+    private short getSlicedValue(int net, int lane) {
+        int base = net * NET_BITS;
+        int value = 0;
+        for (int b = 0; b < NET_BITS; b++)
+            value |= (int)((slices[base + b] >>> lane) & 1) << b;
+
+        return (short)value;
+    }
+
+    // Sets the value of the given net in the given lane of the bit slices.
+    private void setSlicedValue(int net, int lane, short value) {
+        int base = net * NET_BITS;
+        long laneBit = 1L << lane;
+        for (int b = 0; b < NET_BITS; b++)
+            if (((value >>> b) & 1) != 0)
+                slices[base + b] |= laneBit;
+            else
+                slices[base + b] &= ~laneBit;
+    }
+
+    // An operation, as created while flattening the hierarchy.
+    private static class Op {
+
+        // the operation code and arguments (see the corresponding arrays)
+        byte type;
+        int source, target, arg;
+
+        // the sub busses of a copy operation (may be null)
+        byte[] sourceSubBus, targetSubBus;
+
+        // the nets which are read and written by the operation
+        int[] reads, writes;
+
+        // true for a written net which is a clocked output (may be null)
+        boolean[] stateWrites;
+
+        // the level and the final index of the operation
+        int level, index;
+
+        // true if the operation can affect the exposed nets (used by the optimization)
+        boolean isLive;
+
+        Op(byte type) {
+            this.type = type;
+        }
+
+        // Returns true if the written net at the given index is a clocked output.
+        boolean isStateWrite(int index) {
+            return stateWrites != null && stateWrites[index];
+        }
+    }
+
+    // A chunk of the operations of a level which is evaluated in parallel.
+    private class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // the operations of the chunk are ops[from] .. ops[to - 1]
+        private int[] ops;
+        private int from, to;
+
+        // the nets which were changed by the chunk
+        int[] changedNets;
+        int changedCount;
+
+        ChunkTask(int[] ops, int from, int to) {
+            this.ops = ops;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            int writesCount = 0;
+            for (int i = from; i < to; i++)
+                writesCount += (opTypes[ops[i]] == OP_TABLE ?
+                                tableOutputNets[opSources[ops[i]]].length : 1);
+
+            changedNets = new int[writesCount];
+            for (int i = from; i < to; i++)
+                executeInChunk(ops[i], this);
+        }
+
+        // Sets the given net with the given value, and adds it to the changed nets if
+        // the value changed.
+        void setValue(int net, short value) {
+            if (values[net] != value) {
+                values[net] = value;
+                changedNets[changedCount++] = net;
+            }
+        }
+    }
+
+    // A listener to the clock node, which sets the clock net.
+    private class ClockNode extends Node {
+
+        public void set(short value) {
+            setValue(CLOCK_NET, value);
+            NodeScheduler.scheduleDirty(gate);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.Gates;
+
+import java.io.*;
+
+/**
+ * A composite gate which is simulated by a flat Netlist instead of by its parts.
+ * The parts are kept only for presentation, and are not evaluated.
+ */
+public class NetlistGate extends CompositeGate {
+
+    // The netlist that simulates this gate
+    private Netlist netlist;
+
+    /**
+     * Constructs a new NetlistGate which is simulated by the given netlist.
+     */
+    public NetlistGate(Netlist netlist) {
+        this.netlist = netlist;
+    }
+
+    /**
+     * Returns the netlist that simulates this gate.
+     */
+    public Netlist getNetlist() {
+        return netlist;
+    }
+
+    /**
+     * Detaches the netlist and the presentation parts from the clock node, and from the
+     * other nodes and listeners outside the gate. The gate should not be used afterwards.
+     */
+    public void dispose() {
+        super.dispose();
+        netlist.dispose();
+    }
+
+    /**
+     * Writes the state of the netlist (the parts are only kept for presentation).
+     */
+    protected void writePartsState(DataOutput out) throws IOException {
+        netlist.writeState(out);
+    }
+
+    /**
+     * Reads the state of the netlist, which was written by writePartsState().
+     */
+    protected void readPartsState(DataInput in) throws IOException {
+        netlist.readState(in);
+    }
+
+    protected void clockUp() {
+        netlist.clockUp();
+        netlist.updateNodes();
+    }
+
+    protected void clockDown() {
+        netlist.clockDown();
+        netlist.updateNodes();
+    }
+
+    protected void reCompute() {
+        netlist.eval();
+        netlist.updateNodes();
+    }
+
+    /**
+     * Marks the gate as "dirty" - needs to be recomputed.
+     * The parts with gui are also marked, since they may have been changed through their gui.
+     */
+    public void setDirty() {
+        super.setDirty();
+        netlist.markGUIGatesDirty();
+    }
+}
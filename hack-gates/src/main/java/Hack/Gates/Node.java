@@ -28,6 +28,9 @@ public class Node {
     // listeners list
     protected NodeSet listeners;
 
+    // true if the node is waiting in the NodeScheduler's queue
+    protected boolean isScheduled;
+
     /**
      * Constructs a new node.
      */
@@ -68,15 +71,27 @@ public class Node {
 
     /**
      * Sets the node's value with the given value.
-     * Notifies the listeners on the change by calling their set() method.
+     * Schedules the notification of the listeners on the change (see NodeScheduler).
      */
     public void set(short value) {
         if (this.value != value) {
             this.value = value;
 
+            GateProfiler profiler = GateProfiler.countingProfiler;
+            if (profiler != null)
+                profiler.countToggle(this);
+
             if (listeners != null)
-                for (int i = 0; i < listeners.size(); i++)
-                    listeners.getNodeAt(i).set(get());
+                NodeScheduler.schedule(this);
         }
     }
+
+    /**
+     * Notifies the listeners on the current value by calling their set() method.
+     */
+    public void notifyListeners() {
+        if (listeners != null)
+            for (int i = 0; i < listeners.size(); i++)
+                listeners.getNodeAt(i).set(get());
+    }
 }
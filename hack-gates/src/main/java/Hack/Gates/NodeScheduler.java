@@ -0,0 +1,156 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package Hack.Gates;
+
+/**
+ * Propagates the changes of node values to their listeners through a worklist, instead
+ * of a recursive chain of set() calls.
+ * A node whose value changed is queued once, and when it is taken out of the queue its
+ * listeners are set with its current value, so each node is settled at most once even if
+ * it changed several times meanwhile. Gates that become dirty through DirtyGateAdapters are
+ * collected as well (each one once, however many of its inputs changed), and are marked as
+ * dirty after all the nodes were settled.
+ * The propagation is completed before the outermost set() returns.
+ * Each thread has its own queue, so simulations may run concurrently in different threads.
+ */
+public class NodeScheduler {
+
+    // The initial capacity of the queues
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The scheduler of each thread
+    private static final ThreadLocal schedulers = new ThreadLocal() {
+        protected Object initialValue() {
+            return new NodeScheduler();
+        }
+    };
+
+    // The queue of nodes whose listeners should be notified (cyclic, the length is
+    // a power of 2)
+    private Node[] nodes = new Node[INITIAL_CAPACITY];
+
+    // The index of the first node in the queue, and the amount of nodes in the queue
+    private int first, count;
+
+    // The gates which should be marked as dirty
+    private Gate[] dirtyGates = new Gate[INITIAL_CAPACITY];
+
+    // The amount of gates in dirtyGates
+    private int dirtyGatesCount;
+
+    // True while the queue is being processed
+    private boolean running;
+
+    // Constructs a new scheduler (one per thread, through the schedulers table).
+    private NodeScheduler() {
+    }
+
+    /**
+     * Schedules the notification of the listeners of the given node, which has changed.
+     * If not called during a propagation, the propagation is performed before returning.
+     */
+    public static void schedule(Node node) {
+        ((NodeScheduler)schedulers.get()).add(node);
+    }
+
+    /**
+     * Schedules the given gate to be marked as dirty, at the end of the current propagation.
+     * If not called during a propagation, the gate is marked immediately.
+     * A gate which is already dirty is not marked again.
+     */
+    public static void scheduleDirty(Gate gate) {
+        ((NodeScheduler)schedulers.get()).addDirty(gate);
+    }
+
+    // Adds the given node to the queue, and processes the queue if not already running.
+    private void add(Node node) {
+        if (!node.isScheduled) {
+            node.isScheduled = true;
+
+            if (count == nodes.length) {
+                Node[] newNodes = new Node[nodes.length * 2];
+                for (int i = 0; i < count; i++)
+                    newNodes[i] = nodes[(first + i) & (nodes.length - 1)];
+                nodes = newNodes;
+                first = 0;
+            }
+
+            nodes[(first + count) & (nodes.length - 1)] = node;
+            count++;
+        }
+
+        if (!running)
+            run();
+    }
+
+    // Adds the given gate to the gates which should be marked as dirty, if it isn't
+    // there already.
+    private void addDirty(Gate gate) {
+        if (!running) {
+            if (!gate.isDirty)
+                gate.setDirty();
+        }
+        else if (!gate.isScheduledDirty) {
+            gate.isScheduledDirty = true;
+
+            if (dirtyGatesCount == dirtyGates.length) {
+                Gate[] newGates = new Gate[dirtyGates.length * 2];
+                System.arraycopy(dirtyGates, 0, newGates, 0, dirtyGatesCount);
+                dirtyGates = newGates;
+            }
+
+            dirtyGates[dirtyGatesCount++] = gate;
+        }
+    }
+
+    // Processes the queue until all the nodes are settled, and then marks the
+    // collected gates as dirty.
+    private void run() {
+        running = true;
+
+        try {
+            while (count > 0) {
+                Node node = nodes[first];
+                nodes[first] = null;
+                first = (first + 1) & (nodes.length - 1);
+                count--;
+
+                node.isScheduled = false;
+                node.notifyListeners();
+            }
+        } finally {
+            // clear the queue in case of an exception
+            for (; count > 0; count--) {
+                nodes[first].isScheduled = false;
+                nodes[first] = null;
+                first = (first + 1) & (nodes.length - 1);
+            }
+
+            running = false;
+        }
+
+        for (int i = 0; i < dirtyGatesCount; i++) {
+            dirtyGates[i].isScheduledDirty = false;
+            if (!dirtyGates[i].isDirty)
+                dirtyGates[i].setDirty();
+            dirtyGates[i] = null;
+        }
+
+        dirtyGatesCount = 0;
+    }
+}
@@ -0,0 +1,214 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+package Hack.Gates;
+
+import java.util.*;
+
+/**
+ * Prunes a gate which is simulated by its parts to the cone of influence of its observed
+ * pins: only the parts which can affect the observed pins, or which hold a clocked state
+ * (with the parts which affect it), are recomputed when the gate is evaluated.
+ * The other parts are skipped and stay dirty, so they are brought up to date when the gate
+ * is pruned again with more observed pins.
+ * The cone is computed from the connections of the gates, in the resolution of whole pins,
+ * and every output of a built-in part is assumed to depend on all its inputs.
+ * Built-in parts with gui are always evaluated.
+ */
+public class OutputCone {
+
+    // Not instantiated.
+    private OutputCone() {
+    }
+
+    /**
+     * Prunes the given gate to the cone of influence of the given pins (input, output or
+     * internal pin names of the gate, which may be followed by a sub bus specification)
+     * and of the clocked parts in its hierarchy. If the gate isn't dirty, it is evaluated
+     * so the pins which are added to the cone are up to date.
+     * Unknown names are ignored.
+     */
+    public static void prune(CompositeGate gate, String[] observedPins) {
+        GateClass gateClass = gate.getGateClass();
+        boolean[] neededOutputs = new boolean[gate.getOutputNodes().length];
+        boolean[] neededInternals = new boolean[gate.getInternalNodes().length];
+
+        for (int i = 0; i < observedPins.length; i++) {
+            String name = observedPins[i];
+            int bracket = name.indexOf('[');
+            if (bracket != -1)
+                name = name.substring(0, bracket);
+
+            byte type = gateClass.getPinType(name);
+            if (type == GateClass.OUTPUT_PIN_TYPE)
+                neededOutputs[gateClass.getPinNumber(name)] = true;
+            else if (type == CompositeGateClass.INTERNAL_PIN_TYPE)
+                neededInternals[gateClass.getPinNumber(name)] = true;
+        }
+
+        boolean wasDirty = gate.isDirty;
+        prune(gate, neededOutputs, neededInternals);
+        setDirtyHierarchy(gate);
+        if (!wasDirty)
+            gate.eval();
+    }
+
+    // Prunes the parts of the given gate to the ones which affect the given outputs and
+    // internal pins (may be null), or hold a clocked state. Returns the inputs of the gate
+    // which they read.
+    private static boolean[] prune(CompositeGate gate, boolean[] neededOutputs,
+                                   boolean[] neededInternals) {
+        CompositeGateClass gateClass = (CompositeGateClass)gate.getGateClass();
+        int[] partsOrder = gateClass.getPartsOrder();
+        Gate[] parts = new Gate[gate.parts.length];  // in the hdl order
+        for (int i = 0; i < parts.length; i++)
+            parts[partsOrder[i]] = gate.parts[i];
+
+        // index the connections by part, and the connections to the internal pins by pin
+        Vector[] partInputs = new Vector[parts.length];
+        Vector[] partOutputs = new Vector[parts.length];
+        Vector[] internalSources = new Vector[gateClass.getInternalPinsCount()];
+        for (int i = 0; i < parts.length; i++) {
+            partInputs[i] = new Vector();
+            partOutputs[i] = new Vector();
+        }
+        for (int i = 0; i < internalSources.length; i++)
+            internalSources[i] = new Vector();
+
+        Iterator connectionIter = gateClass.getConnections().iterator();
+        while (connectionIter.hasNext()) {
+            Connection connection = (Connection)connectionIter.next();
+            switch (connection.getType()) {
+                case Connection.FROM_INPUT:
+                case Connection.FROM_INTERNAL:
+                    partInputs[connection.getPartNumber()].addElement(connection);
+                    break;
+                case Connection.TO_OUTPUT:
+                    partOutputs[connection.getPartNumber()].addElement(connection);
+                    break;
+                case Connection.TO_INTERNAL:
+                    partOutputs[connection.getPartNumber()].addElement(connection);
+                    internalSources[connection.getGatePinNumber()].addElement(connection);
+                    break;
+            }
+        }
+
+        boolean[] neededInputs = new boolean[gate.getInputNodes().length];
+        boolean[] isInternalNeeded = new boolean[internalSources.length];
+        boolean[][] neededPartOutputs = new boolean[parts.length][];
+        boolean[] isLive = new boolean[parts.length];
+        boolean[] isQueued = new boolean[parts.length];
+        Stack work = new Stack();
+
+        // the parts which feed the needed pins, or hold a state, or have gui. They are
+        // pushed in topological order, so the readers of a part are usually processed
+        // before it (and it is processed once, with all its needed outputs).
+        for (int i = 0; i < partsOrder.length; i++) {
+            int part = partsOrder[i];
+            neededPartOutputs[part] = new boolean[parts[part].getOutputNodes().length];
+            for (int j = 0; j < partOutputs[part].size(); j++) {
+                Connection connection = (Connection)partOutputs[part].elementAt(j);
+                if (connection.getType() == Connection.TO_OUTPUT ?
+                    neededOutputs[connection.getGatePinNumber()] :
+                    neededInternals != null && neededInternals[connection.getGatePinNumber()])
+                    markPartOutput(parts[part], neededPartOutputs[part], connection);
+            }
+
+            boolean isNeeded = parts[part].getGateClass().isClocked() ||
+                               parts[part] instanceof BuiltInGateWithGUI;
+            for (int j = 0; j < neededPartOutputs[part].length && !isNeeded; j++)
+                isNeeded = neededPartOutputs[part][j];
+
+            if (isNeeded) {
+                work.push(Integer.valueOf(part));
+                isQueued[part] = true;
+            }
+        }
+        if (neededInternals != null)
+            System.arraycopy(neededInternals, 0, isInternalNeeded, 0, neededInternals.length);
+
+        // add the parts which feed the inputs of the live parts, until nothing changes.
+        // A part is processed again when more of its outputs are needed.
+        while (!work.isEmpty()) {
+            int part = ((Integer)work.pop()).intValue();
+            isQueued[part] = false;
+            isLive[part] = true;
+
+            boolean[] neededPartInputs;
+            if (parts[part] instanceof CompositeGate && !(parts[part] instanceof NetlistGate))
+                neededPartInputs = prune((CompositeGate)parts[part], neededPartOutputs[part],
+                                         null);
+            else {
+                neededPartInputs = new boolean[parts[part].getInputNodes().length];
+                Arrays.fill(neededPartInputs, true);
+            }
+
+            GateClass partClass = parts[part].getGateClass();
+            for (int i = 0; i < partInputs[part].size(); i++) {
+                Connection connection = (Connection)partInputs[part].elementAt(i);
+                if (!neededPartInputs[partClass.getPinNumber(connection.getPartPinName())])
+                    continue;
+
+                int pin = connection.getGatePinNumber();
+                if (connection.getType() == Connection.FROM_INPUT)
+                    neededInputs[pin] = true;
+                else if (!isInternalNeeded[pin]) {
+                    isInternalNeeded[pin] = true;
+                    for (int j = 0; j < internalSources[pin].size(); j++) {
+                        Connection source = (Connection)internalSources[pin].elementAt(j);
+                        int sourcePart = source.getPartNumber();
+                        if (markPartOutput(parts[sourcePart], neededPartOutputs[sourcePart],
+                                           source) && !isQueued[sourcePart]) {
+                            work.push(Integer.valueOf(sourcePart));
+                            isQueued[sourcePart] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        int liveCount = 0;
+        for (int i = 0; i < parts.length; i++)
+            if (isLive[i])
+                liveCount++;
+
+        gate.evaluatedParts = new Gate[liveCount];
+        for (int i = 0, j = 0; i < partsOrder.length; i++)
+            if (isLive[partsOrder[i]])
+                gate.evaluatedParts[j++] = gate.parts[i];
+
+        return neededInputs;
+    }
+
+    // Marks the output pin of the given part which is the source of the given connection
+    // as needed. Returns true if it wasn't needed before.
+    private static boolean markPartOutput(Gate part, boolean[] neededPartOutputs,
+                                          Connection connection) {
+        int pin = part.getGateClass().getPinNumber(connection.getPartPinName());
+        boolean result = !neededPartOutputs[pin];
+        neededPartOutputs[pin] = true;
+        return result;
+    }
+
+    // Marks the given gate and the composite gates in its hierarchy as dirty, so the parts
+    // which were skipped are evaluated again if needed.
+    private static void setDirtyHierarchy(CompositeGate gate) {
+        gate.setDirty();
+        for (int i = 0; i < gate.parts.length; i++)
+            if (gate.parts[i] instanceof CompositeGate && !(gate.parts[i] instanceof NetlistGate))
+                setDirtyHierarchy((CompositeGate)gate.parts[i]);
+    }
+}
@@ -0,0 +1,48 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package builtInChips;
+
+import Hack.Gates.*;
+
+/**
+ * The Hack ALU (IN x[16], y[16], zx, nx, zy, ny, f, no; OUT out[16], zr, ng).
+ */
+public class ALU extends BuiltInGate {
+
+    protected void reCompute() {
+        short x = inputPins[0].get();
+        short y = inputPins[1].get();
+
+        if (inputPins[2].get() == 1) // zx
+            x = 0;
+        if (inputPins[3].get() == 1) // nx
+            x = (short)~x;
+        if (inputPins[4].get() == 1) // zy
+            y = 0;
+        if (inputPins[5].get() == 1) // ny
+            y = (short)~y;
+
+        short out = (inputPins[6].get() == 1 ? (short)(x + y) : (short)(x & y)); // f
+        if (inputPins[7].get() == 1) // no
+            out = (short)~out;
+
+        outputPins[0].set(out);
+        outputPins[1].set((short)(out == 0 ? 1 : 0));
+        outputPins[2].set((short)(out < 0 ? 1 : 0));
+    }
+}
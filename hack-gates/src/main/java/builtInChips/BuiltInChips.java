@@ -0,0 +1,66 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package builtInChips;
+
+import Hack.Gates.*;
+
+/**
+ * The bundled built-in chips. The chips are declared by hdl files in the built-in dir
+ * (BUILTIN Nand; etc.), and their java classes are created through the factories
+ * registered here, without reflection. The BuiltInGateRegistry finds this provider
+ * through the ServiceLoader.
+ */
+public class BuiltInChips implements BuiltInGateProvider {
+
+    /**
+     * The package of the bundled built-in chips (the name of their built-in dir).
+     */
+    public static final String PACKAGE = "builtInChips";
+
+    /**
+     * Registers the factories of all the bundled built-in chips in the BuiltInGateRegistry.
+     */
+    public static void register() {
+        register("Nand", Nand::new);
+        register("DFF", DFF::new);
+        register("Not16", Not16::new);
+        register("Add16", Add16::new);
+        register("ALU", ALU::new);
+        register("Register", Register::new);
+        register("RAM8", RAM8::new);
+        register("RAM64", RAM64::new);
+        register("RAM512", RAM512::new);
+        register("RAM4K", RAM4K::new);
+        register("RAM16K", RAM16K::new);
+        register("ROM32K", ROM32K::new);
+        register("Screen", Screen::new);
+        register("Keyboard", Keyboard::new);
+    }
+
+    /**
+     * Registers the factories of all the bundled built-in chips in the BuiltInGateRegistry.
+     */
+    public void registerFactories() {
+        register();
+    }
+
+    // Registers the given factory for the given chip class name.
+    private static void register(String className, BuiltInGateFactory factory) {
+        BuiltInGateRegistry.register(PACKAGE + "." + className, factory);
+    }
+}
@@ -0,0 +1,50 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package builtInChips;
+
+import Hack.Gates.*;
+
+import java.io.*;
+
+/**
+ * The data flip flop (IN in; OUT out; CLOCKED in).
+ * out(t) = in(t - 1).
+ */
+public class DFF extends BuiltInGate {
+
+    // The state of the flip flop
+    private short state;
+
+    protected void clockUp() {
+        state = inputPins[0].get();
+    }
+
+    protected void clockDown() {
+        outputPins[0].set(state);
+    }
+
+    public void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeShort(state);
+    }
+
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        state = in.readShort();
+    }
+}
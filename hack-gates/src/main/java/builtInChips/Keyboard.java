@@ -0,0 +1,69 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package builtInChips;
+
+import Hack.Gates.*;
+
+import java.awt.*;
+import java.io.*;
+
+/**
+ * The keyboard memory map (OUT out[16]): outputs the code of the currently pressed key,
+ * or 0 if no key is pressed. The key is set from scripts as Keyboard[] (or Keyboard[0]).
+ */
+public class Keyboard extends BuiltInGateWithGUI {
+
+    // The code of the currently pressed key
+    private short key;
+
+    protected void reCompute() {
+        outputPins[0].set(key);
+    }
+
+    public void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeShort(key);
+    }
+
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        key = in.readShort();
+    }
+
+    public Component getGUIComponent() {
+        return null;
+    }
+
+    public short getValueAt(int index) throws GateException {
+        checkIndex(index);
+        return key;
+    }
+
+    public void setValueAt(int index, short value) throws GateException {
+        checkIndex(index);
+        key = value;
+        setDirty();
+        evalParent();
+    }
+
+    // Checks that the given index is legal.
+    private void checkIndex(int index) throws GateException {
+        if (index != 0)
+            throw new GateException("Illegal index");
+    }
+}
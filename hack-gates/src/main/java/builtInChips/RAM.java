@@ -0,0 +1,98 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package builtInChips;
+
+import Hack.Gates.*;
+
+import java.awt.*;
+import java.io.*;
+
+/**
+ * The base class of the memory chips (IN in[16], load, address[n]; OUT out[16];
+ * CLOCKED in, load). out(t) = RAM[address(t)](t), and if load(t - 1) then
+ * RAM[address(t - 1)](t) = in(t - 1).
+ * The contents are kept in a flat short array, and are accessible from scripts as
+ * Name[index].
+ */
+public abstract class RAM extends BuiltInGateWithGUI {
+
+    // The contents of the memory
+    protected short[] values;
+
+    // The mask of legal addresses (the size is a power of 2)
+    private int addressMask;
+
+    /**
+     * Constructs a new RAM with the given size (a power of 2).
+     */
+    protected RAM(int size) {
+        values = new short[size];
+        addressMask = size - 1;
+    }
+
+    protected void reCompute() {
+        outputPins[0].set(values[inputPins[2].get() & addressMask]);
+    }
+
+    protected void clockUp() {
+        if (inputPins[1].get() == 1)
+            values[inputPins[2].get() & addressMask] = inputPins[0].get();
+    }
+
+    protected void clockDown() {
+        reCompute();
+    }
+
+    public void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeInt(values.length);
+        for (int i = 0; i < values.length; i++)
+            out.writeShort(values[i]);
+    }
+
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        if (in.readInt() != values.length)
+            throw new IOException("The state doesn't match the memory size");
+
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readShort();
+    }
+
+    public Component getGUIComponent() {
+        return null;
+    }
+
+    public short getValueAt(int index) throws GateException {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public void setValueAt(int index, short value) throws GateException {
+        checkIndex(index);
+        values[index] = value;
+        setDirty();
+        evalParent();
+    }
+
+    // Checks that the given index is legal.
+    private void checkIndex(int index) throws GateException {
+        if (index < 0 || index >= values.length)
+            throw new GateException("Illegal index");
+    }
+}
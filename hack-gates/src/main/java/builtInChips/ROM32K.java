@@ -0,0 +1,132 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package builtInChips;
+
+import Hack.Gates.*;
+
+import java.awt.*;
+import java.io.*;
+
+/**
+ * The instruction memory: a read only memory of 32K registers (IN address[15];
+ * OUT out[16]). out(t) = ROM32K[address(t)](t).
+ * The contents are loaded from a .hack file (one 16-bit binary word per line) with the
+ * command "ROM32K load <file>", and are accessible from scripts as ROM32K[index].
+ */
+public class ROM32K extends BuiltInGateWithGUI {
+
+    // The size of the memory
+    private static final int SIZE = 32768;
+
+    // The contents of the memory
+    private short[] values = new short[SIZE];
+
+    protected void reCompute() {
+        outputPins[0].set(values[inputPins[0].get() & (SIZE - 1)]);
+    }
+
+    public void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeInt(values.length);
+        for (int i = 0; i < values.length; i++)
+            out.writeShort(values[i]);
+    }
+
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        if (in.readInt() != values.length)
+            throw new IOException("The state doesn't match the memory size");
+
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readShort();
+    }
+
+    public Component getGUIComponent() {
+        return null;
+    }
+
+    public short getValueAt(int index) throws GateException {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public void setValueAt(int index, short value) throws GateException {
+        checkIndex(index);
+        values[index] = value;
+        setDirty();
+        evalParent();
+    }
+
+    /**
+     * Executes the "load <file>" command, which loads the given .hack file (relative to
+     * the working dir) into the memory.
+     */
+    public void doCommand(String[] command) throws GateException {
+        if (command.length != 2 || !command[0].equals("load"))
+            throw new GateException("Illegal command: ROM32K supports only load <file>");
+
+        File file = new File(GatesManager.getInstance().getWorkingDir(), command[1]);
+        load(file);
+        setDirty();
+        evalParent();
+    }
+
+    // Loads the given .hack file into the memory. The rest of the memory is cleared.
+    private void load(File file) throws GateException {
+        short[] program = new short[SIZE];
+        int address = 0;
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() == 0)
+                        continue;
+
+                    if (address == SIZE)
+                        throw new GateException("Program too large: " + file.getName());
+
+                    if (line.length() != 16)
+                        throw new GateException("Illegal instruction in line " + (address + 1) +
+                                                " of " + file.getName());
+
+                    try {
+                        program[address++] = (short)Integer.parseInt(line, 2);
+                    } catch (NumberFormatException nfe) {
+                        throw new GateException("Illegal instruction in line " + address +
+                                                " of " + file.getName());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            throw new GateException("Can't read " + file.getName());
+        }
+
+        values = program;
+    }
+
+    // Checks that the given index is legal.
+    private void checkIndex(int index) throws GateException {
+        if (index < 0 || index >= SIZE)
+            throw new GateException("Illegal index");
+    }
+}
@@ -0,0 +1,75 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+
+package builtInChips;
+
+import Hack.Gates.*;
+
+import java.awt.*;
+import java.io.*;
+
+/**
+ * A 16-bit register (IN in[16], load; OUT out[16]; CLOCKED in, load).
+ * If load(t - 1) then out(t) = in(t - 1), else out(t) = out(t - 1).
+ * The value is accessible from scripts as Register[] (or Register[0]).
+ */
+public class Register extends BuiltInGateWithGUI {
+
+    // The value of the register
+    private short value;
+
+    protected void clockUp() {
+        if (inputPins[1].get() == 1)
+            value = inputPins[0].get();
+    }
+
+    protected void clockDown() {
+        outputPins[0].set(value);
+    }
+
+    public void writeState(DataOutput out) throws IOException {
+        super.writeState(out);
+        out.writeShort(value);
+    }
+
+    public void readState(DataInput in) throws IOException {
+        super.readState(in);
+        value = in.readShort();
+    }
+
+    public Component getGUIComponent() {
+        return null;
+    }
+
+    public short getValueAt(int index) throws GateException {
+        checkIndex(index);
+        return value;
+    }
+
+    public void setValueAt(int index, short value) throws GateException {
+        checkIndex(index);
+        this.value = value;
+        outputPins[0].set(value);
+        evalParent();
+    }
+
+    // Checks that the given index is legal.
+    private void checkIndex(int index) throws GateException {
+        if (index != 0)
+            throw new GateException("Illegal index");
+    }
+}
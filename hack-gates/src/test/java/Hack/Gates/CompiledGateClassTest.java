@@ -0,0 +1,94 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompiledGateClassTest {
+
+	@Test
+	void compiledFileIsWrittenAndReused() throws Exception {
+		File dir = createWorkingDir();
+		File compiledDir = new File(dir, "compiled");
+
+		GateClass first = GateClass.getGateClass(createManager(dir, compiledDir), "Top", false);
+		File compiledFile = CompiledGateClass.getCompiledFile(compiledDir,
+															  new File(dir, "Top.hdl").getPath());
+		assertTrue(compiledFile.isFile());
+
+		GatesManager manager = createManager(dir, compiledDir);
+		assertNotNull(CompiledGateClass.read(manager, new File(dir, "Top.hdl").getPath(), "Top"));
+		GateClass second = GateClass.getGateClass(manager, "Top", false);
+		assertFalse(second.isClocked());
+		assertArrayEquals(((CompositeGateClass)first).getPartsOrder(),
+						  ((CompositeGateClass)second).getPartsOrder());
+	}
+
+	@Test
+	void clockingAGrandchildInvalidatesTheCompiledGate() throws Exception {
+		File dir = createWorkingDir();
+		File compiledDir = new File(dir, "compiled");
+
+		GateClass top = GateClass.getGateClass(createManager(dir, compiledDir), "Top", false);
+		assertFalse(top.isClocked());
+
+		// Bit becomes clocked, while the hdl files of Top and of its part Reg are unchanged
+		write(new File(dir, "Bit.hdl"),
+			  "CHIP Bit { IN in; OUT out; PARTS: DFF(in=in, out=out); }\n");
+
+		GatesManager manager = createManager(dir, compiledDir);
+		assertNull(CompiledGateClass.read(manager, new File(dir, "Top.hdl").getPath(), "Top"));
+
+		top = GateClass.getGateClass(manager, "Top", false);
+		assertTrue(top.isClocked());
+		assertTrue(((CompositeGateClass)top).getPartGateClass(1).isClocked());
+	}
+
+	// Returns a manager of the chips in the given dir, which keeps its compiled files in
+	// the given dir.
+	private static GatesManager createManager(File dir, File compiledDir) {
+		GatesManager manager = new GatesManager();
+		manager.setWorkingDir(dir);
+		manager.setBuiltInDir(new File("builtInChips"));
+		manager.setCompiledDir(compiledDir);
+		manager.enableChipsGUI(false);
+		return manager;
+	}
+
+	// Returns a new dir with a chip Top, whose part Reg is made of Bits.
+	private static File createWorkingDir() throws IOException {
+		File dir = Files.createTempDirectory("compiled-gate-class").toFile();
+		write(new File(dir, "Nand.hdl"), "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }\n");
+		write(new File(dir, "DFF.hdl"),
+			  "CHIP DFF { IN in; OUT out; BUILTIN DFF; CLOCKED in; }\n");
+		write(new File(dir, "Bit.hdl"),
+			  "CHIP Bit { IN in; OUT out; PARTS: Nand(a=in, b=in, out=x); " +
+			  "Nand(a=x, b=x, out=out); }\n");
+		write(new File(dir, "Reg.hdl"),
+			  "CHIP Reg { IN in[2]; OUT out[2]; PARTS: Bit(in=in[0], out=out[0]); " +
+			  "Bit(in=in[1], out=out[1]); }\n");
+		write(new File(dir, "Top.hdl"),
+			  "CHIP Top { IN in[2]; OUT out[2], x; PARTS: Nand(a=a, b=in[1], out=x); " +
+			  "Reg(in=in, out=out, out[0]=a); }\n");
+		return dir;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompositeGateTest {
+	private static final int CYCLES = 500;
+
+	private static final String[] CHIPS = {
+		"Nand.hdl", "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }",
+		"Register.hdl",
+		"CHIP Register { IN in[16], load; OUT out[16]; BUILTIN Register; CLOCKED in, load; }",
+		"RAM8.hdl",
+		"CHIP RAM8 { IN in[16], load, address[3]; OUT out[16]; BUILTIN RAM8; " +
+		"CLOCKED in, load; }",
+		"Not.hdl", "CHIP Not { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }",
+		"And.hdl",
+		"CHIP And { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=x); Not(in=x, out=out); }",
+		"Or.hdl",
+		"CHIP Or { IN a, b; OUT out; PARTS: Not(in=a, out=na); Not(in=b, out=nb); " +
+		"Nand(a=na, b=nb, out=out); }",
+		"Xor.hdl",
+		"CHIP Xor { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=n); Nand(a=a, b=n, out=x); " +
+		"Nand(a=n, b=b, out=y); Nand(a=x, b=y, out=out); }",
+		"Mux.hdl",
+		"CHIP Mux { IN a, b, sel; OUT out; PARTS: Not(in=sel, out=ns); And(a=a, b=ns, out=x); " +
+		"And(a=b, b=sel, out=y); Or(a=x, b=y, out=out); }",
+		"Mux4.hdl",
+		"CHIP Mux4 { IN a[4], b[4], sel; OUT out[4]; PARTS: " +
+		"Mux(a=a[0], b=b[0], sel=sel, out=out[0]); Mux(a=a[1], b=b[1], sel=sel, out=out[1]); " +
+		"Mux(a=a[2], b=b[2], sel=sel, out=out[2]); Mux(a=a[3], b=b[3], sel=sel, out=out[3]); }",
+		"Inc4.hdl",
+		"CHIP Inc4 { IN in[4]; OUT out[4]; PARTS: Not(in=in[0], out=out[0]); " +
+		"Xor(a=in[1], b=in[0], out=out[1]); And(a=in[1], b=in[0], out=c1); " +
+		"Xor(a=in[2], b=c1, out=out[2]); And(a=in[2], b=c1, out=c2); " +
+		"Xor(a=in[3], b=c2, out=out[3]); }",
+		"PC4.hdl",
+		"CHIP PC4 { IN in[4], load, inc, reset; OUT out[4]; PARTS: " +
+		"Inc4(in=current, out=next); Mux4(a=current, b=next, sel=inc, out=x); " +
+		"Mux4(a=x, b=in, sel=load, out=y); Mux4(a=y, b=false, sel=reset, out=z); " +
+		"Register(in[0..3]=z, load=true, out[0..3]=out, out[0..3]=current); }",
+		"Fetch.hdl",
+		"CHIP Fetch { IN in[4], load, inc, reset, write; OUT pc[4], memory[4]; PARTS: " +
+		"PC4(in=in, load=load, inc=inc, reset=reset, out=counter, out[0..2]=address, " +
+		"out=pc); Inc4(in=counter, out=data); " +
+		"RAM8(in[0..3]=data, load=write, address=address, out[0..3]=memory); }"
+	};
+
+	@Test
+	void clockedChipMatchesTheFullTickReference() throws Exception {
+		File dir = createWorkingDir();
+		GatesManager manager = createManager(dir);
+		GatesManager referenceManager = createManager(dir);
+		Gate gate = newInstance(manager, "Fetch");
+		Gate reference = newInstance(referenceManager, "Fetch");
+		tickAllParts((CompositeGate)reference);
+
+		Random random = new Random(1);
+		Node[] inputs = gate.getInputNodes();
+		Node[] referenceInputs = reference.getInputNodes();
+		for (int cycle = 0; cycle < CYCLES; cycle++) {
+			for (int i = 0; i < inputs.length; i++) {
+				short value = (short)(i == 0 ? random.nextInt(16) :
+												   (random.nextInt(4) == 0 ? 1 : 0));
+				inputs[i].set(value);
+				referenceInputs[i].set(value);
+			}
+
+			tick(manager, gate);
+			tick(referenceManager, reference);
+			assertEquals(getValues(reference), getValues(gate), "tick " + cycle);
+			tock(manager, gate);
+			tock(referenceManager, reference);
+			assertEquals(getValues(reference), getValues(gate), "tock " + cycle);
+		}
+	}
+
+	@Test
+	void clockCycleDoesntRecomputeUnchangedCombinationalParts() throws Exception {
+		File dir = createWorkingDir();
+		GatesManager manager = createManager(dir);
+		GatesManager referenceManager = createManager(dir);
+		Gate gate = newInstance(manager, "PC4");
+		Gate reference = newInstance(referenceManager, "PC4");
+		tickAllParts((CompositeGate)reference);
+
+		// the counter holds its value: only its register is ticked and tocked
+		assertEquals(0, getEvaluations(manager, gate, "Inc4"));
+		assertEquals(0, getEvaluations(manager, gate, "Mux4"));
+		assertTrue(getEvaluations(referenceManager, reference, "Inc4") > 0);
+
+		// once it counts, its combinational parts are recomputed when they get dirty
+		gate.getNode("inc").set((short)1);
+		assertEquals(10, getEvaluations(manager, gate, "Inc4"));
+	}
+
+	// Returns the number of evaluations of the parts of the given GateClass name in the
+	// hierarchy of the given gate (of the given manager), in 10 clock cycles.
+	private static long getEvaluations(GatesManager manager, Gate gate, String gateClassName)
+			throws Exception {
+		GateProfiler profiler = new GateProfiler(gate);
+		profiler.reset();
+		profiler.setCounting(true);
+		for (int i = 0; i < 10; i++) {
+			tick(manager, gate);
+			tock(manager, gate);
+		}
+		profiler.setCounting(false);
+
+		StringWriter report = new StringWriter();
+		profiler.writeReport(report, 0);
+		String[] lines = report.toString().split("\n");
+		for (int i = 0; i < lines.length; i++) {
+			String[] columns = lines[i].trim().split(" +");
+			if (columns.length == 4 && columns[3].equals(gateClassName))
+				return Long.parseLong(columns[0]);
+		}
+
+		return 0;
+	}
+
+	// Makes the given gate and the clocked composite gates in its hierarchy tick and tock
+	// all their parts, like before only the clocked parts were ticked and tocked.
+	private static void tickAllParts(CompositeGate gate) {
+		if (gate.getGateClass().isClocked())
+			gate.clockedParts = gate.parts;
+
+		for (int i = 0; i < gate.parts.length; i++)
+			if (gate.parts[i] instanceof CompositeGate)
+				tickAllParts((CompositeGate)gate.parts[i]);
+	}
+
+	// Returns the values of the output and internal pins of the given gate.
+	private static String getValues(Gate gate) {
+		StringBuffer result = new StringBuffer();
+		Node[] outputs = gate.getOutputNodes();
+		for (int i = 0; i < outputs.length; i++)
+			result.append(outputs[i].get()).append(' ');
+
+		Node[] internals = ((CompositeGate)gate).getInternalNodes();
+		result.append('|');
+		for (int i = 0; i < internals.length; i++)
+			result.append(' ').append(internals[i].get());
+
+		return result.toString();
+	}
+
+	// Returns a new instance of the given chip, evaluated with the clock up like the
+	// simulator does when a gate is loaded.
+	private static Gate newInstance(GatesManager manager, String chipName) throws Exception {
+		Gate gate = GateClass.getGateClass(manager, chipName, false).newInstance(manager);
+		manager.getClockNode().set((short)1);
+		gate.eval();
+		return gate;
+	}
+
+	// Performs a tick on the given gate, like the simulator.
+	private static void tick(GatesManager manager, Gate gate) {
+		manager.getClockNode().set((short)0);
+		gate.tick();
+	}
+
+	// Performs a tock on the given gate, like the simulator.
+	private static void tock(GatesManager manager, Gate gate) {
+		manager.getClockNode().set((short)1);
+		gate.tock();
+	}
+
+	// Returns a manager of the chips in the given dir, which doesn't use compiled files.
+	private static GatesManager createManager(File dir) {
+		GatesManager manager = new GatesManager();
+		manager.setWorkingDir(dir);
+		manager.setBuiltInDir(new File("builtInChips"));
+		manager.setCompiledDir(null);
+		manager.enableChipsGUI(false);
+		return manager;
+	}
+
+	// Returns a new dir which contains the chips of the test.
+	private static File createWorkingDir() throws IOException {
+		File dir = Files.createTempDirectory("composite-gate").toFile();
+		for (int i = 0; i < CHIPS.length; i += 2)
+			write(new File(dir, CHIPS[i]), CHIPS[i + 1] + "\n");
+
+		return dir;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GateCacheTest {
+
+	@Test
+	void editedChildIsReparsedWithItsParentWhileItsSiblingStaysCached() throws Exception {
+		File dir = createWorkingDir();
+		GatesManager manager = createManager(dir);
+		CompositeGateClass top = (CompositeGateClass)GateClass.getGateClass(manager, "Top", false);
+		GateClass left = top.getPartGateClass(0);
+		GateClass right = top.getPartGateClass(1);
+		assertSame(top, GateClass.getGateClass(manager, "Top", false));
+
+		// Left becomes clocked by an edit which keeps its length and modification time
+		File leftFile = new File(dir, "Left.hdl");
+		long lastModified = leftFile.lastModified();
+		write(leftFile, "CHIP Left { IN in; OUT out; PARTS: DFF(in=in, out=out);       }\n");
+		leftFile.setLastModified(lastModified);
+
+		CompositeGateClass newTop =
+			(CompositeGateClass)GateClass.getGateClass(manager, "Top", false);
+		assertNotSame(top, newTop);
+		assertNotSame(left, newTop.getPartGateClass(0));
+		assertTrue(newTop.getPartGateClass(0).isClocked());
+		assertTrue(newTop.isClocked());
+		assertSame(right, newTop.getPartGateClass(1));
+		assertFalse(newTop.getPartGateClass(1).isClocked());
+	}
+
+	// Returns a manager of the chips in the given dir, which doesn't use compiled files.
+	private static GatesManager createManager(File dir) {
+		GatesManager manager = new GatesManager();
+		manager.setWorkingDir(dir);
+		manager.setBuiltInDir(new File("builtInChips"));
+		manager.setCompiledDir(null);
+		manager.enableChipsGUI(false);
+		return manager;
+	}
+
+	// Returns a new dir with a chip Top, whose parts are Left and Right.
+	private static File createWorkingDir() throws IOException {
+		File dir = Files.createTempDirectory("gate-cache").toFile();
+		write(new File(dir, "Nand.hdl"), "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }\n");
+		write(new File(dir, "DFF.hdl"),
+			  "CHIP DFF { IN in; OUT out; BUILTIN DFF; CLOCKED in; }\n");
+		write(new File(dir, "Left.hdl"),
+			  "CHIP Left { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }\n");
+		write(new File(dir, "Right.hdl"),
+			  "CHIP Right { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }\n");
+		write(new File(dir, "Top.hdl"),
+			  "CHIP Top { IN in; OUT out; PARTS: Left(in=in, out=x); Right(in=x, out=out); }\n");
+		return dir;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
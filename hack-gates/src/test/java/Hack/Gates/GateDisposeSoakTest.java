@@ -0,0 +1,104 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GateDisposeSoakTest {
+	private static final int RELOADS = 5000;
+	private static final int TICKS = 20000;
+
+	@Test
+	void reloadingAClockedChipKeepsTheClockListenersAndTickLatencyFlat() throws Exception {
+		GatesManager manager = createManager();
+		GateClass gateClass = GateClass.getGateClass(manager, "Blink", false);
+		Node clock = manager.getClockNode();
+
+		Gate gate = gateClass.newInstance(manager);
+		int listenersCount = clock.listeners.size();
+		assertTrue(listenersCount > 0);
+
+		tick(clock, gate, TICKS); // warm up
+		double baseline = tick(clock, gate, TICKS);
+
+		for (int i = 0; i < RELOADS; i++) {
+			Gate newGate = gateClass.newInstance(manager);
+			gate.dispose();
+			gate = newGate;
+		}
+
+		assertEquals(listenersCount, clock.listeners.size());
+
+		double latency = tick(clock, gate, TICKS);
+		assertTrue(latency < baseline * 4 + 1000,
+				   "tick latency grew from " + baseline + "ns to " + latency + "ns");
+	}
+
+	@Test
+	void reloadingAClockedNetlistKeepsTheClockListenersFlat() throws Exception {
+		GatesManager manager = createManager();
+		CompositeGateClass gateClass =
+			(CompositeGateClass)GateClass.getGateClass(manager, "Blink", false);
+		Node clock = manager.getClockNode();
+
+		Gate gate = gateClass.newNetlistInstance(manager);
+		int listenersCount = clock.listeners.size();
+		assertTrue(listenersCount > 0);
+
+		for (int i = 0; i < RELOADS; i++) {
+			Gate newGate = gateClass.newNetlistInstance(manager);
+			gate.dispose();
+			gate = newGate;
+		}
+
+		assertEquals(listenersCount, clock.listeners.size());
+	}
+
+	// Returns a manager whose working dir contains a chip which reads the clock.
+	private static GatesManager createManager() throws IOException {
+		File dir = Files.createTempDirectory("dispose-soak").toFile();
+		write(new File(dir, "Nand.hdl"), "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }\n");
+		write(new File(dir, "DFF.hdl"),
+			  "CHIP DFF { IN in; OUT out; BUILTIN DFF; CLOCKED in; }\n");
+		write(new File(dir, "Blink.hdl"),
+			  "CHIP Blink { IN in; OUT out;\n" +
+			  "  PARTS: Nand(a=in, b=clk, out=x); DFF(in=x, out=out); }\n");
+
+		GatesManager manager = new GatesManager();
+		manager.setWorkingDir(dir);
+		manager.setBuiltInDir(new File("builtInChips"));
+		manager.enableChipsGUI(false);
+		return manager;
+	}
+
+	// Performs the given number of clock cycles on the given gate, and returns the average
+	// time of a cycle in nanoseconds.
+	private static double tick(Node clock, Gate gate, int cycles) {
+		Node input = gate.getInputNodes()[0];
+		long start = System.nanoTime();
+		for (int i = 0; i < cycles; i++) {
+			input.set((short)(i & 1));
+			clock.set((short)1);
+			gate.tick();
+			clock.set((short)0);
+			gate.tock();
+		}
+		return (double)(System.nanoTime() - start) / cycles;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HDLTokenizerTest {
+
+	@Test
+	void commentsAreSkipped() throws HDLException {
+		HDLTokenizer input = tokenize("// a line comment\n" +
+									  "CHIP /* a block\n" +
+									  "comment */ Not /** doc */ {\n" +
+									  "IN in; / a single slash comments out the rest\n" +
+									  "OUT out;");
+
+		assertTokens(input, new String[]{"CHIP", "Not", "{", "IN", "in", ";", "OUT", "out", ";"});
+	}
+
+	@Test
+	void unterminatedBlockCommentEndsTheInput() throws HDLException {
+		HDLTokenizer input = tokenize("CHIP /* no end");
+
+		input.advance();
+		assertFalse(input.hasMoreTokens());
+	}
+
+	@Test
+	void keywordsAndIdentifiers() throws HDLException {
+		HDLTokenizer input = tokenize("CHIP IN OUT BUILTIN CLOCKED PARTS: Chip in2 x-y");
+		int[] keywords = {
+			HDLTokenizer.KW_CHIP, HDLTokenizer.KW_IN, HDLTokenizer.KW_OUT,
+			HDLTokenizer.KW_BUILTIN, HDLTokenizer.KW_CLOCKED, HDLTokenizer.KW_PARTS
+		};
+
+		for (int i = 0; i < keywords.length; i++) {
+			input.advance();
+			assertEquals(HDLTokenizer.TYPE_KEYWORD, input.getTokenType());
+			assertEquals(keywords[i], input.getKeywordType());
+		}
+
+		String[] identifiers = {"Chip", "in2", "x-y"};
+		for (int i = 0; i < identifiers.length; i++) {
+			input.advance();
+			assertEquals(HDLTokenizer.TYPE_IDENTIFIER, input.getTokenType());
+			assertEquals(identifiers[i], input.getIdentifier());
+		}
+	}
+
+	@Test
+	void numbersAreTruncatedToInts() throws HDLException {
+		HDLTokenizer input = tokenize("16 0 -3 2.75 .5 -");
+		int[] values = {16, 0, -3, 2, 0};
+
+		for (int i = 0; i < values.length; i++) {
+			input.advance();
+			assertEquals(HDLTokenizer.TYPE_INT_CONST, input.getTokenType());
+			assertEquals(values[i], input.getIntValue());
+			assertEquals(String.valueOf(values[i]), input.getToken());
+		}
+
+		// a '-' which isn't followed by a number is a symbol
+		input.advance();
+		assertEquals(HDLTokenizer.TYPE_SYMBOL, input.getTokenType());
+		assertEquals('-', input.getSymbol());
+	}
+
+	@Test
+	void subBusesAreSingleWords() throws HDLException {
+		HDLTokenizer input = tokenize("in[16], out[0..2]=low[1..3], a[4]=true");
+
+		assertTokens(input, new String[]{
+			"in[16]", ",", "out[0..2]", "=", "low[1..3]", ",", "a[4]", "=", "true"
+		});
+	}
+
+	@Test
+	void advanceAtTheEndOfTheInputFails() throws HDLException {
+		HDLTokenizer input = tokenize("CHIP\n  Not  ");
+
+		input.advance();
+		input.advance();
+		assertFalse(input.hasMoreTokens());
+
+		HDLException e = assertThrows(HDLException.class, () -> input.advance());
+		assertEquals("In HDL file Test.hdl, Line 2, Column 3, Unexpected end of file",
+					 e.getMessage());
+	}
+
+	@Test
+	void emptyInputHasNoTokens() {
+		HDLTokenizer input = tokenize(" // only a comment\n");
+
+		assertFalse(input.hasMoreTokens());
+		HDLException e = assertThrows(HDLException.class, () -> input.advance());
+		assertEquals("In HDL file Test.hdl, Line 2, Column 1, Unexpected end of file",
+					 e.getMessage());
+	}
+
+	@Test
+	void tokensHaveTheirLineAndColumn() throws HDLException {
+		HDLTokenizer input = tokenize("CHIP And {\r\n" +
+									  "\tIN a,\r" +
+									  "/* x */ b;\n" +
+									  "\n" +
+									  "    OUT out[16];");
+		int[][] positions = {
+			{1, 1}, {1, 6}, {1, 10}, {2, 2}, {2, 5}, {2, 6}, {3, 9}, {3, 10}, {5, 5}, {5, 9},
+			{5, 16}
+		};
+
+		for (int i = 0; i < positions.length; i++) {
+			input.advance();
+			assertEquals(positions[i][0], input.getLineNumber(), "line of token " + i);
+			assertEquals(positions[i][1], input.getColumnNumber(), "column of token " + i);
+		}
+
+		assertFalse(input.hasMoreTokens());
+	}
+
+	@Test
+	void errorsReportTheCurrentToken() throws HDLException {
+		HDLTokenizer input = tokenize("CHIP Not {\n  IN in;");
+		for (int i = 0; i < 5; i++)
+			input.advance();
+
+		HDLException e = assertThrows(HDLException.class, () -> input.HDLError("bad pin"));
+		assertEquals("In HDL file Test.hdl, Line 2, Column 6, bad pin", e.getMessage());
+	}
+
+	@Test
+	void scanPartNamesReturnsEachPartOnce() {
+		HDLTokenizer input = tokenize("CHIP X { IN a; OUT out; PARTS: Not(in=a, out=n);\n" +
+									  "And(a=n, b=a, out=m); Not(in=m, out=out); }");
+
+		assertEquals("[Not, And]", input.scanPartNames().toString());
+		assertFalse(input.hasMoreTokens());
+	}
+
+	// Returns a tokenizer of the given source.
+	private static HDLTokenizer tokenize(String source) {
+		return new HDLTokenizer("Test.hdl", source.toCharArray());
+	}
+
+	// Asserts that the given tokens are the remaining tokens of the given input.
+	private static void assertTokens(HDLTokenizer input, String[] tokens) throws HDLException {
+		for (int i = 0; i < tokens.length; i++) {
+			assertTrue(input.hasMoreTokens(), "missing " + tokens[i]);
+			input.advance();
+			assertEquals(tokens[i], input.getToken());
+		}
+
+		assertFalse(input.hasMoreTokens());
+	}
+}
@@ -0,0 +1,118 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HierarchyLoaderTest {
+	private static final int LOADS = 20;
+
+	@Test
+	void multiLevelHierarchyIsLoadedIntoTheCache() throws Exception {
+		File dir = createWorkingDir();
+		write(new File(dir, "LeafA.hdl"),
+			  "CHIP LeafA { IN in; OUT out; PARTS: Not(in=in, out=out); }\n");
+		write(new File(dir, "LeafB.hdl"),
+			  "CHIP LeafB { IN in; OUT out; PARTS: Not(in=in, out=out); }\n");
+
+		GatesManager manager = createManager(dir);
+		CompositeGateClass top = (CompositeGateClass)GateClass.getGateClass(manager, "Top", false);
+
+		String[] names = {"MidA", "MidB", "LeafA", "LeafB", "Not"};
+		for (int i = 0; i < names.length; i++) {
+			String fileName = new File(dir, names[i] + ".hdl").getAbsolutePath();
+			assertNotNull(manager.getCachedGateClass(fileName), names[i]);
+		}
+
+		assertSame(GateClass.getGateClass(manager, "MidA", false), top.getPartGateClass(0));
+		assertSame(GateClass.getGateClass(manager, "MidB", false), top.getPartGateClass(1));
+		assertSame(GateClass.getGateClass(manager, "LeafB", false),
+				   ((CompositeGateClass)top.getPartGateClass(1)).getPartGateClass(1));
+	}
+
+	@Test
+	void failingLeavesAreReportedInFileOrder() throws Exception {
+		File dir = createWorkingDir();
+		write(new File(dir, "LeafA.hdl"),
+			  "CHIP LeafA { IN in; OUT out;\nPARTS: Not(in=in, out=out) }\n");
+		write(new File(dir, "LeafB.hdl"),
+			  "CHIP LeafB { IN in; OUT out;\n  PARTS: Nope(in=in, out=out); }\n");
+
+		// the error of the first part in the order of the hdl files, as reported when it
+		// is loaded alone
+		String expected = getError(createManager(dir), "LeafA");
+		assertTrue(expected.contains("LeafA.hdl, Line 2"), expected);
+
+		for (int i = 0; i < LOADS; i++)
+			assertEquals(expected, getError(createManager(dir), "Top"));
+	}
+
+	@Test
+	void failingLeafDoesntHideTheErrorOfAnEarlierPart() throws Exception {
+		File dir = createWorkingDir();
+		write(new File(dir, "LeafA.hdl"),
+			  "CHIP LeafA { IN in; OUT out; PARTS: Not(in=in, out=out); }\n");
+		write(new File(dir, "LeafB.hdl"),
+			  "CHIP LeafB { IN in; OUT out;\n  PARTS: Nope(in=in, out=out); }\n");
+		write(new File(dir, "MidA.hdl"),
+			  "CHIP MidA { IN in; OUT out;\n" +
+			  " PARTS: LeafA(in=in, out=x); LeafA(in=x, out=out, y=z); }\n");
+
+		String expected = getError(createManager(dir), "MidA");
+		assertTrue(expected.contains("MidA.hdl, Line 2"), expected);
+
+		for (int i = 0; i < LOADS; i++)
+			assertEquals(expected, getError(createManager(dir), "Top"));
+	}
+
+	// Returns the message of the error of loading the given gate.
+	private static String getError(GatesManager manager, String gateName) {
+		return assertThrows(HDLException.class,
+							() -> GateClass.getGateClass(manager, gateName, false)).getMessage();
+	}
+
+	// Returns a manager of the chips in the given dir, which doesn't use compiled files.
+	private static GatesManager createManager(File dir) {
+		GatesManager manager = new GatesManager();
+		manager.setWorkingDir(dir);
+		manager.setBuiltInDir(new File("builtInChips"));
+		manager.setCompiledDir(null);
+		manager.enableChipsGUI(false);
+		return manager;
+	}
+
+	// Returns a new dir with a chip Top, whose parts MidA and MidB use the parts LeafA and
+	// LeafB (which are written by each test).
+	private static File createWorkingDir() throws IOException {
+		File dir = Files.createTempDirectory("hierarchy-loader").toFile();
+		write(new File(dir, "Nand.hdl"), "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }\n");
+		write(new File(dir, "Not.hdl"),
+			  "CHIP Not { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }\n");
+		write(new File(dir, "MidA.hdl"),
+			  "CHIP MidA { IN in; OUT out; PARTS: LeafA(in=in, out=x); LeafA(in=x, out=out); }\n");
+		write(new File(dir, "MidB.hdl"),
+			  "CHIP MidB { IN in; OUT out; PARTS: LeafA(in=in, out=x); LeafB(in=x, out=out); }\n");
+		write(new File(dir, "Top.hdl"),
+			  "CHIP Top { IN in; OUT out; PARTS: MidA(in=in, out=x); MidB(in=x, out=out); }\n");
+		return dir;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NetlistEquivalenceTest {
+	private static final int STEPS = 3000;
+
+	// The engines which are compared with the nodes engine
+	private static final int NETLIST = 0;
+	private static final int OPTIMIZE = 1;
+	private static final int PARALLEL = 2;
+	private static final String[] ENGINE_NAMES = {"netlist", "optimize", "parallel"};
+
+	private static final String[] CHIPS = {
+		"Nand.hdl", "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }",
+		"DFF.hdl", "CHIP DFF { IN in; OUT out; BUILTIN DFF; CLOCKED in; }",
+		"Register.hdl",
+		"CHIP Register { IN in[16], load; OUT out[16]; BUILTIN Register; CLOCKED in, load; }",
+		"RAM8.hdl",
+		"CHIP RAM8 { IN in[16], load, address[3]; OUT out[16]; BUILTIN RAM8; " +
+		"CLOCKED in, load; }",
+		"Not.hdl", "CHIP Not { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }",
+		"And.hdl",
+		"CHIP And { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=x); Not(in=x, out=out); }",
+		"Or.hdl",
+		"CHIP Or { IN a, b; OUT out; PARTS: Not(in=a, out=na); Not(in=b, out=nb); " +
+		"Nand(a=na, b=nb, out=out); }",
+		"Xor.hdl",
+		"CHIP Xor { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=n); Nand(a=a, b=n, out=x); " +
+		"Nand(a=n, b=b, out=y); Nand(a=x, b=y, out=out); }",
+		"Mux.hdl",
+		"CHIP Mux { IN a, b, sel; OUT out; PARTS: Not(in=sel, out=ns); And(a=a, b=ns, out=x); " +
+		"And(a=b, b=sel, out=y); Or(a=x, b=y, out=out); }",
+		"FullAdder.hdl",
+		"CHIP FullAdder { IN a, b, c; OUT sum, carry; PARTS: Xor(a=a, b=b, out=s); " +
+		"Xor(a=s, b=c, out=sum); And(a=a, b=b, out=c1); And(a=s, b=c, out=c2); " +
+		"Or(a=c1, b=c2, out=carry); }",
+		"Mux4.hdl",
+		"CHIP Mux4 { IN a[4], b[4], sel; OUT out[4]; PARTS: " +
+		"Mux(a=a[0], b=b[0], sel=sel, out=out[0]); Mux(a=a[1], b=b[1], sel=sel, out=out[1]); " +
+		"Mux(a=a[2], b=b[2], sel=sel, out=out[2]); Mux(a=a[3], b=b[3], sel=sel, out=out[3]); }",
+		"Add4.hdl",
+		"CHIP Add4 { IN a[4], b[4]; OUT out[4], carry; PARTS: " +
+		"FullAdder(a=a[0], b=b[0], c=false, sum=out[0], carry=c0); " +
+		"FullAdder(a=a[1], b=b[1], c=c0, sum=out[1], carry=c1); " +
+		"FullAdder(a=a[2], b=b[2], c=c1, sum=out[2], carry=c2); " +
+		"FullAdder(a=a[3], b=b[3], c=c2, sum=out[3], carry=carry); }",
+		"Swizzle.hdl",
+		"CHIP Swizzle { IN in[8], sel; OUT out[8], low[3], high, sum[4], unused; PARTS: " +
+		"Mux4(a=in[0..3], b=in[4..7], sel=sel, out[0..2]=low, out[3]=high, out=x); " +
+		"Mux4(a=in[4..7], b=true, sel=in[0], out=out[0..3]); " +
+		"Add4(a=x, b[0]=sel, b[1..2]=in[5..6], b[3]=true, out=out[4..7], out=sum); " +
+		"Not(in=in[1], out=n); And(a=n, b=false, out=unused); }",
+		"Acc.hdl",
+		"CHIP Acc { IN in[4], load, reset, address[3], write; OUT out[4], parity, memory[4]; " +
+		"PARTS: Add4(a=current, b=in, out=sum); Mux4(a=sum, b=in, sel=load, out=x); " +
+		"Mux4(a=x, b=false, sel=reset, out=next); " +
+		"Register(in[0..3]=next, in[4..15]=false, load=true, out[0..3]=out, " +
+		"out[0..3]=current, out[0]=bit); " +
+		"Xor(a=bit, b=q, out=t); DFF(in=t, out=q, out=parity); " +
+		"RAM8(in[0..3]=current, in[4]=q, load=write, address=address, out[0..3]=memory); }"
+	};
+
+	@Test
+	void combinationalChipWithSubBusesMatchesTheNodesEngine() throws Exception {
+		assertEnginesMatch("Swizzle", new Random(1));
+	}
+
+	@Test
+	void sequentialChipMatchesTheNodesEngine() throws Exception {
+		assertEnginesMatch("Acc", new Random(2));
+	}
+
+	@Test
+	void adderMatchesTheNodesEngine() throws Exception {
+		assertEnginesMatch("Add4", new Random(3));
+	}
+
+	@Test
+	void combinationalChipWithTruthTablesMatchesTheNodesEngine() throws Exception {
+		assertEnginesMatch("Swizzle", new Random(4), true);
+	}
+
+	@Test
+	void sequentialChipWithTruthTablesMatchesTheNodesEngine() throws Exception {
+		assertEnginesMatch("Acc", new Random(5), true);
+	}
+
+	// Asserts that the engines match on the given chip, without truth tables.
+	private static void assertEnginesMatch(String chipName, Random random) throws Exception {
+		assertEnginesMatch(chipName, random, false);
+	}
+
+	// Simulates the given chip by the nodes engine and by the other engines, with the same
+	// random sequence of input changes, evals and alternating ticks and tocks, and asserts that the
+	// values of their pins are the same after each step. The internal pins are not
+	// compared for the optimized netlist, which doesn't update them. The other engines
+	// use truth tables (with the default inputs limit) if truthTables is true.
+	private static void assertEnginesMatch(String chipName, Random random, boolean truthTables)
+			throws Exception {
+		File dir = createWorkingDir();
+
+		GatesManager nodesManager = createManager(dir, false);
+		GateClass gateClass = GateClass.getGateClass(nodesManager, chipName, false);
+		Gate nodesGate = gateClass.newInstance(nodesManager);
+		start(nodesManager, nodesGate);
+
+		GatesManager[] managers = new GatesManager[ENGINE_NAMES.length];
+		Gate[] gates = new Gate[ENGINE_NAMES.length];
+		for (int i = 0; i < gates.length; i++) {
+			managers[i] = createManager(dir, truthTables);
+			CompositeGateClass netlistClass =
+				(CompositeGateClass)GateClass.getGateClass(managers[i], chipName, false);
+			gates[i] = netlistClass.newNetlistInstance(managers[i], i == OPTIMIZE);
+			if (i == PARALLEL)
+				((NetlistGate)gates[i]).getNetlist().setParallelism(ForkJoinPool.commonPool(), 1);
+			start(managers[i], gates[i]);
+		}
+
+		Node[] inputs = nodesGate.getInputNodes();
+		boolean clockUp = false;
+		for (int step = 0; step < STEPS; step++) {
+			int action = random.nextInt(3);
+			if (action < 2) {
+				int pin = random.nextInt(inputs.length);
+				int width = gateClass.getPinInfo(GateClass.INPUT_PIN_TYPE, pin).width;
+				short value = (short)(random.nextInt(0x10000) & ((1 << width) - 1));
+				inputs[pin].set(value);
+				for (int i = 0; i < gates.length; i++)
+					gates[i].getInputNodes()[pin].set(value);
+
+				if (action == 0) {
+					nodesGate.eval();
+					for (int i = 0; i < gates.length; i++)
+						gates[i].eval();
+				}
+			}
+			else if (!clockUp) {
+				tick(nodesManager, nodesGate);
+				for (int i = 0; i < gates.length; i++)
+					tick(managers[i], gates[i]);
+				clockUp = true;
+			}
+			else {
+				tock(nodesManager, nodesGate);
+				for (int i = 0; i < gates.length; i++)
+					tock(managers[i], gates[i]);
+				clockUp = false;
+			}
+
+			// the pins are compared when the gates are clean, like the simulator reads them
+			if (action != 1) {
+				for (int i = 0; i < gates.length; i++) {
+					boolean withInternalPins = (i != OPTIMIZE);
+					assertEquals(getValues(nodesGate, withInternalPins),
+								 getValues(gates[i], withInternalPins),
+								 chipName + " (" + ENGINE_NAMES[i] + ") at step " + step);
+				}
+			}
+		}
+	}
+
+	// Returns the values of the output pins, and optionally the internal pins, of the
+	// given gate.
+	private static String getValues(Gate gate, boolean withInternalPins) {
+		StringBuffer result = new StringBuffer();
+		Node[] outputs = gate.getOutputNodes();
+		for (int i = 0; i < outputs.length; i++)
+			result.append(outputs[i].get()).append(' ');
+
+		if (withInternalPins) {
+			Node[] internals = ((CompositeGate)gate).getInternalNodes();
+			result.append('|');
+			for (int i = 0; i < internals.length; i++)
+				result.append(' ').append(internals[i].get());
+		}
+
+		return result.toString();
+	}
+
+	// Resets the clock of the given manager and evaluates the given gate, like the
+	// simulator does when a gate is loaded.
+	private static void start(GatesManager manager, Gate gate) {
+		manager.getClockNode().set((short)1);
+		gate.eval();
+	}
+
+	// Performs a tick on the given gate, like the simulator.
+	private static void tick(GatesManager manager, Gate gate) {
+		manager.getClockNode().set((short)0);
+		gate.tick();
+	}
+
+	// Performs a tock on the given gate, like the simulator.
+	private static void tock(GatesManager manager, Gate gate) {
+		manager.getClockNode().set((short)1);
+		gate.tock();
+	}
+
+	// Returns a manager of the chips in the given dir, which doesn't use compiled files,
+	// and uses truth tables (with the default inputs limit) only if truthTables is true.
+	private static GatesManager createManager(File dir, boolean truthTables) {
+		GatesManager manager = new GatesManager();
+		manager.setWorkingDir(dir);
+		manager.setBuiltInDir(new File("builtInChips"));
+		manager.setCompiledDir(null);
+		if (!truthTables)
+			manager.setTruthTableInputsLimit(0);
+		manager.enableChipsGUI(false);
+		return manager;
+	}
+
+	// Returns a new dir which contains the chips of the test.
+	private static File createWorkingDir() throws IOException {
+		File dir = Files.createTempDirectory("netlist-equivalence").toFile();
+		for (int i = 0; i < CHIPS.length; i += 2)
+			write(new File(dir, CHIPS[i]), CHIPS[i + 1] + "\n");
+
+		return dir;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
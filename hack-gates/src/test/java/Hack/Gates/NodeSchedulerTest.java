@@ -0,0 +1,111 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NodeSchedulerTest {
+	private static final int WIDTH = 100;
+
+	@Test
+	void wideFanInIsSettledInOrderAndMarksItsGateOnce() {
+		List settled = new ArrayList();
+		CountingGate gate = new CountingGate(settled);
+
+		// the source feeds a row of nodes, each of which feeds an input of the gate
+		Node source = new Node();
+		for (int i = 0; i < WIDTH; i++) {
+			RecordingNode node = new RecordingNode("n" + i, settled);
+			source.addListener(node);
+			node.addListener(new DirtyGateAdapter(gate));
+		}
+
+		source.set((short)1);
+
+		// the nodes are settled breadth first, and the gate is marked after all of them
+		assertEquals(WIDTH + 1, settled.size());
+		for (int i = 0; i < WIDTH; i++)
+			assertEquals("n" + i, settled.get(i));
+		assertEquals("dirty", settled.get(WIDTH));
+		assertEquals(1, gate.dirtyCount);
+
+		// the gate is marked again only after it was recomputed
+		source.set((short)2);
+		assertEquals(1, gate.dirtyCount);
+		gate.eval();
+		source.set((short)3);
+		assertEquals(2, gate.dirtyCount);
+	}
+
+	@Test
+	void nodeWhichChangesSeveralTimesIsSettledOnce() {
+		List settled = new ArrayList();
+
+		// x is set by a copy and by an inverse of the source, in one propagation
+		Node source = new Node();
+		Node copy = new Node();
+		Node inverse = new Node() {
+			public void set(short value) {
+				super.set((short)~value);
+			}
+		};
+		RecordingNode x = new RecordingNode("x", settled);
+		Node y = new Node();
+		source.addListener(copy);
+		source.addListener(inverse);
+		copy.addListener(x);
+		inverse.addListener(x);
+		x.addListener(y);
+
+		source.set((short)5);
+		assertEquals("[x]", settled.toString());
+		assertEquals((short)~5, y.get());
+	}
+
+	// A node which records its name in the given list whenever it notifies its listeners.
+	private static class RecordingNode extends Node {
+		private String name;
+		private List settled;
+
+		RecordingNode(String name, List settled) {
+			this.name = name;
+			this.settled = settled;
+		}
+
+		public void notifyListeners() {
+			settled.add(name);
+			super.notifyListeners();
+		}
+	}
+
+	// A gate without pins, which counts the times it is marked as dirty and records them
+	// in the given list.
+	private static class CountingGate extends Gate {
+		int dirtyCount;
+		private List settled;
+
+		CountingGate(List settled) {
+			this.settled = settled;
+			inputPins = new Node[0];
+			outputPins = new Node[0];
+		}
+
+		public void setDirty() {
+			dirtyCount++;
+			settled.add("dirty");
+			super.setDirty();
+		}
+
+		protected void reCompute() {
+		}
+
+		protected void clockUp() {
+		}
+
+		protected void clockDown() {
+		}
+	}
+}
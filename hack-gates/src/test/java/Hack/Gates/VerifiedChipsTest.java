@@ -0,0 +1,111 @@
+package Hack.Gates;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VerifiedChipsTest {
+	private static final String NOT_HDL =
+		"CHIP Not { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }\n";
+
+	@Test
+	void chipWhichPassedItsOwnTestIsSubstitutedUntilItIsEdited() throws Exception {
+		File dir = createWorkingDir();
+		GatesManager manager = createManager(dir);
+		File hdlFile = new File(dir, "Not.hdl");
+
+		assertFalse(manager.isSubstituted("Not"));
+		assertTrue(manager.recordVerifiedChip("Not", manager.getContentHash(hdlFile),
+											  new File(dir, "Not.tst"), new File(dir, "Not.cmp")));
+		assertTrue(manager.isSubstituted("Not"));
+		assertEquals(hdlFile.getAbsolutePath(), manager.getHDLFileName("Not"));
+
+		manager.setAccelerated(true);
+		assertEquals(new File(manager.getBuiltInDir(), "Not.hdl").getAbsolutePath(),
+					 manager.getHDLFileName("Not"));
+
+		// another manager of the same dir reads the record
+		GatesManager otherManager = createManager(dir);
+		otherManager.setVerifiedChipsDir(manager.getVerifiedChipsDir());
+		assertTrue(otherManager.isSubstituted("Not"));
+
+		// the record is kept out of the working dir
+		assertEquals(4, dir.list().length);
+
+		write(hdlFile, "// edited\n" + NOT_HDL);
+		assertFalse(manager.isSubstituted("Not"));
+		assertEquals(hdlFile.getAbsolutePath(), manager.getHDLFileName("Not"));
+	}
+
+	@Test
+	void editedTestInvalidatesTheRecord() throws Exception {
+		File dir = createWorkingDir();
+		GatesManager manager = createManager(dir);
+
+		manager.recordVerifiedChip("Not", manager.getContentHash(new File(dir, "Not.hdl")),
+								   new File(dir, "Not.tst"), new File(dir, "Not.cmp"));
+		assertTrue(manager.isSubstituted("Not"));
+
+		write(new File(dir, "Not.cmp"), "|  in   |  out  |\n");
+		assertFalse(manager.isSubstituted("Not"));
+	}
+
+	@Test
+	void otherScriptsDontVerifyTheChip() throws Exception {
+		File dir = createWorkingDir();
+		GatesManager manager = createManager(dir);
+		String hash = manager.getContentHash(new File(dir, "Not.hdl"));
+		write(new File(dir, "Mine.tst"), "load Not.hdl, output-file Mine.out;\n");
+		write(new File(dir, "Mine.cmp"), "|  in   |  out  |\n");
+
+		assertFalse(manager.recordVerifiedChip("Not", hash, new File(dir, "Mine.tst"),
+											   new File(dir, "Mine.cmp")));
+		assertFalse(manager.recordVerifiedChip("Not", hash, new File(dir, "Not.tst"),
+											   new File(dir, "Mine.cmp")));
+		assertFalse(manager.isSubstituted("Not"));
+	}
+
+	// Returns a manager of the chips in the given dir, whose BuiltIn dir has a Not chip
+	// and which keeps its verified chips files in a dir of its own.
+	private static GatesManager createManager(File dir) throws IOException {
+		File builtInDir = Files.createTempDirectory("verified-chips-builtin").toFile();
+		write(new File(builtInDir, "Not.hdl"), "CHIP Not { IN in; OUT out; BUILTIN Not; }\n");
+
+		GatesManager manager = new GatesManager();
+		manager.setWorkingDir(dir);
+		manager.setBuiltInDir(builtInDir);
+		manager.setVerifiedChipsDir(Files.createTempDirectory("verified-chips").toFile());
+		manager.enableChipsGUI(false);
+		return manager;
+	}
+
+	// Returns a new dir with a Not chip and its test.
+	private static File createWorkingDir() throws IOException {
+		File dir = Files.createTempDirectory("verified-chips-work").toFile();
+		write(new File(dir, "Not.hdl"), NOT_HDL);
+		write(new File(dir, "Nand.hdl"), "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }\n");
+		write(new File(dir, "Not.tst"),
+			  "load Not.hdl, output-file Not.out, compare-to Not.cmp,\n" +
+			  "output-list in%B3.1.3 out%B3.1.3;\n" +
+			  "set in 0, eval, output;\nset in 1, eval, output;\n");
+		write(new File(dir, "Not.cmp"), "|  in   |  out  |\n|   0   |   1   |\n|   1   |   0   |\n");
+		return dir;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -21,6 +21,8 @@ import Hack.Controller.*;
 import Hack.ComputerParts.*;
 import Hack.Utilities.*;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import Hack.Gates.*;
 import Hack.Events.*;
 
@@ -37,7 +39,74 @@ import Hack.Events.*;
  *					  (the file name should not contain the path and the .HDL extension).
  * tick - Clock goes up (internal state of clocked gates changes).
  * tock - Clock goes down (outputs of clocked gates are modified).
+ * tickn <n> - performs n full clock cycles (tick & tock) in a single command.
+ * tickn <n> <pin> <value> - same as above, but stops before a cycle in which the given
+ *                           pin already has the given value.
+ * runcycles - same as tickn.
  * eval - propagate all the input values of the gate and re-compute all outputs of the gate.
+ * engine <nodes|netlist> - selects the simulation engine of the gates that are loaded from
+ *                          now on: a hierarchy of nodes & part gates (the default), or a flat,
+ *                          levelized netlist (faster, with the same pin values).
+ * engine nodes prune - same as engine nodes, and when no gui is used, the loaded gate is
+ *                      pruned to the cone of influence of the pins which are observed by
+ *                      the script (in the output list, conditions and breakpoints) and of
+ *                      its clocked parts: the parts which can't affect them are not
+ *                      evaluated. The cone is recomputed whenever the output list changes,
+ *                      and when the value of another pin is read.
+ * engine netlist optimize - same as above, and the netlist is optimized when it is loaded:
+ *                           constants are folded, pass-through connections are collapsed and
+ *                           parts which can't affect the pins of the gate are removed (their
+ *                           pins are no longer updated in the parts list).
+ * engine netlist [optimize] parallel - same as above, and the wide levels of the netlist
+ *                                      (at least Netlist.DEFAULT_PARALLEL_LEVEL_WIDTH dirty
+ *                                      operations) are evaluated on several threads
+ *                                      (when there is more than one processor). The
+ *                                      options may be given in any order.
+ * sweep - evaluates the gate on every combination of its input values and outputs a line
+ *         (according to the current output list) after each combination.
+ * sweep <input pin> - evaluates the gate on every value of the given input pin (the other
+ *                     inputs keep their values) and outputs a line after each value.
+ * sweep <input pin> <from> <to> - same as above, on the given range of values.
+ * sweep <vectors file> - evaluates the gate on each line of the given file, which contains the
+ *                        values of all the input pins (in their declaration order), and
+ *                        outputs a line after each one.
+ * When the netlist engine is used, the sweep evaluates 64 input vectors in each pass.
+ * trace on - starts recording all the pins of the current gate (input, output and internal)
+ *            after each tick, tock and eval, into a ring buffer of the last
+ *            SignalTracer.DEFAULT_CAPACITY samples.
+ * trace on <pin> <pin> ... - same as above, for the given pins only.
+ * trace off - stops recording (the recorded samples are kept until the next trace on).
+ *             The recording is also stopped by restart and restore, since they move the
+ *             time back.
+ * trace save <file> - writes the recorded samples to the given file in VCD format.
+ * checkpoint <file> - saves the complete state of the simulation to the given file: the
+ *                     values of all the pins in the parts hierarchy, the internal state of
+ *                     the clocked built-in chips (registers, memories), the clock phase and
+ *                     the time.
+ * restore <file> - restores the state which was saved by checkpoint, for the same chip
+ *                  and engine (the state of built-in chips other than the bundled ones
+ *                  isn't saved). A checkpoint of another chip or engine, or of a chip
+ *                  whose hdl files (or the hdl files of its parts) were modified since, is
+ *                  rejected, and the state of the simulation is left unchanged.
+ * accelerate on - from now on, the parts of the loaded chips which are in the working dir
+ *                and passed their tests (with the same hdl contents) are replaced by the
+ *                built-in chips of the same names. The loaded chip itself is not replaced,
+ *                and the replaced parts are reported when it is loaded.
+ *                A chip passes its test when its own script (<chip>.tst) loaded it and
+ *                ended, and its whole output matched its own comparison file (<chip>.cmp).
+ *                The content hashes of the three files are recorded in a file for the
+ *                working dir, in the .hack/verified dir of the user's home dir (see
+ *                GatesManager.recordVerifiedChip), and a chip is replaced only while all of
+ *                them are unchanged.
+ * accelerate off - stops replacing the chips which passed their tests.
+ * profile on - resets the profile counts and starts counting the evaluations of the parts
+ *              of the current gate and the value changes of their pins (not available
+ *              when the netlist engine is used).
+ * profile off - stops counting (the counts are kept).
+ * profile reset - sets the profile counts to 0.
+ * profile report - displays the hottest part and pin.
+ * profile save <file> - writes the profile report (counts by chip, and the
+ *                       PROFILE_REPORT_LIMIT hottest parts and pins) to the given file.
  */
 public class HardwareSimulator extends HackSimulator
  implements TextFileEventListener, GateErrorEventListener,
@@ -49,9 +118,53 @@ public class HardwareSimulator extends HackSimulator
     // Commands
     private static final String COMMAND_TICK = "tick";
     private static final String COMMAND_TOCK = "tock";
+    private static final String COMMAND_TICKN = "tickn";
+    private static final String COMMAND_RUNCYCLES = "runcycles";
     private static final String COMMAND_LOAD = "load";
     private static final String COMMAND_EVAL = "eval";
     private static final String COMMAND_SETVAR = "set";
+    private static final String COMMAND_ENGINE = "engine";
+    private static final String COMMAND_SWEEP = "sweep";
+    private static final String COMMAND_TRACE = "trace";
+    private static final String COMMAND_PROFILE = "profile";
+    private static final String COMMAND_ACCELERATE = "accelerate";
+    private static final String COMMAND_CHECKPOINT = "checkpoint";
+    private static final String COMMAND_RESTORE = "restore";
+
+    // The identification of the checkpoint files ("HSCP") and the version of their format
+    private static final int CHECKPOINT_MAGIC = 0x48534350;
+    private static final int CHECKPOINT_VERSION = 3;
+
+    // The maximal total width of the input pins for sweeping all the input combinations
+    private static final int MAX_SWEEP_WIDTH = 24;
+
+    // Engines
+    private static final String ENGINE_NODES = "nodes";
+    private static final String ENGINE_NETLIST = "netlist";
+    private static final String ENGINE_OPTIMIZE = "optimize";
+    private static final String ENGINE_PARALLEL = "parallel";
+    private static final String ENGINE_PRUNE = "prune";
+
+    // The options of the trace command
+    private static final String TRACE_ON = "on";
+    private static final String TRACE_OFF = "off";
+    private static final String TRACE_SAVE = "save";
+
+    // The options of the accelerate command
+    private static final String ACCELERATE_ON = "on";
+    private static final String ACCELERATE_OFF = "off";
+
+    // The options of the profile command
+    private static final String PROFILE_ON = "on";
+    private static final String PROFILE_OFF = "off";
+    private static final String PROFILE_RESET = "reset";
+    private static final String PROFILE_REPORT = "report";
+    private static final String PROFILE_SAVE = "save";
+
+    /**
+     * The amount of part instances and pins listed in a saved profile report.
+     */
+    public static final int PROFILE_REPORT_LIMIT = 50;
 
     private static final File INITIAL_BUILTIN_DIR = new File("builtInChips");
 
@@ -85,12 +198,54 @@ public class HardwareSimulator extends HackSimulator
     // The list of recognized variables.
     private String[] vars;
 
+    // True if composite gates are simulated by a flat netlist.
+    private boolean netlistEngine;
+
+    // true if the netlist engine optimizes the netlists
+    private boolean optimizeNetlist;
+
+    // true if the netlist engine evaluates the wide levels of the netlists in parallel
+    private boolean parallelNetlist;
+
+    // true if the nodes engine prunes the gates to the cone of their observed pins
+    private boolean pruneNodes;
+
+    // The names of the variables which are observed by the script (in the output list,
+    // conditions and breakpoints)
+    private HashSet observedVars;
+
+    // The names of the pins which were observed by other commands (read, traced or used
+    // as the stop pin of tickn). They are kept when the script's variables change.
+    private HashSet commandObservedVars;
+
+    // The recorder of the traced pins (null when not tracing), and the last one used
+    // (which holds the samples to save).
+    private SignalTracer tracer;
+    private SignalTracer lastTracer;
+
+    // The content hash of the hdl file of the current gate when it was loaded (null if it
+    // isn't a chip of the working dir)
+    private String gateFileHash;
+
+    // The content hash of the hdl files of the current gate's hierarchy when it was loaded
+    // (see GatesManager.getHierarchyHash), or an empty string if they couldn't be read
+    private String gateHierarchyHash;
+
+    // The profiler of the current gate (null if it was not profiled since it was loaded)
+    private GateProfiler profiler;
+
+    // The manager of this simulation (clock, gate classes cache, dirs and chips with gui)
+    private GatesManager gatesManager;
+
     /**
      * Constructs a new Hardware Simulator with no gui.
+     * The simulator has its own GatesManager, so several simulators can run concurrently
+     * in different threads.
      */
     public HardwareSimulator() {
+        gatesManager = new GatesManager();
         init();
-        GatesManager.getInstance().enableChipsGUI(false);
+        gatesManager.enableChipsGUI(false);
     }
 
     /**
@@ -98,10 +253,11 @@ public class HardwareSimulator extends HackSimulator
      */
     public HardwareSimulator(HardwareSimulatorGUI gui) {
         this.gui = gui;
+        gatesManager = GatesManager.getDefaultInstance();
         init();
 
         if (gui.getGatesPanel() != null)
-            GatesManager.getInstance().setGatesPanel(gui.getGatesPanel());
+            gatesManager.setGatesPanel(gui.getGatesPanel());
 
         inputPins = new Pins(GateClass.INPUT_PIN_TYPE, gui.getInputPins());
         outputPins = new Pins(GateClass.OUTPUT_PIN_TYPE, gui.getOutputPins());
@@ -132,11 +288,12 @@ public class HardwareSimulator extends HackSimulator
 
     // Initializes the hardware simulator
     private void init() {
-        Gate.CLOCK_NODE.set((short)1);
+        GatesManager.setInstance(gatesManager);
+        gatesManager.getClockNode().set((short)1);
         clockUp = false;
         time = 0;
-        GatesManager.getInstance().setErrorHandler(this);
-        GatesManager.getInstance().setBuiltInDir(INITIAL_BUILTIN_DIR);
+        gatesManager.setErrorHandler(this);
+        gatesManager.setBuiltInDir(INITIAL_BUILTIN_DIR);
 
         vars = new String[]{VAR_TIME};
     }
@@ -145,12 +302,20 @@ public class HardwareSimulator extends HackSimulator
         return "Hardware Simulator";
     }
 
+    /**
+     * Returns the GatesManager of this simulation.
+     */
+    public GatesManager getGatesManager() {
+        return gatesManager;
+    }
+
     /**
      * Returns the value of the given variable.
      * Throws VariableException if the variable is not legal.
      */
     public String getValue(String varName) throws VariableException {
         String result = null;
+        GatesManager.setInstance(gatesManager);
 
         if (gate == null)
             throw new VariableException("cannot get var's value since no gate is currently loaded", varName);
@@ -159,8 +324,10 @@ public class HardwareSimulator extends HackSimulator
             result = String.valueOf(time) + (clockUp ? "+" : " ");
         else {
             Node node = gate.getNode(varName);
-            if (node != null)
+            if (node != null) {
+                observe(varName);
                 result = String.valueOf(node.get());
+            }
             else {
                 String gateName = getVarChipName(varName);
                 if (gateName != null) {
@@ -188,12 +355,53 @@ public class HardwareSimulator extends HackSimulator
         return result;
     }
 
+    /**
+     * Sets the variables which are observed by the script. If the gate is pruned to the
+     * cone of its observed pins, the cone is recomputed.
+     */
+    public void setObservedVariables(String[] varNames) {
+        observedVars = new HashSet(Arrays.asList(varNames));
+
+        if (isPruned())
+            OutputCone.prune((CompositeGate)gate, getObservedVariables());
+    }
+
+    // Returns true if the current gate is pruned to the cone of its observed pins.
+    private boolean isPruned() {
+        return pruneNodes && gui == null && gate instanceof CompositeGate &&
+               !(gate instanceof NetlistGate);
+    }
+
+    // Returns the names of the variables which are observed by the script and by the
+    // other commands.
+    private String[] getObservedVariables() {
+        HashSet result = new HashSet();
+        if (observedVars != null)
+            result.addAll(observedVars);
+        if (commandObservedVars != null)
+            result.addAll(commandObservedVars);
+
+        return (String[])result.toArray(new String[result.size()]);
+    }
+
+    // Adds the given pin to the pins observed by the commands, if it isn't observed
+    // already. If the gate is pruned, its cone is recomputed so the value of the pin is
+    // up to date.
+    private void observe(String pinName) {
+        if (commandObservedVars == null)
+            commandObservedVars = new HashSet();
+
+        boolean observedByScript = (observedVars != null && observedVars.contains(pinName));
+        if (commandObservedVars.add(pinName) && !observedByScript && isPruned())
+            OutputCone.prune((CompositeGate)gate, getObservedVariables());
+    }
+
     // Returns the BuiltInGateWithGUI that matches the given chip name, or
     // null if doesn't exist.
     private BuiltInGateWithGUI getGUIChip(String chipName) {
         BuiltInGateWithGUI chip = null;
 
-        BuiltInGateWithGUI[] gates = GatesManager.getInstance().getChips();
+        BuiltInGateWithGUI[] gates = gatesManager.getChips();
         for (int i = 0; i < gates.length && chip == null; i++)
             if (gates[i].getGateClass().getName().equals(chipName))
                 chip = gates[i];
@@ -236,6 +444,8 @@ public class HardwareSimulator extends HackSimulator
      * Throws VariableException if the variable name or value are not legal.
      */
     public void setValue(String varName, String value) throws VariableException {
+        GatesManager.setInstance(gatesManager);
+
         if (gate == null)
             throw new VariableException("cannot get var's value since no gate is currently loaded", varName);
 
@@ -318,6 +528,8 @@ public class HardwareSimulator extends HackSimulator
         if (command.length == 0)
             throw new CommandException("Empty command", command);
 
+        GatesManager.setInstance(gatesManager);
+
         // execute the appropriate command
         if (command[0].equals(COMMAND_TICK)) {
             if (command.length != 1)
@@ -339,6 +551,44 @@ public class HardwareSimulator extends HackSimulator
 
             performTock();
         }
+        else if (command[0].equals(COMMAND_TICKN) || command[0].equals(COMMAND_RUNCYCLES)) {
+            if (command.length != 2 && command.length != 4)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (gate == null)
+                throw new CommandException("Illegal command since no gate is currently loaded", command);
+            else if (clockUp)
+                throw new CommandException("Illegal command since clock is already up", command);
+
+            int count;
+            try {
+                count = Integer.parseInt(command[1]);
+            } catch (NumberFormatException nfe) {
+                throw new CommandException("Illegal number of cycles: " + command[1], command);
+            }
+
+            if (count < 0)
+                throw new CommandException("Illegal number of cycles: " + command[1], command);
+
+            Node stopNode = null;
+            short stopValue = 0;
+            if (command.length == 4) {
+                stopNode = gate.getNode(command[2]);
+                if (stopNode == null)
+                    throw new VariableException("Unknown variable", command[2]);
+
+                observe(command[2]);
+
+                try {
+                    stopValue = Short.parseShort(Conversions.toDecimalForm(command[3]));
+                } catch (NumberFormatException nfe) {
+                    throw new VariableException("'" + command[3] +
+                                                "' is not a legal value for variable",
+                                                command[2]);
+                }
+            }
+
+            performTicks(count, stopNode, stopValue);
+        }
         else if (command[0].equals(COMMAND_EVAL)) {
             if (command.length != 1)
                 throw new CommandException("Illegal number of arguments to command", command);
@@ -370,11 +620,89 @@ public class HardwareSimulator extends HackSimulator
                 // use gate name without the .hdl extension
                 String gateName = command[1].substring(0, command[1].length() - 4);
                 loadGate(gateName, false);
-                notifyProgramListeners(ProgramEvent.LOAD, GatesManager.getInstance().getHDLFileName(gateName));
+                notifyProgramListeners(ProgramEvent.LOAD,
+                                       gatesManager.getUnsubstitutedHDLFileName(gateName));
             } catch (GateException ge) {
                 throw new CommandException(ge.getMessage(), command);
             }
         }
+        else if (command[0].equals(COMMAND_ENGINE)) {
+            if (command.length < 2 || command.length > 4)
+                throw new CommandException("Illegal number of arguments to command", command);
+
+            boolean optimize = false;
+            boolean parallel = false;
+            boolean prune = false;
+            for (int i = 2; i < command.length; i++) {
+                if (command[1].equals(ENGINE_NODES) && command[i].equals(ENGINE_PRUNE) && !prune)
+                    prune = true;
+                else if (!command[1].equals(ENGINE_NETLIST))
+                    throw new CommandException("Unknown engine option: " + command[i], command);
+                else if (command[i].equals(ENGINE_OPTIMIZE) && !optimize)
+                    optimize = true;
+                else if (command[i].equals(ENGINE_PARALLEL) && !parallel)
+                    parallel = true;
+                else
+                    throw new CommandException("Unknown engine option: " + command[i], command);
+            }
+
+            if (command[1].equals(ENGINE_NETLIST))
+                netlistEngine = true;
+            else if (command[1].equals(ENGINE_NODES))
+                netlistEngine = false;
+            else
+                throw new CommandException("Unknown engine: " + command[1], command);
+
+            optimizeNetlist = optimize;
+            parallelNetlist = parallel;
+            pruneNodes = prune;
+        }
+        else if (command[0].equals(COMMAND_SWEEP)) {
+            if (command.length != 1 && command.length != 2 && command.length != 4)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (gate == null)
+                throw new CommandException("Illegal command since no gate is currently loaded", command);
+
+            performSweep(command);
+        }
+        else if (command[0].equals(COMMAND_TRACE)) {
+            if (command.length < 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+
+            performTrace(command);
+        }
+        else if (command[0].equals(COMMAND_ACCELERATE)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (command[1].equals(ACCELERATE_ON))
+                gatesManager.setAccelerated(true);
+            else if (command[1].equals(ACCELERATE_OFF))
+                gatesManager.setAccelerated(false);
+            else
+                throw new CommandException("Unknown accelerate option: " + command[1], command);
+        }
+        else if (command[0].equals(COMMAND_CHECKPOINT)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (gate == null)
+                throw new CommandException("Illegal command since no gate is currently loaded", command);
+
+            performCheckpoint(command);
+        }
+        else if (command[0].equals(COMMAND_RESTORE)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (gate == null)
+                throw new CommandException("Illegal command since no gate is currently loaded", command);
+
+            performRestore(command);
+        }
+        else if (command[0].equals(COMMAND_PROFILE)) {
+            if (command.length < 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+
+            performProfile(command);
+        }
         else {
             boolean found = false;
 
@@ -398,7 +726,7 @@ public class HardwareSimulator extends HackSimulator
 
     public void setWorkingDir(File file) {
         super.setWorkingDir(file);
-        GatesManager.getInstance().setWorkingDir(file.getParentFile());
+        gatesManager.setWorkingDir(file.getParentFile());
     }
 
     // Hides all highlights in GUIs.
@@ -446,8 +774,11 @@ public class HardwareSimulator extends HackSimulator
             gate.eval();
 
         time = 0;
-        Gate.CLOCK_NODE.set((short)1);
+        gatesManager.getClockNode().set((short)1);
         clockUp = false;
+
+        // the time goes back, so the recording ends (its samples can still be saved)
+        tracer = null;
     }
 
     public String[] getVariables() {
@@ -518,21 +849,82 @@ public class HardwareSimulator extends HackSimulator
         if (gui != null)
             displayMessage("Loading chip...", false);
 
+        GatesManager.setInstance(gatesManager);
+        String substitutions = null;
+
         try {
-            // clears the gate cache, so all gates will be reloaded
-            GateClass.clearGateCache();
+            // the loaded chip itself is never replaced by its built-in implementation
+            String fileName = (containsPath ? gateName :
+                               gatesManager.getUnsubstitutedHDLFileName(gateName));
+            if (fileName != null && gatesManager.isAccelerated()) {
+                gateName = fileName;
+                containsPath = true;
+            }
 
-            // find gate class and create gate
-            gateClass = GateClass.getGateClass(gateName, containsPath);
+            // find gate class and create gate (only the hdl files which were
+            // modified since the last load, and the gates which use them, are re-read)
+            gateClass = GateClass.getGateClass(gatesManager, gateName, containsPath);
+
+            // keep the hash of the tested contents of a chip of the working dir
+            gateFileHash = null;
+            if (fileName != null && gateClass instanceof CompositeGateClass &&
+                new File(fileName).getParentFile().equals(
+                    gatesManager.getWorkingDir().getAbsoluteFile())) {
+                try {
+                    gateFileHash = gatesManager.getContentHash(new File(fileName));
+                } catch (IOException ioe) {
+                }
+            }
+
+            // identifies the loaded version of the chip in checkpoints
+            gateHierarchyHash = "";
+            if (fileName != null) {
+                try {
+                    gateHierarchyHash = gatesManager.getHierarchyHash(fileName, gateClass);
+                } catch (IOException ioe) {
+                }
+            }
 
-            GatesManager.getInstance().removeAllChips();
+            if (gatesManager.isAccelerated())
+                substitutions = getSubstitutions(gateClass);
+
+            gatesManager.removeAllChips();
             Gate oldGate = gate; // save old gate
-            gate = gateClass.newInstance(); // create new gate instance
+            // create new gate instance
+            if (netlistEngine && gateClass instanceof CompositeGateClass) {
+                gate = ((CompositeGateClass)gateClass).newNetlistInstance(gatesManager,
+                                                                          optimizeNetlist);
+                // with a single processor, the parallel evaluation only adds its overhead
+                if (parallelNetlist && Runtime.getRuntime().availableProcessors() > 1)
+                    ((NetlistGate)gate).getNetlist().setParallelism(
+                        ForkJoinPool.commonPool(), Netlist.DEFAULT_PARALLEL_LEVEL_WIDTH);
+            }
+            else
+                gate = gateClass.newInstance(gatesManager);
 
-            // register as dirty gate listener (and remove the old one)
+            // register as dirty gate listener, and detach the old gate from the clock
+            // and the listeners, so its instances don't pile up across reloads
             gate.addDirtyGateListener(this);
-            if (oldGate != null)
+            if (oldGate != null) {
                 oldGate.removeDirtyGateListener(this);
+                oldGate.dispose();
+            }
+
+            // the traced pins belong to the old gate
+            tracer = null;
+
+            // the profiled parts belong to the old gate
+            if (profiler != null)
+                profiler.setCounting(false);
+            profiler = null;
+            if (gatesManager.isProfiling() && !(gate instanceof NetlistGate)) {
+                profiler = new GateProfiler(gate);
+                profiler.reset();
+                profiler.setCounting(true);
+            }
+
+            if (isPruned())
+                OutputCone.prune((CompositeGate)gate, getObservedVariables());
 
             // assign gate's pins to the Pins computer parts
             if (gui != null) {
@@ -571,7 +963,7 @@ public class HardwareSimulator extends HackSimulator
                     if (containsPath)
                         gui.getHDLView().setContents(gateName);
                     else
-                        gui.getHDLView().setContents(GatesManager.getInstance().getHDLFileName(gateName));
+                        gui.getHDLView().setContents(gatesManager.getHDLFileName(gateName));
                 }
 
                 if (gateClass instanceof BuiltInGateClass)
@@ -590,6 +982,61 @@ public class HardwareSimulator extends HackSimulator
 
         if (gui != null)
             clearMessage();
+
+        if (substitutions != null)
+            displayMessage("Using the built-in " + substitutions +
+                           " instead of the tested chips", false);
+    }
+
+    /**
+     * Called when the given script ended and all its output lines matched the given
+     * comparison file. If the current gate is a chip of the working dir and the script is
+     * its own test (<chip>.tst and <chip>.cmp), records that its hdl contents passed it.
+     */
+    public void comparisonSucceeded(File scriptFile, File comparisonFile) {
+        if (gate != null && gateFileHash != null) {
+            try {
+                gatesManager.recordVerifiedChip(gate.getGateClass().getName(), gateFileHash,
+                                                scriptFile, comparisonFile);
+            } catch (IOException ioe) {
+                displayMessage("Can't record the test result of " +
+                               gate.getGateClass().getName(), true);
+            }
+        }
+    }
+
+    // Returns the names of the parts in the hierarchy of the given gate class which are
+    // built-in chips that replace chips of the working dir (separated by commas), or null
+    // if there are none.
+    private String getSubstitutions(GateClass gateClass) {
+        Vector names = new Vector();
+        collectSubstitutions(gateClass, names, new HashSet());
+        if (names.size() == 0)
+            return null;
+
+        StringBuffer result = new StringBuffer((String)names.elementAt(0));
+        for (int i = 1; i < names.size(); i++)
+            result.append(", ").append((String)names.elementAt(i));
+
+        return result.toString();
+    }
+
+    // Adds the names of the substituted parts in the hierarchy of the given gate class to
+    // the given names. visited holds the names of the gate classes which were scanned.
+    private void collectSubstitutions(GateClass gateClass, Vector names, HashSet visited) {
+        if (!(gateClass instanceof CompositeGateClass))
+            return;
+
+        CompositeGateClass composite = (CompositeGateClass)gateClass;
+        for (int i = 0; i < composite.getPartsCount(); i++) {
+            GateClass part = composite.getPartGateClass(i);
+            if (visited.add(part.getName())) {
+                if (part instanceof BuiltInGateClass && gatesManager.isSubstituted(part.getName()))
+                    names.addElement(part.getName());
+                else
+                    collectSubstitutions(part, names, visited);
+            }
+        }
     }
 
     /**
@@ -705,9 +1152,419 @@ public class HardwareSimulator extends HackSimulator
         }
     }
 
+    // Performs the trace command: starts or stops recording the pins, or saves the
+    // recorded samples.
+    private void performTrace(String[] command) throws CommandException {
+        if (command[1].equals(TRACE_ON)) {
+            if (gate == null)
+                throw new CommandException("Illegal command since no gate is currently loaded", command);
+
+            GateClass gateClass = gate.getGateClass();
+            Vector names = new Vector();
+            if (command.length == 2) {
+                for (int i = 0; i < gate.getInputNodes().length; i++)
+                    names.addElement(gateClass.getPinInfo(GateClass.INPUT_PIN_TYPE, i).name);
+                for (int i = 0; i < gate.getOutputNodes().length; i++)
+                    names.addElement(gateClass.getPinInfo(GateClass.OUTPUT_PIN_TYPE, i).name);
+                if (gate instanceof CompositeGate)
+                    for (int i = 0; i < ((CompositeGate)gate).getInternalNodes().length; i++)
+                        names.addElement(gateClass.getPinInfo(
+                            CompositeGateClass.INTERNAL_PIN_TYPE, i).name);
+            }
+            else
+                for (int i = 2; i < command.length; i++)
+                    names.addElement(command[i]);
+
+            String[] pinNames = new String[names.size()];
+            byte[] widths = new byte[pinNames.length];
+            Node[] nodes = new Node[pinNames.length];
+            for (int i = 0; i < pinNames.length; i++) {
+                pinNames[i] = (String)names.elementAt(i);
+                nodes[i] = gate.getNode(pinNames[i]);
+                if (nodes[i] == null)
+                    throw new CommandException("Unknown pin: " + pinNames[i], command);
+
+                observe(pinNames[i]);
+
+                byte type = gateClass.getPinType(pinNames[i]);
+                widths[i] = gateClass.getPinInfo(type, gateClass.getPinNumber(pinNames[i])).width;
+            }
+
+            tracer = new SignalTracer(gateClass.getName(), pinNames, widths, nodes,
+                                      SignalTracer.DEFAULT_CAPACITY);
+            lastTracer = tracer;
+            tracer.record(time * 2 + (clockUp ? 1 : 0));
+        }
+        else if (command[1].equals(TRACE_OFF)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+
+            tracer = null;
+        }
+        else if (command[1].equals(TRACE_SAVE)) {
+            if (command.length != 3)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (lastTracer == null)
+                throw new CommandException("No trace was recorded", command);
+
+            try {
+                lastTracer.writeVCD(new File(workingDir, command[2]));
+            } catch (IOException ioe) {
+                throw new CommandException("Error while writing the trace file " + command[2],
+                                           command);
+            }
+        }
+        else
+            throw new CommandException("Unknown trace option: " + command[1], command);
+    }
+
+    // Performs the checkpoint command: saves the state of the simulation to the given file.
+    // The header identifies the chip (by its name and the content hash of the hdl files of
+    // its hierarchy), the engine and the size of the gate's state, so a checkpoint which
+    // doesn't match the current gate is rejected before it is read.
+    private void performCheckpoint(String[] command) throws CommandException {
+        try {
+            byte[] state = getGateState();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(workingDir, command[1]))));
+            try {
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeInt(CHECKPOINT_VERSION);
+                out.writeUTF(gate.getGateClass().getName());
+                out.writeUTF(gateHierarchyHash);
+                out.writeUTF(getEngineName());
+                out.writeInt(state.length);
+                out.writeInt(time);
+                out.writeBoolean(clockUp);
+                out.writeShort(gatesManager.getClockNode().get());
+                out.write(state);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            throw new CommandException("Error while writing the checkpoint file " + command[1],
+                                       command);
+        }
+    }
+
+    // Performs the restore command: restores the state of the simulation from the given
+    // file, which was saved by the checkpoint command. If the file doesn't match the
+    // current gate, the state of the simulation is left unchanged.
+    private void performRestore(String[] command) throws CommandException {
+        GatesManager.setInstance(gatesManager);
+        File file = new File(workingDir, command[1]);
+
+        // the file is read at once, and the state is parsed from memory
+        byte[] contents = new byte[(int)file.length()];
+        try {
+            DataInputStream fileInput = new DataInputStream(new FileInputStream(file));
+            try {
+                fileInput.readFully(contents);
+            } finally {
+                fileInput.close();
+            }
+        } catch (IOException ioe) {
+            throw new CommandException("Error while reading the checkpoint file " + command[1],
+                                       command);
+        }
+
+        // the current state is kept, to be restored if the checkpoint can't be read
+        byte[] state;
+        try {
+            state = getGateState();
+        } catch (IOException ioe) {
+            throw new CommandException("Error while saving the current state", command);
+        }
+        short clockValue = gatesManager.getClockNode().get();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents));
+        try {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION)
+                throw new CommandException(command[1] + " is not a checkpoint file", command);
+            else if (!in.readUTF().equals(gate.getGateClass().getName()))
+                throw new CommandException(command[1] + " is a checkpoint of another chip",
+                                           command);
+            else if (!in.readUTF().equals(gateHierarchyHash))
+                throw new CommandException(command[1] + " is a checkpoint of another " +
+                                           "version of the chip's hdl files", command);
+            else if (!in.readUTF().equals(getEngineName()) || in.readInt() != state.length)
+                throw new CommandException("The checkpoint file " + command[1] +
+                                           " doesn't match the current chip or engine",
+                                           command);
+
+            int checkpointTime = in.readInt();
+            boolean checkpointClockUp = in.readBoolean();
+
+            // the clock is set before the gate, so the gate's state isn't changed by it
+            gatesManager.getClockNode().set(in.readShort());
+            gate.readState(in);
+            time = checkpointTime;
+            clockUp = checkpointClockUp;
+        } catch (IOException ioe) {
+            try {
+                gatesManager.getClockNode().set(clockValue);
+                gate.readState(new DataInputStream(new ByteArrayInputStream(state)));
+            } catch (IOException rollbackException) {
+            }
+
+            throw new CommandException("The checkpoint file " + command[1] +
+                                       " doesn't match the current chip or engine", command);
+        }
+
+        if (isPruned())
+            OutputCone.prune((CompositeGate)gate, getObservedVariables());
+
+        // the time may go back, so the recording ends (its samples can still be saved)
+        tracer = null;
+
+        if (gui != null) {
+            refresh();
+            updateTime();
+        }
+    }
+
+    // Returns the state of the current gate, as written by its writeState().
+    private byte[] getGateState() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        gate.writeState(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Returns the name of the engine which simulates the current gate.
+    private String getEngineName() {
+        return (gate instanceof NetlistGate ? ENGINE_NETLIST : ENGINE_NODES);
+    }
+
+    // Performs the profile command: starts or stops counting the evaluations of the parts
+    // and the value changes of their pins, or reports the counts.
+    private void performProfile(String[] command) throws CommandException {
+        if (command[1].equals(PROFILE_OFF)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+
+            gatesManager.setProfiling(false);
+            if (profiler != null)
+                profiler.setCounting(false);
+            return;
+        }
+
+        if (gate == null)
+            throw new CommandException("Illegal command since no gate is currently loaded", command);
+        else if (gate instanceof NetlistGate)
+            throw new CommandException("The parts of a gate are not profiled when the netlist " +
+                                       "engine is used", command);
+
+        if (command[1].equals(PROFILE_ON) || command[1].equals(PROFILE_RESET)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+
+            if (profiler == null)
+                profiler = new GateProfiler(gate);
+            profiler.reset();
+            if (command[1].equals(PROFILE_ON)) {
+                gatesManager.setProfiling(true);
+                profiler.setCounting(true);
+            }
+        }
+        else if (command[1].equals(PROFILE_REPORT)) {
+            if (command.length != 2)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (profiler == null)
+                throw new CommandException("No profile was recorded", command);
+
+            String part = profiler.getHottestPart();
+            String node = profiler.getHottestNode();
+            if (part == null && node == null)
+                displayMessage("No evaluations were counted", false);
+            else
+                displayMessage("Hottest part: " + part + ", hottest pin: " + node, false);
+        }
+        else if (command[1].equals(PROFILE_SAVE)) {
+            if (command.length != 3)
+                throw new CommandException("Illegal number of arguments to command", command);
+            else if (profiler == null)
+                throw new CommandException("No profile was recorded", command);
+
+            try {
+                profiler.writeReport(new File(workingDir, command[2]), PROFILE_REPORT_LIMIT);
+            } catch (IOException ioe) {
+                throw new CommandException("Error while writing the profile file " + command[2],
+                                           command);
+            }
+        }
+        else
+            throw new CommandException("Unknown profile option: " + command[1], command);
+    }
+
+    // Performs the sweep command: evaluates the gate on a sequence of input vectors and
+    // requests the controller to output a line after each vector.
+    private void performSweep(String[] command) throws CommandException, VariableException {
+        GateClass gateClass = gate.getGateClass();
+        Node[] inputNodes = gate.getInputNodes();
+        short[] currentValues = new short[inputNodes.length];
+        for (int i = 0; i < inputNodes.length; i++)
+            currentValues[i] = inputNodes[i].get();
+
+        short[][] fileVectors = null;
+        int[] pins = null;
+        long first = 0;
+        long count;
+
+        if (command.length == 2 && gateClass.getPinType(command[1]) != GateClass.INPUT_PIN_TYPE) {
+            fileVectors = readVectors(command, new File(workingDir, command[1]));
+            count = fileVectors.length;
+        }
+        else if (command.length == 1) {
+            pins = new int[inputNodes.length];
+            int width = 0;
+            for (int i = 0; i < pins.length; i++) {
+                pins[i] = i;
+                width += gateClass.getPinInfo(GateClass.INPUT_PIN_TYPE, i).width;
+            }
+
+            if (width > MAX_SWEEP_WIDTH)
+                throw new CommandException("The total width of the input pins (" + width +
+                                           ") is more than " + MAX_SWEEP_WIDTH, command);
+            count = 1L << width;
+        }
+        else {
+            if (gateClass.getPinType(command[1]) != GateClass.INPUT_PIN_TYPE)
+                throw new CommandException(command[1] + " is not an input pin", command);
+
+            pins = new int[]{gateClass.getPinNumber(command[1])};
+            long max = (1L << gateClass.getPinInfo(command[1]).width) - 1;
+            long last = max;
+            if (command.length == 4) {
+                try {
+                    first = Integer.parseInt(Conversions.toDecimalForm(command[2]));
+                    last = Integer.parseInt(Conversions.toDecimalForm(command[3]));
+                } catch (NumberFormatException nfe) {
+                    throw new CommandException("Illegal sweep range", command);
+                }
+
+                if (first < 0 || last > max || first > last)
+                    throw new CommandException("Illegal sweep range", command);
+            }
+
+            count = last - first + 1;
+        }
+
+        short[][] vectors = new short[Netlist.VECTORS_PER_PASS][];
+        for (long start = 0; start < count; start += Netlist.VECTORS_PER_PASS) {
+            int lanes = (int)Math.min(Netlist.VECTORS_PER_PASS, count - start);
+            for (int l = 0; l < lanes; l++) {
+                if (fileVectors != null)
+                    vectors[l] = fileVectors[(int)(start + l)];
+                else
+                    vectors[l] = getSweepVector(currentValues, pins, first + start + l);
+            }
+
+            sweepVectors(vectors, lanes);
+        }
+
+        gate.eval();
+    }
+
+    // Returns a copy of the given input values, in which the given pins are set with the
+    // given number (the last pin gets the least significant bits).
+    private short[] getSweepVector(short[] values, int[] pins, long number) {
+        short[] result = values.clone();
+        for (int i = pins.length - 1; i >= 0; i--) {
+            int width = gate.getGateClass().getPinInfo(GateClass.INPUT_PIN_TYPE, pins[i]).width;
+            result[pins[i]] = (short)(number & ((1L << width) - 1));
+            number >>>= width;
+        }
+
+        return result;
+    }
+
+    // Evaluates the gate on the first count input vectors and requests the controller to
+    // output a line after each one.
+    private void sweepVectors(short[][] vectors, int count) {
+        if (gate instanceof NetlistGate) {
+            Netlist netlist = ((NetlistGate)gate).getNetlist();
+            short[][] results = netlist.evalVectors(vectors, count);
+            for (int v = 0; v < count; v++) {
+                netlist.showVector(vectors[v], results[v]);
+                notifyListeners(ControllerEvent.OUTPUT, null);
+            }
+        }
+        else {
+            Node[] inputNodes = gate.getInputNodes();
+            for (int v = 0; v < count; v++) {
+                for (int i = 0; i < inputNodes.length; i++)
+                    inputNodes[i].set(vectors[v][i]);
+                gate.eval();
+                notifyListeners(ControllerEvent.OUTPUT, null);
+            }
+        }
+    }
+
+    // Reads the input vectors from the given file. Each line contains the values of
+    // all the input pins, separated by spaces. Empty lines and comments (//) are ignored.
+    private short[][] readVectors(String[] command, File file) throws CommandException {
+        Vector vectors = new Vector();
+        GateClass gateClass = gate.getGateClass();
+        int inputsCount = gate.getInputNodes().length;
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int commentIndex = line.indexOf("//");
+                if (commentIndex >= 0)
+                    line = line.substring(0, commentIndex);
+
+                StringTokenizer tokens = new StringTokenizer(line);
+                if (!tokens.hasMoreTokens())
+                    continue;
+
+                if (tokens.countTokens() != inputsCount)
+                    throw new CommandException(file.getName() + ", line " + lineNumber +
+                                               ": expected " + inputsCount + " values", command);
+
+                short[] vector = new short[inputsCount];
+                for (int i = 0; i < inputsCount; i++) {
+                    String value = tokens.nextToken();
+                    try {
+                        vector[i] = Short.parseShort(Conversions.toDecimalForm(value));
+                    } catch (NumberFormatException nfe) {
+                        throw new CommandException(file.getName() + ", line " + lineNumber +
+                                                   ": '" + value + "' is not a legal value",
+                                                   command);
+                    }
+
+                    String pinName = gateClass.getPinInfo(GateClass.INPUT_PIN_TYPE, i).name;
+                    if (!isLegalWidth(pinName, vector[i]))
+                        throw new CommandException(file.getName() + ", line " + lineNumber +
+                                                   ": " + value + " doesn't fit in the width of " +
+                                                   pinName, command);
+                }
+
+                vectors.addElement(vector);
+            }
+
+            reader.close();
+        } catch (IOException ioe) {
+            throw new CommandException("Could not read " + file.getName(), command);
+        }
+
+        short[][] result = new short[vectors.size()][];
+        vectors.toArray(result);
+        return result;
+    }
+
     // Performs eval on the current gate
     private void performEval() {
+        GatesManager.setInstance(gatesManager);
         gate.eval();
+
+        if (tracer != null)
+            tracer.record(time * 2 + (clockUp ? 1 : 0));
     }
 
     /**
@@ -734,10 +1591,14 @@ public class HardwareSimulator extends HackSimulator
 
     // Performs tick on the current gate
     private void performTick() {
-        Gate.CLOCK_NODE.set((short)0);
+        GatesManager.setInstance(gatesManager);
+        gatesManager.getClockNode().set((short)0);
         gate.tick();
         clockUp = true;
 
+        if (tracer != null)
+            tracer.record(time * 2 + 1);
+
         if (gui != null) {
             // hide gui highlights
             if (animationMode != HackController.NO_DISPLAY_CHANGES)
@@ -749,15 +1610,51 @@ public class HardwareSimulator extends HackSimulator
 
     // Performs tick on the current gate
     private void performTock() {
-        Gate.CLOCK_NODE.set((short)1);
+        GatesManager.setInstance(gatesManager);
+        gatesManager.getClockNode().set((short)1);
         gate.tock();
         clockUp = false;
         time++;
 
+        if (tracer != null)
+            tracer.record(time * 2);
+
         if (gui != null)
             updateTime();
     }
 
+    // Performs the given number of clock cycles (tick & tock) on the current gate, in a
+    // single loop without gui updates. If the given stop node isn't null, stops before a
+    // cycle in which the stop node has the given stop value.
+    private void performTicks(int count, Node stopNode, short stopValue) {
+        GatesManager.setInstance(gatesManager);
+        Node clockNode = gatesManager.getClockNode();
+
+        for (int i = 0; i < count; i++) {
+            if (stopNode != null && stopNode.get() == stopValue)
+                break;
+
+            clockNode.set((short)0);
+            gate.tick();
+            if (tracer != null)
+                tracer.record(time * 2 + 1);
+
+            clockNode.set((short)1);
+            gate.tock();
+            time++;
+            if (tracer != null)
+                tracer.record(time * 2);
+        }
+
+        if (gui != null) {
+            // hide gui highlights
+            if (animationMode != HackController.NO_DISPLAY_CHANGES)
+                hideHighlightes();
+
+            updateTime();
+        }
+    }
+
     /**
      * Updates the clock & time in the gui.
      */
@@ -44,7 +44,7 @@ public class HardwareSimulatorController extends HackController {
     protected void updateProgramFile(String programFileName) {
         super.updateProgramFile(programFileName);
         File file = (new File(programFileName)).getParentFile();
-        GatesManager.getInstance().setWorkingDir(file);
+        ((HardwareSimulator)simulator).getGatesManager().setWorkingDir(file);
     }
 
     /**
@@ -124,7 +124,7 @@ public class PartPins extends ValueComputerPart {
                 selfFittingWidth = true;
             }
             else if (cleanGatePinName.equals(CompositeGateClass.CLOCK_NODE_INFO.name)) {
-                node = Gate.CLOCK_NODE;
+                node = GatesManager.getInstance().getClockNode();
                 info.gatePinName = CompositeGateClass.CLOCK_NODE_INFO.name;
             }
             else {
@@ -0,0 +1,191 @@
+/********************************************************************************
+ * The contents of this file are subject to the GNU General Public License      *
+ * (GPL) Version 2 or later (the "License"); you may not use this file except   *
+ * in compliance with the License. You may obtain a copy of the License at      *
+ * http://www.gnu.org/copyleft/gpl.html                                         *
+ *                                                                              *
+ * Software distributed under the License is distributed on an "AS IS" basis,   *
+ * without warranty of any kind, either expressed or implied. See the License   *
+ * for the specific language governing rights and limitations under the         *
+ * License.                                                                     *
+ *                                                                              *
+ * This file was originally developed as part of the software suite that        *
+ * supports the book "The Elements of Computing Systems" by Nisan and Schocken, *
+ * MIT Press 2005. If you modify the contents of this file, please document and *
+ * mark your changes clearly, for the benefit of others.                        *
+ ********************************************************************************/
+package Hack.HardwareSimulator;
+
+import java.io.*;
+import Hack.Gates.*;
+
+/**
+ * Records the values of a set of pins into a preallocated ring buffer, and exports the
+ * recorded samples as a VCD (Value Change Dump) file, which can be viewed by external
+ * waveform tools. Each sample holds the time (in half clock cycles: 2 * time after a tock,
+ * 2 * time + 1 after a tick) and the values of all the pins. When the buffer is full, the
+ * oldest samples are overwritten.
+ */
+public class SignalTracer {
+
+    /**
+     * The default number of samples in the ring buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    // The first and last characters of the VCD identifier codes
+    private static final char FIRST_CODE_CHAR = '!';
+    private static final char LAST_CODE_CHAR = '~';
+
+    // The name of the traced chip
+    private String chipName;
+
+    // The names, widths and nodes of the traced pins
+    private String[] names;
+    private byte[] widths;
+    private Node[] nodes;
+
+    // The sample values: the values of sample s are at [s * nodes.length] onwards.
+    private short[] values;
+
+    // The time of each sample, in half clock cycles
+    private int[] times;
+
+    // The number of samples that the buffer can hold
+    private int capacity;
+
+    // The number of recorded samples (up to the capacity), and the next sample to write.
+    private int count;
+    private int next;
+
+    /**
+     * Constructs a new SignalTracer of the given chip, which records the given pins
+     * (with the given names and widths) into a buffer of the given amount of samples.
+     */
+    public SignalTracer(String chipName, String[] names, byte[] widths, Node[] nodes,
+                        int capacity) {
+        this.chipName = chipName;
+        this.names = names;
+        this.widths = widths;
+        this.nodes = nodes;
+        this.capacity = capacity;
+        values = new short[capacity * nodes.length];
+        times = new int[capacity];
+    }
+
+    /**
+     * Records the current values of the pins, at the given time (in half clock cycles).
+     */
+    public void record(int time) {
+        int base = next * nodes.length;
+        for (int i = 0; i < nodes.length; i++)
+            values[base + i] = nodes[i].get();
+
+        times[next] = time;
+        if (++next == capacity)
+            next = 0;
+        if (count < capacity)
+            count++;
+    }
+
+    /**
+     * Returns the number of recorded samples (which are still in the buffer).
+     */
+    public int getSamplesCount() {
+        return count;
+    }
+
+    /**
+     * Discards all the recorded samples.
+     */
+    public void clear() {
+        count = 0;
+        next = 0;
+    }
+
+    /**
+     * Writes the recorded samples to the given file in VCD format. Only the changed pins
+     * are written for each sample, and samples of the same time are merged.
+     */
+    public void writeVCD(File file) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writeVCD(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the recorded samples to the given writer in VCD format.
+     */
+    public void writeVCD(Writer writer) throws IOException {
+        String[] codes = new String[nodes.length];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = getCode(i);
+
+        writer.write("$version Hack Hardware Simulator $end\n");
+        writer.write("$timescale 1ns $end\n");
+        writer.write("$scope module " + chipName + " $end\n");
+        for (int i = 0; i < nodes.length; i++)
+            writer.write("$var wire " + widths[i] + " " + codes[i] + " " + names[i] +
+                         (widths[i] > 1 ? " [" + (widths[i] - 1) + ":0]" : "") + " $end\n");
+        writer.write("$upscope $end\n");
+        writer.write("$enddefinitions $end\n");
+
+        short[] last = new short[nodes.length];
+        int lastTime = -1;
+        int first = (count < capacity ? 0 : next);
+
+        for (int s = 0; s < count; s++) {
+            int sample = (first + s) % capacity;
+            int base = sample * nodes.length;
+
+            if (s == 0) {
+                writer.write("#" + times[sample] + "\n$dumpvars\n");
+                lastTime = times[sample];
+            }
+
+            for (int i = 0; i < nodes.length; i++) {
+                short value = values[base + i];
+                if (s == 0 || value != last[i]) {
+                    // the time is written before the first change in it
+                    if (times[sample] != lastTime) {
+                        writer.write("#" + times[sample] + "\n");
+                        lastTime = times[sample];
+                    }
+
+                    writeValue(writer, value, widths[i], codes[i]);
+                    last[i] = value;
+                }
+            }
+
+            if (s == 0)
+                writer.write("$end\n");
+        }
+    }
+
+    // Writes a value change of the given value with the given width and identifier code.
+    private static void writeValue(Writer writer, short value, int width, String code)
+     throws IOException {
+        if (width == 1)
+            writer.write((value & 1) + code + "\n");
+        else {
+            int mask = (width >= 16 ? 0xffff : (1 << width) - 1);
+            writer.write("b" + Integer.toBinaryString(value & mask) + " " + code + "\n");
+        }
+    }
+
+    // Returns the VCD identifier code of the given pin: a number in base 94, written with
+    // the printable characters.
+    private static String getCode(int pin) {
+        int base = LAST_CODE_CHAR - FIRST_CODE_CHAR + 1;
+        StringBuffer result = new StringBuffer();
+        do {
+            result.append((char)(FIRST_CODE_CHAR + pin % base));
+            pin = pin / base;
+        } while (pin > 0);
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,277 @@
+package Hack.HardwareSimulator;
+
+import Hack.Controller.CommandException;
+import Hack.Controller.ControllerEvent;
+import Hack.Controller.HackController;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HardwareSimulatorTest {
+	private static final int CYCLES = 20000;
+
+	private static final String[] CHIPS = {
+		"Nand.hdl", "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }",
+		"DFF.hdl", "CHIP DFF { IN in; OUT out; BUILTIN DFF; CLOCKED in; }",
+		"Not.hdl", "CHIP Not { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }",
+		"And.hdl",
+		"CHIP And { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=x); Not(in=x, out=out); }",
+		"Toggle.hdl",
+		"CHIP Toggle { IN in; OUT out, inverted; PARTS: Not(in=q, out=nq); " +
+		"And(a=in, b=nq, out=d); DFF(in=d, out=q, out=out); Not(in=q, out=inverted); }"
+	};
+
+	@Test
+	void engineOptionsMayBeGivenInAnyOrder() throws Exception {
+		String[][] engines = {
+			{"engine", "netlist", "optimize", "parallel"},
+			{"engine", "netlist", "parallel", "optimize"},
+			{"engine", "netlist", "parallel"},
+			{"engine", "nodes", "prune"}
+		};
+
+		for (int i = 0; i < engines.length; i++) {
+			HardwareSimulator simulator = createSimulator();
+			simulator.doCommand(engines[i]);
+			run(simulator, "load Toggle.hdl", "set in 1", "tick", "tock");
+			assertEquals("1", simulator.getValue("out"), String.join(" ", engines[i]));
+		}
+
+		HardwareSimulator simulator = createSimulator();
+		String[][] illegal = {
+			{"engine", "netlist", "parallel", "parallel"},
+			{"engine", "netlist", "optimize", "optimize"},
+			{"engine", "nodes", "optimize"}
+		};
+		for (int i = 0; i < illegal.length; i++) {
+			String[] command = illegal[i];
+			assertThrows(CommandException.class, () -> simulator.doCommand(command));
+		}
+	}
+
+	@Test
+	void pinObservedOnlyByALaterBreakpointIsUpToDateInThePrunedGate() throws Exception {
+		String[] script = {
+			"load Toggle.hdl, output-file Toggle.out, output-list out%B1.1.1;",
+			"set in 1, eval, output;",
+			"tick, tock, output;",
+			"breakpoint inverted 1;",
+			"tick, tock, output;",
+			"tick, tock, output;"
+		};
+
+		// the script stops at the breakpoint, when inverted goes back to 1
+		for (int prune = 0; prune < 2; prune++) {
+			HardwareSimulator simulator = createSimulator();
+			List lines = runScript(simulator, prune == 1, script);
+			assertEquals("[|out|, | 0 |, | 1 |, | 0 |]", lines.toString(), "prune " + prune);
+			assertEquals("2 ", simulator.getValue("time"));
+			assertEquals("1", simulator.getValue("inverted"));
+		}
+	}
+
+	@Test
+	void pinObservedOnlyByAConditionIsUpToDateInThePrunedGate() throws Exception {
+		String[] script = {
+			"load Toggle.hdl, output-file Toggle.out, output-list out%B1.1.1;",
+			"set in 1, eval, output;",
+			"while inverted <> 0 { tick, tock, output; }",
+			"set in 0, tick, tock, output;",
+			"set in 1;",
+			"while inverted = 1 { tick, tock, output; }"
+		};
+
+		for (int prune = 0; prune < 2; prune++) {
+			HardwareSimulator simulator = createSimulator();
+			List lines = runScript(simulator, prune == 1, script);
+			assertEquals("[|out|, | 0 |, | 1 |, | 0 |, | 1 |]", lines.toString(),
+						 "prune " + prune);
+		}
+	}
+
+	@Test
+	void profileReportsAndSavesTheCountsOfTheParts() throws Exception {
+		HardwareSimulator simulator = createSimulator();
+		List messages = new ArrayList();
+		simulator.addListener(event -> {
+			if (event.getAction() == ControllerEvent.DISPLAY_MESSAGE)
+				messages.add(event.getData());
+		});
+
+		// two counted cycles: d is set by the tick of the first one, and by each tock
+		run(simulator, "load Toggle.hdl", "profile on", "set in 1", "tick", "tock", "tick",
+			"tock", "profile off", "tick", "tock", "profile report", "profile save Toggle.prof");
+		assertEquals("[Hottest part: Toggle (4 evaluations), hottest pin: Toggle.d (3 toggles)]",
+					 messages.toString());
+
+		File dir = simulator.getGatesManager().getWorkingDir();
+		List lines = Files.readAllLines(new File(dir, "Toggle.prof").toPath());
+		assertEquals(55, lines.size());
+		assertEquals("Profile of Toggle: 10 part instances, 30 nodes", lines.get(0));
+		assertEquals("     evaluations        toggles  instances  chip", lines.get(3));
+		assertEquals("              10             27          4  Nand", lines.get(4));
+		assertEquals("               7             14          3  Not", lines.get(5));
+		assertEquals("               4             12          1  Toggle", lines.get(6));
+		assertEquals("               4              5          1  DFF", lines.get(7));
+		assertEquals("               3              9          1  And", lines.get(8));
+		assertEquals("               4  Toggle/DFF[2]", lines.get(13));
+		assertEquals("               3  Toggle/And[1]/Not[1]/Nand[0]", lines.get(17));
+		assertEquals("               3  Toggle.d", lines.get(25));
+		assertEquals("               2  Toggle.inverted", lines.get(36));
+		assertEquals("               1  Toggle.in", lines.get(52));
+	}
+
+	@Test
+	void restoredCheckpointRepeatsTheSameCycles() throws Exception {
+		String[] engines = {"nodes", "netlist"};
+		for (int i = 0; i < engines.length; i++) {
+			HardwareSimulator simulator = createSimulator();
+			run(simulator, "engine " + engines[i], "load Toggle.hdl", "set in 1", "tick", "tock",
+				"tick", "checkpoint Toggle.chk");
+			String expected = runCycles(simulator);
+
+			run(simulator, "restore Toggle.chk");
+			assertEquals("1+", simulator.getValue("time"), engines[i]);
+			assertEquals(expected, runCycles(simulator), engines[i]);
+		}
+	}
+
+	@Test
+	void checkpointOfAModifiedPartIsRejected() throws Exception {
+		HardwareSimulator simulator = createSimulator();
+		run(simulator, "load Toggle.hdl", "set in 1", "tick", "tock", "checkpoint Toggle.chk",
+			"tick", "tock");
+
+		// the state of the chip is the same, but its part Not was edited
+		File dir = simulator.getGatesManager().getWorkingDir();
+		write(new File(dir, "Not.hdl"),
+			  "// edited\nCHIP Not { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }\n");
+		run(simulator, "load Toggle.hdl", "set in 1", "tick", "tock", "tick", "tock");
+
+		CommandException exception = assertThrows(CommandException.class,
+			() -> run(simulator, "restore Toggle.chk"));
+		assertTrue(exception.getMessage().contains("another version"), exception.getMessage());
+		assertEquals("2 ", simulator.getValue("time"));
+	}
+
+	@Test
+	void simulatorsOnTwoThreadsDontAffectEachOther() throws Exception {
+		// the second working dir has another Toggle chip, which follows its input
+		HardwareSimulator[] simulators = {createSimulator(), createSimulator()};
+		write(new File(simulators[1].getGatesManager().getWorkingDir(), "Toggle.hdl"),
+			  "CHIP Toggle { IN in; OUT out, inverted; PARTS: DFF(in=in, out=q, out=out); " +
+			  "Not(in=q, out=inverted); }\n");
+
+		String[] expected = new String[simulators.length];
+		for (int i = 0; i < simulators.length; i++)
+			expected[i] = runToggle(simulators[i]);
+		assertFalse(expected[0].equals(expected[1]));
+
+		String[] results = new String[simulators.length];
+		Exception[] errors = new Exception[simulators.length];
+		Thread[] threads = new Thread[simulators.length];
+		for (int i = 0; i < threads.length; i++) {
+			int index = i;
+			threads[i] = new Thread(() -> {
+				try {
+					results[index] = runToggle(simulators[index]);
+				} catch (Exception e) {
+					errors[index] = e;
+				}
+			});
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].start();
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		for (int i = 0; i < simulators.length; i++) {
+			assertNull(errors[i]);
+			assertEquals(expected[i], results[i], "simulator " + i);
+		}
+	}
+
+	// Loads the Toggle chip into the given simulator, runs clock cycles with changing
+	// inputs, and returns its outputs after each cycle.
+	private static String runToggle(HardwareSimulator simulator) throws Exception {
+		StringBuffer result = new StringBuffer();
+		run(simulator, "load Toggle.hdl");
+		for (int i = 0; i < CYCLES; i++) {
+			run(simulator, "set in " + (i % 3 == 0 ? 0 : 1), "tick", "tock");
+			result.append(simulator.getValue("out")).append(simulator.getValue("inverted"));
+		}
+
+		return result.toString();
+	}
+
+	// Completes the clock cycle of the given simulator (whose clock is up) and runs more
+	// cycles, changing its input, and returns the outputs after each tick and tock.
+	private static String runCycles(HardwareSimulator simulator) throws Exception {
+		StringBuffer result = new StringBuffer();
+		run(simulator, "tock");
+		result.append(simulator.getValue("out")).append(simulator.getValue("inverted"))
+			  .append(' ');
+		for (int i = 0; i < 8; i++) {
+			run(simulator, "set in " + (i % 3 == 0 ? 0 : 1), "tick");
+			result.append(simulator.getValue("out")).append(simulator.getValue("inverted"));
+			run(simulator, "tock");
+			result.append(simulator.getValue("out")).append(simulator.getValue("inverted"))
+				  .append(' ');
+		}
+
+		return result.toString();
+	}
+
+	// Runs the given script on the given simulator, by the nodes engine which is pruned to
+	// the observed pins if prune is true, and returns the lines of its output file.
+	private static List runScript(HardwareSimulator simulator, boolean prune, String... script)
+			throws Exception {
+		File dir = simulator.getGatesManager().getWorkingDir();
+		simulator.doCommand(prune ? new String[] {"engine", "nodes", "prune"}
+								  : new String[] {"engine", "nodes"});
+		write(new File(dir, "Toggle.tst"), String.join("\n", script) + "\n");
+		new HackController(simulator, new File(dir, "Toggle.tst").getPath());
+		return Files.readAllLines(new File(dir, "Toggle.out").toPath());
+	}
+
+	// Returns a simulator without gui, whose working dir contains the chips of the test,
+	// and which doesn't write compiled files.
+	private static HardwareSimulator createSimulator() throws IOException {
+		File dir = Files.createTempDirectory("hardware-simulator").toFile();
+		for (int i = 0; i < CHIPS.length; i += 2)
+			write(new File(dir, CHIPS[i]), CHIPS[i + 1] + "\n");
+
+		HardwareSimulator simulator = new HardwareSimulator();
+		simulator.setWorkingDir(new File(dir, "Test.tst"));
+		simulator.getGatesManager().setCompiledDir(null);
+		simulator.getGatesManager().setVerifiedChipsDir(null);
+		return simulator;
+	}
+
+	// Performs the given commands on the given simulator.
+	private static void run(HardwareSimulator simulator, String... commands) throws Exception {
+		for (int i = 0; i < commands.length; i++)
+			simulator.doCommand(commands[i].split(" "));
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
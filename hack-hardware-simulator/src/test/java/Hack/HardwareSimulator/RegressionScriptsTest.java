@@ -0,0 +1,167 @@
+package Hack.HardwareSimulator;
+
+import Hack.Controller.HackController;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RegressionScriptsTest {
+	private static final String[] CHIPS = {
+		"Nand.hdl", "CHIP Nand { IN a, b; OUT out; BUILTIN Nand; }",
+		"DFF.hdl", "CHIP DFF { IN in; OUT out; BUILTIN DFF; CLOCKED in; }",
+		"Not.hdl", "CHIP Not { IN in; OUT out; PARTS: Nand(a=in, b=in, out=out); }",
+		"And.hdl",
+		"CHIP And { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=x); Not(in=x, out=out); }",
+		"Or.hdl",
+		"CHIP Or { IN a, b; OUT out; PARTS: Not(in=a, out=na); Not(in=b, out=nb); " +
+		"Nand(a=na, b=nb, out=out); }",
+		"Xor.hdl",
+		"CHIP Xor { IN a, b; OUT out; PARTS: Nand(a=a, b=b, out=n); Nand(a=a, b=n, out=x); " +
+		"Nand(a=n, b=b, out=y); Nand(a=x, b=y, out=out); }",
+		"Mux.hdl",
+		"CHIP Mux { IN a, b, sel; OUT out; PARTS: Not(in=sel, out=ns); And(a=a, b=ns, out=x); " +
+		"And(a=b, b=sel, out=y); Or(a=x, b=y, out=out); }",
+		"Mux4.hdl",
+		"CHIP Mux4 { IN a[4], b[4], sel; OUT out[4]; PARTS: " +
+		"Mux(a=a[0], b=b[0], sel=sel, out=out[0]); Mux(a=a[1], b=b[1], sel=sel, out=out[1]); " +
+		"Mux(a=a[2], b=b[2], sel=sel, out=out[2]); Mux(a=a[3], b=b[3], sel=sel, out=out[3]); }",
+		"FullAdder.hdl",
+		"CHIP FullAdder { IN a, b, c; OUT sum, carry; PARTS: Xor(a=a, b=b, out=s); " +
+		"Xor(a=s, b=c, out=sum); And(a=a, b=b, out=c1); And(a=s, b=c, out=c2); " +
+		"Or(a=c1, b=c2, out=carry); }",
+		"Add4.hdl",
+		"CHIP Add4 { IN a[4], b[4]; OUT out[4], carry; PARTS: " +
+		"FullAdder(a=a[0], b=b[0], c=false, sum=out[0], carry=c0); " +
+		"FullAdder(a=a[1], b=b[1], c=c0, sum=out[1], carry=c1); " +
+		"FullAdder(a=a[2], b=b[2], c=c1, sum=out[2], carry=c2); " +
+		"FullAdder(a=a[3], b=b[3], c=c2, sum=out[3], carry=carry); }",
+		"Bit.hdl",
+		"CHIP Bit { IN in, load; OUT out; PARTS: Mux(a=q, b=in, sel=load, out=d); " +
+		"DFF(in=d, out=q, out=out); }",
+		"Register4.hdl",
+		"CHIP Register4 { IN in[4], load; OUT out[4]; PARTS: " +
+		"Bit(in=in[0], load=load, out=out[0]); Bit(in=in[1], load=load, out=out[1]); " +
+		"Bit(in=in[2], load=load, out=out[2]); Bit(in=in[3], load=load, out=out[3]); }",
+		"PC4.hdl",
+		"CHIP PC4 { IN in[4], load, inc, reset; OUT out[4]; PARTS: " +
+		"Add4(a=current, b[0]=true, out=next); Mux4(a=current, b=next, sel=inc, out=x); " +
+		"Mux4(a=x, b=in, sel=load, out=y); Mux4(a=y, b=false, sel=reset, out=z); " +
+		"Register4(in=z, load=true, out=out, out=current); }"
+	};
+
+	// The names of the scripts, each followed by the script and by its comparison file,
+	// which follows the specification of the chip
+	private static final String[] SCRIPTS = {
+		"Xor",
+		"load Xor.hdl, output-file Xor.out, compare-to Xor.cmp,\n" +
+		"output-list a%B3.1.3 b%B3.1.3 out%B3.1.3;\n" +
+		"set a 0, set b 0, eval, output;\nset a 0, set b 1, eval, output;\n" +
+		"set a 1, set b 0, eval, output;\nset a 1, set b 1, eval, output;\n",
+		"|   a   |   b   |  out  |\n" +
+		"|   0   |   0   |   0   |\n" +
+		"|   0   |   1   |   1   |\n" +
+		"|   1   |   0   |   1   |\n" +
+		"|   1   |   1   |   0   |\n",
+
+		"Add4",
+		"load Add4.hdl, output-file Add4.out, compare-to Add4.cmp,\n" +
+		"output-list a%D1.3.1 b%D1.3.1 out%D1.3.1 carry%B3.1.3;\n" +
+		"set a 0, set b 0, eval, output;\nset a 3, set b 5, eval, output;\n" +
+		"set a 7, set b 9, eval, output;\nset a 15, set b 1, eval, output;\n" +
+		"set a 15, set b 15, eval, output;\nset a 10, set b 4, eval, output;\n",
+		"|  a  |  b  | out | carry |\n" +
+		"|   0 |   0 |   0 |   0   |\n" +
+		"|   3 |   5 |   8 |   0   |\n" +
+		"|   7 |   9 |   0 |   1   |\n" +
+		"|  15 |   1 |   0 |   1   |\n" +
+		"|  15 |  15 |  14 |   1   |\n" +
+		"|  10 |   4 |  14 |   0   |\n",
+
+		"PC4",
+		"load PC4.hdl, output-file PC4.out, compare-to PC4.cmp,\n" +
+		"output-list time%S1.4.1 in%D1.3.1 load%B2.1.2 inc%B2.1.2 reset%B2.1.2 " +
+		"out%D1.3.1;\n" +
+		"set in 0, set load 0, set inc 0, set reset 0, tick, output, tock, output;\n" +
+		"set inc 1, tick, output, tock, output;\n" +
+		"repeat 3 { tick, tock, output; }\n" +
+		"set in 13, set load 1, tick, output, tock, output;\n" +
+		"set load 0, repeat 4 { tick, tock, output; }\n" +
+		"set inc 0, tick, tock, output;\n" +
+		"set reset 1, set load 1, tick, tock, output;\n" +
+		"set reset 0, set inc 1, tick, tock, output;\n",
+		"| time | in  |load | inc |reset| out |\n" +
+		"| 0+   |   0 |  0  |  0  |  0  |   0 |\n" +
+		"| 1    |   0 |  0  |  0  |  0  |   0 |\n" +
+		"| 1+   |   0 |  0  |  1  |  0  |   0 |\n" +
+		"| 2    |   0 |  0  |  1  |  0  |   1 |\n" +
+		"| 3    |   0 |  0  |  1  |  0  |   2 |\n" +
+		"| 4    |   0 |  0  |  1  |  0  |   3 |\n" +
+		"| 5    |   0 |  0  |  1  |  0  |   4 |\n" +
+		"| 5+   |  13 |  1  |  1  |  0  |   4 |\n" +
+		"| 6    |  13 |  1  |  1  |  0  |  13 |\n" +
+		"| 7    |  13 |  0  |  1  |  0  |  14 |\n" +
+		"| 8    |  13 |  0  |  1  |  0  |  15 |\n" +
+		"| 9    |  13 |  0  |  1  |  0  |   0 |\n" +
+		"| 10   |  13 |  0  |  1  |  0  |   1 |\n" +
+		"| 11   |  13 |  0  |  0  |  0  |   1 |\n" +
+		"| 12   |  13 |  1  |  0  |  1  |   0 |\n" +
+		"| 13   |  13 |  1  |  1  |  0  |  13 |\n"
+	};
+
+	// The engines which run each script
+	private static final String[][] ENGINES = {
+		{"engine", "nodes"},
+		{"engine", "nodes", "prune"},
+		{"engine", "netlist"},
+		{"engine", "netlist", "optimize"},
+		{"engine", "netlist", "parallel"}
+	};
+
+	@Test
+	void scriptsMatchTheirComparisonFilesOnEveryEngine() throws Exception {
+		for (int i = 0; i < SCRIPTS.length; i += 3) {
+			for (int j = 0; j < ENGINES.length; j++) {
+				File dir = createWorkingDir();
+				String name = SCRIPTS[i];
+				write(new File(dir, name + ".tst"), SCRIPTS[i + 1]);
+				write(new File(dir, name + ".cmp"), SCRIPTS[i + 2]);
+
+				HardwareSimulator simulator = new HardwareSimulator();
+				simulator.setWorkingDir(new File(dir, name + ".tst"));
+				simulator.getGatesManager().setCompiledDir(null);
+				simulator.getGatesManager().setVerifiedChipsDir(null);
+				simulator.doCommand(ENGINES[j]);
+				new HackController(simulator, new File(dir, name + ".tst").getPath());
+
+				String output =
+					new String(Files.readAllBytes(new File(dir, name + ".out").toPath()));
+				assertEquals(SCRIPTS[i + 2], output,
+							 name + " (" + String.join(" ", ENGINES[j]) + ")");
+			}
+		}
+	}
+
+	// Returns a new dir which contains the chips of the test.
+	private static File createWorkingDir() throws IOException {
+		File dir = Files.createTempDirectory("regression-scripts").toFile();
+		for (int i = 0; i < CHIPS.length; i += 2)
+			write(new File(dir, CHIPS[i]), CHIPS[i + 1] + "\n");
+
+		return dir;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -35,9 +35,16 @@ public class ScreenComponent extends JPanel implements ScreenGUI, ActionListener
     // The screen memory array
     private short[] data;
 
+    // The number of words in a row of the screen
+    private static final int WORDS_PER_ROW = Definitions.SCREEN_WIDTH / Definitions.BITS_PER_WORD;
+
     // redraw flag
     private boolean redraw = true;
 
+    // The range of words which were changed since the last repaint (empty if
+    // dirtyStart > dirtyEnd)
+    private int dirtyStart = Integer.MAX_VALUE, dirtyEnd = -1;
+
     // screen location at a given index
     private int[] x, y;
 
@@ -84,9 +91,12 @@ public class ScreenComponent extends JPanel implements ScreenGUI, ActionListener
      * Updates the screen at the given index with the given value
      * (Assumes legal index)
      */
-    public void setValueAt(int index, short value) {
+    public synchronized void setValueAt(int index, short value) {
         data[index] = value;
-        redraw = true;
+        if (index < dirtyStart)
+            dirtyStart = index;
+        if (index > dirtyEnd)
+            dirtyEnd = index;
     }
 
     /**
@@ -112,10 +122,7 @@ public class ScreenComponent extends JPanel implements ScreenGUI, ActionListener
      * Refreshes this component.
      */
     public void refresh() {
-        if (redraw) {
-            repaint();
-            redraw = false;
-        }
+        repaintChanges();
     }
 
     /**
@@ -136,10 +143,25 @@ public class ScreenComponent extends JPanel implements ScreenGUI, ActionListener
      * Called at constant intervals
      */
     public void actionPerformed(ActionEvent e) {
+        repaintChanges();
+    }
+
+    // Repaints the whole screen if its contents were replaced, or only the rows of the words
+    // which were changed since the last repaint.
+    private synchronized void repaintChanges() {
         if (redraw) {
             repaint();
             redraw = false;
         }
+        else if (dirtyStart <= dirtyEnd) {
+            int startRow = dirtyStart / WORDS_PER_ROW;
+            int endRow = dirtyEnd / WORDS_PER_ROW;
+            repaint(x[0], y[startRow * WORDS_PER_ROW], Definitions.SCREEN_WIDTH,
+                    endRow - startRow + 1);
+        }
+
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = -1;
     }
 
     /**
@@ -149,7 +171,15 @@ public class ScreenComponent extends JPanel implements ScreenGUI, ActionListener
 
         super.paintComponent(g);
 
-        for (int i = 0; i < Definitions.SCREEN_SIZE; i++) {
+        // paint only the rows in the clip
+        int startRow = 0, endRow = Definitions.SCREEN_HEIGHT - 1;
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            startRow = Math.max(startRow, clip.y - y[0]);
+            endRow = Math.min(endRow, clip.y + clip.height - 1 - y[0]);
+        }
+
+        for (int i = startRow * WORDS_PER_ROW; i < (endRow + 1) * WORDS_PER_ROW; i++) {
             if (data[i] != 0) {
                 if (data[i] == 0xffff) // draw a full line
                     g.drawLine(x[i], y[i], x[i] + 15, y[i]);
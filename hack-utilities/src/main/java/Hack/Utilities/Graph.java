@@ -20,131 +20,215 @@ package Hack.Utilities;
 import java.util.*;
 
 /**
- * A directed graph that holds Objects as its nodes, and supports the following operations:
- * - Checks if a path exists between to nodes.
- * - Checks if there is a circle in the graph.
- * - Creates a topological sort of the graph starting from a certain node.
+ * A directed graph whose nodes are the numbers 0..(nodes count - 1), and supports the
+ * following operations:
+ * - Checks if a path exists between two nodes.
+ * - Creates a topological sort of the graph, and checks if there is a circle in the graph.
+ * - Finds for each node the given source nodes from which there is a path to it.
+ * The edges are kept in arrays of ints and all the traversals are iterative, so large
+ * graphs are handled in linear time without deep recursion.
  */
 public class Graph {
 
-    // The graph
-    private HashMap graph;
+    // The number of nodes
+    private int nodesCount;
+
+    // The edges, in the order they were added
+    private int[] edgeSources;
+    private int[] edgeTargets;
+    private int edgesCount;
+
+    // The targets of the edges of each node: targets[targetStarts[n]..targetStarts[n+1]-1].
+    // Created when needed (null after an edge is added).
+    private int[] targetStarts;
+    private int[] targets;
 
     // true if the graph has a circle
     private boolean hasCircle;
 
     /**
-     * Constructs a new empty Graph.
+     * Constructs a new Graph with the given number of nodes and no edges.
      */
-    public Graph() {
-        graph = new HashMap();
+    public Graph(int nodesCount) {
+        this.nodesCount = nodesCount;
+        edgeSources = new int[16];
+        edgeTargets = new int[16];
     }
 
     /**
-     * Adds an edge between the source and target objects.
-     * If the source or target objects don't exist yet in the graph, they will be added
-     * automatically.
-     * If the edge aleardy exists, nothing will happen.
+     * Adds an edge between the given source and target nodes.
+     * If the edge already exists, nothing will happen.
      */
-    public void addEdge(Object source, Object target) {
-        checkExistence(source);
-        checkExistence(target);
+    public void addEdge(int source, int target) {
+        if (source < 0 || source >= nodesCount || target < 0 || target >= nodesCount)
+            throw new IllegalArgumentException("Illegal node number");
+
+        if (edgesCount == edgeSources.length) {
+            edgeSources = grow(edgeSources);
+            edgeTargets = grow(edgeTargets);
+        }
 
-        Set edgeSet = (Set)graph.get(source);
-        edgeSet.add(target);
+        edgeSources[edgesCount] = source;
+        edgeTargets[edgesCount] = target;
+        edgesCount++;
+        targets = null;
     }
 
-    // Checks whether the given object exists in the graph. If not, creates it.
-    private void checkExistence(Object object) {
-        if (!graph.keySet().contains(object)) {
-            HashSet edgeSet = new HashSet();
-            graph.put(object, edgeSet);
+    // Returns a copy of the given array with double length.
+    private static int[] grow(int[] array) {
+        int[] result = new int[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    // Creates the targets arrays, without duplicate edges.
+    private void createTargets() {
+        if (targets != null)
+            return;
+
+        targetStarts = new int[nodesCount + 1];
+        for (int i = 0; i < edgesCount; i++)
+            targetStarts[edgeSources[i] + 1]++;
+        for (int n = 0; n < nodesCount; n++)
+            targetStarts[n + 1] += targetStarts[n];
+
+        int[] allTargets = new int[edgesCount];
+        int[] fill = new int[nodesCount];
+        for (int i = 0; i < edgesCount; i++) {
+            int source = edgeSources[i];
+            allTargets[targetStarts[source] + fill[source]++] = edgeTargets[i];
         }
+
+        // remove duplicates: the last node whose edge was added to each target
+        int[] lastSource = new int[nodesCount];
+        Arrays.fill(lastSource, -1);
+        int count = 0;
+        int start = 0;
+        for (int n = 0; n < nodesCount; n++) {
+            int end = targetStarts[n + 1];
+            targetStarts[n] = count;
+            for (int i = start; i < end; i++) {
+                int target = allTargets[i];
+                if (lastSource[target] != n) {
+                    lastSource[target] = n;
+                    allTargets[count++] = target;
+                }
+            }
+            start = end;
+        }
+        targetStarts[nodesCount] = count;
+
+        targets = new int[count];
+        System.arraycopy(allTargets, 0, targets, 0, count);
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    public int getNodesCount() {
+        return nodesCount;
     }
 
     /**
-     * Returns true if the graph is empty.
+     * Returns true if the graph has no edges.
      */
     public boolean isEmpty() {
-        return graph.keySet().isEmpty();
+        return edgesCount == 0;
     }
 
     /**
      * Returns true if there is a path from the given source node to the given
      * destination node.
      */
-    public boolean pathExists(Object source, Object destination) {
-        Set marked = new HashSet();
-        return doPathExists(source, destination, marked);
-    }
-
-    // Finds recursively using the DFS algorithm if there is a path from the
-    // source to destination.
-    private boolean doPathExists(Object source, Object destination, Set marked) {
-        boolean pathFound = false;
-        marked.add(source);
-        Set edgeSet = (Set)graph.get(source);
-        if (edgeSet != null) {
-            Iterator edgeIter = edgeSet.iterator();
-            while (edgeIter.hasNext() && !pathFound) {
-                Object currentNode = edgeIter.next();
-                pathFound = currentNode.equals(destination);
-                if (!pathFound && !marked.contains(currentNode))
-                    pathFound = doPathExists(currentNode, destination, marked);
+    public boolean pathExists(int source, int destination) {
+        createTargets();
+
+        boolean[] marked = new boolean[nodesCount];
+        int[] stack = new int[nodesCount];
+        int top = 0;
+        stack[top++] = source;
+        marked[source] = true;
+
+        while (top > 0) {
+            int node = stack[--top];
+            for (int i = targetStarts[node]; i < targetStarts[node + 1]; i++) {
+                int target = targets[i];
+                if (target == destination)
+                    return true;
+
+                if (!marked[target]) {
+                    marked[target] = true;
+                    stack[top++] = target;
+                }
             }
         }
 
-        return pathFound;
+        return false;
     }
 
     /**
-     * Returns the objects (nodes) of this graph sorted in a topological order,
-     * starting from the given object.
-     * Sets the 'containsCircle' property if a circle is detected in the graph.
+     * Returns all the nodes of this graph sorted in a topological order (Kahn's algorithm).
+     * Sets the 'hasCircle' property if a circle is detected in the graph, in which case
+     * only the nodes which are not on a circle or reachable from one are returned.
      */
-    public Object[] topologicalSort(Object start) {
-        hasCircle = false;
-        Set marked = new HashSet();
-        Set processed = new HashSet();
-        Vector nodes = new Vector();
-        doTopologicalSort(start, nodes, marked, processed);
-
-        // reverse the order received from the DFS algorithm
-        Object[] result = new Object[nodes.size()];
-        for (int i = 0; i < result.length; i++)
-            result[i] = nodes.elementAt(result.length - i - 1);
+    public int[] topologicalSort() {
+        createTargets();
+
+        int[] inDegree = new int[nodesCount];
+        for (int i = 0; i < targets.length; i++)
+            inDegree[targets[i]]++;
+
+        int[] queue = new int[nodesCount];
+        int head = 0, tail = 0;
+        for (int n = 0; n < nodesCount; n++)
+            if (inDegree[n] == 0)
+                queue[tail++] = n;
+
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = targetStarts[node]; i < targetStarts[node + 1]; i++)
+                if (--inDegree[targets[i]] == 0)
+                    queue[tail++] = targets[i];
+        }
 
-        return result;
-    }
+        hasCircle = (tail < nodesCount);
 
-    // Runs the topological sort on the given node. This will run recursively
-    // on all edges from the given node to non marked nodes. In the end, the
-    // given node will be added to the given nodes vector.
-    private void doTopologicalSort(Object node, Vector nodes, Set marked, Set processed) {
-        marked.add(node);
-        processed.add(node);
-        Set edgeSet = (Set)graph.get(node);
-        if (edgeSet != null) {
-            Iterator edgeIter = edgeSet.iterator();
-            while (edgeIter.hasNext()) {
-                Object currentNode = edgeIter.next();
-
-                // check circle
-                if (processed.contains(currentNode))
-                    hasCircle = true;
-
-                if (!marked.contains(currentNode))
-                    doTopologicalSort(currentNode, nodes, marked, processed);
-            }
-        }
-        processed.remove(node);
-        nodes.addElement(node);
+        int[] result = new int[tail];
+        System.arraycopy(queue, 0, result, 0, tail);
+        return result;
     }
 
     /**
-     * Returns true if the graph has a circle.
+     * Returns true if a circle was detected by the last topological sort.
      */
     public boolean hasCircle() {
         return hasCircle;
     }
+
+    /**
+     * Returns for each node the set of the given source nodes from which there is a path to
+     * it: bit i of the result of node n is set if there is a path from sources[i] to n
+     * (a source is reachable from itself). The graph should have no circles.
+     * All the nodes are computed in one pass over the edges, in topological order.
+     */
+    public BitSet[] findReachingSources(int[] sources) {
+        int[] order = topologicalSort();
+
+        BitSet[] result = new BitSet[nodesCount];
+        for (int n = 0; n < nodesCount; n++)
+            result[n] = new BitSet(sources.length);
+        for (int i = 0; i < sources.length; i++)
+            result[sources[i]].set(i);
+
+        for (int i = 0; i < order.length; i++) {
+            int node = order[i];
+            if (result[node].isEmpty())
+                continue;
+
+            for (int j = targetStarts[node]; j < targetStarts[node + 1]; j++)
+                result[targets[j]].or(result[node]);
+        }
+
+        return result;
+    }
 }
@@ -0,0 +1,77 @@
+package Hack.Utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GraphTest {
+	@Test
+	void topologicalSortOrdersAllNodes() {
+		Graph graph = new Graph(4);
+		graph.addEdge(2, 0);
+		graph.addEdge(0, 1);
+		graph.addEdge(2, 1);
+		graph.addEdge(2, 1);
+
+		int[] order = graph.topologicalSort();
+
+		assertFalse(graph.hasCircle());
+		assertEquals(4, order.length);
+		int[] position = new int[4];
+		for (int i = 0; i < order.length; i++)
+			position[order[i]] = i;
+		assertTrue(position[2] < position[0]);
+		assertTrue(position[0] < position[1]);
+	}
+
+	@Test
+	void topologicalSortDetectsCircle() {
+		Graph graph = new Graph(3);
+		graph.addEdge(0, 1);
+		graph.addEdge(1, 2);
+		graph.addEdge(2, 1);
+
+		graph.topologicalSort();
+
+		assertTrue(graph.hasCircle());
+	}
+
+	@Test
+	void deepChainIsStackSafe() {
+		int count = 200000;
+		Graph graph = new Graph(count);
+		for (int i = 1; i < count; i++)
+			graph.addEdge(i - 1, i);
+
+		assertTrue(graph.pathExists(0, count - 1));
+		assertFalse(graph.pathExists(count - 1, 0));
+		assertEquals(count, graph.topologicalSort().length);
+	}
+
+	@Test
+	void findReachingSources() {
+		// 0 -> 2 -> 3, 1 -> 3, 4 is not connected
+		Graph graph = new Graph(5);
+		graph.addEdge(0, 2);
+		graph.addEdge(2, 3);
+		graph.addEdge(1, 3);
+
+		BitSet[] reaching = graph.findReachingSources(new int[]{0, 1});
+
+		assertEquals(bits(0), reaching[0]);
+		assertEquals(bits(0), reaching[2]);
+		assertEquals(bits(0, 1), reaching[3]);
+		assertTrue(reaching[4].isEmpty());
+	}
+
+	private static BitSet bits(int... indices) {
+		BitSet result = new BitSet();
+		for (int index : indices)
+			result.set(index);
+		return result;
+	}
+}
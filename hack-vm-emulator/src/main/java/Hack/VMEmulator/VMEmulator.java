@@ -139,11 +139,12 @@ public class VMEmulator extends HackSimulator
         tempSegment.setStartAddress(Definitions.TEMP_START_ADDRESS);
         tempSegment.setEnabledRange(5, 12, true);
 
-        segments[Definitions.SP_ADDRESS] = new MemorySegment[]{stackSegment, workingStackSegment};
-        segments[Definitions.LOCAL_POINTER_ADDRESS] = new MemorySegment[]{localSegment};
-        segments[Definitions.ARG_POINTER_ADDRESS] = new MemorySegment[]{argSegment};
-        segments[Definitions.THIS_POINTER_ADDRESS] = new MemorySegment[]{thisSegment};
-        segments[Definitions.THAT_POINTER_ADDRESS] = new MemorySegment[]{thatSegment};
+        ram.setSegments(Definitions.SP_ADDRESS,
+                        new MemorySegment[]{stackSegment, workingStackSegment});
+        ram.setSegments(Definitions.LOCAL_POINTER_ADDRESS, new MemorySegment[]{localSegment});
+        ram.setSegments(Definitions.ARG_POINTER_ADDRESS, new MemorySegment[]{argSegment});
+        ram.setSegments(Definitions.THIS_POINTER_ADDRESS, new MemorySegment[]{thisSegment});
+        ram.setSegments(Definitions.THAT_POINTER_ADDRESS, new MemorySegment[]{thatSegment});
 
         keyboard = new Keyboard(ram, null);
         keyboard.reset();
@@ -250,11 +251,12 @@ public class VMEmulator extends HackSimulator
         tempSegment.setEnabledRange(5, 12, true);
         tempSegment.addErrorListener(this);
 
-        segments[Definitions.SP_ADDRESS] = new MemorySegment[]{stackSegment, workingStackSegment};
-        segments[Definitions.LOCAL_POINTER_ADDRESS] = new MemorySegment[]{localSegment};
-        segments[Definitions.ARG_POINTER_ADDRESS] = new MemorySegment[]{argSegment};
-        segments[Definitions.THIS_POINTER_ADDRESS] = new MemorySegment[]{thisSegment};
-        segments[Definitions.THAT_POINTER_ADDRESS] = new MemorySegment[]{thatSegment};
+        ram.setSegments(Definitions.SP_ADDRESS,
+                        new MemorySegment[]{stackSegment, workingStackSegment});
+        ram.setSegments(Definitions.LOCAL_POINTER_ADDRESS, new MemorySegment[]{localSegment});
+        ram.setSegments(Definitions.ARG_POINTER_ADDRESS, new MemorySegment[]{argSegment});
+        ram.setSegments(Definitions.THIS_POINTER_ADDRESS, new MemorySegment[]{thisSegment});
+        ram.setSegments(Definitions.THAT_POINTER_ADDRESS, new MemorySegment[]{thatSegment});
 
         keyboard = new Keyboard(ram, gui.getKeyboard());
         keyboard.reset();